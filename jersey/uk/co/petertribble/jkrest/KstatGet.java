@@ -21,7 +21,10 @@
 package uk.co.petertribble.jkrest;
 
 import javax.ws.rs.*;
-import uk.co.petertribble.jkstat.api.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import uk.co.petertribble.jkstat.server.KstatSampleCache;
 
 /**
  * This handles requests of the form get/module/instance/name, where
@@ -31,23 +34,32 @@ import uk.co.petertribble.jkstat.api.*;
 
 public class KstatGet {
 
-    static final JKstat JKSTAT = new NativeJKstat();
+    static final KstatSampleCache JKSTAT = KstatSampleCache.getShared();
 
     /**
-     * Get a kstat.
+     * Get a kstat. The response carries an entity tag, and if the client
+     * already holds the current version it's told so, without a body.
      *
+     * @param request the request, for evaluating its preconditions
      * @param module the desired module
      * @param instance the desired instance, as a String
      * @param name the desired name
      *
      * @return a JSON formatted kstat
+     *
+     * @throws NotFoundException if the kstat doesn't exist
      */
     @GET
     @Produces("application/json")
-    public String getKstat(@PathParam("module") final String module,
-			   @PathParam("instance") final String instance,
-			   @PathParam("name") final String name) {
-	Kstat ks = JKSTAT.getKstat(module, Integer.parseInt(instance), name);
-	return ks.toJSON();
+    public Response getKstat(@Context final Request request,
+			     @PathParam("module") final String module,
+			     @PathParam("instance") final String instance,
+			     @PathParam("name") final String name) {
+	KstatSampleCache.Sample sample = JKSTAT.getSample(module,
+					Integer.parseInt(instance), name);
+	if (sample.getKstat() == null) {
+	    throw new NotFoundException();
+	}
+	return SampleResponse.build(request, sample);
     }
 }
@@ -21,7 +21,7 @@
 package uk.co.petertribble.jkrest;
 
 import javax.ws.rs.*;
-import uk.co.petertribble.jkstat.api.*;
+import uk.co.petertribble.jkstat.server.KstatSampleCache;
 
 /**
  * This handles requests of the form getkcid, with no arguments.
@@ -30,7 +30,7 @@ import uk.co.petertribble.jkstat.api.*;
 
 public class KstatGetkcid {
 
-    static final JKstat JKSTAT = new NativeJKstat();
+    static final KstatSampleCache JKSTAT = KstatSampleCache.getShared();
 
     /**
      * Get the current kstat chain id.
@@ -21,7 +21,10 @@
 package uk.co.petertribble.jkrest;
 
 import javax.ws.rs.*;
-import uk.co.petertribble.jkstat.api.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import uk.co.petertribble.jkstat.server.KstatSampleCache;
 
 /**
  * This handles requests of the form list, with no arguments.
@@ -30,17 +33,19 @@ import uk.co.petertribble.jkstat.api.*;
 
 public class KstatList {
 
-    static final JKstat JKSTAT = new NativeJKstat();
+    static final KstatSampleCache JKSTAT = KstatSampleCache.getShared();
 
     /**
      * Get the list of current kstats. Just returns metadata, without any data.
+     * The response carries an entity tag that changes with the kstat chain.
+     *
+     * @param request the request, for evaluating its preconditions
      *
      * @return a JSON formatted list of kstats
      */
     @GET
     @Produces("application/json")
-    public String getKstat() {
-	KstatSet kss = new KstatSet(JKSTAT);
-	return kss.toJSON();
+    public Response getKstat(@Context final Request request) {
+	return SampleResponse.build(request, JKSTAT.getList());
     }
 }
@@ -21,7 +21,10 @@
 package uk.co.petertribble.jkrest;
 
 import javax.ws.rs.*;
-import uk.co.petertribble.jkstat.api.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import uk.co.petertribble.jkstat.server.KstatSampleCache;
 
 /**
  * This handles requests of the form mget/module/instance/specifier.
@@ -30,13 +33,16 @@ import uk.co.petertribble.jkstat.api.*;
 
 public class KstatMget {
 
-    static final JKstat JKSTAT = new NativeJKstat();
+    static final KstatSampleCache JKSTAT = KstatSampleCache.getShared();
 
     /**
      * Get all the kstats matching the supplied pattern. You can use "*"
      * to match all, or a semicolon-separated list for multiple values.
+     * The response carries an entity tag that changes whenever any of the
+     * matching kstats is updated.
      *
-     * @param module the desired module
+     * @param request the request, for evaluating its preconditions
+     * @param module the desired module, or a semicolon-separated list
      * @param instance the desired instance, as a String
      * @param name the desired name
      *
@@ -44,39 +50,11 @@ public class KstatMget {
      */
     @GET
     @Produces("application/json")
-    public String getKstats(@PathParam("module") final String module,
-			   @PathParam("instance") final String instance,
-			   @PathParam("namespecifier") final String name) {
-	StringBuilder sb = new StringBuilder();
-	sb.append('{');
-	boolean first = true;
-	for (String iname : name.split(";")) {
-	    KstatFilter ksf = new KstatFilter(JKSTAT);
-	    if ("*".equals(instance)) {
-		ksf.addFilter(module + "::" + iname);
-	    } else {
-		ksf.addFilter(module + ":" + instance + ":" + iname);
-	    }
-	    // split separate lists
-	    if (first) {
-		first = false;
-	    } else {
-		sb.append(',');
-	    }
-	    sb.append('\"').append(iname).append("\":[");
-	    boolean kfirst = true;
-	    for (Kstat ks : ksf.getKstats()) {
-		if (kfirst) {
-		    kfirst = false;
-		} else {
-		    sb.append(',');
-		}
-		Kstat ks2 = JKSTAT.getKstat(ks);
-		sb.append(ks2.toJSON());
-	    }
-	    sb.append(']');
-	}
-	sb.append('}');
-	return sb.toString();
+    public Response getKstats(@Context final Request request,
+			      @PathParam("module") final String module,
+			      @PathParam("instance") final String instance,
+			      @PathParam("namespecifier") final String name) {
+	return SampleResponse.build(request,
+				    JKSTAT.getMget(module, instance, name));
     }
 }
@@ -0,0 +1,66 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkrest;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import uk.co.petertribble.jkstat.server.KstatSampleCache;
+
+/**
+ * Builds conditional responses from cached samples. Each response carries
+ * the entity tag of the sample, and if the request's If-None-Match header
+ * matches it, the response is a 304 Not Modified without a body. The
+ * body is written straight to the response, so that large responses are
+ * never built in memory, and is compressed by the encoding filter
+ * configured in web.xml if the client accepts it.
+ *
+ * <p>The encoding filter compresses the body after the tag has been set,
+ * so the same tag goes out with the plain and the compressed forms. The
+ * tag is therefore weak, promising only that the two are equivalent, not
+ * that they are identical byte for byte.
+ */
+final class SampleResponse {
+
+    private SampleResponse() {
+    }
+
+    /**
+     * Build the response to a request for the given sample.
+     *
+     * @param request the request being answered
+     * @param sample the sample to be returned
+     *
+     * @return a response holding the sample, or saying that the client's
+     * copy is still current
+     */
+    static Response build(final Request request,
+			  final KstatSampleCache.Sample sample) {
+	EntityTag etag = new EntityTag(sample.getETag(), true);
+	Response.ResponseBuilder rb = request.evaluatePreconditions(etag);
+	if (rb == null) {
+	    rb = Response.ok((StreamingOutput) sample::writeJSON);
+	}
+	return rb.tag(etag).build();
+    }
+}
@@ -27,6 +27,35 @@ package uk.co.petertribble.jkstat.api;
  */
 public final class ChartableIOKstat extends ChartableKstat {
 
+    /*
+     * The statistics we read, and the rates we calculate from them, with
+     * their indices.
+     */
+    private static final String[] STATISTICS = {"reads", "writes", "nread",
+		"nwritten", "rtime", "wtime", "rlentime", "wlentime"};
+    private static final int READS = 0;
+    private static final int WRITES = 1;
+    private static final int NREAD = 2;
+    private static final int NWRITTEN = 3;
+    private static final int RTIME = 4;
+    private static final int WTIME = 5;
+    private static final int RLENTIME = 6;
+    private static final int WLENTIME = 7;
+
+    private static final String[] RATES = {"r/s", "w/s", "kr/s", "kw/s",
+		"wait", "actv", "svc_t", "wsvc_t", "asvc_t", "%w", "%b"};
+    private static final int RPS = 0;
+    private static final int WPS = 1;
+    private static final int KRPS = 2;
+    private static final int KWPS = 3;
+    private static final int WAIT = 4;
+    private static final int ACTV = 5;
+    private static final int SVCT = 6;
+    private static final int WSVCT = 7;
+    private static final int ASVCT = 8;
+    private static final int PCTW = 9;
+    private static final int PCTB = 10;
+
     /**
      * Create a ChartableIOKstat using the given Kstat as the data source.
      *
@@ -34,85 +63,66 @@ public final class ChartableIOKstat extends ChartableKstat {
      * @param ks the {@code Kstat} supplying the data
      */
     public ChartableIOKstat(final JKstat jkstat, final Kstat ks) {
-	super(jkstat, ks, false);
+	this(jkstat, ks, true);
+    }
+
+    /**
+     * Create a ChartableIOKstat using the given Kstat as the data source,
+     * optionally starting from data that has already been read, for
+     * example as part of a bulk read of many kstats.
+     *
+     * @param jkstat a {@code JKstat}
+     * @param ks the {@code Kstat} supplying the data
+     * @param read true if the kstat should be read now, false if the given
+     * {@code Kstat} already holds current data
+     */
+    public ChartableIOKstat(final JKstat jkstat, final Kstat ks,
+			    final boolean read) {
+	super(jkstat, ks, STATISTICS, RATES, read);
     }
 
     @Override
-    public boolean update() {
-	ks = jkstat.getKstat(ks);
-	if (ks == null) {
+    public boolean update(final Kstat nks) {
+	if (nks == null) {
 	    return false;
 	}
-        double dt = ks.getSnaptime() - lastsnap;
-	lastsnap = ks.getSnaptime();
-
-	// get the new values
-	long nr = ks.longData("reads");
-	long nw = ks.longData("writes");
-	long nkr = ks.longData("nread");
-	long nkw = ks.longData("nwritten");
-	long nrtime = ks.longData("rtime");
-	long nwtime = ks.longData("wtime");
-	long nrlentime = ks.longData("rlentime");
-	long nwlentime = ks.longData("wlentime");
-
-	// get the old values
-	long r = getValue("reads");
-	long w = getValue("writes");
-	long kr = getValue("nread");
-	long kw = getValue("nwritten");
+	ks = nks;
+	engine.update(ks);
+	double dt = engine.getInterval();
+	if (dt <= 0) {
+	    return true;
+	}
+
+	long r = engine.getDelta(READS);
+	long w = engine.getDelta(WRITES);
 
 	// operations per second
-	rateMap.put("r/s", (double) (nr - r) * 1000000000.0 / dt);
-	rateMap.put("w/s", (double) (nw - w) * 1000000000.0 / dt);
+	rates[RPS] = r * 1000000000.0 / dt;
+	rates[WPS] = w * 1000000000.0 / dt;
 
 	// data transferred per second
-	rateMap.put("kr/s", (double) (nkr - kr) * 1000000000.0 / (dt * 1024.0));
-	rateMap.put("kw/s", (double) (nkw - kw) * 1000000000.0 / (dt * 1024.0));
+	rates[KRPS] = engine.getDelta(NREAD) * 1000000000.0 / (dt * 1024.0);
+	rates[KWPS] = engine.getDelta(NWRITTEN) * 1000000000.0 / (dt * 1024.0);
 
 	// wait (wait queue length)
-	double di = (nwlentime - getValue("wlentime")) / dt;
-	rateMap.put("wait", di);
+	double di = engine.getDelta(WLENTIME) / dt;
+	rates[WAIT] = di;
 
 	// actv (run queue length)
-	double dj = (nrlentime - getValue("rlentime")) / dt;
-	rateMap.put("actv", dj);
-
-	// service time
-	double ds = nr + nw - r - w;
-	if (((int) ds) == 0) {
-	    rateMap.put("svc_t", 0.0);
-	} else {
-	    rateMap.put("svc_t", (di + dj) * 1000.0 / ds);
-	}
-	ds = nw - w;
-	if (((int) ds) == 0) {
-	    rateMap.put("wsvc_t", 0.0);
-	} else {
-	    rateMap.put("wsvc_t", di * 1000.0 / ds);
-	}
-	ds = nr - r;
-	if (((int) ds) == 0) {
-	    rateMap.put("asvc_t", 0.0);
-	} else {
-	    rateMap.put("asvc_t", dj * 1000.0 / ds);
-	}
+	double dj = engine.getDelta(RLENTIME) / dt;
+	rates[ACTV] = dj;
+
+	// service times
+	rates[SVCT] = (r + w == 0) ? 0.0 : (di + dj) * 1000.0 / (r + w);
+	rates[WSVCT] = (w == 0) ? 0.0 : di * 1000.0 / w;
+	rates[ASVCT] = (r == 0) ? 0.0 : dj * 1000.0 / r;
 
 	// wait percentage
-	rateMap.put("%w", 100.0 * (nwtime - getValue("wtime")) / dt);
+	rates[PCTW] = 100.0 * engine.getDelta(WTIME) / dt;
 
 	// busy percentage
-	rateMap.put("%b", 100.0 * (nrtime - getValue("rtime")) / dt);
-
-	// save the new values
-	valueMap.put("reads", nr);
-	valueMap.put("writes", nw);
-	valueMap.put("nread", nkr);
-	valueMap.put("nwritten", nkw);
-	valueMap.put("rtime", nrtime);
-	valueMap.put("wtime", nwtime);
-	valueMap.put("rlentime", nrlentime);
-	valueMap.put("wlentime", nwlentime);
+	rates[PCTB] = 100.0 * engine.getDelta(RTIME) / dt;
+
 	return true;
     }
 
@@ -20,6 +20,8 @@
 
 package uk.co.petertribble.jkstat.api;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -27,6 +29,14 @@ import java.util.TreeSet;
 
 /**
  * A class to get rates of change from a Kstat (designed to be used in charts).
+ * The previous values of the statistics are held by a {@code RateEngine},
+ * and the rates in an array, so that updating doesn't allocate.
+ *
+ * <p>Subclasses written before the {@code RateEngine} was introduced,
+ * which use the protected no-argument constructor and fill in
+ * {@link #valueMap} themselves, still work: until a subclass sets
+ * {@link #engine}, the values and rates are kept in the maps as they
+ * always were.
  *
  * @author Peter Tribble
  */
@@ -44,20 +54,48 @@ public class ChartableKstat {
 
     /**
      * The snaptime of the last measurement.
+     *
+     * @deprecated the snaptime is tracked by the {@link #engine}, and this
+     * field is only kept up to date by {@link #update(Kstat)}
      */
+    @Deprecated
     protected long lastsnap;
 
     /**
-     * A Map storing the last recorded values.
+     * A Map storing the last recorded values. Only used if there's no
+     * {@link #engine}.
+     *
+     * @deprecated use the protected constructor taking the names of the
+     * statistics, which tracks their values in a {@code RateEngine}
      */
+    @Deprecated
     protected Map<String, Long> valueMap = new HashMap<>();
 
     /**
-     * A Map storing the most recently calculated rates. This is calculated
-     * upon update, rather than calculating rates on demand.
+     * A Map storing the most recently calculated rates. Only used if
+     * there's no {@link #engine}.
+     *
+     * @deprecated use the protected constructor taking the names of the
+     * statistics, and the {@link #rates} array
      */
+    @Deprecated
     protected Map<String, Double> rateMap = new HashMap<>();
 
+    /**
+     * The {@code RateEngine} tracking the values of the statistics.
+     */
+    protected RateEngine engine;
+
+    /**
+     * The most recently calculated rates, in the order given to
+     * {@link #setRates}. These are calculated upon update, rather than
+     * calculating rates on demand.
+     */
+    protected double[] rates;
+
+    private String[] rateNames;
+    private Map<String, Integer> rateIndex;
+
     /**
      * Create a new ChartableKstat. Required for inheritance.
      */
@@ -79,20 +117,108 @@ public class ChartableKstat {
      *
      * @param njkstat a {@code JKstat}
      * @param nks the {@code Kstat} to be charted
-     * @param init true if the list of values should be initialized to zero
+     * @param init true if all the numeric statistics should be tracked
      */
     public ChartableKstat(final JKstat njkstat, final Kstat nks,
 			  final boolean init) {
+	this(njkstat, nks, init, true);
+    }
+
+    /**
+     * Create a ChartableKstat using the given Kstat as the data source,
+     * optionally starting from data that has already been read, for
+     * example as part of a bulk read of many kstats using
+     * {@link JKstat#getKstats(Collection)}.
+     *
+     * @param njkstat a {@code JKstat}
+     * @param nks the {@code Kstat} to be charted
+     * @param init true if all the numeric statistics should be tracked
+     * @param read true if the kstat should be read now, false if the given
+     * {@code Kstat} already holds current data
+     */
+    public ChartableKstat(final JKstat njkstat, final Kstat nks,
+			  final boolean init, final boolean read) {
+	this(njkstat, nks,
+	     init ? numericStatistics(njkstat, nks, read) : new String[0],
+	     read);
+    }
+
+    /*
+     * The numeric statistics of a kstat, read now or from the data it
+     * already holds.
+     */
+    private static String[] numericStatistics(final JKstat njkstat,
+					      final Kstat nks,
+					      final boolean read) {
+	Set<String> ns = read ? KstatUtil.numericStatistics(njkstat, nks)
+	    : KstatUtil.numericStatistics(nks);
+	return ns.toArray(new String[0]);
+    }
+
+    /*
+     * Track the given statistics, and present their rates.
+     */
+    private ChartableKstat(final JKstat njkstat, final Kstat nks,
+			   final String[] statistics, final boolean read) {
+	this(njkstat, nks, statistics, statistics, read);
+    }
+
+    /**
+     * Create a ChartableKstat using the given Kstat as the data source,
+     * tracking the given statistics and presenting the given rates. This
+     * allows subclasses to present rates derived from the statistics.
+     *
+     * @param njkstat a {@code JKstat}
+     * @param nks the {@code Kstat} to be charted
+     * @param statistics the names of the statistics to be tracked
+     * @param nrates the names of the rates to be presented
+     */
+    protected ChartableKstat(final JKstat njkstat, final Kstat nks,
+			     final String[] statistics,
+			     final String[] nrates) {
+	this(njkstat, nks, statistics, nrates, true);
+    }
+
+    /**
+     * Create a ChartableKstat using the given Kstat as the data source,
+     * tracking the given statistics and presenting the given rates,
+     * optionally starting from data that has already been read.
+     *
+     * @param njkstat a {@code JKstat}
+     * @param nks the {@code Kstat} to be charted
+     * @param statistics the names of the statistics to be tracked
+     * @param nrates the names of the rates to be presented
+     * @param read true if the kstat should be read now, false if the given
+     * {@code Kstat} already holds current data
+     */
+    protected ChartableKstat(final JKstat njkstat, final Kstat nks,
+			     final String[] statistics,
+			     final String[] nrates, final boolean read) {
 	jkstat = njkstat;
-	ks = jkstat.getKstat(nks);
-	lastsnap = ks.getCrtime();
-	if (init) {
-	    for (String statistic : KstatUtil.numericStatistics(jkstat, ks)) {
-		valueMap.put(statistic, 0L);
-	    }
+	ks = read ? jkstat.getKstat(nks) : nks;
+	engine = new RateEngine(statistics, ks.getCrtime());
+	setRates(nrates);
+	// necessary to initialize the rates
+	if (read) {
+	    update();
+	} else {
+	    update(ks);
+	}
+    }
+
+    /**
+     * Set the names of the rates presented by this {@code ChartableKstat},
+     * allocating space to hold them.
+     *
+     * @param nrates the names of the rates to be presented
+     */
+    protected final void setRates(final String[] nrates) {
+	rateNames = nrates.clone();
+	rates = new double[rateNames.length];
+	rateIndex = new HashMap<>();
+	for (int i = 0; i < rateNames.length; i++) {
+	    rateIndex.put(rateNames[i], i);
 	}
-	// necessary to initialize rateMap
-	update();
     }
 
     /**
@@ -111,10 +237,41 @@ public class ChartableKstat {
      * @return whether the update succeeded
      */
     public boolean update() {
-	ks = jkstat.getKstat(ks);
-	if (ks == null) {
+	return update(jkstat.getKstat(ks));
+    }
+
+    /**
+     * Update with new data that has already been read, for example as part
+     * of a bulk read of many kstats using {@link JKstat#getKstats(Collection)}.
+     * If the supplied {@code Kstat} is null, return false. This indicates
+     * that the underlying Kstat has disappeared.
+     *
+     * @param nks a {@code Kstat} holding current data for this
+     * {@code ChartableKstat}'s underlying Kstat
+     *
+     * @return whether the update succeeded
+     */
+    public boolean update(final Kstat nks) {
+	if (nks == null) {
 	    return false;
 	}
+	ks = nks;
+	if (engine == null) {
+	    legacyUpdate();
+	    return true;
+	}
+	engine.update(ks);
+	lastsnap = ks.getSnaptime();
+	for (int i = 0; i < rates.length; i++) {
+	    rates[i] = engine.getRate(i);
+	}
+	return true;
+    }
+
+    /*
+     * Update the maps, for a subclass that doesn't use a RateEngine.
+     */
+    private void legacyUpdate() {
 	double dt = ks.getSnaptime() - lastsnap;
 	lastsnap = ks.getSnaptime();
 	for (String statistic : valueMap.keySet()) {
@@ -123,7 +280,6 @@ public class ChartableKstat {
 	    rateMap.put(statistic, 1000000000.0 * d / dt);
 	    valueMap.put(statistic, newvalue);
 	}
-	return true;
     }
 
     /**
@@ -132,7 +288,10 @@ public class ChartableKstat {
      * @return the list of available statistics
      */
     public Set<String> getStatistics() {
-	return new TreeSet<>(rateMap.keySet());
+	if (engine == null) {
+	    return new TreeSet<>(rateMap.keySet());
+	}
+	return new TreeSet<>(Arrays.asList(rateNames));
     }
 
     /**
@@ -140,24 +299,33 @@ public class ChartableKstat {
      *
      * @param s the statistic to get the rate of change of
      *
-     * @return the rate of change of the given statistic
+     * @return the rate of change of the given statistic, or zero if the
+     * statistic isn't available
      */
     public double getRate(final String s) {
-	return rateMap.get(s);
+	if (engine == null) {
+	    Double d = rateMap.get(s);
+	    return (d == null) ? 0.0 : d;
+	}
+	Integer i = rateIndex.get(s);
+	return (i == null) ? 0.0 : rates[i];
     }
 
     /**
      * Return the value of the given statistic, or zero if the statistic isn't
-     * present in the Map. This avoids the need to explicitly zero the values
-     * ahead of time.
+     * being tracked.
      *
      * @param s the statistic to get the value of
      *
      * @return the value of the given statistic
      */
     public long getValue(final String s) {
-	Long l = valueMap.get(s);
-	return (l == null) ? 0L : l;
+	if (engine == null) {
+	    Long l = valueMap.get(s);
+	    return (l == null) ? 0L : l;
+	}
+	int i = engine.indexOf(s);
+	return (i < 0) ? 0L : engine.getValue(i);
     }
 
     /**
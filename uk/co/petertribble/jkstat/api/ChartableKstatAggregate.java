@@ -29,6 +29,7 @@ package uk.co.petertribble.jkstat.api;
 public final class ChartableKstatAggregate extends ChartableKstat {
 
     private KstatAggregate ksa;
+    private KstatAggregateResult kar;
 
     /**
      * Create a ChartableKstatAggregate using the given KstatAggregate as the
@@ -41,10 +42,11 @@ public final class ChartableKstatAggregate extends ChartableKstat {
 				   final KstatAggregate nksa) {
 	ksa = nksa;
 	ksa.read();
-	lastsnap = ksa.getCrtime();
-	for (String statistic : KstatUtil.numericStatistics(jkstat, ksa)) {
-	    valueMap.put(statistic, 0L);
-	}
+	String[] statistics = KstatUtil.numericStatistics(jkstat, ksa)
+	    .toArray(new String[0]);
+	engine = new RateEngine(statistics, ksa.getCrtime());
+	setRates(statistics);
+	kar = new KstatAggregateResult(statistics);
 	update();
     }
 
@@ -54,20 +56,18 @@ public final class ChartableKstatAggregate extends ChartableKstat {
     }
 
     /**
-     * Update with new data.
+     * Update with new data. All the statistics are aggregated in a single
+     * pass over the kstats.
      *
      * @return always returns true
      */
     @Override
     public boolean update() {
 	ksa.read();
-	double dt = ksa.getSnaptime() - lastsnap;
-	lastsnap = ksa.getSnaptime();
-	for (String statistic : valueMap.keySet()) {
-	    long newvalue = ksa.aggregate(statistic);
-	    double d = (double) (newvalue - valueMap.get(statistic));
-	    rateMap.put(statistic, 1000000000.0 * d / dt);
-	    valueMap.put(statistic, newvalue);
+	ksa.aggregate(kar);
+	engine.update(kar.getSnaptime(), kar.getSums());
+	for (int i = 0; i < rates.length; i++) {
+	    rates[i] = engine.getRate(i);
 	}
 	return true;
     }
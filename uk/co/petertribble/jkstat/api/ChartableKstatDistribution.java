@@ -0,0 +1,117 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A class to present the distribution of a rate across the kstats in a
+ * {@code KstatDistribution} as a small number of series, the 50th, 90th,
+ * and 99th percentiles, the maximum, and the mean, so that a chart doesn't
+ * need one series per kstat. Both the rates and values of these series
+ * are the summarised rate.
+ *
+ * @author Peter Tribble
+ */
+public final class ChartableKstatDistribution extends ChartableKstat {
+
+    private static final String[] SERIES = {"p50", "p90", "p99", "max",
+		"mean"};
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 100.0};
+    private static final int MEAN = 4;
+
+    private final KstatDistribution kd;
+    private final String rate;
+
+    /**
+     * Create a ChartableKstatDistribution summarising the given rate.
+     *
+     * @param nkd the {@code KstatDistribution} supplying the data
+     * @param nrate the name of the rate to summarise, for example
+     * {@code %b} for the busy percentage of I/O kstats
+     */
+    public ChartableKstatDistribution(final KstatDistribution nkd,
+				      final String nrate) {
+	kd = nkd;
+	rate = nrate;
+	engine = new RateEngine(new String[0], 0L);
+	setRates(SERIES);
+	update();
+    }
+
+    @Override
+    public void setJKstat(final JKstat jkstat) {
+	kd.setJKstat(jkstat);
+    }
+
+    /**
+     * Update with new data, reading all the kstats in the distribution and
+     * summarising the rate across them.
+     *
+     * @return false if there are no kstats in the distribution
+     */
+    @Override
+    public boolean update() {
+	kd.read();
+	if (kd.getPercentiles(rate, PERCENTILES, rates) == 0) {
+	    Arrays.fill(rates, 0.0);
+	    return false;
+	}
+	rates[MEAN] = kd.getMean(rate);
+	return true;
+    }
+
+    /**
+     * Return the current value of one of the series. As the series are
+     * already rates, this is the rate rounded to the nearest whole number.
+     *
+     * @param s the series of interest
+     *
+     * @return the value of the series
+     */
+    @Override
+    public long getValue(final String s) {
+	return Math.round(getRate(s));
+    }
+
+    /**
+     * Return the kstats with the highest rates at the last update.
+     *
+     * @param n the maximum number of kstats to return
+     *
+     * @return a {@code List} of the kstats with the highest rates, highest
+     * first
+     */
+    public List<Kstat> getOutliers(final int n) {
+	return kd.getTop(rate, n);
+    }
+
+    /**
+     * Return a String representation of this ChartableKstatDistribution
+     * suitable for use as a graph label.
+     */
+    @Override
+    public String toString() {
+	return rate + " across " + kd;
+    }
+}
@@ -27,7 +27,58 @@ package uk.co.petertribble.jkstat.api;
  */
 public final class ChartableMPstat extends ChartableKstat {
 
-    private long flastsnap;
+    /*
+     * The statistics we read from the cpu:N:sys kstat, those we read from
+     * the cpu:N:vm kstat, and the rates we calculate from them, with their
+     * indices.
+     */
+    private static final String[] STATISTICS = {"xcalls", "intr",
+		"intrthread", "pswitch", "inv_swtch", "cpumigrate",
+		"mutex_adenters", "rw_rdfails", "rw_wrfails", "syscall",
+		"cpu_nsec_user", "cpu_nsec_kernel", "cpu_nsec_idle"};
+    private static final int XCALLS = 0;
+    private static final int INTR = 1;
+    private static final int INTRTHREAD = 2;
+    private static final int PSWITCH = 3;
+    private static final int INV_SWTCH = 4;
+    private static final int CPUMIGRATE = 5;
+    private static final int MUTEX_ADENTERS = 6;
+    private static final int RW_RDFAILS = 7;
+    private static final int RW_WRFAILS = 8;
+    private static final int SYSCALL = 9;
+    private static final int NSEC_USER = 10;
+    private static final int NSEC_KERNEL = 11;
+    private static final int NSEC_IDLE = 12;
+
+    private static final String[] VMSTATISTICS = {"hat_fault", "as_fault",
+		"maj_fault"};
+    private static final int HAT_FAULT = 0;
+    private static final int AS_FAULT = 1;
+    private static final int MAJ_FAULT = 2;
+
+    private static final String[] RATES = {"minf", "mjf", "xcal", "intr",
+		"ithr", "csw", "icsw", "migr", "smtx", "srw", "syscl", "usr",
+		"sys", "idl"};
+    private static final int MINF = 0;
+    private static final int MJF = 1;
+    private static final int XCAL = 2;
+    private static final int RINTR = 3;
+    private static final int ITHR = 4;
+    private static final int CSW = 5;
+    private static final int ICSW = 6;
+    private static final int MIGR = 7;
+    private static final int SMTX = 8;
+    private static final int SRW = 9;
+    private static final int SYSCL = 10;
+    private static final int USR = 11;
+    private static final int SYS = 12;
+    private static final int IDL = 13;
+
+    /*
+     * Tracks the cpu:N:vm kstat. This is created on first use, as the
+     * superclass constructor updates us before our fields are initialised.
+     */
+    private RateEngine vmengine;
 
     /**
      * Initialise an mpstat data structure.
@@ -36,73 +87,67 @@ public final class ChartableMPstat extends ChartableKstat {
      * @param ks the {@code Kstat} holding the data
      */
     public ChartableMPstat(final JKstat jkstat, final Kstat ks) {
-	super(jkstat, ks, false);
+	super(jkstat, ks, STATISTICS, RATES);
     }
 
     @Override
-    public boolean update() {
-	ks = jkstat.getKstat(ks);
-	if (ks == null) {
+    public boolean update(final Kstat nks) {
+	if (nks == null) {
 	    return false;
 	}
-        double dt = ks.getSnaptime() - lastsnap;
-	lastsnap = ks.getSnaptime();
-
-	Kstat ksf = jkstat.getKstat("cpu", ks.getInst(), "vm");
-
-	long fdt = ksf.getSnaptime() - flastsnap;
-	flastsnap = ksf.getSnaptime();
+	return update(nks, jkstat.getKstat("cpu", nks.getInst(), "vm"));
+    }
 
-	// get the new values
-	long nminf = ksf.longData("hat_fault") + ksf.longData("as_fault");
-	long nmjf = ksf.longData("maj_fault");
-	long nxcal = ks.longData("xcalls");
-	long nintr = ks.longData("intr");
-	long nithr = ks.longData("intrthread");
-	long ncsw = ks.longData("pswitch");
-	long nicsw = ks.longData("inv_swtch");
-	long nmigr = ks.longData("cpumigrate");
-	long nsmtx = ks.longData("mutex_adenters");
-	long nsrw = ks.longData("rw_rdfails") + ks.longData("rw_wrfails");
-	long nsyscl = ks.longData("syscall");
-	long nusr = ks.longData("cpu_nsec_user");
-	long nsys = ks.longData("cpu_nsec_kernel");
-	long nidl = ks.longData("cpu_nsec_idle");
+    /**
+     * Update with new data that has already been read. Some of the
+     * statistics come from the cpu:N:vm kstat rather than the underlying
+     * Kstat, so that must be supplied as well.
+     *
+     * @param nks a {@code Kstat} holding current data for this
+     * {@code ChartableMPstat}'s underlying Kstat
+     * @param ksf a {@code Kstat} holding current data for the
+     * corresponding cpu:N:vm kstat
+     *
+     * @return whether the update succeeded
+     */
+    public boolean update(final Kstat nks, final Kstat ksf) {
+	if ((nks == null) || (ksf == null)) {
+	    return false;
+	}
+	ks = nks;
+	engine.update(ks);
+	if (vmengine == null) {
+	    vmengine = new RateEngine(VMSTATISTICS, ksf.getCrtime());
+	}
+	vmengine.update(ksf);
 
 	// major and minor faults
-	rateMap.put("minf", (nminf - getValue("minf")) * 1000000000.0 / fdt);
-	rateMap.put("mjf", (nmjf - getValue("mjf")) * 1000000000.0 / fdt);
+	double fdt = vmengine.getInterval();
+	if (fdt > 0) {
+	    rates[MINF] = (vmengine.getDelta(HAT_FAULT)
+			+ vmengine.getDelta(AS_FAULT)) * 1000000000.0 / fdt;
+	    rates[MJF] = vmengine.getDelta(MAJ_FAULT) * 1000000000.0 / fdt;
+	}
 
-	rateMap.put("xcal", (nxcal - getValue("xcal")) * 1000000000.0 / dt);
-	rateMap.put("intr", (nintr - getValue("intr")) * 1000000000.0 / dt);
-	rateMap.put("ithr", (nithr - getValue("ithr")) * 1000000000.0 / dt);
-	rateMap.put("csw", (ncsw - getValue("csw")) * 1000000000.0 / dt);
-	rateMap.put("icsw", (nicsw - getValue("icsw")) * 1000000000.0 / dt);
-	rateMap.put("migr", (nmigr - getValue("migr")) * 1000000000.0 / dt);
-	rateMap.put("smtx", (nsmtx - getValue("smtx")) * 1000000000.0 / dt);
-	rateMap.put("srw", (nsrw - getValue("srw")) * 1000000000.0 / dt);
-	rateMap.put("syscl", (nsyscl - getValue("syscl")) * 1000000000.0 / dt);
+	double dt = engine.getInterval();
+	if (dt <= 0) {
+	    return true;
+	}
+	rates[XCAL] = engine.getDelta(XCALLS) * 1000000000.0 / dt;
+	rates[RINTR] = engine.getDelta(INTR) * 1000000000.0 / dt;
+	rates[ITHR] = engine.getDelta(INTRTHREAD) * 1000000000.0 / dt;
+	rates[CSW] = engine.getDelta(PSWITCH) * 1000000000.0 / dt;
+	rates[ICSW] = engine.getDelta(INV_SWTCH) * 1000000000.0 / dt;
+	rates[MIGR] = engine.getDelta(CPUMIGRATE) * 1000000000.0 / dt;
+	rates[SMTX] = engine.getDelta(MUTEX_ADENTERS) * 1000000000.0 / dt;
+	rates[SRW] = (engine.getDelta(RW_RDFAILS)
+		+ engine.getDelta(RW_WRFAILS)) * 1000000000.0 / dt;
+	rates[SYSCL] = engine.getDelta(SYSCALL) * 1000000000.0 / dt;
 
 	// cpu percentages
-	rateMap.put("usr", (nusr - getValue("usr")) * 100.0 / dt);
-	rateMap.put("sys", (nsys - getValue("sys")) * 100.0 / dt);
-	rateMap.put("idl", (nidl - getValue("idl")) * 100.0 / dt);
-
-	// save the new values
-	valueMap.put("minf", nminf);
-	valueMap.put("mjf", nmjf);
-	valueMap.put("xcal", nxcal);
-	valueMap.put("intr", nintr);
-	valueMap.put("ithr", nithr);
-	valueMap.put("csw", ncsw);
-	valueMap.put("icsw", nicsw);
-	valueMap.put("migr", nmigr);
-	valueMap.put("smtx", nsmtx);
-	valueMap.put("srw", nsrw);
-	valueMap.put("syscl", nsyscl);
-	valueMap.put("usr", nusr);
-	valueMap.put("sys", nsys);
-	valueMap.put("idl", nidl);
+	rates[USR] = engine.getDelta(NSEC_USER) * 100.0 / dt;
+	rates[SYS] = engine.getDelta(NSEC_KERNEL) * 100.0 / dt;
+	rates[IDL] = engine.getDelta(NSEC_IDLE) * 100.0 / dt;
 
 	return true;
     }
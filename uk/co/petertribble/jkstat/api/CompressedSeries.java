@@ -0,0 +1,424 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Holds a series of timestamped values, compressed so that each point
+ * takes a few bytes rather than the several objects a JFreeChart
+ * {@code TimeSeries} needs. This allows a chart to keep the history of
+ * every statistic it might be asked to show, not just those it's showing.
+ *
+ * <p>Points are held in blocks of {@link #BLOCK_POINTS}, each of which can
+ * be decoded independently, so that old points can be discarded a block at
+ * a time. Within a block, each point is encoded relative to its
+ * predecessor, in the manner of the Gorilla time series database:
+ * <ul>
+ * <li>The time is stored as the change in the interval between points,
+ * which is zero, and takes a single bit, if points arrive at a steady
+ * rate.</li>
+ * <li>The value is stored as the bits that differ from the previous value,
+ * taking a single bit if it hasn't changed. If both values are whole
+ * numbers, as they are for counters, the difference between them is used
+ * instead where that's smaller.</li>
+ * </ul>
+ *
+ * <p>Points must be added in time order. A {@code CompressedSeries} is not
+ * thread safe, and mustn't be modified while a {@code Cursor} is in use.
+ *
+ * @author Peter Tribble
+ */
+public final class CompressedSeries {
+
+    /**
+     * The number of points held in each block.
+     */
+    public static final int BLOCK_POINTS = 128;
+
+    /*
+     * Whole numbers up to this size can be held exactly in a double.
+     */
+    private static final double MAX_EXACT = 0x1p53;
+
+    private final Deque<Block> blocks = new ArrayDeque<>();
+    private long maxage = Long.MAX_VALUE;
+    private int size;
+
+    /**
+     * Add a point to the end of this series. If a maximum age has been set,
+     * blocks holding only points older than that, relative to the time of
+     * this point, are discarded.
+     *
+     * @param time the time of the point, in milliseconds since the epoch,
+     * which must be no earlier than the last point added
+     * @param value the value at that time
+     */
+    public void add(final long time, final double value) {
+	Block b = blocks.peekLast();
+	if ((b == null) || (b.count == BLOCK_POINTS)) {
+	    if (b != null) {
+		b.trim();
+	    }
+	    b = new Block();
+	    blocks.addLast(b);
+	}
+	b.add(time, value);
+	size++;
+	if (maxage != Long.MAX_VALUE) {
+	    long cutoff = time - maxage;
+	    while ((blocks.size() > 1) && (blocks.peekFirst().last < cutoff)) {
+		size -= blocks.removeFirst().count;
+	    }
+	}
+    }
+
+    /**
+     * Set the maximum age of the points kept. Points are discarded a block
+     * at a time, so points slightly older than this may be retained.
+     *
+     * @param nmaxage the maximum age of points to be kept, in milliseconds
+     */
+    public void setMaximumAge(final long nmaxage) {
+	maxage = nmaxage;
+    }
+
+    /**
+     * Return the maximum age of the points kept.
+     *
+     * @return the maximum age of points to be kept, in milliseconds, which
+     * is {@code Long.MAX_VALUE} if no maximum has been set
+     */
+    public long getMaximumAge() {
+	return maxage;
+    }
+
+    /**
+     * Return the number of points held in this series.
+     *
+     * @return the number of points held in this series
+     */
+    public int size() {
+	return size;
+    }
+
+    /**
+     * Return an estimate of the memory used by this series.
+     *
+     * @return an estimate of the number of bytes used by this series
+     */
+    public long memoryUsage() {
+	long n = 64L;
+	for (Block b : blocks) {
+	    n += 96L + 8L * b.words.length;
+	}
+	return n;
+    }
+
+    /**
+     * Return a {@code Cursor} positioned before the first point held.
+     *
+     * @return a new {@code Cursor} over this series
+     */
+    public Cursor cursor() {
+	return new Cursor(blocks.iterator());
+    }
+
+    /**
+     * Decodes the points of a {@code CompressedSeries} in order. Call
+     * {@link #next} to move to each point in turn, then retrieve the time
+     * and value of that point.
+     */
+    public static final class Cursor {
+
+	private final Iterator<Block> it;
+	private Block block;
+	private int index;
+	private long pos;
+	private long time;
+	private long delta;
+	private long bits;
+	private int leading;
+	private int trailing;
+
+	private Cursor(final Iterator<Block> nit) {
+	    it = nit;
+	}
+
+	/**
+	 * Move to the next point.
+	 *
+	 * @return false if there are no more points
+	 */
+	public boolean next() {
+	    if ((block == null) || (index == block.count)) {
+		if (!it.hasNext()) {
+		    return false;
+		}
+		block = it.next();
+		index = 0;
+		pos = 0L;
+	    }
+	    if (index == 0) {
+		time = read(64);
+		delta = 0L;
+		bits = read(64);
+		leading = -1;
+	    } else {
+		readTime();
+		readValue();
+	    }
+	    index++;
+	    return true;
+	}
+
+	/**
+	 * Return the time of the current point.
+	 *
+	 * @return the time of the current point, in milliseconds since the
+	 * epoch
+	 */
+	public long getTime() {
+	    return time;
+	}
+
+	/**
+	 * Return the value of the current point.
+	 *
+	 * @return the value of the current point
+	 */
+	public double getValue() {
+	    return Double.longBitsToDouble(bits);
+	}
+
+	private void readTime() {
+	    int n;
+	    if (read(1) == 0L) {
+		n = 0;
+	    } else if (read(1) == 0L) {
+		n = 7;
+	    } else if (read(1) == 0L) {
+		n = 9;
+	    } else if (read(1) == 0L) {
+		n = 12;
+	    } else if (read(1) == 0L) {
+		n = 32;
+	    } else {
+		n = 64;
+	    }
+	    if (n > 0) {
+		long r = read(n);
+		delta += (r << (64 - n)) >> (64 - n);
+	    }
+	    time += delta;
+	}
+
+	private void readValue() {
+	    if (read(1) == 0L) {
+		return;
+	    }
+	    if (read(1) == 0L) {
+		int m = 64 - leading - trailing;
+		bits ^= read(m) << trailing;
+	    } else if (read(1) == 0L) {
+		leading = (int) read(6);
+		int m = (int) read(6) + 1;
+		trailing = 64 - leading - m;
+		bits ^= read(m) << trailing;
+	    } else {
+		int n = (int) read(6);
+		long z = read(n);
+		long d = (z >>> 1) ^ -(z & 1);
+		bits = Double.doubleToRawLongBits(
+			(double) ((long) Double.longBitsToDouble(bits) + d));
+	    }
+	}
+
+	/*
+	 * Read the next n bits, most significant first.
+	 */
+	private long read(final int n) {
+	    if (n == 0) {
+		return 0L;
+	    }
+	    long[] words = block.words;
+	    int idx = (int) (pos >>> 6);
+	    int free = 64 - (int) (pos & 63);
+	    long r;
+	    if (n <= free) {
+		r = (words[idx] >>> (free - n)) & mask(n);
+	    } else {
+		int rem = n - free;
+		r = ((words[idx] & mask(free)) << rem)
+		    | (words[idx + 1] >>> (64 - rem));
+	    }
+	    pos += n;
+	    return r;
+	}
+    }
+
+    private static long mask(final int n) {
+	return (n == 64) ? -1L : (1L << n) - 1;
+    }
+
+    /*
+     * Whether a value is a whole number that can be converted to a long and
+     * back without loss. Negative zero can't.
+     */
+    private static boolean isWhole(final double v) {
+	return (Math.abs(v) < MAX_EXACT) && (Double.doubleToRawLongBits(v)
+		== Double.doubleToRawLongBits((double) (long) v));
+    }
+
+    /*
+     * A block of points, and the state needed to encode the next one.
+     */
+    private static final class Block {
+	long[] words = new long[4];
+	long pos;
+	int count;
+	long last;
+	long delta;
+	long bits;
+	int leading = -1;
+	int trailing;
+
+	void add(final long time, final double value) {
+	    long vbits = Double.doubleToRawLongBits(value);
+	    if (count == 0) {
+		write(time, 64);
+		write(vbits, 64);
+	    } else {
+		writeTime(time);
+		writeValue(value, vbits);
+	    }
+	    last = time;
+	    bits = vbits;
+	    count++;
+	}
+
+	/*
+	 * The change in interval, in the smallest of a few sizes of field.
+	 */
+	private void writeTime(final long time) {
+	    long ndelta = time - last;
+	    long dod = ndelta - delta;
+	    delta = ndelta;
+	    if (dod == 0L) {
+		write(0L, 1);
+	    } else if ((dod >= -64L) && (dod < 64L)) {
+		write(0x2L, 2);
+		write(dod, 7);
+	    } else if ((dod >= -256L) && (dod < 256L)) {
+		write(0x6L, 3);
+		write(dod, 9);
+	    } else if ((dod >= -2048L) && (dod < 2048L)) {
+		write(0xeL, 4);
+		write(dod, 12);
+	    } else if ((dod >= Integer.MIN_VALUE)
+		       && (dod <= Integer.MAX_VALUE)) {
+		write(0x1eL, 5);
+		write(dod, 32);
+	    } else {
+		write(0x1fL, 5);
+		write(dod, 64);
+	    }
+	}
+
+	/*
+	 * The value, as the bits that have changed within the previous
+	 * window, or within a new window, or as the difference between two
+	 * whole numbers, whichever is shortest.
+	 */
+	private void writeValue(final double value, final long vbits) {
+	    long xor = vbits ^ bits;
+	    if (xor == 0L) {
+		write(0L, 1);
+		return;
+	    }
+	    int nlead = Long.numberOfLeadingZeros(xor);
+	    int ntrail = Long.numberOfTrailingZeros(xor);
+	    int nm = 64 - nlead - ntrail;
+	    int costNew = 15 + nm;
+	    int costOld = ((leading >= 0) && (nlead >= leading)
+			   && (ntrail >= trailing))
+		? 2 + 64 - leading - trailing : Integer.MAX_VALUE;
+	    int costWhole = Integer.MAX_VALUE;
+	    long z = 0L;
+	    double prev = Double.longBitsToDouble(bits);
+	    if (isWhole(value) && isWhole(prev)) {
+		long d = (long) value - (long) prev;
+		z = (d << 1) ^ (d >> 63);
+		costWhole = 9 + 64 - Long.numberOfLeadingZeros(z);
+	    }
+	    if ((costWhole < costOld) && (costWhole < costNew)) {
+		int n = 64 - Long.numberOfLeadingZeros(z);
+		write(0x7L, 3);
+		write(n, 6);
+		write(z, n);
+	    } else if (costOld <= costNew) {
+		write(0x2L, 2);
+		write(xor >>> trailing, 64 - leading - trailing);
+	    } else {
+		leading = nlead;
+		trailing = ntrail;
+		write(0x6L, 3);
+		write(nlead, 6);
+		write(nm - 1, 6);
+		write(xor >>> ntrail, nm);
+	    }
+	}
+
+	/*
+	 * Append the low n bits of v, most significant first.
+	 */
+	private void write(final long v, final int n) {
+	    if (n == 0) {
+		return;
+	    }
+	    if (((pos + n + 63) >>> 6) > words.length) {
+		words = Arrays.copyOf(words, 2 * words.length);
+	    }
+	    int idx = (int) (pos >>> 6);
+	    int free = 64 - (int) (pos & 63);
+	    long mv = v & mask(n);
+	    if (n <= free) {
+		words[idx] |= mv << (free - n);
+	    } else {
+		int rem = n - free;
+		words[idx] |= mv >>> rem;
+		words[idx + 1] |= mv << (64 - rem);
+	    }
+	    pos += n;
+	}
+
+	/*
+	 * A full block won't grow any further.
+	 */
+	void trim() {
+	    words = Arrays.copyOf(words, (int) ((pos + 63) >>> 6));
+	}
+    }
+}
@@ -20,7 +20,10 @@
 
 package uk.co.petertribble.jkstat.api;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -32,7 +35,9 @@ import java.util.Set;
 public abstract class JKstat {
 
     /**
-     * The {@code Set} of all available kstats.
+     * The {@code Set} of kstats assembled by {@link #enumerate()}. Once
+     * enumeration is complete, this {@code Set} is published as part of an
+     * immutable {@code KstatChain}, and is never modified again.
      */
     protected Set<Kstat> kstats;
 
@@ -46,6 +51,14 @@ public abstract class JKstat {
      */
     protected int chainid;
 
+    /*
+     * The current generation of the kstat chain. This is replaced, never
+     * modified, so readers can use it without locking. We also keep the
+     * underlying Set so we know never to add to it again.
+     */
+    private volatile KstatChain chain;
+    private Set<Kstat> published;
+
     /**
      * Creates a new {@code JKstat} object.
      */
@@ -56,21 +69,51 @@ public abstract class JKstat {
     /**
      * Returns all available kstats. If the kstats haven't been enumerated,
      * they will be enumerated first. If the kstat chain has changed, we
-     * re-enumerate.
+     * re-enumerate. The returned {@code Set} is unmodifiable, and is shared
+     * by all callers until the chain changes.
      *
      * @return a {@code Set} of the currently available {@code Kstat}s
      */
-    public synchronized Set<Kstat> getKstats() {
-	if (enumerated) {
-	    if (getKCID() != chainid) {
-		kstats.clear();
-		chainid = enumerate();
-	    }
-	} else {
-	    chainid = enumerate();
-	    enumerated = true;
+    public Set<Kstat> getKstats() {
+	return getChain().getKstats();
+    }
+
+    /**
+     * Returns the current generation of the kstat chain. If the kstats
+     * haven't been enumerated, or the kstat chain has changed, a new
+     * generation is enumerated and published first. Otherwise, the existing
+     * generation is returned without locking or copying.
+     *
+     * @return the current {@code KstatChain}
+     */
+    public KstatChain getChain() {
+	int kcid = getKCID();
+	KstatChain kc = chain;
+	if ((kc == null) || (kc.getKCID() != kcid)) {
+	    kc = reenumerate(kcid);
 	}
-	return new HashSet<>(kstats);
+	return kc;
+    }
+
+    /*
+     * Enumerate and publish a new generation. Only one thread enumerates at
+     * a time; any others waiting will find the new generation already
+     * published when they get the lock.
+     */
+    private synchronized KstatChain reenumerate(final int kcid) {
+	KstatChain kc = chain;
+	if ((kc != null) && (kc.getKCID() == kcid)) {
+	    return kc;
+	}
+	if (kstats == published) {
+	    kstats = new HashSet<>();
+	}
+	chainid = enumerate();
+	enumerated = true;
+	published = kstats;
+	kc = new KstatChain(chainid, kstats);
+	chain = kc;
+	return kc;
     }
 
     /**
@@ -85,8 +128,7 @@ public abstract class JKstat {
     public abstract Kstat getKstatObject(String module, int inst, String name);
 
     /**
-     * Retrieves a {@code Kstat} and its statistics. Also updates the internal
-     * list of {@code Kstat}s.
+     * Retrieves a {@code Kstat} and its statistics.
      *
      * @param ks A {@code Kstat} that defines the module, instance, and name
      *
@@ -101,8 +143,9 @@ public abstract class JKstat {
     }
 
     /**
-     * Retrieves a {@code Kstat} and its statistics. Also updates the internal
-     * list of {@code Kstat}s.
+     * Retrieves a {@code Kstat} and its statistics. The current
+     * {@code KstatChain} is not modified; kstats appearing or disappearing
+     * are picked up when the chain id changes.
      *
      * @param module The kstat module
      * @param inst The kstat instance
@@ -122,14 +165,31 @@ public abstract class JKstat {
 	    throw new NullPointerException("name is null");
 	}
 
-	Kstat ks = getKstatObject(module, inst, name);
-	if (ks == null) {
-	    // it feels wrong to create a new object to remove the old
-	    kstats.remove(new Kstat(module, inst, name));
-	} else {
-	    kstats.add(ks);
+	return getKstatObject(module, inst, name);
+    }
+
+    /**
+     * Retrieves a number of {@code Kstat}s and their statistics. This
+     * implementation simply reads each {@code Kstat} in turn; subclasses
+     * for which each read is expensive, such as those talking to a remote
+     * server, should override it to read them all at once.
+     *
+     * @param lks the {@code Kstat}s to be read, which need only define the
+     * module, instance, and name
+     *
+     * @return a {@code Map} from each requested {@code Kstat} to a new
+     * {@code Kstat} populated with current data. Any {@code Kstat} that no
+     * longer exists is absent from the {@code Map}.
+     */
+    public Map<Kstat, Kstat> getKstats(final Collection<Kstat> lks) {
+	Map<Kstat, Kstat> kmap = new HashMap<>();
+	for (Kstat ks : lks) {
+	    Kstat nks = getKstat(ks);
+	    if (nks != null) {
+		kmap.put(ks, nks);
+	    }
 	}
-	return ks;
+	return kmap;
     }
 
     /**
@@ -171,6 +231,9 @@ public abstract class JKstat {
 			    final int type, final long crtime) {
 	Kstat ks = new Kstat(module, inst, name);
 	ks.setStandardInfo(kstatClass, type, crtime, 0L);
+	if (kstats == published) {
+	    kstats = new HashSet<>();
+	}
 	kstats.add(ks);
     }
 }
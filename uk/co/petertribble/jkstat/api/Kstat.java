@@ -21,17 +21,17 @@
 package uk.co.petertribble.jkstat.api;
 
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.TreeSet;
 import uk.co.petertribble.jkstat.util.NumericStringComparator;
 
 /**
- * Represents a kstat, actually an implementation of kstat_t. The statistics
- * exposed by this kstat are stored in a {@code Map} with name of the
- * statistic as the key, and the value is a {@code KstatData} containing the
- * value of the statistic and its data type.
+ * Represents a kstat, actually an implementation of kstat_t. The names of
+ * the statistics exposed by this kstat are held in a {@code KstatSchema}
+ * shared by all kstats with the same module, name, and class. The values
+ * are stored in arrays indexed by the slot the schema assigns to each
+ * statistic, with numeric values held as primitive longs.
  *
  * @author Peter Tribble
  */
@@ -74,12 +74,26 @@ public class Kstat implements Serializable, Comparable<Kstat> {
     private String kstatClass;
 
     /*
-     * The data is a {@code Map} of names and values. This is obvious for a
-     * KSTAT_TYPE_NAMED kstat, which is an explicit set of name/value pairs.
-     * Raw kstats are massaged to the same format. Interrupt and I/O kstats
-     * have a standard mapping.
+     * The data is held in slots defined by the schema. This is obvious for
+     * a KSTAT_TYPE_NAMED kstat, which is an explicit set of name/value
+     * pairs. Raw kstats are massaged to the same format. Interrupt and I/O
+     * kstats have a standard mapping.
+     *
+     * Numeric values live in lvalues. Anything else (strings, or numeric
+     * types supplied as something other than a Long) lives in ovalues,
+     * which is only allocated if needed. The data type of each slot is
+     * recorded in dtypes as the ordinal of the type plus one, so that zero
+     * marks a slot that this kstat doesn't hold.
+     */
+    private transient KstatSchema schema;
+    private transient long[] lvalues;
+    private transient Object[] ovalues;
+    private transient byte[] dtypes;
+    /*
+     * The key used to order kstats with the same module and instance by
+     * name, computed when first needed.
      */
-    private final transient Map<String, KstatData> dataMap = new HashMap<>();
+    private transient String nameKey;
 
     /**
      * Creates a new {@code Kstat} of the given {@code module},
@@ -97,7 +111,7 @@ public class Kstat implements Serializable, Comparable<Kstat> {
     }
 
     /**
-     * Inserts an item into the data Map.
+     * Inserts an item into the data.
      *
      * @param s the name of the data item
      * @param dataType the data type
@@ -109,7 +123,7 @@ public class Kstat implements Serializable, Comparable<Kstat> {
     }
 
     /**
-     * Inserts an item into the data Map.
+     * Inserts an item into the data.
      *
      * @param s the name of the data item
      * @param dataType the data type
@@ -117,11 +131,19 @@ public class Kstat implements Serializable, Comparable<Kstat> {
      */
     public void addDataObject(final String s, final KstatData.Type dataType,
 			      final Object data) {
-	dataMap.put(s, new KstatData(dataType, data));
+	if (dataType.isNumeric() && (data instanceof Long)) {
+	    addLongData(s, dataType, (Long) data);
+	    return;
+	}
+	int slot = allocSlot(s, dataType);
+	if (ovalues == null) {
+	    ovalues = new Object[dtypes.length];
+	}
+	ovalues[slot] = data;
     }
 
     /**
-     * Convenience method to add a long to the data Map.
+     * Convenience method to add a long to the data.
      *
      * @param s the name of the data item
      * @param dataType the data type
@@ -129,7 +151,48 @@ public class Kstat implements Serializable, Comparable<Kstat> {
      */
     public void addLongData(final String s, final int dataType,
 			    final long data) {
-        addDataObject(s, KstatData.Type.toType(dataType), data);
+        addLongData(s, KstatData.Type.toType(dataType), data);
+    }
+
+    /**
+     * Adds a long to the data, without boxing.
+     *
+     * @param s the name of the data item
+     * @param dataType the data type
+     * @param data the actual data
+     */
+    public void addLongData(final String s, final KstatData.Type dataType,
+			    final long data) {
+	int slot = allocSlot(s, dataType);
+	lvalues[slot] = data;
+	if (ovalues != null) {
+	    ovalues[slot] = null;
+	}
+    }
+
+    /*
+     * Find the slot for the named statistic, growing our arrays to fit
+     * if necessary, and mark the slot as present with the given type.
+     */
+    private int allocSlot(final String s, final KstatData.Type dataType) {
+	if (schema == null) {
+	    schema = KstatSchema.getSchema(module, name, kstatClass);
+	}
+	int slot = schema.addSlot(s, dataType);
+	if (dtypes == null) {
+	    int n = Math.max(schema.size(), slot + 1);
+	    dtypes = new byte[n];
+	    lvalues = new long[n];
+	} else if (slot >= dtypes.length) {
+	    int n = Math.max(schema.size(), slot + 1);
+	    dtypes = Arrays.copyOf(dtypes, n);
+	    lvalues = Arrays.copyOf(lvalues, n);
+	    if (ovalues != null) {
+		ovalues = Arrays.copyOf(ovalues, n);
+	    }
+	}
+	dtypes[slot] = (byte) (dataType.ordinal() + 1);
+	return slot;
     }
 
     /**
@@ -155,24 +218,24 @@ public class Kstat implements Serializable, Comparable<Kstat> {
 			     final long wlastupdate, final long rtime,
 			     final long rlentime, final long rlastupdate,
 			     final long wcnt, final long rcnt) {
-	addDataObject("nread", KstatData.Type.KSTAT_DATA_UINT64, nread);
-	addDataObject("nwritten", KstatData.Type.KSTAT_DATA_UINT64, nwritten);
-	addDataObject("reads", KstatData.Type.KSTAT_DATA_UINT32, reads);
-	addDataObject("writes", KstatData.Type.KSTAT_DATA_UINT32, writes);
+	addLongData("nread", KstatData.Type.KSTAT_DATA_UINT64, nread);
+	addLongData("nwritten", KstatData.Type.KSTAT_DATA_UINT64, nwritten);
+	addLongData("reads", KstatData.Type.KSTAT_DATA_UINT32, reads);
+	addLongData("writes", KstatData.Type.KSTAT_DATA_UINT32, writes);
 	/*
 	 * The kstat_io_t structure stores these as hrtime_t, which
 	 * is a signed 64-bit integer.
 	 */
-	addDataObject("wtime", KstatData.Type.KSTAT_DATA_INT64, wtime);
-	addDataObject("wlentime", KstatData.Type.KSTAT_DATA_INT64, wlentime);
-	addDataObject("wlastupdate", KstatData.Type.KSTAT_DATA_INT64,
+	addLongData("wtime", KstatData.Type.KSTAT_DATA_INT64, wtime);
+	addLongData("wlentime", KstatData.Type.KSTAT_DATA_INT64, wlentime);
+	addLongData("wlastupdate", KstatData.Type.KSTAT_DATA_INT64,
                 wlastupdate);
-	addDataObject("rtime", KstatData.Type.KSTAT_DATA_INT64, rtime);
-	addDataObject("rlentime", KstatData.Type.KSTAT_DATA_INT64, rlentime);
-	addDataObject("rlastupdate", KstatData.Type.KSTAT_DATA_INT64,
+	addLongData("rtime", KstatData.Type.KSTAT_DATA_INT64, rtime);
+	addLongData("rlentime", KstatData.Type.KSTAT_DATA_INT64, rlentime);
+	addLongData("rlastupdate", KstatData.Type.KSTAT_DATA_INT64,
                 rlastupdate);
-	addDataObject("wcnt", KstatData.Type.KSTAT_DATA_UINT32, wcnt);
-	addDataObject("rcnt", KstatData.Type.KSTAT_DATA_UINT32, rcnt);
+	addLongData("wcnt", KstatData.Type.KSTAT_DATA_UINT32, wcnt);
+	addLongData("rcnt", KstatData.Type.KSTAT_DATA_UINT32, rcnt);
     }
 
     /**
@@ -184,7 +247,7 @@ public class Kstat implements Serializable, Comparable<Kstat> {
      * @return true if the named statistic exists, false otherwise
      */
     public boolean hasStatistic(final String s) {
-	return dataMap.containsKey(s);
+	return hasStatistic(slotOf(s));
     }
 
     /**
@@ -195,8 +258,7 @@ public class Kstat implements Serializable, Comparable<Kstat> {
      * @return the data, or null if the statistic doesn't exist
      */
     public Object getData(final String s) {
-	KstatData kd = dataMap.get(s);
-	return (kd == null) ? null : kd.getData();
+	return getData(slotOf(s));
     }
 
     /**
@@ -210,10 +272,7 @@ public class Kstat implements Serializable, Comparable<Kstat> {
      * numeric type
      */
     public long longData(final String s) {
-	if (!isNumeric(s)) {
-	    throw new IllegalArgumentException("Statistic not a number");
-	}
-	return (Long) getData(s);
+	return longData(slotOf(s));
     }
 
     /**
@@ -225,8 +284,111 @@ public class Kstat implements Serializable, Comparable<Kstat> {
      * @return true if this statistic is known to be a numeric type
      */
     public boolean isNumeric(final String s) {
-	KstatData kd = dataMap.get(s);
-	return (kd != null) && kd.isNumeric();
+	return isNumeric(slotOf(s));
+    }
+
+    /*
+     * Map a statistic name to its slot, or -1 if we have no data.
+     */
+    private int slotOf(final String s) {
+	return (schema == null) ? -1 : schema.getSlot(s);
+    }
+
+    /**
+     * Gets the {@code KstatSchema} describing the statistics of this
+     * {@code Kstat}. Slots obtained from the schema may be passed to the
+     * slot accessors of any {@code Kstat} that returns the same schema.
+     *
+     * @return the {@code KstatSchema} of this {@code Kstat}, or null if no
+     * data has been read
+     */
+    public KstatSchema getSchema() {
+	return schema;
+    }
+
+    /**
+     * Returns whether this {@code Kstat} holds a statistic in the given slot
+     * of its schema.
+     *
+     * @param slot the slot of the statistic to be checked
+     *
+     * @return true if the statistic exists, false otherwise
+     */
+    public boolean hasStatistic(final int slot) {
+	return (slot >= 0) && (dtypes != null) && (slot < dtypes.length)
+	    && (dtypes[slot] != 0);
+    }
+
+    /**
+     * Returns whether the statistic in the given slot of this
+     * {@code Kstat}'s schema is of a numeric type.
+     *
+     * @param slot the slot of the statistic to be checked
+     *
+     * @return true if this statistic is known to be a numeric type
+     */
+    public boolean isNumeric(final int slot) {
+	return hasStatistic(slot) && getType(slot).isNumeric();
+    }
+
+    /**
+     * Gets the value of the statistic in the given slot of this
+     * {@code Kstat}'s schema. Numeric values will be boxed; use
+     * {@link #longData(int)} to avoid allocation.
+     *
+     * @param slot the slot of the statistic to be retrieved
+     *
+     * @return the data, or null if the statistic doesn't exist
+     */
+    public Object getData(final int slot) {
+	if (!hasStatistic(slot)) {
+	    return null;
+	}
+	if ((ovalues != null) && (ovalues[slot] != null)) {
+	    return ovalues[slot];
+	}
+	return lvalues[slot];
+    }
+
+    /**
+     * Gets the value of the statistic in the given slot of this
+     * {@code Kstat}'s schema as a long. This doesn't allocate.
+     *
+     * @param slot the slot of the statistic to be retrieved
+     *
+     * @return the value of the statistic
+     *
+     * @throws IllegalArgumentException if the requested statistic isn't a
+     * numeric type
+     */
+    public long longData(final int slot) {
+	if (!isNumeric(slot)) {
+	    throw new IllegalArgumentException("Statistic not a number");
+	}
+	if ((ovalues != null) && (ovalues[slot] != null)) {
+	    return (Long) ovalues[slot];
+	}
+	return lvalues[slot];
+    }
+
+    /**
+     * Gets the data type of the statistic in the given slot of this
+     * {@code Kstat}'s schema, as recorded when the statistic was added.
+     *
+     * @param slot the slot of the statistic of interest
+     *
+     * @return the data type of the statistic, or null if the statistic
+     * doesn't exist
+     */
+    public KstatData.Type getDataType(final int slot) {
+	return hasStatistic(slot) ? getType(slot) : null;
+    }
+
+    /*
+     * The data type held in a slot known to be present.
+     */
+    private KstatData.Type getType(final int slot) {
+	return KstatData.Type.fromOrdinal(dtypes[slot] - 1);
     }
 
     /**
@@ -309,7 +471,15 @@ public class Kstat implements Serializable, Comparable<Kstat> {
      * statistics in this {@code Kstat}
      */
     public Set<String> statistics() {
-	return new TreeSet<>(dataMap.keySet());
+	Set<String> ss = new TreeSet<>();
+	if (dtypes != null) {
+	    for (int i = 0; i < dtypes.length; i++) {
+		if (dtypes[i] != 0) {
+		    ss.add(schema.getStatistic(i));
+		}
+	    }
+	}
+	return ss;
     }
 
     /**
@@ -387,18 +557,23 @@ public class Kstat implements Serializable, Comparable<Kstat> {
 	    .append(",\"snaptime\":").append(snaptime)
 	    .append(",\"data\":{");
 	// data
-	for (String s : dataMap.keySet()) {
+	int n = (dtypes == null) ? 0 : dtypes.length;
+	for (int i = 0; i < n; i++) {
+	    if (dtypes[i] == 0) {
+		continue;
+	    }
 	    if (firstdata) {
 		firstdata = false;
 	    } else {
 		sb.append(',');
 	    }
-	    KstatData kd = dataMap.get(s);
-	    sb.append('\"').append(s).append("\":");
-	    if (kd.isNumeric()) {
-		sb.append(kd.getData());
+	    sb.append('\"').append(schema.getStatistic(i)).append("\":");
+	    if ((ovalues == null) || (ovalues[i] == null)) {
+		sb.append(lvalues[i]);
+	    } else if (getType(i).isNumeric()) {
+		sb.append(ovalues[i]);
 	    } else {
-		sb.append('\"').append(kd.getData()).append('\"');
+		sb.append('\"').append(getData(i)).append('\"');
 	    }
 	}
 	// end data
@@ -470,9 +645,22 @@ public class Kstat implements Serializable, Comparable<Kstat> {
 	    return module.compareTo(ks.getModule());
 	}
 	if (instance != ks.getInst()) {
-	    return instance - ks.getInst();
+	    return Integer.compare(instance, ks.getInst());
+	}
+	return getNameKey().compareTo(ks.getNameKey());
+    }
+
+    /*
+     * Return the key that orders this kstat's name in the same way as the
+     * NumericStringComparator does, so that sorting large numbers of kstats
+     * doesn't need to parse the names on every comparison.
+     */
+    String getNameKey() {
+	String key = nameKey;
+	if (key == null) {
+	    key = NumericStringComparator.sortKey(name);
+	    nameKey = key;
 	}
-	return NumericStringComparator.getInstance().compare(name,
-							ks.getName());
+	return key;
     }
 }
@@ -37,6 +37,7 @@ public class KstatAggregate {
     private JKstat jkstat;
     private boolean isdynamic;
     private String title;
+    private KstatAggregateNode node;
 
     /**
      * Allocates a {@code KstatAggregate} comprising a Set of kstats.
@@ -91,6 +92,23 @@ public class KstatAggregate {
 	kstats = inkstats;
     }
 
+    /**
+     * Allocates a {@code KstatAggregate} backed by a node in a
+     * {@code KstatAggregateGraph}, so that the reading and aggregation of
+     * its kstats is shared with any other aggregates in the same graph.
+     * The graph is read immediately, so that the kstats in the aggregate
+     * are known.
+     *
+     * @param nnode the {@code KstatAggregateNode} to be presented
+     */
+    public KstatAggregate(final KstatAggregateNode nnode) {
+	node = nnode;
+	jkstat = node.getGraph().getJKstat();
+	title = node.getTitle();
+	isdynamic = false;
+	read();
+    }
+
     /**
      * Connect to a different {@code JKstat} object. This is probably a bug,
      * but the charts create a new instance of a {@code SequencedJKstat}. This
@@ -99,6 +117,11 @@ public class KstatAggregate {
      * @param njkstat a {@code JKstat}
      */
     public void setJKstat(final JKstat njkstat) {
+	if ((node != null) && (njkstat != jkstat)) {
+	    KstatAggregateNode onode = node;
+	    node = KstatAggregateGraph.getGraph(njkstat).adopt(onode);
+	    onode.getGraph().release(onode);
+	}
 	jkstat = njkstat;
 	if (isdynamic) {
 	    kss.setJKstat(jkstat);
@@ -106,17 +129,33 @@ public class KstatAggregate {
     }
 
     /**
-     * Read the kstats. Updates the kstat chain and reads the data.
+     * Release this aggregate. An aggregate backed by a graph node gives the
+     * node back to its graph, so that the graph stops reading any kstats
+     * that nothing else needs. The aggregate shouldn't be read afterwards.
+     */
+    public void release() {
+	if (node != null) {
+	    node.getGraph().release(node);
+	}
+    }
+
+    /**
+     * Read the kstats. Updates the kstat chain and reads the data, reading
+     * all the kstats at once. Any kstats that have disappeared are dropped.
+     * An aggregate backed by a graph node reads the graph, which may share
+     * a recent read with other aggregates.
      */
     public void read() {
+	if (node != null) {
+	    node.getGraph().read();
+	    kstats = node.getKstats();
+	    return;
+	}
 	if (isdynamic) {
 	    kss.chainupdate();
 	    inkstats = kss.getKstats();
 	}
-	kstats = new HashSet<>();
-	for (Kstat ks : inkstats) {
-	    kstats.add(jkstat.getKstat(ks));
-	}
+	kstats = new HashSet<>(jkstat.getKstats(inkstats).values());
     }
 
     /**
@@ -128,6 +167,9 @@ public class KstatAggregate {
      * @return the aggregated value of the statistic
      */
     public long aggregate(final String s) {
+	if (node != null) {
+	    return node.getSum(s);
+	}
 	long l = 0;
 	for (Kstat ks : kstats) {
 	    if (ks.isNumeric(s)) {
@@ -137,6 +179,39 @@ public class KstatAggregate {
 	return l;
     }
 
+    /**
+     * Aggregate the given statistics in a single pass over the kstats,
+     * calculating the sum, count, minimum, maximum, and mean of each.
+     *
+     * @param statistics the desired statistics
+     *
+     * @return a new {@code KstatAggregateResult} holding the aggregated
+     * values of the statistics
+     */
+    public KstatAggregateResult aggregate(final String[] statistics) {
+	KstatAggregateResult kar = new KstatAggregateResult(statistics);
+	aggregate(kar);
+	return kar;
+    }
+
+    /**
+     * Aggregate the statistics of the given {@code KstatAggregateResult} in
+     * a single pass over the kstats, replacing its contents. Reusing a
+     * result for successive reads avoids any allocation.
+     *
+     * @param kar the {@code KstatAggregateResult} to be filled in
+     */
+    public void aggregate(final KstatAggregateResult kar) {
+	if (node != null) {
+	    node.fill(kar);
+	    return;
+	}
+	kar.reset();
+	for (Kstat ks : kstats) {
+	    kar.add(ks);
+	}
+    }
+
     /**
      * Get the average of the given statistic. Simply adds up the values from
      * those kstats that contain the given statistic, divided by the number of
@@ -148,6 +223,9 @@ public class KstatAggregate {
      * @return the average value of the statistic
      */
     public float average(final String s) {
+	if (node != null) {
+	    return (float) node.getMean(s);
+	}
 	long l = 0;
 	long n = 0;
 	for (Kstat ks : kstats) {
@@ -170,6 +248,9 @@ public class KstatAggregate {
      * @return the creation time of the oldest Kstat in this KstatAggregate
      */
     public long getCrtime() {
+	if (node != null) {
+	    return node.getCrtime();
+	}
 	long l = Long.MAX_VALUE;
 	for (Kstat ks : kstats) {
 	    if (ks.getCrtime() < l) {
@@ -186,6 +267,9 @@ public class KstatAggregate {
      * @return the most recent snap time of the Kstats in this KstatAggregate
      */
     public long getSnaptime() {
+	if (node != null) {
+	    return node.getSnaptime();
+	}
 	long l = 0;
 	for (Kstat ks : kstats) {
 	    if (ks.getSnaptime() > l) {
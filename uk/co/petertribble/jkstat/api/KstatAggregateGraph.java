@@ -0,0 +1,697 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Shares the work of reading and aggregating kstats between any number of
+ * overlapping aggregates. Each aggregate is a {@code KstatAggregateNode} in
+ * a graph whose leaves are individual kstats. Intermediate nodes cover all
+ * the kstats of a given module and class, and are shared by the module and
+ * class level aggregates and by any user-defined group that covers the
+ * whole of that module and class.
+ *
+ * <p>A read of the graph reads every leaf kstat once, in a single bulk
+ * read, and then calculates the totals of every node from the bottom up,
+ * so that each kstat is added in once however many aggregates contain it.
+ * Reads are rate limited, so that all the subscribers asking for data
+ * within the same tick share a single read.
+ *
+ * <p>When the kstat chain changes, kstats that have gone are removed from
+ * their parents, new kstats are added to the nodes that should contain
+ * them, and only those groups whose membership has changed are rebuilt.
+ *
+ * <p>Every node handed out by the graph is held until it is passed back
+ * to {@link #release}, at which point anything no longer needed by a
+ * held node is dropped from the graph and no longer read.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatAggregateGraph {
+
+    /**
+     * The default interval, in milliseconds, within which reads are shared.
+     */
+    public static final long DEFAULT_TICK = 1000L;
+
+    /*
+     * A graph refers to its JKstat, so is only held weakly here. The graph
+     * is kept alive by the nodes in use, and once they've gone both the
+     * graph and its JKstat can be collected.
+     */
+    private static final Map<JKstat, WeakReference<KstatAggregateGraph>>
+	GRAPHS = new WeakHashMap<>();
+
+    private final JKstat jkstat;
+    private final KstatFilterSet kfs;
+    private long tick = DEFAULT_TICK;
+    private long lastread;
+    private boolean hasread;
+    private KstatChain chain;
+    /*
+     * Set whenever the shape of the graph changes, so that the evaluation
+     * order is rebuilt and the next read isn't skipped.
+     */
+    private boolean dirty;
+
+    /*
+     * Statistics are numbered across the whole graph. Each schema we read
+     * gets a map from its slots to those numbers.
+     */
+    private final Map<String, Integer> statIndex = new HashMap<>();
+    private final List<String> statNames = new ArrayList<>();
+    private final Map<KstatSchema, int[]> schemaMap = new IdentityHashMap<>();
+
+    private final Map<Kstat, KstatAggregateNode> leaves = new HashMap<>();
+    private final Map<String, Map<String, KstatAggregateNode>> families
+	= new HashMap<>();
+    private final Map<String, KstatAggregateNode> modules = new HashMap<>();
+    private final Map<String, KstatAggregateNode> classes = new HashMap<>();
+    private final List<FilterGroup> filterGroups = new ArrayList<>();
+    private final List<KstatAggregateNode> unions = new ArrayList<>();
+    private List<KstatAggregateNode> order = new ArrayList<>();
+    /*
+     * The nodes handed out, with the number of times each has been handed
+     * out and not yet released.
+     */
+    private final Map<KstatAggregateNode, Integer> holds
+	= new IdentityHashMap<>();
+
+    /*
+     * A group defined by a filter, with its members at the last update.
+     */
+    private static final class FilterGroup {
+	final KstatAggregateNode node;
+	final KstatFilter filter;
+	final int index;
+	Set<Kstat> members;
+
+	FilterGroup(final KstatAggregateNode nnode, final KstatFilter nfilter,
+		    final int nindex) {
+	    node = nnode;
+	    filter = nfilter;
+	    index = nindex;
+	}
+    }
+
+    /**
+     * Create an empty graph. Most callers should use {@link #getGraph} so
+     * that the graph is shared.
+     *
+     * @param njkstat a {@code JKstat} object
+     */
+    public KstatAggregateGraph(final JKstat njkstat) {
+	jkstat = njkstat;
+	kfs = new KstatFilterSet(jkstat);
+    }
+
+    /**
+     * Get the shared graph for the given {@code JKstat}, creating it if
+     * necessary.
+     *
+     * @param njkstat a {@code JKstat} object
+     *
+     * @return the shared {@code KstatAggregateGraph} for njkstat
+     */
+    public static KstatAggregateGraph getGraph(final JKstat njkstat) {
+	synchronized (GRAPHS) {
+	    WeakReference<KstatAggregateGraph> ref = GRAPHS.get(njkstat);
+	    KstatAggregateGraph graph = (ref == null) ? null : ref.get();
+	    if (graph == null) {
+		graph = new KstatAggregateGraph(njkstat);
+		GRAPHS.put(njkstat, new WeakReference<>(graph));
+	    }
+	    return graph;
+	}
+    }
+
+    /**
+     * Get the {@code JKstat} this graph reads from.
+     *
+     * @return the {@code JKstat} this graph reads from
+     */
+    public JKstat getJKstat() {
+	return jkstat;
+    }
+
+    /**
+     * Set the interval within which reads are shared. A read requested
+     * less than half this long after the previous one, as measured by the
+     * time of the {@code JKstat}, returns the data already held, so that
+     * subscribers reading once a tick aren't skipped if their timers
+     * jitter. A
+     * {@code SequencedJKstat} is always reread when it has moved on.
+     *
+     * @param ntick the interval in milliseconds
+     */
+    public synchronized void setTick(final long ntick) {
+	tick = ntick;
+    }
+
+    /**
+     * Get the interval within which reads are shared.
+     *
+     * @return the interval in milliseconds
+     */
+    public synchronized long getTick() {
+	return tick;
+    }
+
+    /**
+     * Get the node aggregating all the kstats of the given module.
+     *
+     * @param module the kstat module
+     *
+     * @return the {@code KstatAggregateNode} for the module
+     */
+    public synchronized KstatAggregateNode getModuleNode(
+						final String module) {
+	sync();
+	return hold(moduleNode(module));
+    }
+
+    private KstatAggregateNode moduleNode(final String module) {
+	KstatAggregateNode node = modules.get(module);
+	if (node == null) {
+	    node = new KstatAggregateNode(this, module);
+	    node.setSpec(module, null, null);
+	    modules.put(module, node);
+	    for (KstatChain.Group g : groups(chain.getIndex().byModule,
+					     module)) {
+		attachFamily(node, family(g.module, g.kstatClass));
+	    }
+	    dirty = true;
+	}
+	return node;
+    }
+
+    /**
+     * Get the node aggregating all the kstats of the given class.
+     *
+     * @param kstatClass the kstat class
+     *
+     * @return the {@code KstatAggregateNode} for the class
+     */
+    public synchronized KstatAggregateNode getClassNode(
+						final String kstatClass) {
+	sync();
+	return hold(classNode(kstatClass));
+    }
+
+    private KstatAggregateNode classNode(final String kstatClass) {
+	KstatAggregateNode node = classes.get(kstatClass);
+	if (node == null) {
+	    node = new KstatAggregateNode(this, kstatClass);
+	    node.setSpec(null, kstatClass, null);
+	    classes.put(kstatClass, node);
+	    for (KstatChain.Group g : groups(chain.getIndex().byClass,
+					     kstatClass)) {
+		attachFamily(node, family(g.module, g.kstatClass));
+	    }
+	    dirty = true;
+	}
+	return node;
+    }
+
+    /**
+     * Add a group aggregating the kstats matched by a filter. Where the
+     * filter matches every kstat of a module and class, the group shares
+     * the node for that module and class rather than holding the kstats
+     * itself. The group's membership follows the kstat chain.
+     *
+     * @param title the title of the group
+     * @param ksf a {@code KstatFilter} selecting the kstats to aggregate
+     *
+     * @return the new {@code KstatAggregateNode}
+     */
+    public synchronized KstatAggregateNode addGroup(final String title,
+						    final KstatFilter ksf) {
+	sync();
+	return hold(filterGroup(title, ksf));
+    }
+
+    private KstatAggregateNode filterGroup(final String title,
+					   final KstatFilter ksf) {
+	KstatAggregateNode node = new KstatAggregateNode(this, title);
+	node.setSpec(null, null, ksf);
+	FilterGroup fg = new FilterGroup(node, ksf, kfs.addFilter(ksf));
+	filterGroups.add(fg);
+	decompose(fg, kfs.getKstats(fg.index));
+	dirty = true;
+	return node;
+    }
+
+    /**
+     * Add a group aggregating the kstats under a number of existing nodes.
+     * A kstat under more than one of the nodes is counted once for each.
+     *
+     * @param title the title of the group
+     * @param nodes the nodes, from this graph, to aggregate
+     *
+     * @return the new {@code KstatAggregateNode}
+     *
+     * @throws IllegalArgumentException if any of the nodes belongs to a
+     * different graph
+     */
+    public synchronized KstatAggregateNode addGroup(final String title,
+			final Collection<KstatAggregateNode> nodes) {
+	for (KstatAggregateNode child : nodes) {
+	    if (child.getGraph() != this) {
+		throw new IllegalArgumentException("Node from another graph");
+	    }
+	}
+	return hold(union(title, nodes));
+    }
+
+    private KstatAggregateNode union(final String title,
+			final Collection<KstatAggregateNode> nodes) {
+	KstatAggregateNode node = new KstatAggregateNode(this, title);
+	for (KstatAggregateNode child : nodes) {
+	    node.addChild(child);
+	}
+	unions.add(node);
+	dirty = true;
+	return node;
+    }
+
+    /*
+     * Return the equivalent of a node from another graph in this one,
+     * holding it.
+     */
+    synchronized KstatAggregateNode adopt(final KstatAggregateNode other) {
+	sync();
+	return hold(equivalent(other));
+    }
+
+    private KstatAggregateNode equivalent(final KstatAggregateNode other) {
+	if (other.getGraph() == this) {
+	    return other;
+	}
+	if (other.isLeaf()) {
+	    return leaf(other.getIdentity());
+	}
+	if (other.getFilter() != null) {
+	    return filterGroup(other.getTitle(), other.getFilter());
+	}
+	if ((other.getModule() != null) && (other.getKstatClass() != null)) {
+	    return family(other.getModule(), other.getKstatClass());
+	}
+	if (other.getModule() != null) {
+	    return moduleNode(other.getModule());
+	}
+	if (other.getKstatClass() != null) {
+	    return classNode(other.getKstatClass());
+	}
+	List<KstatAggregateNode> nodes = new ArrayList<>();
+	for (KstatAggregateNode child : other.getChildren()) {
+	    nodes.add(equivalent(child));
+	}
+	return union(other.getTitle(), nodes);
+    }
+
+    private KstatAggregateNode hold(final KstatAggregateNode node) {
+	holds.merge(node, 1, Integer::sum);
+	return node;
+    }
+
+    /**
+     * Release a node handed out by this graph. Once every node handed out
+     * has been released as many times as it was handed out, anything that
+     * isn't needed by the nodes still held is removed from the graph, so
+     * that it's no longer read. A released node must not be used again.
+     *
+     * @param node a node previously returned by this graph
+     */
+    public synchronized void release(final KstatAggregateNode node) {
+	Integer n = holds.get(node);
+	if (n == null) {
+	    return;
+	}
+	if (n > 1) {
+	    holds.put(node, n - 1);
+	    return;
+	}
+	holds.remove(node);
+	sweep();
+    }
+
+    /*
+     * Remove every node that can't be reached from a held node. Dead
+     * groups let go of their children, so that no live node keeps a dead
+     * parent.
+     */
+    private void sweep() {
+	Map<KstatAggregateNode, Boolean> live = new IdentityHashMap<>();
+	for (KstatAggregateNode node : holds.keySet()) {
+	    mark(node, live);
+	}
+	Iterator<FilterGroup> fgiter = filterGroups.iterator();
+	while (fgiter.hasNext()) {
+	    FilterGroup fg = fgiter.next();
+	    if (!live.containsKey(fg.node)) {
+		fg.node.clearChildren();
+		kfs.removeFilter(fg.index);
+		fgiter.remove();
+	    }
+	}
+	unions.removeIf(node -> dead(node, live));
+	modules.values().removeIf(node -> dead(node, live));
+	classes.values().removeIf(node -> dead(node, live));
+	for (Map<String, KstatAggregateNode> cmap : families.values()) {
+	    cmap.values().removeIf(node -> dead(node, live));
+	}
+	families.values().removeIf(Map::isEmpty);
+	leaves.values().removeIf(leaf -> !live.containsKey(leaf));
+	dirty = true;
+    }
+
+    private void mark(final KstatAggregateNode node,
+		      final Map<KstatAggregateNode, Boolean> live) {
+	if (live.put(node, Boolean.TRUE) == null) {
+	    for (KstatAggregateNode child : node.getChildren()) {
+		mark(child, live);
+	    }
+	}
+    }
+
+    private static boolean dead(final KstatAggregateNode node,
+				final Map<KstatAggregateNode, Boolean> live) {
+	if (live.containsKey(node)) {
+	    return false;
+	}
+	node.clearChildren();
+	return true;
+    }
+
+    /**
+     * Read the graph, unless it was read within the current tick and its
+     * shape hasn't changed since. Every leaf kstat is read once, and then
+     * the totals of every node are calculated.
+     */
+    public synchronized void read() {
+	long t = jkstat.getTime();
+	if (hasread && !dirty) {
+	    boolean fresh = (jkstat instanceof SequencedJKstat)
+		? (t == lastread)
+		: ((t >= lastread) && (t - lastread < tick / 2));
+	    if (fresh) {
+		return;
+	    }
+	}
+	refresh();
+	lastread = t;
+	hasread = true;
+    }
+
+    /**
+     * Read the graph now, regardless of when it was last read.
+     */
+    public synchronized void refresh() {
+	sync();
+	if (dirty) {
+	    reorder();
+	}
+	Map<Kstat, Kstat> data = jkstat.getKstats(leaves.keySet());
+	for (KstatAggregateNode leaf : leaves.values()) {
+	    Kstat ks = data.get(leaf.getIdentity());
+	    leaf.setData(ks);
+	    if (ks != null) {
+		mapSchema(ks.getSchema());
+	    }
+	}
+	int nstats = statNames.size();
+	for (KstatAggregateNode node : order) {
+	    node.compute(nstats);
+	}
+    }
+
+    /*
+     * Bring the shape of the graph up to date with the kstat chain.
+     */
+    private void sync() {
+	KstatChain nchain = jkstat.getChain();
+	if (nchain == chain) {
+	    return;
+	}
+	KstatChain ochain = chain;
+	chain = nchain;
+	if (ochain == null) {
+	    return;
+	}
+	Set<Kstat> newks = nchain.getKstats();
+	Map<KstatAggregateNode, Boolean> affected = new IdentityHashMap<>();
+	Iterator<Map.Entry<Kstat, KstatAggregateNode>> iter
+	    = leaves.entrySet().iterator();
+	while (iter.hasNext()) {
+	    Map.Entry<Kstat, KstatAggregateNode> me = iter.next();
+	    if (!newks.contains(me.getKey())) {
+		KstatAggregateNode leaf = me.getValue();
+		for (KstatAggregateNode parent
+			 : new ArrayList<>(leaf.getParents())) {
+		    parent.removeChild(leaf);
+		    affected.put(parent, Boolean.TRUE);
+		}
+		iter.remove();
+	    }
+	}
+	Set<Kstat> oldks = ochain.getKstats();
+	for (Kstat ks : newks) {
+	    if (!oldks.contains(ks)) {
+		String kclass = kclass(ks);
+		KstatAggregateNode fnode = findFamily(ks.getModule(), kclass);
+		if (fnode != null) {
+		    fnode.addChild(leaf(ks));
+		    affected.put(fnode, Boolean.TRUE);
+		} else if (modules.containsKey(ks.getModule())
+			   || classes.containsKey(kclass)) {
+		    family(ks.getModule(), kclass);
+		}
+	    }
+	}
+	for (FilterGroup fg : filterGroups) {
+	    Set<Kstat> members = kfs.getKstats(fg.index);
+	    if (!members.equals(fg.members) || hasAny(fg.node, affected)) {
+		decompose(fg, members);
+	    }
+	}
+	/*
+	 * Kstats may have been dropped by a group that was rebuilt.
+	 */
+	leaves.values().removeIf(leaf -> leaf.getParents().isEmpty()
+				 && !holds.containsKey(leaf));
+	dirty = true;
+    }
+
+    private boolean hasAny(final KstatAggregateNode node,
+			   final Map<KstatAggregateNode, Boolean> affected) {
+	for (KstatAggregateNode child : node.getChildren()) {
+	    if (affected.containsKey(child)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /*
+     * Rebuild the children of a filter group. Families that are covered
+     * completely are shared, anything else is added kstat by kstat.
+     */
+    private void decompose(final FilterGroup fg, final Set<Kstat> members) {
+	fg.members = members;
+	fg.node.clearChildren();
+	Map<String, Map<String, List<Kstat>>> byfamily = new LinkedHashMap<>();
+	for (Kstat ks : members) {
+	    byfamily.computeIfAbsent(ks.getModule(), k -> new HashMap<>())
+		.computeIfAbsent(kclass(ks), k -> new ArrayList<>()).add(ks);
+	}
+	for (Map.Entry<String, Map<String, List<Kstat>>> me
+		 : byfamily.entrySet()) {
+	    for (Map.Entry<String, List<Kstat>> ce
+		     : me.getValue().entrySet()) {
+		List<Kstat> lks = ce.getValue();
+		if (familySize(me.getKey(), ce.getKey()) == lks.size()) {
+		    fg.node.addChild(family(me.getKey(), ce.getKey()));
+		} else {
+		    for (Kstat ks : lks) {
+			fg.node.addChild(leaf(ks));
+		    }
+		}
+	    }
+	}
+    }
+
+    private static String kclass(final Kstat ks) {
+	return (ks.getKstatClass() == null) ? "" : ks.getKstatClass();
+    }
+
+    private static List<KstatChain.Group> groups(
+			final Map<String, List<KstatChain.Group>> gmap,
+			final String key) {
+	List<KstatChain.Group> lg = gmap.get(key);
+	return (lg == null) ? new ArrayList<>() : lg;
+    }
+
+    private int familySize(final String module, final String kclass) {
+	int n = 0;
+	for (KstatChain.Group g : groups(chain.getIndex().byModule, module)) {
+	    if (g.kstatClass.equals(kclass)) {
+		n += g.members.size();
+	    }
+	}
+	return n;
+    }
+
+    private KstatAggregateNode findFamily(final String module,
+					  final String kclass) {
+	Map<String, KstatAggregateNode> cmap = families.get(module);
+	return (cmap == null) ? null : cmap.get(kclass);
+    }
+
+    /*
+     * Return the node for all the kstats of a module and class, creating
+     * it and attaching it to the module and class nodes if necessary.
+     */
+    private KstatAggregateNode family(final String module,
+				      final String kclass) {
+	KstatAggregateNode node = findFamily(module, kclass);
+	if (node == null) {
+	    node = new KstatAggregateNode(this, module + ":" + kclass);
+	    node.setSpec(module, kclass, null);
+	    families.computeIfAbsent(module, k -> new HashMap<>())
+		.put(kclass, node);
+	    for (KstatChain.Group g : groups(chain.getIndex().byModule,
+					     module)) {
+		if (g.kstatClass.equals(kclass)) {
+		    for (Kstat ks : g.members) {
+			node.addChild(leaf(ks));
+		    }
+		}
+	    }
+	    if (modules.containsKey(module)) {
+		attachFamily(modules.get(module), node);
+	    }
+	    if (classes.containsKey(kclass)) {
+		attachFamily(classes.get(kclass), node);
+	    }
+	    dirty = true;
+	}
+	return node;
+    }
+
+    private void attachFamily(final KstatAggregateNode parent,
+			      final KstatAggregateNode fnode) {
+	if (!fnode.getParents().contains(parent)) {
+	    parent.addChild(fnode);
+	}
+    }
+
+    private KstatAggregateNode leaf(final Kstat ks) {
+	return leaves.computeIfAbsent(ks,
+				k -> new KstatAggregateNode(this, k));
+    }
+
+    /*
+     * Order all the group nodes so that each comes after its children.
+     */
+    private void reorder() {
+	List<KstatAggregateNode> nodes = new ArrayList<>();
+	for (Map<String, KstatAggregateNode> cmap : families.values()) {
+	    nodes.addAll(cmap.values());
+	}
+	nodes.addAll(modules.values());
+	nodes.addAll(classes.values());
+	for (FilterGroup fg : filterGroups) {
+	    nodes.add(fg.node);
+	}
+	nodes.addAll(unions);
+	Map<KstatAggregateNode, Boolean> done = new IdentityHashMap<>();
+	for (KstatAggregateNode node : nodes) {
+	    depth(node, done);
+	}
+	nodes.sort(Comparator.comparingInt(KstatAggregateNode::getDepth));
+	order = nodes;
+	dirty = false;
+    }
+
+    private int depth(final KstatAggregateNode node,
+		      final Map<KstatAggregateNode, Boolean> done) {
+	if (node.isLeaf()) {
+	    return 0;
+	}
+	if (!done.containsKey(node)) {
+	    int d = 0;
+	    for (KstatAggregateNode child : node.getChildren()) {
+		d = Math.max(d, depth(child, done));
+	    }
+	    node.setDepth(d + 1);
+	    done.put(node, Boolean.TRUE);
+	}
+	return node.getDepth();
+    }
+
+    /*
+     * Return the statistic number of each slot of a schema, numbering any
+     * statistics we haven't seen before.
+     */
+    synchronized int[] mapSchema(final KstatSchema schema) {
+	if (schema == null) {
+	    return new int[0];
+	}
+	int[] map = schemaMap.get(schema);
+	int n = schema.size();
+	if ((map == null) || (map.length < n)) {
+	    int from = (map == null) ? 0 : map.length;
+	    map = (map == null) ? new int[n] : Arrays.copyOf(map, n);
+	    for (int slot = from; slot < n; slot++) {
+		map[slot] = statIndex.computeIfAbsent(schema.getStatistic(slot),
+					k -> {
+					    statNames.add(k);
+					    return statNames.size() - 1;
+					});
+	    }
+	    schemaMap.put(schema, map);
+	}
+	return map;
+    }
+
+    synchronized int statisticIndex(final String s) {
+	Integer i = statIndex.get(s);
+	return (i == null) ? -1 : i;
+    }
+
+    synchronized String statisticName(final int i) {
+	return statNames.get(i);
+    }
+}
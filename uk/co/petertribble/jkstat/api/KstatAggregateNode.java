@@ -0,0 +1,433 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A node in a {@code KstatAggregateGraph}. A node is either a leaf,
+ * representing a single kstat, or a group, whose totals are calculated
+ * from those of its children. Groups hold the sum, count, minimum, and
+ * maximum of every numeric statistic found in their descendants, in
+ * primitive arrays indexed by the graph's statistic numbering.
+ *
+ * <p>Nodes are only created by a {@code KstatAggregateGraph}, and their
+ * values are only valid after the graph has been read.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatAggregateNode {
+
+    private final KstatAggregateGraph graph;
+    private final String title;
+    /*
+     * For a leaf, the kstat it represents and its most recent data.
+     */
+    private final Kstat identity;
+    private Kstat data;
+    /*
+     * How a group was defined, so that it can be recreated in another
+     * graph.
+     */
+    private String module;
+    private String kstatClass;
+    private KstatFilter filter;
+
+    private final List<KstatAggregateNode> children = new ArrayList<>();
+    private final Map<KstatAggregateNode, Boolean> parents
+	= new IdentityHashMap<>();
+    private int depth;
+
+    private long[] sums = new long[0];
+    private int[] counts = new int[0];
+    private long[] mins = new long[0];
+    private long[] maxs = new long[0];
+    private long snaptime;
+    private long crtime;
+
+    /*
+     * Create a leaf node.
+     */
+    KstatAggregateNode(final KstatAggregateGraph ngraph, final Kstat ks) {
+	graph = ngraph;
+	identity = ks;
+	title = ks.getTriplet();
+    }
+
+    /*
+     * Create a group node.
+     */
+    KstatAggregateNode(final KstatAggregateGraph ngraph,
+		       final String ntitle) {
+	graph = ngraph;
+	identity = null;
+	title = ntitle;
+    }
+
+    void setSpec(final String nmodule, final String nclass,
+		 final KstatFilter nfilter) {
+	module = nmodule;
+	kstatClass = nclass;
+	filter = nfilter;
+    }
+
+    String getModule() {
+	return module;
+    }
+
+    String getKstatClass() {
+	return kstatClass;
+    }
+
+    KstatFilter getFilter() {
+	return filter;
+    }
+
+    boolean isLeaf() {
+	return identity != null;
+    }
+
+    Kstat getIdentity() {
+	return identity;
+    }
+
+    void setData(final Kstat ks) {
+	data = ks;
+    }
+
+    List<KstatAggregateNode> getChildren() {
+	return children;
+    }
+
+    Set<KstatAggregateNode> getParents() {
+	return parents.keySet();
+    }
+
+    void addChild(final KstatAggregateNode child) {
+	children.add(child);
+	child.parents.put(this, Boolean.TRUE);
+    }
+
+    void removeChild(final KstatAggregateNode child) {
+	children.remove(child);
+	child.parents.remove(this);
+    }
+
+    void clearChildren() {
+	for (KstatAggregateNode child : children) {
+	    child.parents.remove(this);
+	}
+	children.clear();
+    }
+
+    int getDepth() {
+	return depth;
+    }
+
+    void setDepth(final int ndepth) {
+	depth = ndepth;
+    }
+
+    /*
+     * Recalculate a group's totals from its children, which must already
+     * have been calculated. The leaf mappings give, for each leaf child,
+     * the statistic number of each slot in its schema.
+     */
+    void compute(final int nstats) {
+	if (sums.length < nstats) {
+	    sums = new long[nstats];
+	    counts = new int[nstats];
+	    mins = new long[nstats];
+	    maxs = new long[nstats];
+	}
+	Arrays.fill(sums, 0L);
+	Arrays.fill(counts, 0);
+	Arrays.fill(mins, Long.MAX_VALUE);
+	Arrays.fill(maxs, Long.MIN_VALUE);
+	snaptime = 0L;
+	crtime = Long.MAX_VALUE;
+	for (KstatAggregateNode child : children) {
+	    if (child.isLeaf()) {
+		addKstat(child.data);
+	    } else {
+		addGroup(child);
+	    }
+	}
+    }
+
+    private void addKstat(final Kstat ks) {
+	if (ks == null) {
+	    return;
+	}
+	times(ks.getSnaptime(), ks.getCrtime());
+	int[] map = graph.mapSchema(ks.getSchema());
+	for (int slot = 0; slot < map.length; slot++) {
+	    if (ks.isNumeric(slot)) {
+		long l = ks.longData(slot);
+		int i = map[slot];
+		/*
+		 * Schemas are shared, so may have grown since the graph
+		 * numbered the statistics for this read.
+		 */
+		if (i >= sums.length) {
+		    continue;
+		}
+		sums[i] += l;
+		counts[i]++;
+		if (l < mins[i]) {
+		    mins[i] = l;
+		}
+		if (l > maxs[i]) {
+		    maxs[i] = l;
+		}
+	    }
+	}
+    }
+
+    private void addGroup(final KstatAggregateNode child) {
+	if (child.counts.length == 0) {
+	    return;
+	}
+	times(child.snaptime, child.crtime);
+	for (int i = 0; i < child.sums.length; i++) {
+	    if (child.counts[i] > 0) {
+		sums[i] += child.sums[i];
+		counts[i] += child.counts[i];
+		if (child.mins[i] < mins[i]) {
+		    mins[i] = child.mins[i];
+		}
+		if (child.maxs[i] > maxs[i]) {
+		    maxs[i] = child.maxs[i];
+		}
+	    }
+	}
+    }
+
+    private void times(final long nsnaptime, final long ncrtime) {
+	if (nsnaptime > snaptime) {
+	    snaptime = nsnaptime;
+	}
+	if (ncrtime < crtime) {
+	    crtime = ncrtime;
+	}
+    }
+
+    /*
+     * Copy the totals of the requested statistics into a result.
+     */
+    void fill(final KstatAggregateResult kar) {
+	kar.reset();
+	for (int i = 0; i < kar.size(); i++) {
+	    int j = graph.statisticIndex(kar.getStatistic(i));
+	    if ((j >= 0) && (j < counts.length) && (counts[j] > 0)) {
+		kar.set(i, sums[j], counts[j], mins[j], maxs[j]);
+	    }
+	}
+	kar.setTimes(snaptime, crtime, getKstats().size());
+    }
+
+    /**
+     * Get the graph this node belongs to.
+     *
+     * @return the {@code KstatAggregateGraph} containing this node
+     */
+    public KstatAggregateGraph getGraph() {
+	return graph;
+    }
+
+    /**
+     * Get the title of this node.
+     *
+     * @return the title of this node
+     */
+    public String getTitle() {
+	return title;
+    }
+
+    /**
+     * Get the most recently read data for the kstats under this node.
+     *
+     * @return a {@code Set} of the {@code Kstat}s aggregated by this node
+     */
+    public Set<Kstat> getKstats() {
+	Set<Kstat> kset = new HashSet<>();
+	collect(kset);
+	return kset;
+    }
+
+    private void collect(final Set<Kstat> kset) {
+	if (isLeaf()) {
+	    if (data != null) {
+		kset.add(data);
+	    }
+	} else {
+	    for (KstatAggregateNode child : children) {
+		child.collect(kset);
+	    }
+	}
+    }
+
+    /**
+     * Get the names of the numeric statistics present under this node.
+     *
+     * @return a sorted {@code Set} of statistic names
+     */
+    public Set<String> getStatistics() {
+	Set<String> ss = new TreeSet<>();
+	if (isLeaf()) {
+	    if (data != null) {
+		for (String s : data.statistics()) {
+		    if (data.isNumeric(s)) {
+			ss.add(s);
+		    }
+		}
+	    }
+	} else {
+	    for (int i = 0; i < counts.length; i++) {
+		if (counts[i] > 0) {
+		    ss.add(graph.statisticName(i));
+		}
+	    }
+	}
+	return ss;
+    }
+
+    /*
+     * Return the statistic number for a group, or -1 if it's absent.
+     */
+    private int index(final String s) {
+	int i = graph.statisticIndex(s);
+	return ((i >= 0) && (i < counts.length) && (counts[i] > 0)) ? i : -1;
+    }
+
+    /**
+     * Get the sum of the given statistic across the kstats under this node.
+     *
+     * @param s the desired statistic
+     *
+     * @return the sum of the statistic, or zero if it isn't present
+     */
+    public long getSum(final String s) {
+	if (isLeaf()) {
+	    return ((data != null) && data.isNumeric(s)) ? data.longData(s)
+		: 0L;
+	}
+	int i = index(s);
+	return (i < 0) ? 0L : sums[i];
+    }
+
+    /**
+     * Get the number of kstats under this node containing the given
+     * statistic.
+     *
+     * @param s the desired statistic
+     *
+     * @return the number of kstats containing the statistic
+     */
+    public int getCount(final String s) {
+	if (isLeaf()) {
+	    return ((data != null) && data.isNumeric(s)) ? 1 : 0;
+	}
+	int i = index(s);
+	return (i < 0) ? 0 : counts[i];
+    }
+
+    /**
+     * Get the smallest value of the given statistic under this node.
+     *
+     * @param s the desired statistic
+     *
+     * @return the minimum value of the statistic, or zero if it isn't
+     * present
+     */
+    public long getMin(final String s) {
+	if (isLeaf()) {
+	    return getSum(s);
+	}
+	int i = index(s);
+	return (i < 0) ? 0L : mins[i];
+    }
+
+    /**
+     * Get the largest value of the given statistic under this node.
+     *
+     * @param s the desired statistic
+     *
+     * @return the maximum value of the statistic, or zero if it isn't
+     * present
+     */
+    public long getMax(final String s) {
+	if (isLeaf()) {
+	    return getSum(s);
+	}
+	int i = index(s);
+	return (i < 0) ? 0L : maxs[i];
+    }
+
+    /**
+     * Get the mean value of the given statistic under this node.
+     *
+     * @param s the desired statistic
+     *
+     * @return the mean value of the statistic, or zero if it isn't present
+     */
+    public double getMean(final String s) {
+	int n = getCount(s);
+	return (n == 0) ? 0.0 : getSum(s) / (double) n;
+    }
+
+    /**
+     * Get the most recent snaptime of the kstats under this node.
+     *
+     * @return the most recent snaptime, in nanoseconds
+     */
+    public long getSnaptime() {
+	if (isLeaf()) {
+	    return (data == null) ? 0L : data.getSnaptime();
+	}
+	return snaptime;
+    }
+
+    /**
+     * Get the creation time of the oldest kstat under this node.
+     *
+     * @return the oldest creation time, in nanoseconds
+     */
+    public long getCrtime() {
+	if (isLeaf()) {
+	    return (data == null) ? 0L : data.getCrtime();
+	}
+	return crtime;
+    }
+
+    @Override
+    public String toString() {
+	return title;
+    }
+}
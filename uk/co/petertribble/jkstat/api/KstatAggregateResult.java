@@ -0,0 +1,296 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Holds the sum, count, minimum, maximum, and mean of a number of
+ * statistics across the kstats in a {@code KstatAggregate}, as calculated
+ * in a single pass by {@link KstatAggregate#aggregate(KstatAggregateResult)}.
+ * The results are held in primitive arrays, indexed by the position of
+ * each statistic in the list the result was created with. A result may be
+ * reused for successive reads of the aggregate, in which case no
+ * allocation takes place.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatAggregateResult {
+
+    private final String[] statistics;
+    private final long[] sums;
+    private final int[] counts;
+    private final long[] mins;
+    private final long[] maxs;
+    private long snaptime;
+    private long crtime;
+    private int nkstats;
+    /*
+     * The slot of each statistic in each schema we've seen, so lookups by
+     * name are only needed the first time, or when the schema grows.
+     */
+    private final Map<KstatSchema, SchemaSlots> slotMap
+	= new IdentityHashMap<>();
+
+    /*
+     * The slots of our statistics in one schema, or -1 for those it
+     * didn't have when it was the given size. A schema only grows, so
+     * only those missing need looking up again when it does.
+     */
+    private static final class SchemaSlots {
+	final int[] slots;
+	int size = -1;
+
+	SchemaSlots(final int n) {
+	    slots = new int[n];
+	    Arrays.fill(slots, -1);
+	}
+    }
+
+    /**
+     * Create an empty result for the given statistics.
+     *
+     * @param nstatistics the names of the statistics to be aggregated
+     */
+    public KstatAggregateResult(final String[] nstatistics) {
+	statistics = nstatistics.clone();
+	int n = statistics.length;
+	sums = new long[n];
+	counts = new int[n];
+	mins = new long[n];
+	maxs = new long[n];
+	reset();
+    }
+
+    /*
+     * Clear the results ready for a new pass.
+     */
+    void reset() {
+	Arrays.fill(sums, 0L);
+	Arrays.fill(counts, 0);
+	Arrays.fill(mins, Long.MAX_VALUE);
+	Arrays.fill(maxs, Long.MIN_VALUE);
+	snaptime = 0L;
+	crtime = Long.MAX_VALUE;
+	nkstats = 0;
+    }
+
+    /*
+     * Add the statistics of one kstat to the results.
+     */
+    void add(final Kstat ks) {
+	nkstats++;
+	if (ks.getSnaptime() > snaptime) {
+	    snaptime = ks.getSnaptime();
+	}
+	if (ks.getCrtime() < crtime) {
+	    crtime = ks.getCrtime();
+	}
+	KstatSchema schema = ks.getSchema();
+	if (schema == null) {
+	    return;
+	}
+	SchemaSlots ss = slotMap.get(schema);
+	if (ss == null) {
+	    ss = new SchemaSlots(statistics.length);
+	    slotMap.put(schema, ss);
+	}
+	int[] slots = ss.slots;
+	if (ss.size != schema.size()) {
+	    ss.size = schema.size();
+	    for (int i = 0; i < statistics.length; i++) {
+		if (slots[i] < 0) {
+		    slots[i] = schema.getSlot(statistics[i]);
+		}
+	    }
+	}
+	for (int i = 0; i < slots.length; i++) {
+	    if (ks.isNumeric(slots[i])) {
+		long l = ks.longData(slots[i]);
+		sums[i] += l;
+		counts[i]++;
+		if (l < mins[i]) {
+		    mins[i] = l;
+		}
+		if (l > maxs[i]) {
+		    maxs[i] = l;
+		}
+	    }
+	}
+    }
+
+    /*
+     * Set the totals of one statistic directly, when they have been
+     * calculated elsewhere.
+     */
+    void set(final int i, final long sum, final int count, final long min,
+	     final long max) {
+	sums[i] = sum;
+	counts[i] = count;
+	mins[i] = min;
+	maxs[i] = max;
+    }
+
+    /*
+     * Set the times and kstat count directly.
+     */
+    void setTimes(final long nsnaptime, final long ncrtime,
+		  final int nnkstats) {
+	snaptime = nsnaptime;
+	crtime = ncrtime;
+	nkstats = nnkstats;
+    }
+
+    /*
+     * The sums, for feeding directly to a RateEngine.
+     */
+    long[] getSums() {
+	return sums;
+    }
+
+    /**
+     * Return the number of statistics in this result.
+     *
+     * @return the number of statistics aggregated
+     */
+    public int size() {
+	return statistics.length;
+    }
+
+    /**
+     * Return the name of an aggregated statistic.
+     *
+     * @param i the index of the statistic
+     *
+     * @return the name of the statistic
+     */
+    public String getStatistic(final int i) {
+	return statistics[i];
+    }
+
+    /**
+     * Return the sum of a statistic across the kstats that contain it.
+     *
+     * @param i the index of the statistic
+     *
+     * @return the sum of the statistic
+     */
+    public long getSum(final int i) {
+	return sums[i];
+    }
+
+    /**
+     * Return the number of kstats containing a statistic.
+     *
+     * @param i the index of the statistic
+     *
+     * @return the number of kstats with a numeric value for the statistic
+     */
+    public int getCount(final int i) {
+	return counts[i];
+    }
+
+    /**
+     * Return the smallest value of a statistic.
+     *
+     * @param i the index of the statistic
+     *
+     * @return the minimum value of the statistic, or zero if no kstat
+     * contains it
+     */
+    public long getMin(final int i) {
+	return (counts[i] == 0) ? 0L : mins[i];
+    }
+
+    /**
+     * Return the largest value of a statistic.
+     *
+     * @param i the index of the statistic
+     *
+     * @return the maximum value of the statistic, or zero if no kstat
+     * contains it
+     */
+    public long getMax(final int i) {
+	return (counts[i] == 0) ? 0L : maxs[i];
+    }
+
+    /**
+     * Return the mean value of a statistic across the kstats that contain
+     * it.
+     *
+     * @param i the index of the statistic
+     *
+     * @return the mean value of the statistic, or zero if no kstat contains
+     * it
+     */
+    public double getMean(final int i) {
+	return (counts[i] == 0) ? 0.0 : sums[i] / (double) counts[i];
+    }
+
+    /**
+     * Return the rate of change per second of the sum of a statistic,
+     * between an earlier result and this one.
+     *
+     * @param i the index of the statistic
+     * @param previous an earlier result for the same statistics
+     *
+     * @return the rate of change of the sum of the statistic, or zero if no
+     * time has elapsed
+     */
+    public double getRate(final int i, final KstatAggregateResult previous) {
+	long dt = snaptime - previous.snaptime;
+	if (dt <= 0) {
+	    return 0.0;
+	}
+	return 1000000000.0 * (sums[i] - previous.sums[i]) / dt;
+    }
+
+    /**
+     * Return the most recent snaptime of the aggregated kstats.
+     *
+     * @return the most recent snaptime, in nanoseconds
+     */
+    public long getSnaptime() {
+	return snaptime;
+    }
+
+    /**
+     * Return the creation time of the oldest aggregated kstat.
+     *
+     * @return the oldest creation time, in nanoseconds
+     */
+    public long getCrtime() {
+	return crtime;
+    }
+
+    /**
+     * Return the number of kstats aggregated.
+     *
+     * @return the number of kstats in the aggregate when this result was
+     * calculated
+     */
+    public int getKstatCount() {
+	return nkstats;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Represents one generation of the kstat chain, identified by its chain id.
+ * A {@code KstatChain} is immutable once created, so it can be shared freely
+ * between threads without copying or locking. When the kstat chain changes,
+ * a {@code JKstat} publishes a new {@code KstatChain} rather than modifying
+ * the existing one.
+ *
+ * <p>Each generation also carries an index of its kstats by module, name,
+ * and class, built the first time it's needed, which allows a
+ * {@code KstatFilter} to find candidates without walking the whole chain.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatChain {
+
+    private final int kcid;
+    private final Set<Kstat> kstats;
+    private volatile Index index;
+
+    /**
+     * Creates a new {@code KstatChain}. The supplied {@code Set} is wrapped
+     * rather than copied, so the caller must not modify it afterwards.
+     *
+     * @param nkcid the chain id of this generation
+     * @param nkstats the {@code Set} of {@code Kstat}s in this generation
+     */
+    public KstatChain(final int nkcid, final Set<Kstat> nkstats) {
+	kcid = nkcid;
+	kstats = Collections.unmodifiableSet(nkstats);
+    }
+
+    /**
+     * Gets the chain id of this generation.
+     *
+     * @return the kstat chain id this generation was enumerated at
+     */
+    public int getKCID() {
+	return kcid;
+    }
+
+    /**
+     * Gets the {@code Kstat}s in this generation. The returned {@code Set}
+     * is unmodifiable.
+     *
+     * @return an unmodifiable {@code Set} of the {@code Kstat}s in this
+     * generation of the chain
+     */
+    public Set<Kstat> getKstats() {
+	return kstats;
+    }
+
+    /**
+     * Gets the number of {@code Kstat}s in this generation.
+     *
+     * @return the number of {@code Kstat}s in this generation of the chain
+     */
+    public int size() {
+	return kstats.size();
+    }
+
+    /*
+     * Return the index, building it if necessary. Two threads may race to
+     * build it; both will build identical indexes and it doesn't matter
+     * which one wins.
+     */
+    Index getIndex() {
+	Index idx = index;
+	if (idx == null) {
+	    idx = new Index(kstats);
+	    index = idx;
+	}
+	return idx;
+    }
+
+    /**
+     * A group of kstats sharing the same module, name, and class, and
+     * therefore the same {@code KstatSchema}.
+     */
+    static final class Group {
+	final String module;
+	final String name;
+	final String kstatClass;
+	final List<Kstat> members = new ArrayList<>();
+
+	Group(final String gmodule, final String gname, final String gclass) {
+	    module = gmodule;
+	    name = gname;
+	    kstatClass = gclass;
+	}
+    }
+
+    /**
+     * An index of the kstats in a generation, grouped by module, name, and
+     * class, with the groups themselves indexed by each of those.
+     */
+    static final class Index {
+	final List<Group> groups = new ArrayList<>();
+	final Map<String, List<Group>> byModule = new HashMap<>();
+	final Map<String, List<Group>> byName = new HashMap<>();
+	final Map<String, List<Group>> byClass = new HashMap<>();
+
+	Index(final Set<Kstat> nkstats) {
+	    Map<String, Map<String, Map<String, Group>>> gmap
+		= new HashMap<>();
+	    for (Kstat ks : nkstats) {
+		String kclass = (ks.getKstatClass() == null) ? ""
+		    : ks.getKstatClass();
+		Map<String, Group> cmap = gmap.computeIfAbsent(ks.getModule(),
+					k -> new HashMap<>())
+		    .computeIfAbsent(ks.getName(), k -> new HashMap<>());
+		Group g = cmap.get(kclass);
+		if (g == null) {
+		    g = new Group(ks.getModule(), ks.getName(), kclass);
+		    cmap.put(kclass, g);
+		    groups.add(g);
+		    byModule.computeIfAbsent(g.module,
+				k -> new ArrayList<>()).add(g);
+		    byName.computeIfAbsent(g.name,
+				k -> new ArrayList<>()).add(g);
+		    byClass.computeIfAbsent(g.kstatClass,
+				k -> new ArrayList<>()).add(g);
+		}
+		g.members.add(ks);
+	    }
+	}
+    }
+}
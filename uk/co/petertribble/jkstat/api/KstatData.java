@@ -71,6 +71,12 @@ public class KstatData implements Serializable {
 	 * Data is a string.
 	 */
         KSTAT_DATA_STRING(9, false);
+
+        /*
+         * Cached, as values() allocates a new array on every call.
+         */
+        private static final Type[] TYPES = values();
+
         private final int intType;
         private final boolean numeric;
 
@@ -105,7 +111,7 @@ public class KstatData implements Serializable {
 	 * @return the Type corresponding to the argument
 	 */
         public static Type toType(final int intType) {
-            for (Type type : values()) {
+            for (Type type : TYPES) {
                 if (intType == type.toInt()) {
                     return type;
                 }
@@ -114,6 +120,13 @@ public class KstatData implements Serializable {
             throw new IllegalArgumentException("Illegal Type Numeric Value ("
                     + intType + ")");
         }
+
+	/*
+	 * Return a Type by ordinal, without allocating.
+	 */
+        static Type fromOrdinal(final int ordinal) {
+            return TYPES[ordinal];
+        }
     }
 
     /**
@@ -0,0 +1,192 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The difference between two {@code KstatSnapshot}s, as returned by
+ * {@link KstatSnapshot#diff}.
+ *
+ * <p>Each updated kstat is given an index, in the order returned by
+ * {@link #getUpdated}. The deltas and rates for that kstat are held in
+ * primitive arrays indexed by slot in the kstat's {@code KstatSchema}, so
+ * that a statistic's slot can be looked up once and then used for every
+ * kstat sharing the schema. Slots holding a statistic that isn't numeric in
+ * both snapshots have a delta of zero and a rate of NaN.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatDiff {
+
+    private final Set<Kstat> added = new HashSet<>();
+    private final Set<Kstat> removed = new HashSet<>();
+    private final List<Kstat> updated = new ArrayList<>();
+    private final List<long[]> deltas = new ArrayList<>();
+    private final List<double[]> rates = new ArrayList<>();
+    private final long[] intervals;
+    private int unchanged;
+
+    KstatDiff(final Map<Kstat, Kstat> pmap, final Map<Kstat, Kstat> cmap) {
+	intervals = new long[cmap.size()];
+	for (Kstat pks : pmap.keySet()) {
+	    if (!cmap.containsKey(pks)) {
+		removed.add(pks);
+	    }
+	}
+	for (Kstat cks : cmap.keySet()) {
+	    Kstat pks = pmap.get(cks);
+	    if (pks == null) {
+		added.add(cks);
+	    } else if (pks.getCrtime() != cks.getCrtime()) {
+		removed.add(pks);
+		added.add(cks);
+	    } else if (pks.getSnaptime() == cks.getSnaptime()) {
+		unchanged++;
+	    } else {
+		delta(pks, cks);
+	    }
+	}
+    }
+
+    /*
+     * Work out the deltas and rates for a kstat that has been updated.
+     */
+    private void delta(final Kstat pks, final Kstat cks) {
+	KstatSchema schema = cks.getSchema();
+	int n = (schema == null) ? 0 : schema.size();
+	long[] ld = new long[n];
+	double[] dr = new double[n];
+	long dt = cks.getSnaptime() - pks.getSnaptime();
+	KstatSchema pschema = pks.getSchema();
+	for (int i = 0; i < n; i++) {
+	    if (cks.isNumeric(i)) {
+		/*
+		 * Schemas are shared, so the slots will almost always be the
+		 * same, unless the kstat class has changed.
+		 */
+		int pslot = i;
+		if (pschema != schema) {
+		    pslot = (pschema == null) ? -1
+			: pschema.getSlot(schema.getStatistic(i));
+		}
+		if (pks.isNumeric(pslot)) {
+		    ld[i] = cks.longData(i) - pks.longData(pslot);
+		    dr[i] = 1000000000.0 * ld[i] / dt;
+		    continue;
+		}
+	    }
+	    dr[i] = Double.NaN;
+	}
+	intervals[updated.size()] = dt;
+	updated.add(cks);
+	deltas.add(ld);
+	rates.add(dr);
+    }
+
+    /**
+     * Get the kstats present in the current snapshot but not the previous
+     * one.
+     *
+     * @return an unmodifiable {@code Set} of the added {@code Kstat}s
+     */
+    public Set<Kstat> getAdded() {
+	return Collections.unmodifiableSet(added);
+    }
+
+    /**
+     * Get the kstats present in the previous snapshot but not the current
+     * one.
+     *
+     * @return an unmodifiable {@code Set} of the removed {@code Kstat}s
+     */
+    public Set<Kstat> getRemoved() {
+	return Collections.unmodifiableSet(removed);
+    }
+
+    /**
+     * Get the kstats present in both snapshots whose data was updated in
+     * between, as captured in the current snapshot. The position of a
+     * {@code Kstat} in this {@code List} is the index used to retrieve its
+     * deltas and rates.
+     *
+     * @return an unmodifiable {@code List} of the updated {@code Kstat}s
+     */
+    public List<Kstat> getUpdated() {
+	return Collections.unmodifiableList(updated);
+    }
+
+    /**
+     * Get the number of kstats present in both snapshots whose data wasn't
+     * updated in between.
+     *
+     * @return the number of unchanged kstats
+     */
+    public int getUnchangedCount() {
+	return unchanged;
+    }
+
+    /**
+     * Get the change in each statistic of an updated kstat. The returned
+     * array is indexed by slot in the kstat's {@code KstatSchema}, and is
+     * shared, so must not be modified.
+     *
+     * @param i the index of the kstat in {@link #getUpdated}
+     *
+     * @return the deltas of the kstat's statistics
+     */
+    public long[] getDeltas(final int i) {
+	return deltas.get(i);
+    }
+
+    /**
+     * Get the rate of change per second of each statistic of an updated
+     * kstat. The returned array is indexed by slot in the kstat's
+     * {@code KstatSchema}, and is shared, so must not be modified.
+     *
+     * @param i the index of the kstat in {@link #getUpdated}
+     *
+     * @return the rates of change of the kstat's statistics
+     */
+    public double[] getRates(final int i) {
+	return rates.get(i);
+    }
+
+    /**
+     * Get the time between the two readings of an updated kstat.
+     *
+     * @param i the index of the kstat in {@link #getUpdated}
+     *
+     * @return the difference in snaptime, in nanoseconds
+     */
+    public long getInterval(final int i) {
+	if (i >= updated.size()) {
+	    throw new IndexOutOfBoundsException("No updated kstat " + i);
+	}
+	return intervals[i];
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes the distribution of a rate across all the kstats in a
+ * {@code KstatSet} at each interval, so that, for example, the one disk
+ * out of hundreds that's 100% busy isn't hidden by an aggregate. Each
+ * member of the set is tracked by a {@code ChartableKstat}, or by a
+ * {@code ChartableIOKstat} for I/O kstats, so any rate they present can
+ * be summarised. A kstat is only part of the distribution once it has
+ * been read, and leaves it if a read misses it, rejoining, with its rates
+ * starting afresh, when it can be read again.
+ *
+ * <p>Percentiles are calculated by selection rather than by sorting, so
+ * summarising a rate takes time proportional to the number of kstats.
+ * Percentiles use the nearest rank method, so are always the rate of one
+ * of the kstats.
+ *
+ * @author Peter Tribble
+ */
+public class KstatDistribution {
+
+    private JKstat jkstat;
+    private final KstatSet kss;
+    private final Map<Kstat, ChartableKstat> members = new HashMap<>();
+    /*
+     * Kstats in the set that haven't yet been read.
+     */
+    private final Set<Kstat> pending = new HashSet<>();
+    /*
+     * Scratch space for selection, reused between calls.
+     */
+    private ChartableKstat[] memberv = new ChartableKstat[0];
+    private double[] values = new double[0];
+    private int[] order = new int[0];
+    private int nvalues;
+
+    /**
+     * Create a {@code KstatDistribution} covering the kstats in the given
+     * {@code KstatSet}. The kstats are read immediately.
+     *
+     * @param njkstat a {@code JKstat}
+     * @param nkss the {@code KstatSet} of interest
+     */
+    public KstatDistribution(final JKstat njkstat, final KstatSet nkss) {
+	jkstat = njkstat;
+	kss = nkss;
+	pending.addAll(kss.getKstats());
+	read();
+    }
+
+    /*
+     * Start tracking a kstat from data already read.
+     */
+    private ChartableKstat newMember(final Kstat nks) {
+	return (nks.getType() == KstatType.KSTAT_TYPE_IO)
+	    ? new ChartableIOKstat(jkstat, nks, false)
+	    : new ChartableKstat(jkstat, nks, true, false);
+    }
+
+    /**
+     * Connect to a different {@code JKstat} object, such as a new instance
+     * of a {@code SequencedJKstat} created by a chart.
+     *
+     * @param njkstat a {@code JKstat}
+     */
+    public synchronized void setJKstat(final JKstat njkstat) {
+	jkstat = njkstat;
+	kss.setJKstat(njkstat);
+	for (ChartableKstat cks : members.values()) {
+	    cks.setJKstat(njkstat);
+	}
+    }
+
+    /**
+     * Read all the kstats in a single bulk read, updating their rates.
+     * Kstats that have been added to the set since the last read are
+     * tracked from now on, and those that have gone, or that the read
+     * missed, are dropped.
+     */
+    public synchronized void read() {
+	if (kss.chainupdate() != 0) {
+	    for (Kstat ks : kss.getDeletedKstats()) {
+		members.remove(ks);
+		pending.remove(ks);
+	    }
+	    pending.addAll(kss.getAddedKstats());
+	}
+	List<Kstat> wanted = new ArrayList<>(members.size() + pending.size());
+	wanted.addAll(members.keySet());
+	wanted.addAll(pending);
+	Map<Kstat, Kstat> data = jkstat.getKstats(wanted);
+	/*
+	 * A member the read missed would otherwise keep its old rates, so
+	 * it leaves the distribution until it can be read again.
+	 */
+	Iterator<Map.Entry<Kstat, ChartableKstat>> it
+	    = members.entrySet().iterator();
+	while (it.hasNext()) {
+	    Map.Entry<Kstat, ChartableKstat> me = it.next();
+	    Kstat nks = data.get(me.getKey());
+	    if (nks == null) {
+		it.remove();
+		pending.add(me.getKey());
+	    } else {
+		me.getValue().update(nks);
+	    }
+	}
+	Iterator<Kstat> pit = pending.iterator();
+	while (pit.hasNext()) {
+	    Kstat ks = pit.next();
+	    Kstat nks = data.get(ks);
+	    if (nks != null) {
+		members.put(ks, newMember(nks));
+		pit.remove();
+	    }
+	}
+    }
+
+    /**
+     * Return the number of kstats being tracked.
+     *
+     * @return the number of kstats in the distribution
+     */
+    public synchronized int size() {
+	return members.size();
+    }
+
+    /**
+     * Summarise the distribution of a rate as of the last read. The
+     * percentiles should be given in increasing order, as each selection
+     * then only needs to search the part of the data above the previous
+     * one.
+     *
+     * @param rate the name of the rate, as presented by
+     * {@code ChartableKstat.getRate()}
+     * @param percentiles the percentiles required, in increasing order,
+     * between 0 and 100
+     * @param results an array, at least as long as percentiles, to hold
+     * the value at each percentile
+     *
+     * @return the number of kstats in the distribution, or zero if there
+     * are none, in which case the results are unchanged
+     */
+    public synchronized int getPercentiles(final String rate,
+					   final double[] percentiles,
+					   final double[] results) {
+	gather(rate);
+	if (nvalues == 0) {
+	    return 0;
+	}
+	int from = 0;
+	for (int i = 0; i < percentiles.length; i++) {
+	    int k = rank(percentiles[i]);
+	    if (k < from) {
+		from = 0;
+	    }
+	    select(from, nvalues - 1, k);
+	    results[i] = values[order[k]];
+	    from = k;
+	}
+	return nvalues;
+    }
+
+    /**
+     * Return the value of a rate at the given percentile, as of the last
+     * read.
+     *
+     * @param rate the name of the rate
+     * @param percentile the percentile required, between 0 and 100
+     *
+     * @return the value of the rate at the given percentile, or zero if
+     * there are no kstats
+     */
+    public double getPercentile(final String rate, final double percentile) {
+	double[] result = new double[1];
+	getPercentiles(rate, new double[] {percentile}, result);
+	return result[0];
+    }
+
+    /**
+     * Return the mean value of a rate across the kstats, as of the last
+     * read.
+     *
+     * @param rate the name of the rate
+     *
+     * @return the mean value of the rate, or zero if there are no kstats
+     */
+    public synchronized double getMean(final String rate) {
+	gather(rate);
+	double sum = 0.0;
+	for (int i = 0; i < nvalues; i++) {
+	    sum += values[i];
+	}
+	return (nvalues == 0) ? 0.0 : sum / nvalues;
+    }
+
+    /**
+     * Return the kstats with the highest values of a rate, as of the last
+     * read, highest first.
+     *
+     * @param rate the name of the rate
+     * @param n the maximum number of kstats to return
+     *
+     * @return a {@code List} of the n kstats with the highest rates
+     */
+    public synchronized List<Kstat> getTop(final String rate, final int n) {
+	gather(rate);
+	int m = Math.min(n, nvalues);
+	List<Kstat> top = new ArrayList<>(m);
+	if (m == 0) {
+	    return top;
+	}
+	/*
+	 * After selecting the m'th highest, everything above it is higher,
+	 * and only those m need sorting.
+	 */
+	int k = nvalues - m;
+	select(0, nvalues - 1, k);
+	sort(k, nvalues - 1);
+	for (int i = nvalues - 1; i >= k; i--) {
+	    top.add(memberv[order[i]].getKstat());
+	}
+	return top;
+    }
+
+    /*
+     * Copy the current values of a rate into the scratch arrays, skipping
+     * any that aren't numbers.
+     */
+    private void gather(final String rate) {
+	int n = members.size();
+	if (values.length < n) {
+	    values = new double[n];
+	    order = new int[n];
+	    memberv = new ChartableKstat[n];
+	}
+	nvalues = 0;
+	for (ChartableKstat cks : members.values()) {
+	    double d = cks.getRate(rate);
+	    if (!Double.isNaN(d)) {
+		values[nvalues] = d;
+		memberv[nvalues] = cks;
+		order[nvalues] = nvalues;
+		nvalues++;
+	    }
+	}
+    }
+
+    /*
+     * The nearest rank of a percentile, as a zero-based index.
+     */
+    private int rank(final double percentile) {
+	int k = (int) Math.ceil(percentile * nvalues / 100.0) - 1;
+	return Math.max(0, Math.min(nvalues - 1, k));
+    }
+
+    /*
+     * Quickselect, rearranging order[lo..hi] so that order[k] holds the
+     * index of the k'th smallest value, with smaller values before it and
+     * larger values after it.
+     */
+    private void select(final int from, final int to, final int k) {
+	int lo = from;
+	int hi = to;
+	while (hi > lo) {
+	    int mid = (lo + hi) >>> 1;
+	    /*
+	     * Median of three, so that sorted input isn't quadratic.
+	     */
+	    if (value(mid) < value(lo)) {
+		swap(mid, lo);
+	    }
+	    if (value(hi) < value(lo)) {
+		swap(hi, lo);
+	    }
+	    if (value(hi) < value(mid)) {
+		swap(hi, mid);
+	    }
+	    double pivot = value(mid);
+	    int i = lo;
+	    int j = hi;
+	    while (i <= j) {
+		while (value(i) < pivot) {
+		    i++;
+		}
+		while (value(j) > pivot) {
+		    j--;
+		}
+		if (i <= j) {
+		    swap(i, j);
+		    i++;
+		    j--;
+		}
+	    }
+	    if (k <= j) {
+		hi = j;
+	    } else if (k >= i) {
+		lo = i;
+	    } else {
+		return;
+	    }
+	}
+    }
+
+    /*
+     * Insertion sort of order[lo..hi], used for the few values at the top.
+     */
+    private void sort(final int lo, final int hi) {
+	for (int i = lo + 1; i <= hi; i++) {
+	    int o = order[i];
+	    int j = i - 1;
+	    while ((j >= lo) && (values[order[j]] > values[o])) {
+		order[j + 1] = order[j];
+		j--;
+	    }
+	    order[j + 1] = o;
+	}
+    }
+
+    private double value(final int i) {
+	return values[order[i]];
+    }
+
+    private void swap(final int i, final int j) {
+	int t = order[i];
+	order[i] = order[j];
+	order[j] = t;
+    }
+
+    /**
+     * Returns a String representation of this {@code KstatDistribution}.
+     *
+     * @return the title of the underlying {@code KstatSet}
+     */
+    @Override
+    public String toString() {
+	return (kss.toString() == null) ? "kstats" : kss.toString();
+    }
+}
@@ -20,7 +20,11 @@
 
 package uk.co.petertribble.jkstat.api;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -33,6 +37,13 @@ import java.util.TreeSet;
  * <p>Filtering by type is only likely to be useful for kstats of types
  * KSTAT_TYPE_IO and KSTAT_TYPE_INTR.
  *
+ * <p>Filters are evaluated against the index held by the current
+ * {@code KstatChain}, so that a filter naming a module, a name, or a class
+ * only examines the kstats that could possibly match. Filters on a
+ * statistic are answered from the {@code KstatSchema} shared by kstats of
+ * the same module, name, and class, so at most one kstat of each such
+ * family needs to be read.
+ *
  * @author Peter Tribble
  */
 public class KstatFilter {
@@ -80,7 +91,9 @@ public class KstatFilter {
      * Add a filter of the form "module:instance:name:statistic", where the
      * components of the kstat specification are delimited by a ":". Kstats
      * that match this filter will be returned. If any component is left
-     * unspecified (blank) or is "*", then match any value.
+     * unspecified (blank) or is "*", then match any value. The module, name,
+     * and statistic may be glob patterns such as "sd*", where "*" matches
+     * any sequence of characters and "?" matches any single character.
      *
      * <p>Shortened versions of the filter such as "sd" will result in a match
      * to just those components specified. Expressions with more than 3
@@ -96,7 +109,8 @@ public class KstatFilter {
      * Add a filter of the form "module:instance:name:statistic", where the
      * components of the kstat specification are delimited by a ":". Kstats
      * that match this filter will not be returned. If any component is left
-     * unspecified (blank) or is "*", then match any value.
+     * unspecified (blank) or is "*", then match any value. The module and
+     * name may be glob patterns.
      *
      * <p>Shortened versions of the filter such as "sd" will result in a match
      * to just those components specified. Expressions with more than 3
@@ -180,14 +194,158 @@ public class KstatFilter {
      */
     public Set<Kstat> getKstats(final boolean sorted) {
 	Set<Kstat> matchset = sorted ? new TreeSet<>() : new HashSet<>();
-	for (Kstat ks : jkstat.getKstats()) {
-	    if (matchFilter(ks)) {
-		matchset.add(ks);
+	KstatChain.Index idx = jkstat.getChain().getIndex();
+	if (filterList.isEmpty()) {
+	    for (KstatChain.Group g : candidates(idx, null)) {
+		matchGroup(g, null, matchset);
+	    }
+	} else {
+	    for (FilterQuartet fq : filterList) {
+		for (KstatChain.Group g : candidates(idx, fq)) {
+		    matchGroup(g, fq, matchset);
+		}
 	    }
 	}
 	return matchset;
     }
 
+    /*
+     * Return the groups of the index that could contain kstats matching
+     * any of the positive filters.
+     */
+    Collection<KstatChain.Group> candidates(final KstatChain.Index idx) {
+	if (filterList.isEmpty()) {
+	    return candidates(idx, null);
+	}
+	if (filterList.size() == 1) {
+	    return candidates(idx, filterList.iterator().next());
+	}
+	Set<KstatChain.Group> gset = new LinkedHashSet<>();
+	for (FilterQuartet fq : filterList) {
+	    gset.addAll(candidates(idx, fq));
+	}
+	return gset;
+    }
+
+    /*
+     * Choose the narrowest part of the index that can contain kstats
+     * matching the given filter. A literal module or name is the most
+     * selective, followed by the class. Only if the filter has none of
+     * those (or only glob patterns) do we need to look at everything.
+     */
+    private List<KstatChain.Group> candidates(final KstatChain.Index idx,
+					      final FilterQuartet fq) {
+	List<KstatChain.Group> lg = null;
+	if ((fq != null) && (fq.module != null) && !fq.moduleGlob) {
+	    lg = idx.byModule.get(fq.module);
+	} else if ((fq != null) && (fq.name != null) && !fq.nameGlob) {
+	    lg = idx.byName.get(fq.name);
+	} else if (filterClass != null) {
+	    lg = idx.byClass.get(filterClass);
+	} else {
+	    lg = idx.groups;
+	}
+	return (lg == null) ? Collections.emptyList() : lg;
+    }
+
+    /*
+     * Add to the match set those members of a group that match the given
+     * filter, which may be null if there are no positive filters. Module,
+     * name, and class are common to the group so are checked once, as is
+     * any statistic, leaving only the type, instance, and the negative
+     * filters to be checked per kstat.
+     */
+    private void matchGroup(final KstatChain.Group g, final FilterQuartet fq,
+			    final Set<Kstat> matchset) {
+	if ((filterClass != null) && !filterClass.equals(g.kstatClass)) {
+	    return;
+	}
+	if ((fq != null) && !(fq.matchModule(g.module)
+			      && fq.matchName(g.name))) {
+	    return;
+	}
+	boolean statchecked = false;
+	for (Kstat ks : g.members) {
+	    if ((filterType >= 0) && (ks.getType() != filterType)) {
+		continue;
+	    }
+	    if ((fq != null) && !fq.matchInstance(ks.getInst())) {
+		continue;
+	    }
+	    if (matchAnti(ks)) {
+		continue;
+	    }
+	    if ((fq != null) && (fq.statistic != null) && !statchecked) {
+		SchemaLookup lookup = new SchemaLookup(jkstat, g.module,
+					g.name, g.kstatClass, g.members);
+		if (!fq.matchStatistic(lookup)) {
+		    return;
+		}
+		statchecked = true;
+	    }
+	    matchset.add(ks);
+	}
+    }
+
+    /*
+     * Returns false if no member of the given group could possibly match
+     * this filter, judging only by the module, name, and class that the
+     * members share.
+     */
+    boolean mayMatch(final KstatChain.Group g) {
+	if ((filterClass != null) && !filterClass.equals(g.kstatClass)) {
+	    return false;
+	}
+	if (filterList.isEmpty()) {
+	    return true;
+	}
+	for (FilterQuartet fq : filterList) {
+	    if (fq.matchModule(g.module) && fq.matchName(g.name)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /*
+     * Match a single Kstat against this filter, for the benefit of a
+     * KstatFilterSet evaluating many filters in one pass. The lookup is
+     * shared between filters, so that the schema for the kstat is found
+     * (or read) at most once.
+     */
+    boolean matches(final Kstat ks, final SchemaLookup lookup) {
+	if ((filterClass != null) && !filterClass.equals(ks.getKstatClass())) {
+	    return false;
+	}
+	if ((filterType >= 0) && (ks.getType() != filterType)) {
+	    return false;
+	}
+	if (matchAnti(ks)) {
+	    return false;
+	}
+	if (filterList.isEmpty()) {
+	    return true;
+	}
+	for (FilterQuartet fq : filterList) {
+	    if (matchTriplet(ks, fq) && fq.matchStatistic(lookup)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /*
+     * Returns true if the kstat matches any of the negative filters.
+     */
+    private boolean matchAnti(final Kstat ks) {
+	for (FilterQuartet fq : antiFilterList) {
+	    if (matchTriplet(ks, fq)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
     /**
      * Return those statistics matched by this filter for the given Kstat.
      * If the Kstat is only matched because it matches a statistic by name,
@@ -236,16 +394,16 @@ public class KstatFilter {
 	}
 	for (FilterQuartet fq : filterList) {
 	    // skip this if we match on statistic
-	    if ((fq.statistic != null) && ks.hasStatistic(fq.statistic)) {
+	    if ((fq.statistic != null) && fq.matchStatistic(ks)) {
 		break;
 	    }
-	    if ((fq.module != null) && fq.module.equals(ks.getModule())) {
+	    if ((fq.module != null) && fq.matchModule(ks.getModule())) {
 		return true;
 	    }
 	    if ((fq.instance != null) && (fq.instance == ks.getInst())) {
 		return true;
 	    }
-	    if ((fq.name != null) && fq.name.equals(ks.getName())) {
+	    if ((fq.name != null) && fq.matchName(ks.getName())) {
 		return true;
 	    }
 	}
@@ -267,7 +425,16 @@ public class KstatFilter {
 	     * If the pattern has a statistic, and it matches one of the
 	     * statistics in this kstat, add it to the list.
 	     */
-	    if ((fq.statistic != null) && ks.hasStatistic(fq.statistic)) {
+	    if (fq.statistic == null) {
+		continue;
+	    }
+	    if (fq.statisticGlob) {
+		for (String stat : ks.statistics()) {
+		    if (globMatch(fq.statistic, stat)) {
+			nstats.add(stat);
+		    }
+		}
+	    } else if (ks.hasStatistic(fq.statistic)) {
 		nstats.add(fq.statistic);
 	    }
 	}
@@ -278,91 +445,50 @@ public class KstatFilter {
 	return nstats.isEmpty() ? ks.statistics() : nstats;
     }
 
+    private boolean matchTriplet(final Kstat ks, final FilterQuartet fq) {
+	return fq.matchModule(ks.getModule())
+	    && fq.matchInstance(ks.getInst())
+	    && fq.matchName(ks.getName());
+    }
+
     /*
-     * Match a Kstat against the filter. Return true if the Kstat
-     * matches the kstat class (if not null) and any of the filters.
-     *
-     * If the kstat to be checked is null, or is read and later found to be
-     * null, then return false. These null values indicate invalid kstats
-     * (perhaps they've disappeared), and as such they shouldn't appear
-     * in the list of matching kstats. These null kstats are not a sign
-     * of an error - kstats vanish as a matter of course.
-     *
-     * @param ks the Kstat to be matched against the filter
-     *
-     * @return true if the Kstat matches the filter
+     * Returns true if the string contains glob metacharacters.
      */
-    private boolean matchFilter(final Kstat ks) {
-	if (ks == null) {
-	    // invalid kstat, we definitely don't want it
-	    return false;
-	}
-	/*
-	 * If we fail to match the class, return false immediately
-	 */
-	if ((filterClass != null) && !filterClass.equals(ks.getKstatClass())) {
-	    return false;
-	}
-	/*
-	 * If we fail to match the type, return false immediately
-	 */
-	if ((filterType >= 0) && (ks.getType() != filterType)) {
-	    return false;
-	}
-	/*
-	 * We passed the match against class and type, now check through the
-	 * filters. First, look through any negative filters.
-	 */
-	for (FilterQuartet fq : antiFilterList) {
-	    if (matchTriplet(ks, fq)) {
+    private static boolean isGlob(final String s) {
+	return (s != null) && ((s.indexOf('*') >= 0) || (s.indexOf('?') >= 0));
+    }
+
+    /*
+     * Match a string against a glob pattern, where '*' matches any sequence
+     * of characters and '?' matches any single character. This is the usual
+     * greedy match, backtracking to the most recent '*' on a mismatch.
+     */
+    static boolean globMatch(final String pattern, final String s) {
+	int p = 0;
+	int i = 0;
+	int star = -1;
+	int mark = 0;
+	while (i < s.length()) {
+	    if ((p < pattern.length()) && ((pattern.charAt(p) == '?')
+				|| (pattern.charAt(p) == s.charAt(i)))) {
+		p++;
+		i++;
+	    } else if ((p < pattern.length()) && (pattern.charAt(p) == '*')) {
+		star = p;
+		mark = i;
+		p++;
+	    } else if (star >= 0) {
+		p = star + 1;
+		mark++;
+		i = mark;
+	    } else {
 		return false;
 	    }
 	}
-	/*
-	 * If there are no filters we definitely match.
-	 */
-	if (filterList.isEmpty()) {
-	    return true;
+	while ((p < pattern.length()) && (pattern.charAt(p) == '*')) {
+	    p++;
 	}
-	/*
-	 * Iterate through the filters,
-	 */
-	for (FilterQuartet fq : filterList) {
-	    /*
-	     * To check against statistics involves reading the data for this
-	     * Kstat, which isn't normally done by the enumeration. So we must
-	     * read the Kstat to initialize the statistics hash. As this
-	     * operation is expensive, only do it if we need to.
-	     */
-	    if (matchTriplet(ks, fq)) {
-		if (fq.statistic == null) {
-		    return true;
-		} else {
-		    Kstat nks = jkstat.getKstat(ks);
-		    // if not a valid kstat, then it shouldn't match
-		    if (nks == null) {
-			return false;
-		    }
-		    if (nks.hasStatistic(fq.statistic)) {
-			return true;
-		    }
-		}
-	    }
-	}
-	/*
-	 * If we get this far we don't match anything.
-	 */
-	return false;
-    }
-
-    private boolean matchTriplet(final Kstat ks, final FilterQuartet fq) {
-	boolean mmatch
-	    = (fq.module == null) || fq.module.equals(ks.getModule());
-	boolean imatch
-	    = (fq.instance == null) || fq.instance == ks.getInst();
-	boolean nmatch
-	    = (fq.name == null) || fq.name.equals(ks.getName());
-	return mmatch && imatch && nmatch;
+	return p == pattern.length();
     }
 
     /**
@@ -373,6 +499,9 @@ public class KstatFilter {
 	protected Integer instance;
 	protected String name;
 	protected String statistic;
+	protected boolean moduleGlob;
+	protected boolean nameGlob;
+	protected boolean statisticGlob;
 
 	FilterQuartet(final String fmodule, final Integer finstance,
 		      final String fname, final String fstatistic) {
@@ -380,6 +509,117 @@ public class KstatFilter {
 	    instance = finstance;
 	    name = fname;
 	    statistic = fstatistic;
+	    moduleGlob = isGlob(module);
+	    nameGlob = isGlob(name);
+	    statisticGlob = isGlob(statistic);
+	}
+
+	boolean matchModule(final String s) {
+	    return (module == null)
+		|| (moduleGlob ? globMatch(module, s) : module.equals(s));
+	}
+
+	boolean matchInstance(final int i) {
+	    return (instance == null) || (instance == i);
+	}
+
+	boolean matchName(final String s) {
+	    return (name == null)
+		|| (nameGlob ? globMatch(name, s) : name.equals(s));
+	}
+
+	/*
+	 * Match against a Kstat that has had its data read.
+	 */
+	boolean matchStatistic(final Kstat ks) {
+	    if (statistic == null) {
+		return true;
+	    }
+	    if (!statisticGlob) {
+		return ks.hasStatistic(statistic);
+	    }
+	    for (String stat : ks.statistics()) {
+		if (globMatch(statistic, stat)) {
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	/*
+	 * Match against the statistics known to the schema of a family of
+	 * kstats.
+	 */
+	boolean matchStatistic(final SchemaLookup lookup) {
+	    if (statistic == null) {
+		return true;
+	    }
+	    KstatSchema schema = lookup.getSchema();
+	    if (schema == null) {
+		return false;
+	    }
+	    if (!statisticGlob) {
+		return schema.hasStatistic(statistic);
+	    }
+	    for (int i = 0; i < schema.size(); i++) {
+		if (globMatch(statistic, schema.getStatistic(i))) {
+		    return true;
+		}
+	    }
+	    return false;
+	}
+    }
+
+    /**
+     * Finds the schema shared by a family of kstats with the same module,
+     * name, and class, for checking which statistics they have. A member
+     * that already holds data carries its schema, otherwise the schema may
+     * still be interned from other kstats of the family. Failing that,
+     * read one member so that its schema is populated. If none of the
+     * members can be read then they're no longer valid kstats, and there's
+     * no schema. The result is remembered, so however many filters ask,
+     * the work is done at most once.
+     */
+    static final class SchemaLookup {
+	private final JKstat jkstat;
+	private final String module;
+	private final String name;
+	private final String kstatClass;
+	private final Collection<Kstat> members;
+	private boolean resolved;
+	private KstatSchema schema;
+
+	SchemaLookup(final JKstat njkstat, final String lmodule,
+		     final String lname, final String lclass,
+		     final Collection<Kstat> lmembers) {
+	    jkstat = njkstat;
+	    module = lmodule;
+	    name = lname;
+	    kstatClass = lclass;
+	    members = lmembers;
+	}
+
+	KstatSchema getSchema() {
+	    if (!resolved) {
+		resolved = true;
+		for (Kstat ks : members) {
+		    schema = ks.getSchema();
+		    if (schema != null) {
+			return schema;
+		    }
+		}
+		schema = KstatSchema.findSchema(module, name, kstatClass);
+		if (schema == null) {
+		    for (Kstat ks : members) {
+			Kstat nks = jkstat.getKstat(ks);
+			if (nks != null) {
+			    schema = nks.getSchema();
+			    break;
+			}
+		    }
+		}
+	    }
+	    return schema;
 	}
     }
 }
@@ -0,0 +1,309 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Evaluates a number of {@code KstatFilter}s together. All the filters are
+ * matched in one pass over the index of the kstat chain, and any work
+ * common to the filters, such as reading a kstat to discover which
+ * statistics it has, is done once rather than once per filter.
+ *
+ * <p>Each matched {@code Kstat} is given a position, and the result of each
+ * filter is held as a {@code BitSet} of those positions. When the kstat
+ * chain changes, only kstats that have been added are evaluated, and those
+ * that have been removed are cleared, so a {@code KstatFilterSet} can be
+ * kept for the lifetime of an application and is much cheaper to bring up
+ * to date than evaluating each filter afresh.
+ *
+ * <p>Filters should be fully configured before they are added, as changes
+ * made to a filter afterwards won't be noticed.
+ *
+ * @author Peter Tribble
+ */
+public class KstatFilterSet {
+
+    private final JKstat jkstat;
+    private final List<KstatFilter> filters = new ArrayList<>();
+    private final List<BitSet> results = new ArrayList<>();
+    /*
+     * The matched kstats, by position, and the reverse map. Positions
+     * freed by kstats leaving the chain are reused.
+     */
+    private final List<Kstat> positions = new ArrayList<>();
+    private final Map<Kstat, Integer> posmap = new HashMap<>();
+    private final BitSet used = new BitSet();
+    /*
+     * The generation of the chain we were last updated against, and the
+     * index of the first filter not yet evaluated against it.
+     */
+    private KstatChain chain;
+    private int evaluated;
+
+    /**
+     * Create an empty {@code KstatFilterSet}.
+     *
+     * @param njkstat a {@code JKstat} object
+     */
+    public KstatFilterSet(final JKstat njkstat) {
+	jkstat = njkstat;
+    }
+
+    /**
+     * Add a filter to this set. The new filter will be evaluated at the
+     * next update.
+     *
+     * @param ksf the {@code KstatFilter} to add
+     *
+     * @return the index of the filter, to be used to retrieve its matches
+     */
+    public synchronized int addFilter(final KstatFilter ksf) {
+	filters.add(ksf);
+	results.add(new BitSet());
+	return filters.size() - 1;
+    }
+
+    /**
+     * Remove a filter from this set. The filter is no longer evaluated,
+     * and matches nothing. The indexes of the other filters are unchanged.
+     *
+     * @param i the index of the filter, as returned by {@link #addFilter}
+     */
+    public synchronized void removeFilter(final int i) {
+	if (filters.get(i) == null) {
+	    return;
+	}
+	filters.set(i, null);
+	BitSet bs = results.get(i);
+	results.set(i, new BitSet());
+	/*
+	 * Free the positions of any kstats no other filter matches.
+	 */
+	for (int pos = bs.nextSetBit(0); pos >= 0;
+		pos = bs.nextSetBit(pos + 1)) {
+	    boolean matched = false;
+	    for (BitSet obs : results) {
+		if (obs.get(pos)) {
+		    matched = true;
+		    break;
+		}
+	    }
+	    if (!matched) {
+		posmap.remove(positions.get(pos));
+		positions.set(pos, null);
+		used.clear(pos);
+	    }
+	}
+    }
+
+    /**
+     * Return the number of filters in this set.
+     *
+     * @return the number of filters in this set
+     */
+    public synchronized int size() {
+	return filters.size();
+    }
+
+    /**
+     * Bring the results of all the filters up to date with the current
+     * kstat chain. If the chain has changed since the last update, only
+     * those kstats added to or removed from the chain are evaluated.
+     *
+     * @return true if the chain had changed or new filters were evaluated
+     */
+    public synchronized boolean update() {
+	KstatChain nchain = jkstat.getChain();
+	int nfilters = filters.size();
+	if ((nchain == chain) && (evaluated == nfilters)) {
+	    return false;
+	}
+	KstatChain.Index idx = nchain.getIndex();
+	/*
+	 * Lookups are shared by all the filters looking at a group, so that
+	 * the group's schema is resolved at most once.
+	 */
+	Map<KstatChain.Group, KstatFilter.SchemaLookup> lookups
+	    = new IdentityHashMap<>();
+	if ((chain != null) && (nchain != chain)) {
+	    Set<Kstat> oldks = chain.getKstats();
+	    Set<Kstat> newks = nchain.getKstats();
+	    for (Kstat ks : oldks) {
+		if (!newks.contains(ks)) {
+		    release(ks);
+		}
+	    }
+	    /*
+	     * Existing filters only need to see kstats that are new to us.
+	     */
+	    List<Kstat> added = new ArrayList<>();
+	    for (KstatChain.Group g : idx.groups) {
+		added.clear();
+		for (Kstat ks : g.members) {
+		    if (!oldks.contains(ks)) {
+			added.add(ks);
+		    }
+		}
+		if (added.isEmpty()) {
+		    continue;
+		}
+		for (int i = 0; i < evaluated; i++) {
+		    KstatFilter ksf = filters.get(i);
+		    if ((ksf != null) && ksf.mayMatch(g)) {
+			match(ksf, results.get(i), added, lookup(lookups, g));
+		    }
+		}
+	    }
+	}
+	/*
+	 * New filters need to see everything they could match.
+	 */
+	for (int i = evaluated; i < nfilters; i++) {
+	    KstatFilter ksf = filters.get(i);
+	    if (ksf == null) {
+		continue;
+	    }
+	    for (KstatChain.Group g : ksf.candidates(idx)) {
+		if (ksf.mayMatch(g)) {
+		    match(ksf, results.get(i), g.members, lookup(lookups, g));
+		}
+	    }
+	}
+	chain = nchain;
+	evaluated = nfilters;
+	return true;
+    }
+
+    private KstatFilter.SchemaLookup lookup(
+		final Map<KstatChain.Group, KstatFilter.SchemaLookup> lookups,
+		final KstatChain.Group g) {
+	return lookups.computeIfAbsent(g,
+		k -> new KstatFilter.SchemaLookup(jkstat, g.module, g.name,
+						g.kstatClass, g.members));
+    }
+
+    /*
+     * Evaluate the given kstats against a filter, recording any matches.
+     */
+    private void match(final KstatFilter ksf, final BitSet bs,
+		       final List<Kstat> lks,
+		       final KstatFilter.SchemaLookup lookup) {
+	for (Kstat ks : lks) {
+	    if (ksf.matches(ks, lookup)) {
+		bs.set(position(ks));
+	    }
+	}
+    }
+
+    /*
+     * A kstat has left the chain, so clear it from every result and free
+     * its position.
+     */
+    private void release(final Kstat ks) {
+	Integer pos = posmap.remove(ks);
+	if (pos != null) {
+	    for (BitSet bs : results) {
+		bs.clear(pos);
+	    }
+	    positions.set(pos, null);
+	    used.clear(pos);
+	}
+    }
+
+    /*
+     * Return the position of a kstat, giving it one if necessary and
+     * reusing a free position if possible. Only kstats matched by at least
+     * one filter are ever given a position.
+     */
+    private int position(final Kstat ks) {
+	Integer ipos = posmap.get(ks);
+	if (ipos != null) {
+	    return ipos;
+	}
+	int pos = used.nextClearBit(0);
+	used.set(pos);
+	if (pos == positions.size()) {
+	    positions.add(ks);
+	} else {
+	    positions.set(pos, ks);
+	}
+	posmap.put(ks, pos);
+	return pos;
+    }
+
+    /**
+     * Returns a {@code Set} of {@code Kstat}s that match the given filter,
+     * in the current kstat chain. The returned {@code Kstat}s will not be
+     * sorted.
+     *
+     * @param i the index of the filter, as returned by {@link #addFilter}
+     *
+     * @return the {@code Kstat}s that match the filter
+     */
+    public Set<Kstat> getKstats(final int i) {
+	return getKstats(i, false);
+    }
+
+    /**
+     * Returns a {@code Set} of {@code Kstat}s that match the given filter,
+     * in the current kstat chain. If requested, the {@code Kstat}s will be
+     * sorted, backed by a {@code TreeSet}.
+     *
+     * @param i the index of the filter, as returned by {@link #addFilter}
+     * @param sorted whether the returned {@code Kstat}s should be sorted
+     *
+     * @return the {@code Kstat}s that match the filter
+     */
+    public synchronized Set<Kstat> getKstats(final int i,
+					     final boolean sorted) {
+	update();
+	BitSet bs = results.get(i);
+	Set<Kstat> matchset = sorted ? new TreeSet<>()
+	    : new HashSet<>(2 * bs.cardinality());
+	for (int pos = bs.nextSetBit(0); pos >= 0;
+		pos = bs.nextSetBit(pos + 1)) {
+	    matchset.add(positions.get(pos));
+	}
+	return matchset;
+    }
+
+    /**
+     * Return the number of {@code Kstat}s that match the given filter in
+     * the current kstat chain.
+     *
+     * @param i the index of the filter, as returned by {@link #addFilter}
+     *
+     * @return the number of {@code Kstat}s that match the filter
+     */
+    public synchronized int count(final int i) {
+	update();
+	return results.get(i).cardinality();
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Aggregates the kstats in a {@code KstatSet} into groups, such as the
+ * network links of each zone or the disks on each controller, as defined
+ * by a {@code KstatGroupKey}. A single read of the kstats produces the
+ * sums of the given statistics for every group, and their rates of change.
+ *
+ * <p>The rate of a group is the sum of the rates of its members, each
+ * calculated from that member's previous reading, so that a kstat joining
+ * or leaving a group doesn't show up as a spike in the group's rate. A
+ * kstat contributes to the rates from its second reading.
+ *
+ * <p>Group membership is maintained incrementally from the kstats that
+ * {@link KstatSet#chainupdate} reports as added and deleted.
+ *
+ * @author Peter Tribble
+ */
+public class KstatGroupBy {
+
+    private JKstat jkstat;
+    private final KstatSet kss;
+    private final KstatGroupKey key;
+    private final String[] statistics;
+    private final Map<String, Integer> indexMap = new HashMap<>();
+    private final String title;
+
+    private final Map<Kstat, Member> members = new HashMap<>();
+    private final Map<String, Group> groups = new TreeMap<>();
+
+    /*
+     * The state we keep for each kstat in the set.
+     */
+    private static final class Member {
+	final RateEngine engine;
+	String group;
+	boolean primed;
+
+	Member(final RateEngine nengine, final String ngroup) {
+	    engine = nengine;
+	    group = ngroup;
+	}
+    }
+
+    /*
+     * The totals and rates for a group.
+     */
+    private static final class Group {
+	final KstatAggregateResult result;
+	final double[] rates;
+
+	Group(final String[] statistics) {
+	    result = new KstatAggregateResult(statistics);
+	    rates = new double[statistics.length];
+	}
+    }
+
+    /**
+     * Create a {@code KstatGroupBy} for the given statistics. The kstats
+     * are read immediately, so the groups are known, but rates will not be
+     * available until the next read.
+     *
+     * @param njkstat a {@code JKstat}
+     * @param nkss the {@code KstatSet} containing the kstats to be grouped
+     * @param nkey a {@code KstatGroupKey} defining the groups
+     * @param nstatistics the statistics to be aggregated
+     */
+    public KstatGroupBy(final JKstat njkstat, final KstatSet nkss,
+			final KstatGroupKey nkey, final String[] nstatistics) {
+	jkstat = njkstat;
+	kss = nkss;
+	key = nkey;
+	statistics = nstatistics.clone();
+	for (int i = 0; i < statistics.length; i++) {
+	    indexMap.put(statistics[i], i);
+	}
+	title = ((kss.toString() == null) ? "kstats" : kss.toString())
+	    + " by " + key;
+	for (Kstat ks : kss.getKstats()) {
+	    addMember(ks);
+	}
+	read();
+    }
+
+    private void addMember(final Kstat ks) {
+	members.put(ks, new Member(new RateEngine(statistics, ks.getCrtime()),
+			key.needsData() ? null : key.getGroup(ks)));
+    }
+
+    /**
+     * Connect to a different {@code JKstat} object, such as a new instance
+     * of a {@code SequencedJKstat} created by a chart.
+     *
+     * @param njkstat a {@code JKstat}
+     */
+    public synchronized void setJKstat(final JKstat njkstat) {
+	jkstat = njkstat;
+	kss.setJKstat(njkstat);
+    }
+
+    /**
+     * Read the kstats, bringing the membership of the groups up to date
+     * first, and recalculate the totals and rates of every group. Groups
+     * left with no members are dropped.
+     */
+    public synchronized void read() {
+	if (kss.chainupdate() != 0) {
+	    for (Kstat ks : kss.getDeletedKstats()) {
+		members.remove(ks);
+	    }
+	    for (Kstat ks : kss.getAddedKstats()) {
+		addMember(ks);
+	    }
+	}
+	Map<Kstat, Kstat> data = jkstat.getKstats(members.keySet());
+	for (Group g : groups.values()) {
+	    g.result.reset();
+	    Arrays.fill(g.rates, 0.0);
+	}
+	for (Map.Entry<Kstat, Member> me : members.entrySet()) {
+	    Kstat ks = data.get(me.getKey());
+	    if (ks == null) {
+		continue;
+	    }
+	    Member m = me.getValue();
+	    String gname = key.needsData() ? key.getGroup(ks) : m.group;
+	    /*
+	     * Keep the member's rates current even if it's in no group, in
+	     * case it joins one later.
+	     */
+	    boolean counts = m.engine.update(ks) && m.primed;
+	    m.primed = true;
+	    m.group = gname;
+	    if (gname == null) {
+		continue;
+	    }
+	    Group g = groups.computeIfAbsent(gname, k -> new Group(statistics));
+	    g.result.add(ks);
+	    if (counts) {
+		for (int i = 0; i < statistics.length; i++) {
+		    g.rates[i] += m.engine.getRate(i);
+		}
+	    }
+	}
+	Iterator<Group> iter = groups.values().iterator();
+	while (iter.hasNext()) {
+	    if (iter.next().result.getKstatCount() == 0) {
+		iter.remove();
+	    }
+	}
+    }
+
+    /**
+     * Return the names of the current groups, in sorted order.
+     *
+     * @return an unmodifiable {@code Set} of group names
+     */
+    public synchronized Set<String> getGroups() {
+	return Collections.unmodifiableSet(new TreeSet<>(groups.keySet()));
+    }
+
+    /**
+     * Return the statistics aggregated.
+     *
+     * @return the names of the statistics aggregated
+     */
+    public String[] getStatistics() {
+	return statistics.clone();
+    }
+
+    /**
+     * Return the key defining the groups.
+     *
+     * @return the {@code KstatGroupKey} defining the groups
+     */
+    public KstatGroupKey getKey() {
+	return key;
+    }
+
+    /**
+     * Return the full results for a group from the last read, holding the
+     * sum, count, minimum, maximum, and mean of each statistic.
+     *
+     * @param group the name of the group
+     *
+     * @return the {@code KstatAggregateResult} for the group, or null if
+     * there is no such group
+     */
+    public synchronized KstatAggregateResult getResult(final String group) {
+	Group g = groups.get(group);
+	return (g == null) ? null : g.result;
+    }
+
+    /**
+     * Return the sum of a statistic across the members of a group.
+     *
+     * @param group the name of the group
+     * @param s the name of the statistic
+     *
+     * @return the sum of the statistic, or zero if the group or statistic
+     * is unknown
+     */
+    public synchronized long getSum(final String group, final String s) {
+	Group g = groups.get(group);
+	Integer i = indexMap.get(s);
+	return ((g == null) || (i == null)) ? 0L : g.result.getSum(i);
+    }
+
+    /**
+     * Return the rate of change per second of a statistic, summed across
+     * the members of a group.
+     *
+     * @param group the name of the group
+     * @param s the name of the statistic
+     *
+     * @return the rate of the statistic, or zero if the group or statistic
+     * is unknown
+     */
+    public synchronized double getRate(final String group, final String s) {
+	Group g = groups.get(group);
+	Integer i = indexMap.get(s);
+	return ((g == null) || (i == null)) ? 0.0 : g.rates[i];
+    }
+
+    /**
+     * Return the time of the most recent data in a group.
+     *
+     * @param group the name of the group
+     *
+     * @return the most recent snaptime in the group, in nanoseconds, or zero
+     * if there is no such group
+     */
+    public synchronized long getSnaptime(final String group) {
+	Group g = groups.get(group);
+	return (g == null) ? 0L : g.result.getSnaptime();
+    }
+
+    /**
+     * Returns a String representation of this {@code KstatGroupBy}.
+     *
+     * @return a String describing the kstats and how they're grouped
+     */
+    @Override
+    public String toString() {
+	return title;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+/**
+ * Defines how a {@code KstatGroupBy} assigns kstats to groups. A kstat may
+ * be grouped by its module, by a range of instance numbers, by a prefix of
+ * its name, or by the value of one of its string statistics, such as the
+ * zonename of a network link.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatGroupKey {
+
+    private enum Type { MODULE, INSTANCE, NAME, STATISTIC }
+
+    private final Type type;
+    private final int width;
+    private final String statistic;
+
+    private KstatGroupKey(final Type ntype, final int nwidth,
+			  final String nstatistic) {
+	type = ntype;
+	width = nwidth;
+	statistic = nstatistic;
+    }
+
+    /**
+     * Group kstats by their module.
+     *
+     * @return a {@code KstatGroupKey} that groups by module
+     */
+    public static KstatGroupKey byModule() {
+	return new KstatGroupKey(Type.MODULE, 0, null);
+    }
+
+    /**
+     * Group kstats by ranges of instance numbers. Instances 0 to width-1
+     * form the first group, width to 2*width-1 the next, and so on.
+     *
+     * @param width the number of instances in each range
+     *
+     * @return a {@code KstatGroupKey} that groups by instance range
+     *
+     * @throws IllegalArgumentException if width is less than one
+     */
+    public static KstatGroupKey byInstanceRange(final int width) {
+	if (width < 1) {
+	    throw new IllegalArgumentException("Invalid instance range");
+	}
+	return new KstatGroupKey(Type.INSTANCE, width, null);
+    }
+
+    /**
+     * Group kstats by the first few characters of their name.
+     *
+     * @param length the number of characters of the name to use
+     *
+     * @return a {@code KstatGroupKey} that groups by name prefix
+     *
+     * @throws IllegalArgumentException if length is less than one
+     */
+    public static KstatGroupKey byNamePrefix(final int length) {
+	if (length < 1) {
+	    throw new IllegalArgumentException("Invalid prefix length");
+	}
+	return new KstatGroupKey(Type.NAME, length, null);
+    }
+
+    /**
+     * Group kstats by the value of a statistic, normally a string such as
+     * a zonename.
+     *
+     * @param statistic the name of the statistic to group by
+     *
+     * @return a {@code KstatGroupKey} that groups by the value of the given
+     * statistic
+     */
+    public static KstatGroupKey byStatistic(final String statistic) {
+	return new KstatGroupKey(Type.STATISTIC, 0, statistic);
+    }
+
+    /**
+     * Returns whether this key depends on the data in a kstat. If not, the
+     * group of a kstat is fixed for as long as it exists.
+     *
+     * @return true if the group is derived from the value of a statistic
+     */
+    public boolean needsData() {
+	return type == Type.STATISTIC;
+    }
+
+    /**
+     * Return the group a kstat belongs to.
+     *
+     * @param ks the {@code Kstat}, which must hold data if
+     * {@link #needsData} is true
+     *
+     * @return the name of the group, or null if the kstat doesn't belong to
+     * any group
+     */
+    public String getGroup(final Kstat ks) {
+	String g;
+	switch (type) {
+	    case MODULE:
+		g = ks.getModule();
+		break;
+	    case INSTANCE:
+		int lo = ks.getInst() - ks.getInst() % width;
+		g = ks.getModule() + ":" + lo + "-" + (lo + width - 1);
+		break;
+	    case NAME:
+		g = ks.getName();
+		if (g.length() > width) {
+		    g = g.substring(0, width);
+		}
+		break;
+	    default:
+		Object o = ks.getData(statistic);
+		g = (o == null) ? null : o.toString();
+	}
+	return g;
+    }
+
+    /**
+     * Return a description of this key, suitable for display.
+     *
+     * @return a String describing how kstats are grouped
+     */
+    @Override
+    public String toString() {
+	String t;
+	switch (type) {
+	    case MODULE:
+		t = "module";
+		break;
+	    case INSTANCE:
+		t = "instance/" + width;
+		break;
+	    case NAME:
+		t = "name/" + width;
+		break;
+	    default:
+		t = statistic;
+	}
+	return t;
+    }
+}
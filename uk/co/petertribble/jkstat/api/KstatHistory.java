@@ -0,0 +1,450 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the history of kstats from a {@code SequencedJKstat} in memory, so
+ * that charts of an archive can be drawn without stepping through it for
+ * each chart. The history of a kstat is read the first time it's asked
+ * for, in a single pass over the sequence, into columns: the points in
+ * time the kstat was present, its snaptime and creation time, and one
+ * column per numeric statistic. Only the kstats asked for are read, and
+ * those asked for together are read in the same pass, using a bulk read at
+ * each point in time.
+ *
+ * <p>Each column is stored as the difference between successive values,
+ * packed into a variable number of bytes, so that a counter that changes
+ * by a modest amount at each point in time takes a byte or two rather than
+ * eight. Queries unpack the requested column into a {@code long[]}, and
+ * rates are derived from the unpacked columns by simple loops over
+ * arrays, using the same rules as a {@code RateEngine}.
+ *
+ * <p>Histories are shared: {@link #getHistory} returns the same history
+ * for a given {@code SequencedJKstat} each time, so a kstat read for one
+ * chart needn't be read again for another. Reading a kstat can take a
+ * while, so a GUI should call {@link #load} away from the event dispatch
+ * thread; queries for kstats that haven't been loaded will load them.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatHistory {
+
+    private static final long WRAP32 = 1L << 32;
+
+    private static final Map<SequencedJKstat, KstatHistory> HISTORIES
+	= new WeakHashMap<>();
+
+    /*
+     * The sequence is held weakly, so that the map of histories doesn't
+     * keep it alive. Each kstat's track is a future, completed by whichever
+     * caller reads it, so that a kstat is only read once however many ask
+     * for it at the same time.
+     */
+    private final WeakReference<SequencedJKstat> source;
+    private final Map<Kstat, CompletableFuture<Track>> tracks
+	= new ConcurrentHashMap<>();
+
+    /**
+     * Create an empty history of a {@code SequencedJKstat}. Nothing is read
+     * until the history of a kstat is asked for, and then from a new
+     * instance, so the supplied {@code SequencedJKstat} is left where it
+     * is.
+     *
+     * @param sjkstat the {@code SequencedJKstat} to read
+     */
+    public KstatHistory(final SequencedJKstat sjkstat) {
+	source = new WeakReference<>(sjkstat);
+    }
+
+    /**
+     * Get the shared history of a {@code SequencedJKstat}. This is cheap,
+     * as the history is only read when kstats are asked for.
+     *
+     * @param sjkstat the {@code SequencedJKstat} of interest
+     *
+     * @return the {@code KstatHistory} of the given
+     * {@code SequencedJKstat}
+     */
+    public static KstatHistory getHistory(final SequencedJKstat sjkstat) {
+	synchronized (HISTORIES) {
+	    return HISTORIES.computeIfAbsent(sjkstat, KstatHistory::new);
+	}
+    }
+
+    /**
+     * Read the history of the given kstats, if it hasn't already been
+     * read. Kstats not yet read by anyone are read together in a single
+     * pass over the sequence; if another thread is already reading some of
+     * them, wait for it to finish.
+     *
+     * @param lks the {@code Kstat}s of interest, which need only define the
+     * module, instance, and name
+     */
+    public void load(final Collection<Kstat> lks) {
+	Map<Kstat, CompletableFuture<Track>> mine = new HashMap<>();
+	List<CompletableFuture<Track>> theirs = new ArrayList<>();
+	for (Kstat ks : lks) {
+	    Kstat key = new Kstat(ks.getModule(), ks.getInst(), ks.getName());
+	    CompletableFuture<Track> f = new CompletableFuture<>();
+	    CompletableFuture<Track> old = tracks.putIfAbsent(key, f);
+	    if (old == null) {
+		mine.put(key, f);
+	    } else {
+		theirs.add(old);
+	    }
+	}
+	if (!mine.isEmpty()) {
+	    try {
+		Map<Kstat, Track> ntracks = read(mine.keySet());
+		for (Map.Entry<Kstat, CompletableFuture<Track>> me
+			 : mine.entrySet()) {
+		    me.getValue().complete(ntracks.get(me.getKey()));
+		}
+	    } catch (RuntimeException re) {
+		/*
+		 * Let a later request try again.
+		 */
+		for (Map.Entry<Kstat, CompletableFuture<Track>> me
+			 : mine.entrySet()) {
+		    tracks.remove(me.getKey(), me.getValue());
+		    me.getValue().completeExceptionally(re);
+		}
+		throw re;
+	    }
+	}
+	for (CompletableFuture<Track> f : theirs) {
+	    f.join();
+	}
+    }
+
+    /*
+     * Step through a new instance of the sequence, reading the given kstats
+     * at each point in time.
+     */
+    private Map<Kstat, Track> read(final Set<Kstat> keys) {
+	SequencedJKstat sjkstat = source.get();
+	if (sjkstat == null) {
+	    throw new IllegalStateException("sequence no longer available");
+	}
+	SequencedJKstat sjk = sjkstat.newInstance();
+	sjk.begin();
+	Map<Kstat, Track> ntracks = new HashMap<>();
+	for (Kstat ks : keys) {
+	    ntracks.put(ks, new Track());
+	}
+	if (sjk.size() > 0) {
+	    do {
+		long t = sjk.getTime();
+		for (Map.Entry<Kstat, Kstat> me
+			 : sjk.getKstats(keys).entrySet()) {
+		    ntracks.get(me.getKey()).add(t, me.getValue());
+		}
+	    } while (sjk.next());
+	}
+	for (Track t : ntracks.values()) {
+	    t.trim();
+	}
+	return ntracks;
+    }
+
+    /*
+     * The track of a kstat, reading it if necessary.
+     */
+    private Track track(final Kstat ks) {
+	load(Collections.singleton(ks));
+	return tracks.get(ks).join();
+    }
+
+    /**
+     * Return whether the given kstat is present at any point in this
+     * history.
+     *
+     * @param ks a {@code Kstat} that defines the module, instance, and name
+     *
+     * @return true if the given kstat is present in this history
+     */
+    public boolean contains(final Kstat ks) {
+	return track(ks).times.count > 0;
+    }
+
+    /**
+     * Return the numeric statistics the given kstat has had at any point in
+     * this history.
+     *
+     * @param ks a {@code Kstat} that defines the module, instance, and name
+     *
+     * @return a sorted {@code Set} of statistic names, which is empty if the
+     * kstat isn't present in this history
+     */
+    public Set<String> getStatistics(final Kstat ks) {
+	return new TreeSet<>(track(ks).columns.keySet());
+    }
+
+    /**
+     * Return the points in time at which the given kstat was present. The
+     * arrays returned by {@link #getValues} and {@link #getRates} hold one
+     * value for each of these times.
+     *
+     * @param ks a {@code Kstat} that defines the module, instance, and name
+     *
+     * @return the times the kstat was present, in milliseconds since the
+     * epoch, which is empty if the kstat isn't present in this history
+     */
+    public long[] getTimes(final Kstat ks) {
+	return track(ks).times.toArray();
+    }
+
+    /**
+     * Return the values of a statistic of the given kstat. If the kstat
+     * didn't have the statistic at some point in time, its previous value
+     * is repeated.
+     *
+     * @param ks a {@code Kstat} that defines the module, instance, and name
+     * @param statistic the name of the statistic
+     *
+     * @return the value of the statistic at each of the times returned by
+     * {@link #getTimes(Kstat)}, which are all zero if the kstat has never
+     * had the statistic
+     */
+    public long[] getValues(final Kstat ks, final String statistic) {
+	Track t = track(ks);
+	Column c = t.columns.get(statistic);
+	return (c == null) ? new long[t.times.count] : c.toArray();
+    }
+
+    /**
+     * Return the rate of change per second of a statistic of the given
+     * kstat. Rates are calculated as by a {@code RateEngine}: the first
+     * rate, and the first after the kstat has been recreated, are the
+     * average since the kstat was created, and 32-bit counters are
+     * corrected for wraparound.
+     *
+     * @param ks a {@code Kstat} that defines the module, instance, and name
+     * @param statistic the name of the statistic
+     *
+     * @return the rate of change of the statistic at each of the times
+     * returned by {@link #getTimes(Kstat)}
+     */
+    public double[] getRates(final Kstat ks, final String statistic) {
+	Track t = track(ks);
+	Column c = t.columns.get(statistic);
+	if (c == null) {
+	    return new double[t.times.count];
+	}
+	return rates(c.toArray(), t.snaptimes.toArray(),
+		     t.crtimes.toArray(), c.wraps);
+    }
+
+    /*
+     * Derive rates from columns of values, snaptimes, and creation times.
+     * At the first reading, and whenever the kstat has been recreated, the
+     * previous value is zero and the previous time its creation time. Each
+     * step is a separate loop over arrays, with no dependency between
+     * iterations, except for carrying forward the previous rate where no
+     * time has passed.
+     */
+    private static double[] rates(final long[] values, final long[] snaps,
+				  final long[] crtimes, final boolean wraps) {
+	int n = values.length;
+	long[] dv = new long[n];
+	long[] dt = new long[n];
+	double[] r = new double[n];
+	if (n == 0) {
+	    return r;
+	}
+	dv[0] = values[0];
+	dt[0] = snaps[0] - crtimes[0];
+	for (int i = 1; i < n; i++) {
+	    boolean fresh = crtimes[i] != crtimes[i - 1];
+	    dv[i] = values[i] - (fresh ? 0L : values[i - 1]);
+	    dt[i] = snaps[i] - (fresh ? crtimes[i] : snaps[i - 1]);
+	}
+	if (wraps) {
+	    for (int i = 0; i < n; i++) {
+		dv[i] += (dv[i] < -(WRAP32 >> 1)) ? WRAP32 : 0L;
+	    }
+	}
+	for (int i = 0; i < n; i++) {
+	    r[i] = 1000000000.0 * dv[i] / dt[i];
+	}
+	// no time has passed, so keep the previous rate
+	for (int i = 0; i < n; i++) {
+	    if (dt[i] <= 0) {
+		r[i] = (i == 0) ? 0.0 : r[i - 1];
+	    }
+	}
+	return r;
+    }
+
+    /*
+     * The history of one kstat: the times at which it was present, its
+     * snaptime and crtime at each of those times, and a column per numeric
+     * statistic.
+     */
+    private static final class Track {
+	final Column times = new Column();
+	final Column snaptimes = new Column();
+	final Column crtimes = new Column();
+	final Map<String, Column> columns = new HashMap<>();
+	/*
+	 * The columns for the slots of the schema last seen.
+	 */
+	KstatSchema schema;
+	Column[] slotcols = new Column[0];
+
+	void add(final long time, final Kstat ks) {
+	    int n = times.count;
+	    boolean fresh = (n == 0) || (ks.getCrtime() != crtimes.last);
+	    times.add(time);
+	    snaptimes.add(ks.getSnaptime());
+	    crtimes.add(ks.getCrtime());
+	    KstatSchema kschema = ks.getSchema();
+	    if (kschema != null) {
+		if ((kschema != schema)
+			|| (kschema.size() != slotcols.length)) {
+		    mapSlots(kschema);
+		}
+		for (int slot = 0; slot < slotcols.length; slot++) {
+		    if (ks.isNumeric(slot)) {
+			Column c = slotcols[slot];
+			if (c == null) {
+			    c = newColumn(ks, slot, n);
+			}
+			c.add(ks.longData(slot));
+		    }
+		}
+	    }
+	    /*
+	     * A statistic missing from this reading keeps its previous
+	     * value, unless the kstat has been recreated.
+	     */
+	    for (Column c : columns.values()) {
+		if (c.count == n) {
+		    c.add(fresh ? 0L : c.last);
+		}
+	    }
+	}
+
+	private void mapSlots(final KstatSchema kschema) {
+	    schema = kschema;
+	    slotcols = new Column[schema.size()];
+	    for (int slot = 0; slot < slotcols.length; slot++) {
+		slotcols[slot] = columns.get(schema.getStatistic(slot));
+	    }
+	}
+
+	/*
+	 * A statistic seen for the first time, which is taken to have been
+	 * zero at every earlier reading. Whether it can wrap is decided by
+	 * the type the kstat itself recorded, as the schema only holds the
+	 * type first seen from any source.
+	 */
+	private Column newColumn(final Kstat ks, final int slot, final int n) {
+	    KstatSchema kschema = ks.getSchema();
+	    Column c = new Column();
+	    KstatData.Type t = ks.getDataType(slot);
+	    c.wraps = (t == KstatData.Type.KSTAT_DATA_INT32)
+		|| (t == KstatData.Type.KSTAT_DATA_UINT32);
+	    for (int i = 0; i < n; i++) {
+		c.add(0L);
+	    }
+	    columns.put(kschema.getStatistic(slot), c);
+	    slotcols[slot] = c;
+	    return c;
+	}
+
+	void trim() {
+	    times.trim();
+	    snaptimes.trim();
+	    crtimes.trim();
+	    for (Column c : columns.values()) {
+		c.trim();
+	    }
+	    schema = null;
+	    slotcols = null;
+	}
+    }
+
+    /*
+     * A column of longs, each stored as the zigzag encoded difference from
+     * its predecessor, in 7-bit groups.
+     */
+    private static final class Column {
+	byte[] buf = new byte[16];
+	int len;
+	int count;
+	long last;
+	boolean wraps;
+
+	void add(final long v) {
+	    long d = v - last;
+	    long z = (d << 1) ^ (d >> 63);
+	    if (len + 10 > buf.length) {
+		buf = Arrays.copyOf(buf, 2 * buf.length + 10);
+	    }
+	    while ((z & ~0x7fL) != 0L) {
+		buf[len++] = (byte) ((z & 0x7f) | 0x80);
+		z >>>= 7;
+	    }
+	    buf[len++] = (byte) z;
+	    last = v;
+	    count++;
+	}
+
+	long[] toArray() {
+	    long[] la = new long[count];
+	    long v = 0L;
+	    int pos = 0;
+	    for (int i = 0; i < count; i++) {
+		long z = 0L;
+		int shift = 0;
+		byte b;
+		do {
+		    b = buf[pos++];
+		    z |= (long) (b & 0x7f) << shift;
+		    shift += 7;
+		} while (b < 0);
+		v += (z >>> 1) ^ -(z & 1);
+		la[i] = v;
+	    }
+	    return la;
+	}
+
+	void trim() {
+	    buf = Arrays.copyOf(buf, len);
+	}
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The result of a multiple get request, as made by the REST and XML-RPC
+ * servers. The module and name may each be a semicolon-separated list, in
+ * which case every combination is matched, and the instance may be "*" to
+ * match all instances. The matching kstats are all read, in a single bulk
+ * read, when the {@code KstatMultiGet} is created, and can then be
+ * examined and written out as JSON, mapping each requested name to an
+ * array of the matching kstats, without building the whole response in
+ * memory.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatMultiGet {
+
+    private final String[] names;
+    private final List<List<Kstat>> results;
+
+    /**
+     * Match and read all the kstats for a multiple get request.
+     *
+     * @param jkstat a JKstat object
+     * @param module the desired module, or modules separated by ";"
+     * @param instance the desired instance, or "*"
+     * @param name the desired name, or names separated by ";"
+     */
+    public KstatMultiGet(final JKstat jkstat, final String module,
+			 final String instance, final String name) {
+	String[] modules = module.split(";");
+	names = name.split(";");
+	String inst = "*".equals(instance) ? "" : instance;
+	KstatFilterSet kfs = new KstatFilterSet(jkstat);
+	for (String iname : names) {
+	    KstatFilter ksf = new KstatFilter(jkstat);
+	    for (String imodule : modules) {
+		ksf.addFilter(imodule + ":" + inst + ":" + iname);
+	    }
+	    kfs.addFilter(ksf);
+	}
+	List<Set<Kstat>> matches = new ArrayList<>(names.length);
+	Set<Kstat> allks = new HashSet<>();
+	for (int i = 0; i < names.length; i++) {
+	    Set<Kstat> kset = kfs.getKstats(i);
+	    matches.add(kset);
+	    allks.addAll(kset);
+	}
+	Map<Kstat, Kstat> kmap = jkstat.getKstats(allks);
+	results = new ArrayList<>(names.length);
+	for (Set<Kstat> kset : matches) {
+	    List<Kstat> lks = new ArrayList<>(kset.size());
+	    for (Kstat ks : kset) {
+		Kstat nks = kmap.get(ks);
+		if (nks != null) {
+		    lks.add(nks);
+		}
+	    }
+	    results.add(lks);
+	}
+    }
+
+    /**
+     * Return the number of names requested.
+     *
+     * @return the number of names requested
+     */
+    public int size() {
+	return names.length;
+    }
+
+    /**
+     * Return one of the names requested.
+     *
+     * @param i the index of the name
+     *
+     * @return the requested name
+     */
+    public String getName(final int i) {
+	return names[i];
+    }
+
+    /**
+     * Return the kstats read for one of the names requested. Any matching
+     * kstat that had gone by the time it was read is omitted.
+     *
+     * @param i the index of the name
+     *
+     * @return the {@code Kstat}s read for the given name
+     */
+    public List<Kstat> getKstats(final int i) {
+	return results.get(i);
+    }
+
+    /**
+     * Write the result as JSON, mapping each requested name to an array of
+     * the matching kstats.
+     *
+     * @param out where to write the JSON
+     * @param json a function returning the JSON form of each kstat
+     *
+     * @throws IOException if the JSON cannot be written
+     */
+    public void writeJSON(final Appendable out,
+			  final Function<Kstat, String> json)
+	    throws IOException {
+	out.append('{');
+	for (int i = 0; i < names.length; i++) {
+	    if (i > 0) {
+		out.append(',');
+	    }
+	    out.append('\"').append(names[i]).append("\":[");
+	    boolean kfirst = true;
+	    for (Kstat ks : results.get(i)) {
+		if (kfirst) {
+		    kfirst = false;
+		} else {
+		    out.append(',');
+		}
+		out.append(json.apply(ks));
+	    }
+	    out.append(']');
+	}
+	out.append('}');
+    }
+
+    /**
+     * Return the result as a JSON String, mapping each requested name to
+     * an array of the matching kstats.
+     *
+     * @param json a function returning the JSON form of each kstat
+     *
+     * @return a serialized JSON String representing the matching kstats
+     */
+    public String toJSON(final Function<Kstat, String> json) {
+	StringBuilder sb = new StringBuilder();
+	try {
+	    writeJSON(sb, json);
+	} catch (IOException ioe) {
+	    // can't happen, a StringBuilder doesn't throw
+	}
+	return sb.toString();
+    }
+}
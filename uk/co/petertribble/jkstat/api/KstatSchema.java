@@ -0,0 +1,309 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+package uk.co.petertribble.jkstat.api;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Describes the layout of the statistics in a family of kstats. All kstats
+ * with the same module, name, and class share a single interned
+ * {@code KstatSchema}, which maps each statistic name to a slot. The values
+ * themselves are held by each {@code Kstat} in primitive arrays indexed by
+ * slot, so that reading a kstat doesn't need to allocate a map entry and a
+ * boxed value per statistic.
+ *
+ * <p>A schema only ever grows. Once a statistic has been assigned a slot,
+ * that slot remains valid for the lifetime of the schema, so a slot looked
+ * up once can be used to access the same statistic in any {@code Kstat}
+ * sharing this schema.
+ *
+ * <p>Schemas are only interned while some kstat refers to them. Once no
+ * kstat of a family is left, its schema is forgotten, and the next kstat
+ * of that family starts a new one. The number of families interned at
+ * once is also limited; beyond that, new schemas aren't shared. So code
+ * keeping slots should keep the schema they came from too, and compare
+ * schemas by identity rather than assume one per family.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatSchema {
+
+    /*
+     * The most families interned at once.
+     */
+    private static final int MAX_SCHEMAS = 65536;
+
+    /*
+     * Interned schemas, keyed by module, name, and class, held weakly so
+     * that schemas no kstat refers to can be collected.
+     */
+    private static final Map<Key, SchemaRef> SCHEMAS =
+	new ConcurrentHashMap<>();
+    private static final ReferenceQueue<KstatSchema> CLEARED =
+	new ReferenceQueue<>();
+
+    private final String module;
+    private final String name;
+    private final String kstatClass;
+
+    private final Map<String, Integer> slotMap = new ConcurrentHashMap<>();
+    /*
+     * Copy on write, so readers always see a consistent array.
+     */
+    private volatile String[] names = new String[0];
+    private volatile KstatData.Type[] types = new KstatData.Type[0];
+
+    private KstatSchema(final String smodule, final String sname,
+			final String sclass) {
+	module = smodule;
+	name = sname;
+	kstatClass = sclass;
+    }
+
+    /**
+     * Get the shared schema for kstats of the given module, name, and class,
+     * creating it if necessary.
+     *
+     * @param module the kstat module
+     * @param name the kstat name
+     * @param kstatClass the kstat class, which may be null
+     *
+     * @return the interned {@code KstatSchema}, or a new unshared schema
+     * if too many families are interned
+     */
+    public static KstatSchema getSchema(final String module,
+					final String name,
+					final String kstatClass) {
+	String kclass = (kstatClass == null) ? "" : kstatClass;
+	Key key = new Key(module, name, kclass);
+	expunge();
+	while (true) {
+	    SchemaRef ref = SCHEMAS.get(key);
+	    KstatSchema schema = (ref == null) ? null : ref.get();
+	    if (schema != null) {
+		return schema;
+	    }
+	    schema = new KstatSchema(module, name, kclass);
+	    if (SCHEMAS.size() >= MAX_SCHEMAS) {
+		return schema;
+	    }
+	    SchemaRef nref = new SchemaRef(key, schema);
+	    if ((ref == null) ? (SCHEMAS.putIfAbsent(key, nref) == null)
+		    : SCHEMAS.replace(key, ref, nref)) {
+		return schema;
+	    }
+	}
+    }
+
+    /**
+     * Get the shared schema for kstats of the given module, name, and class,
+     * if one exists. Unlike {@link #getSchema}, this never creates a new
+     * schema.
+     *
+     * @param module the kstat module
+     * @param name the kstat name
+     * @param kstatClass the kstat class, which may be null
+     *
+     * @return the interned {@code KstatSchema}, or null if no kstat of this
+     * module, name, and class currently holds any data
+     */
+    public static KstatSchema findSchema(final String module,
+					 final String name,
+					 final String kstatClass) {
+	SchemaRef ref = SCHEMAS.get(new Key(module, name,
+				(kstatClass == null) ? "" : kstatClass));
+	return (ref == null) ? null : ref.get();
+    }
+
+    /*
+     * Remove the entries of schemas that have been collected.
+     */
+    private static void expunge() {
+	SchemaRef ref;
+	while ((ref = (SchemaRef) CLEARED.poll()) != null) {
+	    SCHEMAS.remove(ref.key, ref);
+	}
+    }
+
+    /**
+     * Return the slot allocated to the named statistic.
+     *
+     * @param s the name of the statistic
+     *
+     * @return the slot of the statistic, or -1 if this schema has never seen
+     * a statistic of that name
+     */
+    public int getSlot(final String s) {
+	Integer i = slotMap.get(s);
+	return (i == null) ? -1 : i;
+    }
+
+    /*
+     * Return the slot for the named statistic, allocating a new one if
+     * necessary.
+     */
+    int addSlot(final String s, final KstatData.Type dataType) {
+	Integer i = slotMap.get(s);
+	if (i != null) {
+	    return i;
+	}
+	synchronized (this) {
+	    i = slotMap.get(s);
+	    if (i != null) {
+		return i;
+	    }
+	    int slot = names.length;
+	    String[] nnames = Arrays.copyOf(names, slot + 1);
+	    nnames[slot] = s;
+	    KstatData.Type[] ntypes = Arrays.copyOf(types, slot + 1);
+	    ntypes[slot] = dataType;
+	    types = ntypes;
+	    names = nnames;
+	    slotMap.put(s, slot);
+	    return slot;
+	}
+    }
+
+    /**
+     * Return the number of slots currently allocated in this schema.
+     *
+     * @return the number of statistics this schema knows about
+     */
+    public int size() {
+	return names.length;
+    }
+
+    /**
+     * Return the name of the statistic held in the given slot.
+     *
+     * @param slot the slot of interest
+     *
+     * @return the name of the statistic held in the given slot
+     */
+    public String getStatistic(final int slot) {
+	return names[slot];
+    }
+
+    /**
+     * Return the data type first recorded for the statistic held in the
+     * given slot. Individual {@code Kstat}s record their own type, which
+     * should be preferred.
+     *
+     * @param slot the slot of interest
+     *
+     * @return the data type of the statistic held in the given slot
+     */
+    public KstatData.Type getType(final int slot) {
+	return types[slot];
+    }
+
+    /**
+     * Returns whether any kstat sharing this schema has ever held the named
+     * statistic.
+     *
+     * @param s the name of the statistic to be checked
+     *
+     * @return true if the named statistic is known to this schema
+     */
+    public boolean hasStatistic(final String s) {
+	return slotMap.containsKey(s);
+    }
+
+    /**
+     * Gets the module of the kstats sharing this schema.
+     *
+     * @return the kstat module
+     */
+    public String getModule() {
+	return module;
+    }
+
+    /**
+     * Gets the name of the kstats sharing this schema.
+     *
+     * @return the kstat name
+     */
+    public String getName() {
+	return name;
+    }
+
+    /**
+     * Gets the class of the kstats sharing this schema.
+     *
+     * @return the kstat class, or an empty String if the class is unknown
+     */
+    public String getKstatClass() {
+	return kstatClass;
+    }
+
+    @Override
+    public String toString() {
+	return module + ":" + name + ":" + kstatClass;
+    }
+
+    /*
+     * The identity of a family of kstats.
+     */
+    private static final class Key {
+	private final String module;
+	private final String name;
+	private final String kstatClass;
+
+	Key(final String kmodule, final String kname, final String kclass) {
+	    module = kmodule;
+	    name = kname;
+	    kstatClass = kclass;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+	    if (!(o instanceof Key)) {
+		return false;
+	    }
+	    Key k = (Key) o;
+	    return module.equals(k.module) && name.equals(k.name)
+		&& kstatClass.equals(k.kstatClass);
+	}
+
+	@Override
+	public int hashCode() {
+	    return (31 * module.hashCode() + name.hashCode()) * 31
+		+ kstatClass.hashCode();
+	}
+    }
+
+    /*
+     * A weak reference to an interned schema, which knows its key so that
+     * it can be removed once cleared.
+     */
+    private static final class SchemaRef extends WeakReference<KstatSchema> {
+	private final Key key;
+
+	SchemaRef(final Key nkey, final KstatSchema schema) {
+	    super(schema, CLEARED);
+	    key = nkey;
+	}
+    }
+}
@@ -14,13 +14,18 @@
  *
  * CDDL HEADER END
  *
- * Copyright 2025 Peter Tribble
+ * Copyright 2026 Peter Tribble
  *
  */
 
 package uk.co.petertribble.jkstat.api;
 
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -30,6 +35,12 @@ import java.util.TreeSet;
  * and this class provides a mechanism whereby each thread can keep its
  * kstat chain synchronized.
  *
+ * <p>The sorted view of the kstats, and the sets of modules, instances,
+ * names, and classes, are built the first time they're asked for and are
+ * then kept up to date as the chain changes, by applying just the kstats
+ * that have been added and deleted. They never need to be rebuilt or
+ * resorted, so can be asked for as often as required.
+ *
  * @author Peter Tribble
  */
 public class KstatSet {
@@ -44,6 +55,14 @@ public class KstatSet {
 
     private int chainid;
 
+    /*
+     * The sorted index and the facets, null until first asked for. Each
+     * update replaces them rather than modifying them, so that any view
+     * previously handed out remains safe to iterate over.
+     */
+    private NavigableSet<Kstat> sortedKstats;
+    private Facets facets;
+
     /**
      * Allocates a KstatSet to manage the kstats in the kstat chain.
      *
@@ -138,6 +157,21 @@ public class KstatSet {
 	 */
 	chainid = newchainid;
 	currentKstats = newKstats;
+	if (!addedKstats.isEmpty() || !deletedKstats.isEmpty()) {
+	    if (sortedKstats != null) {
+		/*
+		 * Copying a sorted set is linear, as is applying the changes
+		 * relative to the size of the changes.
+		 */
+		TreeSet<Kstat> nsorted = new TreeSet<>(sortedKstats);
+		nsorted.removeAll(deletedKstats);
+		nsorted.addAll(addedKstats);
+		sortedKstats = nsorted;
+	    }
+	    if (facets != null) {
+		facets = new Facets(facets, addedKstats, deletedKstats);
+	    }
+	}
 	/*
 	 * If the added and deleted lists are both empty, then the current
 	 * list is valid. Presumably, the kstat chain has been updated multiple
@@ -194,70 +228,171 @@ public class KstatSet {
 
     /**
      * Returns the current kstats. If requested, the {@code Kstat}s will
-     * be sorted, backed by a {@code TreeSet}.
+     * be sorted, in which case the returned {@code Set} is an unmodifiable
+     * {@code NavigableSet}.
      *
      * @param sorted whether the returned {@code Kstat}s should be sorted
      *
      * @return the {@code Set} of {@code Kstat}s managed by this KstatSet
      */
     public Set<Kstat> getKstats(final boolean sorted) {
-	return sorted ? new TreeSet<>(currentKstats) : currentKstats;
+	return sorted ? getSortedKstats() : currentKstats;
+    }
+
+    /**
+     * Returns the current kstats, sorted. The sorted index is maintained as
+     * the chain changes, so this doesn't need to sort the kstats each time
+     * it's called.
+     *
+     * @return an unmodifiable sorted {@code NavigableSet} of the
+     * {@code Kstat}s managed by this KstatSet
+     */
+    public NavigableSet<Kstat> getSortedKstats() {
+	if (sortedKstats == null) {
+	    sortedKstats = new TreeSet<>(currentKstats);
+	}
+	return Collections.unmodifiableNavigableSet(sortedKstats);
+    }
+
+    /**
+     * Returns the current kstats of the given module, sorted.
+     *
+     * @param module the kstat module of interest
+     *
+     * @return an unmodifiable sorted {@code NavigableSet} of the
+     * {@code Kstat}s of the given module managed by this KstatSet
+     */
+    public NavigableSet<Kstat> getKstats(final String module) {
+	return getKstats(module, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the current kstats of the given module whose instance lies in
+     * the given range, sorted. This is a view of the sorted index, so is
+     * found without examining kstats outside the range.
+     *
+     * @param module the kstat module of interest
+     * @param lo the lowest instance of interest
+     * @param hi the highest instance of interest
+     *
+     * @return an unmodifiable sorted {@code NavigableSet} of the
+     * {@code Kstat}s of the given module managed by this KstatSet, with
+     * instances from lo to hi inclusive
+     */
+    public NavigableSet<Kstat> getKstats(final String module, final int lo,
+					 final int hi) {
+	if (lo > hi) {
+	    return Collections.emptyNavigableSet();
+	}
+	/*
+	 * No kstat name sorts before the empty string, and no module sorts
+	 * between a module and that module followed by a null character.
+	 */
+	Kstat from = new Kstat(module, lo, "");
+	Kstat to = (hi == Integer.MAX_VALUE)
+	    ? new Kstat(module + '\0', Integer.MIN_VALUE, "")
+	    : new Kstat(module, hi + 1, "");
+	return getSortedKstats().subSet(from, true, to, false);
     }
 
     /**
      * Returns all valid modules in this KstatSet.
      *
-     * @return a Set (of Strings) containing all the modules in the Kstats
-     * in this KstatSet
+     * @return an unmodifiable Set (of Strings) containing all the modules
+     * in the Kstats in this KstatSet
      */
     public Set<String> getModuleSet() {
-	Set<String> ss = new HashSet<>();
-	for (Kstat ks : currentKstats) {
-	    ss.add(ks.getModule());
-	}
-	return ss;
+	return Collections.unmodifiableSet(getFacets().modules.keySet());
     }
 
     /**
      * Returns all valid instances in this KstatSet.
      *
-     * @return a Set (of Strings) containing all the instances in the Kstats
-     * in this KstatSet
+     * @return an unmodifiable Set (of Strings) containing all the instances
+     * in the Kstats in this KstatSet
      */
     public Set<String> getInstanceSet() {
-	Set<String> ss = new HashSet<>();
-	for (Kstat ks : currentKstats) {
-	    ss.add(ks.getInstance());
-	}
-	return ss;
+	return Collections.unmodifiableSet(getFacets().instances.keySet());
     }
 
     /**
      * Returns all valid names in this KstatSet.
      *
-     * @return a Set (of Strings) containing all the names in the Kstats
-     * in this KstatSet
+     * @return an unmodifiable Set (of Strings) containing all the names in
+     * the Kstats in this KstatSet
      */
     public Set<String> getNameSet() {
-	Set<String> ss = new HashSet<>();
-	for (Kstat ks : currentKstats) {
-	    ss.add(ks.getName());
-	}
-	return ss;
+	return Collections.unmodifiableSet(getFacets().names.keySet());
     }
 
     /**
      * Returns all valid classes in this KstatSet.
      *
-     * @return a Set (of Strings) containing all the classes in the Kstats
-     * in this KstatSet
+     * @return an unmodifiable Set (of Strings) containing all the classes
+     * in the Kstats in this KstatSet
      */
     public Set<String> getClassSet() {
-	Set<String> ss = new HashSet<>();
-	for (Kstat ks : currentKstats) {
-	    ss.add(ks.getKstatClass());
+	return Collections.unmodifiableSet(getFacets().classes.keySet());
+    }
+
+    private Facets getFacets() {
+	if (facets == null) {
+	    facets = new Facets(currentKstats);
+	}
+	return facets;
+    }
+
+    /*
+     * The number of current kstats with each module, instance, name, and
+     * class, so that a value can be dropped when the last kstat with that
+     * value leaves the chain.
+     */
+    private static final class Facets {
+	final Map<String, Integer> modules;
+	final Map<String, Integer> instances;
+	final Map<String, Integer> names;
+	final Map<String, Integer> classes;
+
+	Facets(final Set<Kstat> kstats) {
+	    modules = new HashMap<>();
+	    instances = new HashMap<>();
+	    names = new HashMap<>();
+	    classes = new HashMap<>();
+	    for (Kstat ks : kstats) {
+		count(ks, 1);
+	    }
+	}
+
+	Facets(final Facets old, final Set<Kstat> added,
+	       final Set<Kstat> deleted) {
+	    modules = new HashMap<>(old.modules);
+	    instances = new HashMap<>(old.instances);
+	    names = new HashMap<>(old.names);
+	    classes = new HashMap<>(old.classes);
+	    for (Kstat ks : deleted) {
+		count(ks, -1);
+	    }
+	    for (Kstat ks : added) {
+		count(ks, 1);
+	    }
+	}
+
+	private void count(final Kstat ks, final int delta) {
+	    count(modules, ks.getModule(), delta);
+	    count(instances, ks.getInstance(), delta);
+	    count(names, ks.getName(), delta);
+	    count(classes, ks.getKstatClass(), delta);
+	}
+
+	private static void count(final Map<String, Integer> map,
+				  final String key, final int delta) {
+	    int n = map.getOrDefault(key, 0) + delta;
+	    if (n > 0) {
+		map.put(key, n);
+	    } else {
+		map.remove(key);
+	    }
 	}
-	return ss;
     }
 
     /**
@@ -280,6 +415,25 @@ public class KstatSet {
      * {@code KstatSet}
      */
     public String toJSON() {
+	StringBuilder sb = new StringBuilder(120 * currentKstats.size());
+	try {
+	    writeJSON(sb);
+	} catch (IOException ioe) {
+	    // can't happen, a StringBuilder doesn't throw
+	}
+	return sb.toString();
+    }
+
+    /**
+     * Writes a JSON representation of the Kstats in this KstatSet, as for
+     * {@link #toJSON()}, a kstat at a time, so that the whole representation
+     * need never be held in memory.
+     *
+     * @param out where to write the JSON
+     *
+     * @throws IOException if the JSON cannot be written
+     */
+    public void writeJSON(final Appendable out) throws IOException {
 	/*
 	 * This is constructed by hand. This minimizes dependencies and
 	 * guarantees the representation stays fixed. Besides, generating
@@ -288,9 +442,10 @@ public class KstatSet {
 	boolean firstdata = true;
 	StringBuilder sb = new StringBuilder(120);
 	// start the array
-	sb.append("[\n");
+	out.append("[\n");
 	// loop over all the kstats
 	for (Kstat ks : currentKstats) {
+	    sb.setLength(0);
 	    if (firstdata) {
 		firstdata = false;
 	    } else {
@@ -302,9 +457,9 @@ public class KstatSet {
 		.append("\",\"name\":\"").append(ks.getName())
 		.append("\",\"instance\":").append(ks.getInst())
 		.append("}\n");
+	    out.append(sb);
 	}
 	// end the array
-	sb.append("]\n");
-	return sb.toString();
+	out.append("]\n");
     }
 }
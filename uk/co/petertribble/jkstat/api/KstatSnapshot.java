@@ -0,0 +1,171 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A point-in-time capture of a set of kstats. A {@code KstatSnapshot} reads
+ * every kstat in a {@code KstatSet} at once and records the time it was
+ * taken. It can then be compared with an earlier snapshot using
+ * {@link #diff}, which reports the kstats that have come and gone, and the
+ * change in each statistic of those kstats that have been updated.
+ *
+ * <p>A snapshot is immutable. The {@code Kstat}s it holds are its own, and
+ * must not be modified by callers.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatSnapshot {
+
+    private final long time;
+    private final Map<Kstat, Kstat> kmap;
+    private volatile Long fingerprint;
+
+    /**
+     * Take a snapshot of the kstats currently in the given
+     * {@code KstatSet}, reading them all at once. The {@code KstatSet} is
+     * not updated; call {@link KstatSet#chainupdate} first to pick up
+     * changes to the kstat chain.
+     *
+     * @param jkstat a {@code JKstat}
+     * @param kss the {@code KstatSet} to capture
+     */
+    public KstatSnapshot(final JKstat jkstat, final KstatSet kss) {
+	this(jkstat.getTime(), jkstat.getKstats(kss.getKstats()).values());
+    }
+
+    /**
+     * Create a snapshot from {@code Kstat}s that have already been read.
+     * The snapshot takes ownership of the supplied {@code Kstat}s, which
+     * must not be modified afterwards.
+     *
+     * @param ntime the time of the snapshot, in milliseconds since the epoch
+     * @param lks the {@code Kstat}s, with their data, to be captured
+     */
+    public KstatSnapshot(final long ntime, final Collection<Kstat> lks) {
+	time = ntime;
+	Map<Kstat, Kstat> nmap = new HashMap<>(2 * lks.size());
+	for (Kstat ks : lks) {
+	    nmap.put(ks, ks);
+	}
+	kmap = nmap;
+    }
+
+    /**
+     * Get the time this snapshot was taken.
+     *
+     * @return the time of the snapshot, in milliseconds since the epoch, as
+     * reported by the {@code JKstat} it was taken from
+     */
+    public long getTime() {
+	return time;
+    }
+
+    /**
+     * Get the {@code Kstat}s captured in this snapshot.
+     *
+     * @return an unmodifiable {@code Set} of the {@code Kstat}s in this
+     * snapshot
+     */
+    public Set<Kstat> getKstats() {
+	return Collections.unmodifiableSet(kmap.keySet());
+    }
+
+    /**
+     * Get the captured data for the given {@code Kstat}.
+     *
+     * @param ks a {@code Kstat} that defines the module, instance, and name
+     *
+     * @return the {@code Kstat} as captured in this snapshot, or null if it
+     * isn't present
+     */
+    public Kstat getKstat(final Kstat ks) {
+	return kmap.get(ks);
+    }
+
+    /**
+     * Get the captured data for the given {@code Kstat}. This is a single
+     * hash lookup, however many kstats the snapshot holds.
+     *
+     * @param module the kstat module
+     * @param inst the kstat instance
+     * @param name the name of the kstat
+     *
+     * @return the {@code Kstat} as captured in this snapshot, or null if it
+     * isn't present
+     */
+    public Kstat getKstat(final String module, final int inst,
+			  final String name) {
+	return kmap.get(new Kstat(module, inst, name));
+    }
+
+    /**
+     * Get a fingerprint of the identities of the {@code Kstat}s captured in
+     * this snapshot, as computed by {@link SequencedJKstat#fingerprint}. It
+     * is computed the first time it's asked for, and then remembered.
+     *
+     * @return a fingerprint of the kstats in this snapshot
+     */
+    public long getFingerprint() {
+	Long fp = fingerprint;
+	if (fp == null) {
+	    fp = SequencedJKstat.fingerprint(kmap.keySet());
+	    fingerprint = fp;
+	}
+	return fp;
+    }
+
+    /**
+     * Get the number of {@code Kstat}s captured in this snapshot.
+     *
+     * @return the number of {@code Kstat}s in this snapshot
+     */
+    public int size() {
+	return kmap.size();
+    }
+
+    /**
+     * Compare this snapshot with an earlier one. Kstats present only in this
+     * snapshot are reported as added, those only in the previous snapshot as
+     * removed. A kstat whose creation time has changed has been destroyed and
+     * recreated in between, so is reported as both removed and added. For
+     * the remaining kstats, those whose snaptime has changed have the
+     * difference in each of their numeric statistics calculated; those whose
+     * snaptime is the same haven't been updated and are skipped without
+     * looking at their statistics.
+     *
+     * @param previous an earlier {@code KstatSnapshot}, which may be null
+     *
+     * @return a {@code KstatDiff} describing the changes between the
+     * previous snapshot and this one
+     */
+    public KstatDiff diff(final KstatSnapshot previous) {
+	Map<Kstat, Kstat> pmap = (previous == null)
+	    ? Collections.emptyMap() : previous.kmap;
+	return new KstatDiff(pmap, kmap);
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Maintains the kstats in a {@code KstatSet} with the highest values of a
+ * rate, such as the busiest 20 of thousands of disks, without ranking
+ * every kstat on every update. Each member of the set is tracked by a
+ * {@code ChartableKstat}, or by a {@code ChartableIOKstat} for I/O kstats.
+ *
+ * <p>The leaders are held in a min-heap bounded to the number requested.
+ * At each read, only kstats whose snaptime has changed have their rates
+ * recalculated and are offered to the heap. An upper bound is kept on the
+ * rates of the kstats outside the heap, and the heap is only rebuilt from
+ * every kstat if a leader slows down below that bound, or a leader goes
+ * away, as only then could a kstat outside the heap need to replace it.
+ *
+ * <p>Results are ordered by rate, highest first, with ties broken by the
+ * natural ordering of the kstats, so that the order is stable enough to
+ * back a table.
+ *
+ * @author Peter Tribble
+ */
+public class KstatTopN {
+
+    private JKstat jkstat;
+    private final KstatSet kss;
+    private final String rate;
+    private final int n;
+    private final Map<Kstat, Member> members = new HashMap<>();
+    /*
+     * Kstats in the set that haven't yet been read.
+     */
+    private final Set<Kstat> pending = new HashSet<>();
+    /*
+     * The heap has the lowest ranked leader at its head.
+     */
+    private final PriorityQueue<Member> heap;
+    private boolean rebuild = true;
+    private int rebuilds;
+    /*
+     * No kstat outside the heap ranks above this rate and kstat.
+     */
+    private double ceilrate = Double.NEGATIVE_INFINITY;
+    private Kstat ceilks;
+
+    /*
+     * Each kstat, with its rate at the last read.
+     */
+    private static final class Member {
+	final Kstat ks;
+	final ChartableKstat cks;
+	long snaptime;
+	double rate;
+	boolean leader;
+
+	Member(final Kstat nks, final ChartableKstat ncks) {
+	    ks = nks;
+	    cks = ncks;
+	}
+    }
+
+    /*
+     * Ranks members in ascending order of rate. Of two members with the
+     * same rate, the one that sorts later is ranked lower.
+     */
+    private static final Comparator<Member> RANK
+	= (m1, m2) -> compare(m1.rate, m1.ks, m2.rate, m2.ks);
+
+    private static int compare(final double rate1, final Kstat ks1,
+			       final double rate2, final Kstat ks2) {
+	int c = Double.compare(rate1, rate2);
+	return (c != 0) ? c : ks2.compareTo(ks1);
+    }
+
+    /**
+     * Create a {@code KstatTopN} tracking the kstats with the highest
+     * values of the given rate. The kstats are read immediately.
+     *
+     * @param njkstat a {@code JKstat}
+     * @param nkss the {@code KstatSet} containing the kstats to be ranked
+     * @param nrate the name of the rate to rank by, as presented by
+     * {@code ChartableKstat.getRate()}
+     * @param nn the number of kstats to keep
+     *
+     * @throws IllegalArgumentException if nn is less than one
+     */
+    public KstatTopN(final JKstat njkstat, final KstatSet nkss,
+		     final String nrate, final int nn) {
+	if (nn < 1) {
+	    throw new IllegalArgumentException("Invalid number of kstats");
+	}
+	jkstat = njkstat;
+	kss = nkss;
+	rate = nrate;
+	n = nn;
+	heap = new PriorityQueue<>(nn + 1, RANK);
+	pending.addAll(kss.getKstats());
+	read();
+    }
+
+    /*
+     * Start tracking a kstat from data already read.
+     */
+    private Member newMember(final Kstat ks, final Kstat nks) {
+	Member m = new Member(ks, (nks.getType() == KstatType.KSTAT_TYPE_IO)
+			      ? new ChartableIOKstat(jkstat, nks, false)
+			      : new ChartableKstat(jkstat, nks, true, false));
+	m.snaptime = nks.getSnaptime();
+	m.rate = rateOf(m.cks);
+	return m;
+    }
+
+    /*
+     * Rates that aren't numbers rank below everything else.
+     */
+    private double rateOf(final ChartableKstat cks) {
+	double d = cks.getRate(rate);
+	return Double.isNaN(d) ? Double.NEGATIVE_INFINITY : d;
+    }
+
+    /**
+     * Connect to a different {@code JKstat} object, such as a new instance
+     * of a {@code SequencedJKstat}.
+     *
+     * @param njkstat a {@code JKstat}
+     */
+    public synchronized void setJKstat(final JKstat njkstat) {
+	jkstat = njkstat;
+	kss.setJKstat(njkstat);
+	for (Member m : members.values()) {
+	    m.cks.setJKstat(njkstat);
+	}
+    }
+
+    /**
+     * Read all the kstats in a single bulk read, and bring the leaders up
+     * to date. Kstats whose snaptime hasn't changed keep their previous
+     * rate and aren't reranked. Kstats added to the set are read as part
+     * of the same bulk read, and tracked once they have been read.
+     */
+    public synchronized void read() {
+	List<Member> changed = new ArrayList<>();
+	if (kss.chainupdate() != 0) {
+	    for (Kstat ks : kss.getDeletedKstats()) {
+		pending.remove(ks);
+		Member m = members.remove(ks);
+		if ((m != null) && m.leader) {
+		    heap.remove(m);
+		    m.leader = false;
+		    /*
+		     * Someone from outside the heap needs to replace it.
+		     */
+		    if (members.size() > heap.size()) {
+			rebuild = true;
+		    }
+		}
+	    }
+	    pending.addAll(kss.getAddedKstats());
+	}
+	List<Kstat> wanted = new ArrayList<>(members.size() + pending.size());
+	wanted.addAll(members.keySet());
+	wanted.addAll(pending);
+	Map<Kstat, Kstat> data = jkstat.getKstats(wanted);
+	for (Member m : members.values()) {
+	    Kstat ks = data.get(m.ks);
+	    if ((ks == null) || (ks.getSnaptime() == m.snaptime)) {
+		continue;
+	    }
+	    m.snaptime = ks.getSnaptime();
+	    m.cks.update(ks);
+	    double d = rateOf(m.cks);
+	    if (m.leader) {
+		/*
+		 * A leader whose rate has changed moves within the heap.
+		 */
+		heap.remove(m);
+		m.rate = d;
+		heap.add(m);
+	    } else {
+		m.rate = d;
+		changed.add(m);
+	    }
+	}
+	/*
+	 * New members join from the same read, after the loop above so
+	 * they're only offered once.
+	 */
+	Iterator<Kstat> it = pending.iterator();
+	while (it.hasNext()) {
+	    Kstat ks = it.next();
+	    Kstat nks = data.get(ks);
+	    if (nks != null) {
+		Member m = newMember(ks, nks);
+		members.put(ks, m);
+		changed.add(m);
+		it.remove();
+	    }
+	}
+	rank(changed);
+    }
+
+    /*
+     * Offer the changed members to the heap, or rebuild it from scratch
+     * if necessary.
+     */
+    private void rank(final List<Member> changed) {
+	if (!rebuild) {
+	    for (Member m : changed) {
+		if (!m.leader) {
+		    offer(m);
+		}
+	    }
+	    /*
+	     * If the lowest leader has dropped below the best we might have
+	     * left outside, we have to look at everything.
+	     */
+	    Member low = heap.peek();
+	    if ((low != null) && (ceilks != null)
+		    && (compare(low.rate, low.ks, ceilrate, ceilks) < 0)) {
+		rebuild = true;
+	    }
+	}
+	if (rebuild) {
+	    for (Member m : heap) {
+		m.leader = false;
+	    }
+	    heap.clear();
+	    ceilrate = Double.NEGATIVE_INFINITY;
+	    ceilks = null;
+	    rebuilds++;
+	    for (Member m : members.values()) {
+		offer(m);
+	    }
+	    rebuild = false;
+	}
+    }
+
+    private void offer(final Member m) {
+	if (heap.size() < n) {
+	    heap.add(m);
+	    m.leader = true;
+	} else if (RANK.compare(m, heap.peek()) > 0) {
+	    Member out = heap.poll();
+	    out.leader = false;
+	    raiseCeiling(out);
+	    heap.add(m);
+	    m.leader = true;
+	} else {
+	    raiseCeiling(m);
+	}
+    }
+
+    /*
+     * A kstat has been left outside the heap.
+     */
+    private void raiseCeiling(final Member m) {
+	if ((ceilks == null)
+		|| (compare(m.rate, m.ks, ceilrate, ceilks) > 0)) {
+	    ceilrate = m.rate;
+	    ceilks = m.ks;
+	}
+    }
+
+    /**
+     * Return the leading kstats as of the last read, highest rate first.
+     *
+     * @return a {@code List} of up to n {@code ChartableKstat}s, from which
+     * all the rates of the leading kstats can be retrieved
+     */
+    public synchronized List<ChartableKstat> getTop() {
+	List<Member> lm = new ArrayList<>(heap);
+	lm.sort(RANK.reversed());
+	List<ChartableKstat> top = new ArrayList<>(lm.size());
+	for (Member m : lm) {
+	    top.add(m.cks);
+	}
+	return top;
+    }
+
+    /**
+     * Return the rate being ranked for one of the kstats.
+     *
+     * @param ks the {@code Kstat} of interest
+     *
+     * @return the rate of the kstat as of the last read, or zero if it
+     * isn't being tracked
+     */
+    public synchronized double getRate(final Kstat ks) {
+	Member m = members.get(ks);
+	return (m == null) ? 0.0 : m.cks.getRate(rate);
+    }
+
+    /**
+     * Return the name of the rate being ranked.
+     *
+     * @return the name of the rate the kstats are ranked by
+     */
+    public String getRateName() {
+	return rate;
+    }
+
+    /**
+     * Return the number of kstats being tracked.
+     *
+     * @return the number of kstats in the underlying {@code KstatSet}
+     */
+    public synchronized int size() {
+	return members.size();
+    }
+
+    /**
+     * Return the number of times the leaders have had to be rebuilt from
+     * every kstat, rather than updated from those that changed. A high
+     * count relative to the number of reads means that the rates of the
+     * leaders are falling to those of the kstats behind them.
+     *
+     * @return the number of full rebuilds, including the first
+     */
+    public synchronized int getRebuildCount() {
+	return rebuilds;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * One message in a stream of kstat updates, as sent to a subscriber. An
+ * update carries only those kstats that have changed since the previous
+ * message. Kstats that have appeared, or been recreated, are sent whole
+ * and replace anything the subscriber held, whereas for a kstat that has
+ * merely been updated only the statistics whose values have changed are
+ * sent, to be merged into the subscriber's copy. Kstats that have left
+ * the chain are listed too. A full update instead carries every kstat the
+ * subscription matches, and replaces whatever the subscriber held before.
+ *
+ * <p>Updates are numbered in sequence. If the subscriber falls behind,
+ * intermediate updates are dropped rather than queued, and the number
+ * dropped is recorded; as each update is relative to the previous one
+ * actually sent, applying the updates received in order always leaves
+ * the subscriber with the current values.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatUpdate {
+
+    private final long seq;
+    private final int kcid;
+    private final long time;
+    private final boolean full;
+    private final long dropped;
+    private final Collection<Kstat> kstats;
+    private final Collection<Kstat> changed;
+    private final Collection<Kstat> removed;
+
+    /**
+     * Create a new update.
+     *
+     * @param nseq the sequence number of this update
+     * @param nkcid the kstat chain id at the time of this update
+     * @param ntime the time of this update, in milliseconds since the epoch
+     * @param nfull whether this is a full update
+     * @param ndropped the number of updates dropped before this one
+     * @param nkstats the kstats sent whole
+     * @param nchanged the updated kstats, holding only changed statistics
+     * @param nremoved the kstats that have left the chain, which need not
+     * carry any data
+     */
+    public KstatUpdate(final long nseq, final int nkcid, final long ntime,
+		       final boolean nfull, final long ndropped,
+		       final Collection<Kstat> nkstats,
+		       final Collection<Kstat> nchanged,
+		       final Collection<Kstat> nremoved) {
+	seq = nseq;
+	kcid = nkcid;
+	time = ntime;
+	full = nfull;
+	dropped = ndropped;
+	kstats = nkstats;
+	changed = nchanged;
+	removed = nremoved;
+    }
+
+    /**
+     * Return the sequence number of this update.
+     *
+     * @return the sequence number of this update
+     */
+    public long getSequence() {
+	return seq;
+    }
+
+    /**
+     * Return the kstat chain id at the time of this update.
+     *
+     * @return the kstat chain id
+     */
+    public int getKCID() {
+	return kcid;
+    }
+
+    /**
+     * Return the time of this update, as the number of milliseconds since
+     * January 1, 1970, 00:00:00 GMT.
+     *
+     * @return the time of this update
+     */
+    public long getTime() {
+	return time;
+    }
+
+    /**
+     * Return whether this is a full update, carrying every kstat matched
+     * rather than just those that have changed.
+     *
+     * @return true if this is a full update
+     */
+    public boolean isFull() {
+	return full;
+    }
+
+    /**
+     * Return the number of updates dropped, because the subscriber wasn't
+     * keeping up, between the previous update sent and this one.
+     *
+     * @return the number of updates dropped
+     */
+    public long getDropped() {
+	return dropped;
+    }
+
+    /**
+     * Return the kstats sent whole, because they have just appeared or been
+     * recreated, or because this is a full update. Each replaces any copy
+     * the subscriber holds.
+     *
+     * @return the kstats sent whole
+     */
+    public Collection<Kstat> getKstats() {
+	return Collections.unmodifiableCollection(kstats);
+    }
+
+    /**
+     * Return the kstats that have been updated. Each carries its current
+     * metadata, but only those statistics whose values have changed, so
+     * must be merged into the copy the subscriber holds.
+     *
+     * @return the updated kstats
+     */
+    public Collection<Kstat> getChanged() {
+	return Collections.unmodifiableCollection(changed);
+    }
+
+    /**
+     * Return the kstats that have left the chain.
+     *
+     * @return the removed kstats
+     */
+    public Collection<Kstat> getRemoved() {
+	return Collections.unmodifiableCollection(removed);
+    }
+
+    /**
+     * Write a JSON representation of this update, on a single line.
+     *
+     * @param out where to write the JSON
+     *
+     * @throws IOException if the JSON cannot be written
+     */
+    public void writeJSON(final Appendable out) throws IOException {
+	out.append("{\"seq\":").append(Long.toString(seq))
+	    .append(",\"kcid\":").append(Integer.toString(kcid))
+	    .append(",\"time\":").append(Long.toString(time))
+	    .append(",\"full\":").append(Boolean.toString(full))
+	    .append(",\"dropped\":").append(Long.toString(dropped))
+	    .append(",\"kstats\":[");
+	writeKstats(out, kstats);
+	out.append("],\"changed\":[");
+	writeKstats(out, changed);
+	out.append("],\"removed\":[");
+	boolean first = true;
+	for (Kstat ks : removed) {
+	    if (!first) {
+		out.append(',');
+	    }
+	    first = false;
+	    out.append("{\"module\":\"").append(ks.getModule())
+		.append("\",\"instance\":").append(ks.getInstance())
+		.append(",\"name\":\"").append(ks.getName()).append("\"}");
+	}
+	out.append("]}");
+    }
+
+    private static void writeKstats(final Appendable out,
+				    final Collection<Kstat> lks)
+	    throws IOException {
+	boolean first = true;
+	for (Kstat ks : lks) {
+	    if (!first) {
+		out.append(',');
+	    }
+	    first = false;
+	    out.append(ks.toJSON());
+	}
+    }
+
+    /**
+     * Generate a JSON representation of this update, on a single line.
+     *
+     * @return a String containing a JSON representation of this update
+     */
+    public String toJSON() {
+	StringBuilder sb = new StringBuilder(128
+				+ 256 * (kstats.size() + changed.size()));
+	try {
+	    writeJSON(sb);
+	} catch (IOException ioe) {
+	    // can't happen, a StringBuilder doesn't throw
+	}
+	return sb.toString();
+    }
+}
@@ -22,6 +22,7 @@ package uk.co.petertribble.jkstat.api;
 
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Function;
 
 /**
  * Some utility methods to manpulate Kstat classes.
@@ -46,13 +47,25 @@ public final class KstatUtil {
 	if (ks == null) {
 	    return null;
 	}
-	Kstat nks = jkstat.getKstat(ks);
-	if (nks == null) {
+	return numericStatistics(jkstat.getKstat(ks));
+    }
+
+    /**
+     * Get a Set of the numerical statistics in a Kstat that has already
+     * been read, without reading it again.
+     *
+     * @param ks a Kstat holding data
+     *
+     * @return a Set of those statistics that are of a numeric type, or
+     * null if the Kstat is null
+     */
+    public static Set<String> numericStatistics(final Kstat ks) {
+	if (ks == null) {
 	    return null;
 	}
 	Set<String> ns = new TreeSet<>();
-	for (String s : nks.statistics()) {
-	    if (nks.isNumeric(s)) {
+	for (String s : ks.statistics()) {
+	    if (ks.isNumeric(s)) {
 		ns.add(s);
 	    }
 	}
@@ -99,7 +112,8 @@ public final class KstatUtil {
 
     /**
      * Utility routine to construct an aggregate. The aggregate is constructed
-     * from the module:instance:name triplet, any of which can be empty.
+     * from the module:instance:name triplet, any of which can be empty, as
+     * a group in the shared {@code KstatAggregateGraph} for jkstat.
      *
      * @param jkstat a JKstat object
      * @param s0 the kstat module
@@ -110,8 +124,10 @@ public final class KstatUtil {
      */
     public static KstatAggregate makeAggr(final JKstat jkstat, final String s0,
 				final String s1, final String s2) {
-	return new KstatAggregate(jkstat, makeSet(jkstat, s0, s1, s2),
-				s0 + ":" + s1 + ":" + s2);
+	KstatFilter ksf = new KstatFilter(jkstat);
+	ksf.addFilter(s0 + ":" + s1 + ":" + s2);
+	return new KstatAggregate(KstatAggregateGraph.getGraph(jkstat)
+			.addGroup(s0 + ":" + s1 + ":" + s2, ksf));
     }
 
     /**
@@ -131,4 +147,47 @@ public final class KstatUtil {
 	    return null;
 	}
     }
+
+    /**
+     * Read all the kstats matching a multiple get request, and return them
+     * as a JSON object mapping each requested name to an array of the
+     * matching kstats. The module and name may each be a semicolon-separated
+     * list, in which case every combination is matched. The instance may be
+     * "*" to match all instances. The matching kstats are all read in a
+     * single bulk read.
+     *
+     * @param jkstat a JKstat object
+     * @param module the desired module, or modules separated by ";"
+     * @param instance the desired instance, or "*"
+     * @param name the desired name, or names separated by ";"
+     *
+     * @return a serialized JSON String representing the matching kstats
+     */
+    public static String mget(final JKstat jkstat, final String module,
+			      final String instance, final String name) {
+	return mget(jkstat, module, instance, name, Kstat::toJSON);
+    }
+
+    /**
+     * Read all the kstats matching a multiple get request, as for
+     * {@link #mget(JKstat, String, String, String)}, using the supplied
+     * function to serialize each matching kstat. This allows a caller that
+     * already holds the serialized form of a kstat to reuse it.
+     *
+     * @param jkstat a JKstat object
+     * @param module the desired module, or modules separated by ";"
+     * @param instance the desired instance, or "*"
+     * @param name the desired name, or names separated by ";"
+     * @param json a function returning the JSON form of a kstat read from
+     * the given JKstat
+     *
+     * @return a serialized JSON String representing the matching kstats
+     *
+     * @see KstatMultiGet
+     */
+    public static String mget(final JKstat jkstat, final String module,
+			      final String instance, final String name,
+			      final Function<Kstat, String> json) {
+	return new KstatMultiGet(jkstat, module, instance, name).toJSON(json);
+    }
 }
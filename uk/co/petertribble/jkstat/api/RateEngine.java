@@ -0,0 +1,254 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.api;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Calculates the rates of change of a fixed list of statistics between
+ * successive readings of a kstat. Previous values are held in a
+ * {@code long[]} and rates in a {@code double[]}, both indexed by position
+ * in the list of statistics, and the mapping from those positions to slots
+ * in the kstat's {@code KstatSchema} is worked out once, and again only if
+ * the schema gains statistics, so that in the steady state an update
+ * doesn't allocate anything.
+ *
+ * <p>Statistics that are 32-bit counters can wrap around. If such a
+ * statistic appears to have decreased by more than half its range, it's
+ * assumed to have wrapped, and the delta is corrected. Smaller decreases
+ * are taken at face value, as the statistic may be a gauge rather than a
+ * counter. The type is taken from each reading, as a shared schema only
+ * records the type first seen from any source.
+ *
+ * <p>If the kstat's creation time changes, then it has been destroyed and
+ * recreated, and its statistics will have started again from zero. In that
+ * case the previous values are discarded, and the rates are calculated as
+ * the average since the kstat was recreated. This is also how rates are
+ * calculated from the first reading.
+ *
+ * @author Peter Tribble
+ */
+public final class RateEngine {
+
+    private static final long WRAP32 = 1L << 32;
+
+    private final String[] statistics;
+    private final Map<String, Integer> indexMap = new HashMap<>();
+    private final long[] values;
+    private final long[] deltas;
+    private final double[] rates;
+    private final int[] slots;
+    private KstatSchema schema;
+    private int schemaSize;
+    private long crtime;
+    private long lastsnap;
+    private long interval;
+
+    /**
+     * Create a {@code RateEngine} for the given statistics.
+     *
+     * @param nstatistics the names of the statistics to be tracked
+     * @param ncrtime the creation time of the kstat to be tracked
+     */
+    public RateEngine(final String[] nstatistics, final long ncrtime) {
+	statistics = nstatistics.clone();
+	int n = statistics.length;
+	for (int i = 0; i < n; i++) {
+	    indexMap.put(statistics[i], i);
+	}
+	values = new long[n];
+	deltas = new long[n];
+	rates = new double[n];
+	slots = new int[n];
+	crtime = ncrtime;
+	lastsnap = ncrtime;
+    }
+
+    /**
+     * Update from a new reading of the kstat.
+     *
+     * @param ks a {@code Kstat} holding current data
+     *
+     * @return false if the kstat had been recreated since the previous
+     * reading, true otherwise
+     */
+    public boolean update(final Kstat ks) {
+	boolean same = true;
+	if (ks.getCrtime() != crtime) {
+	    crtime = ks.getCrtime();
+	    lastsnap = crtime;
+	    Arrays.fill(values, 0L);
+	    same = false;
+	}
+	/*
+	 * A schema gains slots as statistics are seen, so one we've mapped
+	 * may since have gained a statistic we couldn't find before.
+	 */
+	if ((ks.getSchema() != schema)
+		|| ((schema != null) && (schema.size() != schemaSize))) {
+	    mapSlots(ks.getSchema());
+	}
+	long dt = ks.getSnaptime() - lastsnap;
+	for (int i = 0; i < values.length; i++) {
+	    int slot = slots[i];
+	    if (ks.isNumeric(slot)) {
+		long nv = ks.longData(slot);
+		long d = nv - values[i];
+		if ((d < -(WRAP32 >> 1)) && wraps(ks.getDataType(slot))) {
+		    d += WRAP32;
+		}
+		record(i, nv, d, dt);
+	    } else {
+		record(i, values[i], 0L, dt);
+	    }
+	}
+	lastsnap = ks.getSnaptime();
+	interval = dt;
+	return same;
+    }
+
+    /**
+     * Update from new values that have been calculated rather than read
+     * directly from a kstat, such as the totals across an aggregate.
+     *
+     * @param nsnaptime the time of the new values, in nanoseconds
+     * @param nvalues the new values, in the same order as the statistics
+     * this {@code RateEngine} was created with
+     */
+    public void update(final long nsnaptime, final long[] nvalues) {
+	long dt = nsnaptime - lastsnap;
+	for (int i = 0; i < values.length; i++) {
+	    record(i, nvalues[i], nvalues[i] - values[i], dt);
+	}
+	lastsnap = nsnaptime;
+	interval = dt;
+    }
+
+    /*
+     * Save the new value and rate of the ith statistic. If no time has
+     * passed, the previous rate is retained.
+     */
+    private void record(final int i, final long nv, final long d,
+			final long dt) {
+	values[i] = nv;
+	deltas[i] = d;
+	if (dt > 0) {
+	    rates[i] = 1000000000.0 * d / dt;
+	}
+    }
+
+    /*
+     * Whether a statistic of the given type is a 32-bit counter that
+     * might wrap.
+     */
+    private static boolean wraps(final KstatData.Type t) {
+	return (t == KstatData.Type.KSTAT_DATA_INT32)
+	    || (t == KstatData.Type.KSTAT_DATA_UINT32);
+    }
+
+    /*
+     * Find the slot of each statistic in a new schema.
+     */
+    private void mapSlots(final KstatSchema nschema) {
+	schema = nschema;
+	schemaSize = (schema == null) ? 0 : schema.size();
+	for (int i = 0; i < statistics.length; i++) {
+	    slots[i] = (schema == null) ? -1 : schema.getSlot(statistics[i]);
+	}
+    }
+
+    /**
+     * Return the number of statistics tracked.
+     *
+     * @return the number of statistics tracked by this {@code RateEngine}
+     */
+    public int size() {
+	return statistics.length;
+    }
+
+    /**
+     * Return the name of a tracked statistic.
+     *
+     * @param i the index of the statistic
+     *
+     * @return the name of the statistic
+     */
+    public String getStatistic(final int i) {
+	return statistics[i];
+    }
+
+    /**
+     * Return the index of a tracked statistic.
+     *
+     * @param s the name of the statistic
+     *
+     * @return the index of the statistic, or -1 if it isn't tracked
+     */
+    public int indexOf(final String s) {
+	Integer i = indexMap.get(s);
+	return (i == null) ? -1 : i;
+    }
+
+    /**
+     * Return the most recent value of a statistic.
+     *
+     * @param i the index of the statistic
+     *
+     * @return the value of the statistic at the last update
+     */
+    public long getValue(final int i) {
+	return values[i];
+    }
+
+    /**
+     * Return the change in a statistic at the last update.
+     *
+     * @param i the index of the statistic
+     *
+     * @return the change in the statistic, corrected for wraparound
+     */
+    public long getDelta(final int i) {
+	return deltas[i];
+    }
+
+    /**
+     * Return the rate of change per second of a statistic.
+     *
+     * @param i the index of the statistic
+     *
+     * @return the rate of change of the statistic at the last update
+     */
+    public double getRate(final int i) {
+	return rates[i];
+    }
+
+    /**
+     * Return the time between the last two updates.
+     *
+     * @return the interval between the last two updates, in nanoseconds
+     */
+    public long getInterval() {
+	return interval;
+    }
+}
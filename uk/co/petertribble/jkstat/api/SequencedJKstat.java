@@ -14,18 +14,32 @@
  *
  * CDDL HEADER END
  *
- * Copyright 2025 Peter Tribble
+ * Copyright 2026 Peter Tribble
  *
  */
 
 package uk.co.petertribble.jkstat.api;
 
+import java.util.Collections;
+import java.util.Set;
+
 /**
  * An access class for Solaris kstats. Allows the available kstats to be
  * enumerated, and kstats and individual statistics to be retrieved. Extends
  * the base JKstat by allowing the consumer to step backwards and forwards
  * in time.
  *
+ * <p>The chain id of a {@code SequencedJKstat} identifies the set of kstats
+ * present, rather than the point in time. Implementations supply each new
+ * point in time to {@link #setKstats} or {@link #setSnapshot}, which
+ * compares a fingerprint of the kstats present with the previous one and
+ * only moves to a new chain id if the fingerprint has changed. Consumers
+ * such as a {@code KstatSet} will then only need to work out which kstats
+ * have come and gone when something actually has. So the kstats of the
+ * {@link #getChain} generation only identify the kstats present, and may
+ * hold the data of an earlier point in time; {@link #getKstats} and
+ * {@link #getKstat} always give the data at the current point in time.
+ *
  * @author Peter Tribble
  */
 public abstract class SequencedJKstat extends JKstat {
@@ -35,6 +49,15 @@ public abstract class SequencedJKstat extends JKstat {
      */
     protected long timestamp;
 
+    /*
+     * The kstats at the current point in time, indexed so that each can be
+     * found with a single lookup, and the number of distinct chains we've
+     * seen.
+     */
+    private KstatSnapshot current
+	= new KstatSnapshot(0L, Collections.emptySet());
+    private int generation;
+
     /*
      * newInstance(), next(), previous(), and size() are the core
      * distinguishing features of a SequencedJKstat
@@ -75,17 +98,89 @@ public abstract class SequencedJKstat extends JKstat {
      */
     public abstract int size();
 
+    /**
+     * Set the kstats for the current point in time. If the identities of
+     * the kstats differ from those at the previous point in time, the chain
+     * id is changed; if the same kstats are present, the chain id is left
+     * alone, even though their data will have changed. Either way,
+     * {@link #getKstats} returns the new kstats, with their data, from now
+     * on.
+     *
+     * @param nkstats the {@code Set} of {@code Kstat}s, with their data, at
+     * the current point in time
+     */
+    protected void setKstats(final Set<Kstat> nkstats) {
+	setSnapshot(new KstatSnapshot(timestamp, nkstats));
+    }
+
+    /**
+     * Set the kstats for the current point in time from a
+     * {@code KstatSnapshot}, which may be shared with other instances
+     * stepping through the same sequence. This allows the index of the
+     * kstats, and their fingerprint, to be built only once for each point in
+     * time. The chain id is changed as for {@link #setKstats}.
+     *
+     * @param snapshot a {@code KstatSnapshot} of the kstats, with their data,
+     * at the current point in time
+     */
+    protected void setSnapshot(final KstatSnapshot snapshot) {
+	if ((snapshot.size() != current.size())
+		|| (snapshot.getFingerprint() != current.getFingerprint())) {
+	    generation++;
+	    chainid = generation;
+	}
+	current = snapshot;
+    }
+
+    /**
+     * Compute a fingerprint of the identities of the given kstats. The
+     * fingerprint depends only on the module, instance, and name of each
+     * kstat, and not on the order in which they are presented.
+     *
+     * @param nkstats the {@code Kstat}s to fingerprint
+     *
+     * @return a fingerprint of the identities of the given kstats
+     */
+    public static long fingerprint(final Set<Kstat> nkstats) {
+	long fp = 0L;
+	for (Kstat ks : nkstats) {
+	    long h = ((long) ks.getModule().hashCode() << 32)
+		^ (ks.getName().hashCode() & 0xffffffffL);
+	    h += ks.getInst() * 0x9e3779b97f4a7c15L;
+	    // the splitmix64 finalizer, so that summing doesn't cancel out
+	    h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+	    h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+	    fp += h ^ (h >>> 31);
+	}
+	return fp;
+    }
+
     /*
      * The following are concrete implementations that are shared between all
      * (or most) SequencedJKstat implementations. Normally, these are
-     * retrieved from a fixed store, we just increment the chainid each time,
+     * retrieved from a fixed store, the chainid is maintained by setKstats,
      * enumeration isn't relevant as we do that anyway, and getting a kstat
      * just involves searching the list.
      */
 
     /**
-     * Get the Kstat chain ID. Normally for a SequencedJKstat this will be the
-     * number of the JKstat in the sequence.
+     * Returns the kstats at the current point in time, with their data.
+     * Unlike the kstats of the chain, which is only replaced when the
+     * kstats present change, these change at every step. The returned
+     * {@code Set} is unmodifiable.
+     *
+     * @return a {@code Set} of the {@code Kstat}s at the current point in
+     * time
+     */
+    @Override
+    public Set<Kstat> getKstats() {
+	return current.getKstats();
+    }
+
+    /**
+     * Get the Kstat chain ID. For a SequencedJKstat this changes only when
+     * the kstats present change, not every time we move to a new point in
+     * the sequence.
      *
      * @return the current chain id
      */
@@ -95,14 +190,15 @@ public abstract class SequencedJKstat extends JKstat {
     }
 
     /**
-     * Enumerate the Kstats. This should do nothing for a SequencedJKstat as
-     * the Kstats will already have been enumerated in the underlying JKstat,
-     * but we return the chainid to indicate things have potentially changed.
+     * Enumerate the Kstats. This does nothing more than hand back the kstats
+     * at the current point in time, as they will already have been
+     * enumerated in the underlying JKstat.
      *
      * @return the current chain id
      */
     @Override
     public int enumerate() {
+	kstats = current.getKstats();
 	return chainid;
     }
 
@@ -113,18 +209,13 @@ public abstract class SequencedJKstat extends JKstat {
      * @param inst the kstat instance
      * @param name the name of the kstat
      *
-     * @return a new {@code Kstat} populated with current data
+     * @return the {@code Kstat} at the current point in time, or null if it
+     * isn't present
      */
     @Override
     public Kstat getKstatObject(final String module, final int inst,
 				final String name) {
-	for (Kstat ks : kstats) {
-	    if (ks.getModule().equals(module) && (inst == ks.getInst())
-			&& ks.getName().equals(name)) {
-		return ks;
-	    }
-	}
-	return null;
+	return current.getKstat(module, inst, name);
     }
 
     /**
@@ -39,6 +39,14 @@
  * </pre>
  * The Set of statistics is sorted, being backed by a TreeSet. The data
  * object will be either a String, or a Long for all the numeric values.
+ *
+ * <p>Kstats with the same module, name, and class share a KstatSchema.
+ * Code that reads the same statistic repeatedly can look up its slot once
+ * and then read it without a name lookup or boxing.
+ * <pre>
+ * int slot = ks.getSchema().getSlot("rbytes64");
+ * long l2 = ks.longData(slot);
+ * </pre>
  */
 
 package uk.co.petertribble.jkstat.api;
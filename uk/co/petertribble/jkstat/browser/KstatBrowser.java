@@ -232,6 +232,9 @@ public final class KstatBrowser extends JFrame implements ActionListener {
 	    JingleMultiFrame.unregister(this);
 	}
 	if (e.getSource() == exitItem) {
+	    if (jkstat instanceof RemoteJKstat) {
+		((RemoteJKstat) jkstat).close();
+	    }
 	    System.exit(0);
 	}
 	if (e.getSource() == infoItem) {
@@ -21,22 +21,61 @@
 package uk.co.petertribble.jkstat.client;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
 
 /**
  * A class providing access to a remote JKstat server via REST.
  *
+ * <p>The most recent response to each request that carried an entity tag
+ * is kept, and the request is then made conditional on the tag, so that
+ * if the server responds that nothing has changed, the kept response is
+ * returned without being sent again. Responses may be gzip compressed by
+ * the server, and are decompressed transparently.
+ *
  * @author Peter Tribble
  */
 public class JKhttpClient {
 
+    /*
+     * The maximum number of responses kept for conditional requests.
+     */
+    private static final int MAX_VALIDATORS = 4096;
+
     private String baseURL;
     private HttpClient httpclient;
 
+    /*
+     * Responses with their entity tags, by URI, least recently used first.
+     */
+    private final Map<String, Validated> validators
+	= new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder notModified = new LongAdder();
+
+    /*
+     * A response, and the entity tag it was sent with.
+     */
+    private static final class Validated {
+	private final String etag;
+	private final String body;
+
+	Validated(final String netag, final String nbody) {
+	    etag = netag;
+	    body = nbody;
+	}
+    }
+
     /**
      * Create a JKstat client that uses REST to communicate with a HTTP
      * server.
@@ -59,6 +98,7 @@ public class JKhttpClient {
      *
      * @return the result of the remote method execution
      *
+     * @throws JKhttpException if the server responded with an error
      * @throws IOException if there was a problem communicating with the server
      */
     public String execute(final String method) throws IOException {
@@ -74,6 +114,7 @@ public class JKhttpClient {
      *
      * @return the result of the remote method execution
      *
+     * @throws JKhttpException if the server responded with an error
      * @throws IOException if there was a problem communicating with the server
      */
     public String execute(final String method, final String[] args)
@@ -86,16 +127,86 @@ public class JKhttpClient {
 	return doGet(sb.toString());
     }
 
+    /**
+     * Return the number of requests for which the server reported that
+     * the response held from an earlier request was still current.
+     *
+     * @return the number of requests answered with 304 Not Modified
+     */
+    public long getNotModifiedCount() {
+	return notModified.sum();
+    }
+
     private String doGet(final String request) throws IOException {
-	HttpRequest hrequest = HttpRequest.newBuilder()
-	    .uri(URI.create(baseURL + request))
-	    .build();
+	String uri = baseURL + request;
+	HttpRequest.Builder hbuilder = HttpRequest.newBuilder()
+	    .uri(URI.create(uri))
+	    .header("Accept-Encoding", "gzip");
+	Validated v = getValidated(uri);
+	if (v != null) {
+	    hbuilder.header("If-None-Match", v.etag);
+	}
 	try {
-	    HttpResponse<String> response
-		= httpclient.send(hrequest, BodyHandlers.ofString());
-	    return response.body();
+	    HttpResponse<InputStream> response = httpclient.send(
+		hbuilder.build(), BodyHandlers.ofInputStream());
+	    String body = readBody(response);
+	    if ((response.statusCode() == 304) && (v != null)) {
+		notModified.increment();
+		return v.body;
+	    }
+	    if (response.statusCode() >= 400) {
+		if (v != null) {
+		    putValidated(uri, null);
+		}
+		throw new JKhttpException(response.statusCode(), request);
+	    }
+	    Optional<String> etag = response.headers().firstValue("ETag");
+	    if ((response.statusCode() == 200) && etag.isPresent()) {
+		putValidated(uri, new Validated(etag.get(), body));
+	    } else if (v != null) {
+		putValidated(uri, null);
+	    }
+	    return body;
 	} catch (InterruptedException ie) {
 	    return "";
 	}
     }
+
+    /*
+     * Read the body of a response, decompressing it if necessary.
+     */
+    private static String readBody(final HttpResponse<InputStream> response)
+	    throws IOException {
+	boolean gzip = response.headers().firstValue("Content-Encoding")
+	    .map(s -> "gzip".equalsIgnoreCase(s.trim())).orElse(false);
+	try (InputStream is = gzip ? new GZIPInputStream(response.body())
+		: response.body()) {
+	    return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+	}
+    }
+
+    private Validated getValidated(final String uri) {
+	synchronized (validators) {
+	    return validators.get(uri);
+	}
+    }
+
+    /*
+     * Keep a response, or forget the kept response if null, evicting the
+     * least recently used response if there are too many.
+     */
+    private void putValidated(final String uri, final Validated v) {
+	synchronized (validators) {
+	    if (v == null) {
+		validators.remove(uri);
+		return;
+	    }
+	    validators.put(uri, v);
+	    if (validators.size() > MAX_VALIDATORS) {
+		Iterator<String> it = validators.keySet().iterator();
+		it.next();
+		it.remove();
+	    }
+	}
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a remote JKstat server responds to a REST request with an
+ * error status, so that callers can tell a request the server couldn't
+ * handle from a failure to communicate with it.
+ *
+ * @author Peter Tribble
+ */
+public class JKhttpException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    /**
+     * Construct a new JKhttpException.
+     *
+     * @param nstatus the HTTP status code of the response
+     * @param request the request that failed
+     */
+    public JKhttpException(final int nstatus, final String request) {
+	super("HTTP status " + nstatus + " for " + request);
+	status = nstatus;
+    }
+
+    /**
+     * Return the HTTP status code the server responded with.
+     *
+     * @return the HTTP status code of the response
+     */
+    public int getStatusCode() {
+	return status;
+    }
+}
@@ -20,6 +20,10 @@
 
 package uk.co.petertribble.jkstat.client;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import uk.co.petertribble.jkstat.api.*;
 import uk.co.petertribble.jkstat.parse.JSONParser;
 
@@ -32,6 +36,11 @@ import uk.co.petertribble.jkstat.parse.JSONParser;
 public final class JsonJKstat extends JKstat {
 
     private JKhttpClient client;
+    /*
+     * Cleared if the server turns out not to handle mget requests for
+     * lists of modules and names, after which kstats are read one by one.
+     */
+    private volatile boolean bulk = true;
 
     /**
      * Constructs a JsonJKstat object.
@@ -49,11 +58,71 @@ public final class JsonJKstat extends JKstat {
 	try {
 	    return JSONParser.getKstat(client.execute("get",
 			new String[] {module, Integer.toString(inst), name}));
+	} catch (JKhttpException e) {
+	    if (e.getStatusCode() == 404) {
+		return null;
+	    }
+	    throw new KstatException("JsonJKstat getKstatObject failed", e);
 	} catch (Exception e) {
 	    throw new KstatException("JsonJKstat getKstatObject failed", e);
 	}
     }
 
+    /**
+     * Retrieves a number of {@code Kstat}s and their statistics, using as
+     * few mget requests to the server as the length of a request allows.
+     * If the server can't handle a request, the kstats are read one at a
+     * time instead.
+     */
+    @Override
+    public Map<Kstat, Kstat> getKstats(final Collection<Kstat> lks) {
+	if (!bulk) {
+	    return super.getKstats(lks);
+	}
+	Map<Kstat, Kstat> kmap = new HashMap<>();
+	for (KstatRequest kr : KstatRequest.split(lks)) {
+	    kmap.putAll(mget(kr));
+	}
+	return kmap;
+    }
+
+    /*
+     * Read the kstats of a single request. An older server may not know
+     * about mget, answering 404, or may take lists of modules and names
+     * literally and find nothing, in which case we stop using mget. A
+     * request that is still too long for the server, answered with 414,
+     * is read kstat by kstat.
+     */
+    private Map<Kstat, Kstat> mget(final KstatRequest kr) {
+	Map<Kstat, Kstat> kmap;
+	try {
+	    /*
+	     * The separators are escaped so they can't be mistaken for
+	     * matrix parameters.
+	     */
+	    kmap = kr.select(JSONParser.getKstatGroups(client.execute("mget",
+			new String[] {kr.getModules().replace(";", "%3B"),
+				kr.getInstance(),
+				kr.getNames().replace(";", "%3B")})));
+	} catch (JKhttpException e) {
+	    if (e.getStatusCode() == 404) {
+		bulk = false;
+	    } else if (e.getStatusCode() != 414) {
+		throw new KstatException("JsonJKstat getKstats failed", e);
+	    }
+	    return super.getKstats(kr.getKstats());
+	} catch (IOException e) {
+	    throw new KstatException("JsonJKstat getKstats failed", e);
+	}
+	if (kmap.isEmpty() && kr.hasLists()) {
+	    kmap = super.getKstats(kr.getKstats());
+	    if (!kmap.isEmpty()) {
+		bulk = false;
+	    }
+	}
+	return kmap;
+    }
+
     @Override
     public int getKCID() {
 	try {
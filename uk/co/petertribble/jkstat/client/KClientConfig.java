@@ -46,6 +46,12 @@ public final class KClientConfig {
      */
     public static final int CLIENT_REST = 1;
 
+    /**
+     * Represents a RESTful client/server configuration, where the client
+     * subscribes to updates and keeps a local mirror of the kstats.
+     */
+    public static final int CLIENT_REST_PUSH = 2;
+
     /*
      * The entries in the array below MUST match the available protocols above,
      * as KClientDialog uses it as an array, and the index then refers back
@@ -55,7 +61,8 @@ public final class KClientConfig {
     /**
      * An array of the names of available client-server protocols.
      */
-    public static final String[] PROTOCOLS = {"XML-RPC", "REST"};
+    public static final String[] PROTOCOLS = {"XML-RPC", "REST",
+	"REST (push)"};
 
     private String urlString;
     private String username;
@@ -0,0 +1,153 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+package uk.co.petertribble.jkstat.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import uk.co.petertribble.jkstat.api.Kstat;
+
+/**
+ * Turns a collection of kstats to be read into the arguments of a single
+ * multiple get request to a remote server, and picks the kstats that were
+ * asked for out of the response.
+ *
+ * <p>The request covers every combination of the modules and names
+ * requested, so may return more kstats than were asked for. If all the
+ * kstats share an instance, the request is restricted to it. Large
+ * collections are split into a number of requests, so that no request
+ * gets too long and the combinations don't multiply too far.
+ *
+ * @author Peter Tribble
+ */
+final class KstatRequest {
+
+    /*
+     * The most characters of modules and names in a single request,
+     * allowing for escaped separators. This keeps a REST request well
+     * inside the URI limits of common servers.
+     */
+    private static final int MAX_LENGTH = 2048;
+
+    private final Collection<Kstat> wanted;
+    private final String modules;
+    private final String instance;
+    private final String names;
+
+    KstatRequest(final Collection<Kstat> lks) {
+	wanted = lks;
+	Set<String> mset = new TreeSet<>();
+	Set<String> nset = new TreeSet<>();
+	Set<Integer> iset = new TreeSet<>();
+	for (Kstat ks : lks) {
+	    mset.add(ks.getModule());
+	    nset.add(ks.getName());
+	    iset.add(ks.getInst());
+	}
+	modules = String.join(";", mset);
+	names = String.join(";", nset);
+	instance = (iset.size() == 1) ? iset.iterator().next().toString()
+	    : "*";
+    }
+
+    /*
+     * Split a collection of kstats into requests of bounded length. The
+     * kstats are sorted, so that those of a module go together.
+     */
+    static List<KstatRequest> split(final Collection<Kstat> lks) {
+	List<KstatRequest> requests = new ArrayList<>();
+	List<Kstat> chunk = new ArrayList<>();
+	Set<String> mset = new TreeSet<>();
+	Set<String> nset = new TreeSet<>();
+	int len = 0;
+	for (Kstat ks : new TreeSet<>(lks)) {
+	    int add = (mset.contains(ks.getModule()) ? 0
+		       : ks.getModule().length() + 3)
+		+ (nset.contains(ks.getName()) ? 0
+		   : ks.getName().length() + 3);
+	    if (!chunk.isEmpty() && (len + add > MAX_LENGTH)) {
+		requests.add(new KstatRequest(chunk));
+		chunk = new ArrayList<>();
+		mset.clear();
+		nset.clear();
+		len = 0;
+		add = ks.getModule().length() + ks.getName().length() + 6;
+	    }
+	    chunk.add(ks);
+	    mset.add(ks.getModule());
+	    nset.add(ks.getName());
+	    len += add;
+	}
+	if (!chunk.isEmpty()) {
+	    requests.add(new KstatRequest(chunk));
+	}
+	return requests;
+    }
+
+    Collection<Kstat> getKstats() {
+	return wanted;
+    }
+
+    /*
+     * Whether the request names more than one module or name, which a
+     * server that doesn't understand lists would take literally.
+     */
+    boolean hasLists() {
+	return (modules.indexOf(';') >= 0) || (names.indexOf(';') >= 0);
+    }
+
+    String getModules() {
+	return modules;
+    }
+
+    String getInstance() {
+	return instance;
+    }
+
+    String getNames() {
+	return names;
+    }
+
+    /*
+     * Match the kstats returned by the server to those we asked for.
+     */
+    Map<Kstat, Kstat> select(final Set<Kstat> fetched) {
+	Map<Kstat, Kstat> kmap = new HashMap<>();
+	if (fetched == null) {
+	    return kmap;
+	}
+	Map<Kstat, Kstat> fmap = new HashMap<>();
+	for (Kstat ks : fetched) {
+	    fmap.put(ks, ks);
+	}
+	for (Kstat ks : wanted) {
+	    Kstat nks = fmap.get(ks);
+	    if (nks != null) {
+		kmap.put(ks, nks);
+	    }
+	}
+	return kmap;
+    }
+}
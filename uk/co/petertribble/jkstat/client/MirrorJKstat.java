@@ -0,0 +1,428 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.client;
+
+import java.awt.EventQueue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import uk.co.petertribble.jkstat.api.*;
+import uk.co.petertribble.jkstat.parse.JSONParser;
+
+/**
+ * An implementation of the JKstat class that subscribes to a stream of
+ * updates from a remote JKstat server, and keeps a local mirror of the
+ * kstats the subscription matches. Kstats are then served from the
+ * mirror without contacting the server, so that any number of reads cost
+ * nothing remotely, and the server sends only what has changed, once per
+ * interval, however often the mirror is read.
+ *
+ * <p>The mirror is brought up to date by a background thread, started by
+ * {@link #start}, as each update arrives. Until the first update arrives,
+ * reads wait for it, except on the event dispatch thread, which is never
+ * held up and sees the mirror as it is, empty at first. Kstats in the
+ * mirror are never modified, an update replaces them, so a {@code Kstat}
+ * once returned keeps its values. If the connection is lost, the thread
+ * reconnects, and the server starts again with a full update.
+ *
+ * <p>This needs a server providing the subscribe method, as the REST
+ * server in {@code KServer1} does.
+ *
+ * @author Peter Tribble
+ */
+public final class MirrorJKstat extends JKstat {
+
+    /**
+     * The default interval between updates, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL = 1000L;
+
+    /*
+     * How long to wait for the first update before giving up, and the
+     * limits of the delay before reconnecting, in milliseconds.
+     */
+    private static final long FIRST_TIMEOUT = 30000L;
+    private static final long MIN_BACKOFF = 500L;
+    private static final long MAX_BACKOFF = 30000L;
+    private static final int BUFSIZE = 8192;
+
+    private final URI uri;
+    private final HttpClient httpclient;
+    private final Thread reader;
+    private volatile boolean running = true;
+    private volatile InputStream current;
+
+    /*
+     * The mirror, keyed by kstats holding just the metadata, so that
+     * keys don't keep old data alive.
+     */
+    private final Map<Kstat, Kstat> mirror = new ConcurrentHashMap<>();
+    private final CountDownLatch first = new CountDownLatch(1);
+    private volatile int kcid;
+    private volatile long time;
+    private volatile long updates;
+    private volatile long dropped;
+
+    /**
+     * Constructs a MirrorJKstat object, mirroring all kstats, updated at
+     * the default interval.
+     *
+     * @param kcc the configuration specifying how to contact the server
+     */
+    public MirrorJKstat(final KClientConfig kcc) {
+	this(kcc, new ArrayList<>(), DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Constructs a MirrorJKstat object, mirroring the kstats matched by the
+     * given filters, which are interpreted as by
+     * {@link KstatFilter#addFilter}.
+     *
+     * @param kcc the configuration specifying how to contact the server
+     * @param filters the filters selecting the kstats to mirror, which if
+     * empty selects all kstats
+     * @param interval the interval between updates, in milliseconds
+     */
+    public MirrorJKstat(final KClientConfig kcc,
+			final Collection<String> filters, final long interval) {
+	super();
+	String base = kcc.remoteURL();
+	StringBuilder sb = new StringBuilder(base);
+	if (!base.endsWith("/")) {
+	    sb.append('/');
+	}
+	sb.append("subscribe?interval=").append(interval);
+	for (String s : filters) {
+	    sb.append("&filter=")
+		.append(URLEncoder.encode(s, StandardCharsets.UTF_8));
+	}
+	uri = URI.create(sb.toString());
+	httpclient = HttpClient.newHttpClient();
+	reader = new Thread(this::run, "MirrorJKstat " + base);
+	reader.setDaemon(true);
+    }
+
+    /**
+     * Start mirroring. Nothing is read from the server until this is
+     * called, and calling it again has no effect.
+     */
+    public synchronized void start() {
+	if (reader.getState() == Thread.State.NEW) {
+	    reader.start();
+	}
+    }
+
+    /*
+     * Keep subscribed, reconnecting with an increasing delay if the
+     * connection can't be made or is lost.
+     */
+    private void run() {
+	long backoff = MIN_BACKOFF;
+	while (running) {
+	    long seen = updates;
+	    try {
+		subscribe();
+	    } catch (IOException ioe) {
+		// reconnect below
+	    } catch (InterruptedException ie) {
+		return;
+	    }
+	    backoff = (updates == seen) ? Math.min(2 * backoff, MAX_BACKOFF)
+		: MIN_BACKOFF;
+	    try {
+		Thread.sleep(backoff);
+	    } catch (InterruptedException ie) {
+		return;
+	    }
+	}
+    }
+
+    /*
+     * Read server-sent events until the stream ends. Only the data of each
+     * event matters, as the update it holds says what sort it is.
+     */
+    private void subscribe() throws IOException, InterruptedException {
+	HttpRequest req = HttpRequest.newBuilder()
+	    .uri(uri)
+	    .header("Accept", "text/event-stream")
+	    .header("Accept-Encoding", "gzip")
+	    .build();
+	HttpResponse<InputStream> response = httpclient.send(req,
+					BodyHandlers.ofInputStream());
+	current = response.body();
+	if (response.statusCode() != 200) {
+	    current.close();
+	    throw new IOException("subscribe failed: "
+				+ response.statusCode());
+	}
+	boolean gzip = response.headers().firstValue("Content-Encoding")
+	    .map(s -> "gzip".equalsIgnoreCase(s.trim())).orElse(false);
+	try (InputStream is = gzip ? new GZIPInputStream(current) : current) {
+	    LineReader in = new LineReader(is);
+	    StringBuilder data = new StringBuilder();
+	    String line;
+	    while (running && ((line = in.readLine()) != null)) {
+		if (line.isEmpty()) {
+		    if (data.length() > 0) {
+			KstatUpdate ku = JSONParser.getUpdate(data.toString());
+			if (ku == null) {
+			    throw new IOException("invalid update");
+			}
+			apply(ku);
+			data.setLength(0);
+		    }
+		} else if (line.startsWith("data:")) {
+		    if (data.length() > 0) {
+			data.append('\n');
+		    }
+		    data.append(line, line.startsWith("data: ") ? 6 : 5,
+				line.length());
+		}
+	    }
+	}
+    }
+
+    /*
+     * Reads lines of UTF-8 text. An InputStreamReader won't do, as it
+     * tries to fill its buffer while the stream claims to have more data
+     * available, and a GZIPInputStream always does, so events would be
+     * held back until enough had arrived to fill the buffer.
+     */
+    private static final class LineReader {
+	private final InputStream in;
+	private final byte[] buf = new byte[BUFSIZE];
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+	private int pos;
+	private int count;
+
+	LineReader(final InputStream nin) {
+	    in = nin;
+	}
+
+	/*
+	 * Return the next line, without its terminator, or null at the end
+	 * of the stream.
+	 */
+	String readLine() throws IOException {
+	    line.reset();
+	    for (;;) {
+		if (pos == count) {
+		    count = in.read(buf);
+		    pos = 0;
+		    if (count < 0) {
+			count = 0;
+			return null;
+		    }
+		}
+		int start = pos;
+		while ((pos < count) && (buf[pos] != '\n')) {
+		    pos++;
+		}
+		line.write(buf, start, pos - start);
+		if (pos < count) {
+		    pos++;
+		    String s = line.toString(StandardCharsets.UTF_8);
+		    return s.endsWith("\r") ? s.substring(0, s.length() - 1)
+			: s;
+		}
+	    }
+	}
+    }
+
+    /*
+     * Bring the mirror up to date. We're the only writer, so a kstat
+     * can't be added or removed between looking for it and acting.
+     */
+    private void apply(final KstatUpdate ku) {
+	if (ku.isFull()) {
+	    Set<Kstat> present = new HashSet<>(ku.getKstats());
+	    mirror.keySet().retainAll(present);
+	}
+	for (Kstat ks : ku.getKstats()) {
+	    put(ks);
+	}
+	for (Kstat ks : ku.getChanged()) {
+	    Kstat old = mirror.get(ks);
+	    if (old == null) {
+		put(ks);
+	    } else {
+		mirror.replace(ks, merge(old, ks));
+	    }
+	}
+	for (Kstat ks : ku.getRemoved()) {
+	    mirror.remove(ks);
+	}
+	kcid = ku.getKCID();
+	time = ku.getTime();
+	dropped += ku.getDropped();
+	updates++;
+	first.countDown();
+    }
+
+    /*
+     * Add a kstat to the mirror, or replace an existing copy.
+     */
+    private void put(final Kstat ks) {
+	if (mirror.replace(ks, ks) == null) {
+	    Kstat key = new Kstat(ks.getModule(), ks.getInst(), ks.getName());
+	    key.setStandardInfo(ks.getKstatClass(), ks.getType(),
+				ks.getCrtime(), 0L);
+	    mirror.put(key, ks);
+	}
+    }
+
+    /*
+     * Create a new Kstat from the one we hold, with the metadata and
+     * changed statistics of an update.
+     */
+    private static Kstat merge(final Kstat old, final Kstat upd) {
+	Kstat ks = new Kstat(upd.getModule(), upd.getInst(), upd.getName());
+	ks.setStandardInfo(upd.getKstatClass(), upd.getType(),
+			upd.getCrtime(), upd.getSnaptime());
+	copy(old, ks);
+	copy(upd, ks);
+	return ks;
+    }
+
+    private static void copy(final Kstat from, final Kstat to) {
+	KstatSchema schema = from.getSchema();
+	int n = (schema == null) ? 0 : schema.size();
+	for (int slot = 0; slot < n; slot++) {
+	    if (from.isNumeric(slot)) {
+		to.addLongData(schema.getStatistic(slot),
+			from.getDataType(slot), from.longData(slot));
+	    } else if (from.hasStatistic(slot)) {
+		to.addDataObject(schema.getStatistic(slot),
+			from.getDataType(slot), from.getData(slot));
+	    }
+	}
+    }
+
+    /*
+     * Wait for the mirror to be populated. The event dispatch thread
+     * doesn't wait, as that would freeze the gui; it sees the mirror
+     * empty, and a later change of chain id tells it to look again.
+     */
+    private void awaitFirst() {
+	if ((first.getCount() == 0) || EventQueue.isDispatchThread()) {
+	    return;
+	}
+	if (reader.getState() == Thread.State.NEW) {
+	    throw new KstatException("MirrorJKstat not started");
+	}
+	try {
+	    if (!first.await(FIRST_TIMEOUT, TimeUnit.MILLISECONDS)) {
+		throw new KstatException("MirrorJKstat no response from "
+					+ uri);
+	    }
+	} catch (InterruptedException ie) {
+	    Thread.currentThread().interrupt();
+	    throw new KstatException("MirrorJKstat interrupted", ie);
+	}
+    }
+
+    /**
+     * Stop updating the mirror and close the connection to the server.
+     * The mirror keeps its final values.
+     */
+    public void close() {
+	running = false;
+	reader.interrupt();
+	InputStream is = current;
+	if (is != null) {
+	    try {
+		is.close();
+	    } catch (IOException ioe) {
+		// we're closing anyway
+	    }
+	}
+    }
+
+    /**
+     * Return the number of updates applied to the mirror.
+     *
+     * @return the number of updates applied
+     */
+    public long getUpdates() {
+	return updates;
+    }
+
+    /**
+     * Return the number of updates the server dropped because we weren't
+     * keeping up. Dropped updates lose nothing, as each update received
+     * holds all the changes since the one before.
+     *
+     * @return the number of updates dropped
+     */
+    public long getDropped() {
+	return dropped;
+    }
+
+    @Override
+    public Kstat getKstatObject(final String module, final int inst,
+				final String name) {
+	awaitFirst();
+	return mirror.get(new Kstat(module, inst, name));
+    }
+
+    @Override
+    public int getKCID() {
+	awaitFirst();
+	chainid = kcid;
+	return chainid;
+    }
+
+    @Override
+    public int enumerate() {
+	awaitFirst();
+	chainid = kcid;
+	kstats = new HashSet<>(mirror.keySet());
+	return chainid;
+    }
+
+    /**
+     * Gets the time, as the number of milliseconds since January 1, 1970,
+     * 00:00:00 GMT, associated with this JKstat object. For a MirrorJKstat,
+     * this is the time of the latest update on the server.
+     */
+    @Override
+    public long getTime() {
+	awaitFirst();
+	return time;
+    }
+}
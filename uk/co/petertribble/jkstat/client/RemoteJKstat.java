@@ -20,6 +20,8 @@
 
 package uk.co.petertribble.jkstat.client;
 
+import java.util.Collection;
+import java.util.Map;
 import uk.co.petertribble.jkstat.api.*;
 
 /**
@@ -43,17 +45,37 @@ public final class RemoteJKstat extends JKstat {
 	    childJKstat = new XmlRpcJKstat(kcc);
 	} else if (kcc.getProtocol() == KClientConfig.CLIENT_REST) {
 	    childJKstat = new JsonJKstat(kcc);
+	} else if (kcc.getProtocol() == KClientConfig.CLIENT_REST_PUSH) {
+	    MirrorJKstat mirror = new MirrorJKstat(kcc);
+	    mirror.start();
+	    childJKstat = mirror;
 	} else {
 	    throw new KstatException("Invalid remote protocol");
 	}
     }
 
+    /**
+     * Close any connection held open to the server. Only the push
+     * protocol holds a connection open, so for the others this does
+     * nothing. This RemoteJKstat shouldn't be used after it is closed.
+     */
+    public void close() {
+	if (childJKstat instanceof MirrorJKstat) {
+	    ((MirrorJKstat) childJKstat).close();
+	}
+    }
+
     @Override
     public Kstat getKstatObject(final String module, final int inst,
 				final String name) {
 	return childJKstat.getKstatObject(module, inst, name);
     }
 
+    @Override
+    public Map<Kstat, Kstat> getKstats(final Collection<Kstat> lks) {
+	return childJKstat.getKstats(lks);
+    }
+
     @Override
     public int getKCID() {
 	return childJKstat.getKCID();
@@ -61,9 +83,9 @@ public final class RemoteJKstat extends JKstat {
 
     @Override
     public int enumerate() {
-	int i = childJKstat.enumerate();
-	kstats = childJKstat.getKstats();
-	return i;
+	KstatChain kc = childJKstat.getChain();
+	kstats = kc.getKstats();
+	return kc.getKCID();
     }
 
     /**
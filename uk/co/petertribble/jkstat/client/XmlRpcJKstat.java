@@ -20,6 +20,9 @@
 
 package uk.co.petertribble.jkstat.client;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import org.apache.xmlrpc.XmlRpcException;
 import uk.co.petertribble.jkstat.api.*;
 import uk.co.petertribble.jkstat.parse.JSONParser;
@@ -33,6 +36,11 @@ import uk.co.petertribble.jkstat.parse.JSONParser;
 public final class XmlRpcJKstat extends JKstat {
 
     private JKstatClient client;
+    /*
+     * Cleared if the server turns out not to handle mget calls for lists
+     * of modules and names, after which kstats are read one by one.
+     */
+    private volatile boolean bulk = true;
 
     /**
      * Constructs a XmlRpcJKstat object.
@@ -55,6 +63,62 @@ public final class XmlRpcJKstat extends JKstat {
 	}
     }
 
+    /**
+     * Retrieves a number of {@code Kstat}s and their statistics, using as
+     * few mget calls to the server as the size of a call allows. If the
+     * server doesn't know about mget, the kstats are read one at a time
+     * instead.
+     */
+    @Override
+    public Map<Kstat, Kstat> getKstats(final Collection<Kstat> lks) {
+	if (!bulk) {
+	    return super.getKstats(lks);
+	}
+	Map<Kstat, Kstat> kmap = new HashMap<>();
+	for (KstatRequest kr : KstatRequest.split(lks)) {
+	    kmap.putAll(mget(kr));
+	}
+	return kmap;
+    }
+
+    /*
+     * Read the kstats of a single call. An older server may not have an
+     * mget method, reporting a fault, or may take lists of modules and
+     * names literally and find nothing, in which case we stop using mget.
+     */
+    private Map<Kstat, Kstat> mget(final KstatRequest kr) {
+	Map<Kstat, Kstat> kmap;
+	try {
+	    kmap = kr.select(JSONParser.getKstatGroups(
+			(String) client.execute("mget", new Object[] {
+				kr.getModules(), kr.getInstance(),
+				kr.getNames()})));
+	} catch (XmlRpcException e) {
+	    if (!unknownMethod(e)) {
+		throw new KstatException("XmlRpcJKstat getKstats failed", e);
+	    }
+	    bulk = false;
+	    return super.getKstats(kr.getKstats());
+	}
+	if (kmap.isEmpty() && kr.hasLists()) {
+	    kmap = super.getKstats(kr.getKstats());
+	    if (!kmap.isEmpty()) {
+		bulk = false;
+	    }
+	}
+	return kmap;
+    }
+
+    /*
+     * The fault an Apache XML-RPC server reports for a method it doesn't
+     * have, or whose arguments don't match.
+     */
+    private static boolean unknownMethod(final XmlRpcException e) {
+	String msg = e.getMessage();
+	return (msg != null) && (msg.startsWith("No such handler")
+				 || msg.startsWith("No method matching"));
+    }
+
     @Override
     public int getKCID() {
 	try {
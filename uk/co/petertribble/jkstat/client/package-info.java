@@ -27,6 +27,9 @@
  * simply be created using a URL to specify the server, or read its
  * configuration from a KClientConfig.
  *
+ * <p>A MirrorJKstat subscribes to updates from the server and keeps a local
+ * mirror of the kstats, so that reads don't go to the server at all.
+ *
  * <p>The JKStatClient class handles communication over the wire.
  */
 
@@ -0,0 +1,226 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.demo;
+
+import java.util.Date;
+import java.util.Random;
+import org.jfree.data.time.Millisecond;
+import org.jfree.data.time.TimeSeries;
+import uk.co.petertribble.jkstat.api.CompressedSeries;
+
+/**
+ * A headless benchmark of the memory used to keep the history of many
+ * statistics, and the time taken to add to it and read it back, comparing
+ * the JFreeChart {@code TimeSeries} used by charts with a
+ * {@code CompressedSeries}. The data is synthetic, sampled every five
+ * seconds with a little jitter, and is either the raw value of a counter
+ * or its rate of change, as a chart would show.
+ *
+ * @author Peter Tribble
+ */
+public final class HistoryBenchmark {
+
+    /*
+     * The number of distinct synthetic series generated; further series
+     * reuse them with an offset.
+     */
+    private static final int NSAMPLES = 64;
+
+    private int nseries = 2000;
+    private int npoints = 720;
+
+    private long[] times;
+    private double[][] counters;
+    private double[][] rates;
+
+    /**
+     * Run the benchmark, printing the results.
+     *
+     * @param args Command line arguments
+     */
+    public HistoryBenchmark(final String[] args) {
+	int i = 0;
+	while (i < args.length) {
+	    if (i + 1 >= args.length) {
+		usage("missing argument to " + args[i] + " flag");
+	    }
+	    try {
+		int v = Integer.parseInt(args[i + 1]);
+		if ("-s".equals(args[i])) {
+		    nseries = v;
+		} else if ("-p".equals(args[i])) {
+		    npoints = v;
+		} else {
+		    usage("unrecognized flag " + args[i]);
+		}
+	    } catch (NumberFormatException nfe) {
+		usage("invalid number " + args[i + 1]);
+	    }
+	    i += 2;
+	}
+	if ((nseries < 1) || (npoints < 2)) {
+	    usage("invalid arguments");
+	}
+	generate();
+	System.out.println("series " + nseries + ", points per series "
+			+ npoints);
+	// run twice, and only report the second, to allow for warmup
+	run("counter", counters, false);
+	run("counter", counters, true);
+	run("rate", rates, false);
+	run("rate", rates, true);
+    }
+
+    /*
+     * Samples at five second intervals, give or take a few milliseconds,
+     * of counters that go up by a varying amount, and of their rates
+     * measured over slightly varying intervals.
+     */
+    private void generate() {
+	Random r = new Random(42L);
+	times = new long[npoints];
+	long now = 1700000000000L;
+	for (int j = 0; j < npoints; j++) {
+	    now += 5000L;
+	    times[j] = now + r.nextInt(20);
+	}
+	counters = new double[NSAMPLES][npoints];
+	rates = new double[NSAMPLES][npoints];
+	for (int k = 0; k < NSAMPLES; k++) {
+	    long c = r.nextInt(1000000);
+	    int load = 1 + r.nextInt(10000);
+	    for (int j = 0; j < npoints; j++) {
+		long d = (long) (load * (-Math.log(1.0 - r.nextDouble())));
+		c += d;
+		counters[k][j] = c;
+		rates[k][j] = 1000000000.0 * d
+		    / (5000000000L + r.nextInt(20000000));
+	    }
+	}
+    }
+
+    private void run(final String name, final double[][] data,
+		     final boolean report) {
+	long npts = (long) nseries * npoints;
+
+	long m0 = usedMemory();
+	long t0 = System.nanoTime();
+	TimeSeries[] tss = new TimeSeries[nseries];
+	for (int s = 0; s < nseries; s++) {
+	    tss[s] = new TimeSeries("s" + s);
+	}
+	// add points in time order across all the series, as a chart would
+	for (int j = 0; j < npoints; j++) {
+	    for (int s = 0; s < nseries; s++) {
+		tss[s].add(new Millisecond(new Date(times[j])),
+			   data[s % NSAMPLES][j] + s);
+	    }
+	}
+	long t1 = System.nanoTime();
+	long m1 = usedMemory();
+	double tsum = 0.0;
+	for (TimeSeries ts : tss) {
+	    for (int j = 0; j < ts.getItemCount(); j++) {
+		tsum += ts.getTimePeriod(j).getFirstMillisecond()
+		    + ts.getValue(j).doubleValue();
+	    }
+	}
+	long t2 = System.nanoTime();
+	tss = null;
+
+	long m2 = usedMemory();
+	long t3 = System.nanoTime();
+	CompressedSeries[] css = new CompressedSeries[nseries];
+	for (int s = 0; s < nseries; s++) {
+	    css[s] = new CompressedSeries();
+	}
+	for (int j = 0; j < npoints; j++) {
+	    for (int s = 0; s < nseries; s++) {
+		css[s].add(times[j], data[s % NSAMPLES][j] + s);
+	    }
+	}
+	long t4 = System.nanoTime();
+	long m3 = usedMemory();
+	double csum = 0.0;
+	for (CompressedSeries cs : css) {
+	    CompressedSeries.Cursor c = cs.cursor();
+	    while (c.next()) {
+		csum += c.getTime() + c.getValue();
+	    }
+	}
+	long t5 = System.nanoTime();
+	long estimate = 0L;
+	for (CompressedSeries cs : css) {
+	    estimate += cs.memoryUsage();
+	}
+
+	if (tsum != csum) {
+	    System.out.println("ERROR: " + name + " data differs");
+	}
+	if (report) {
+	    report(name, "TimeSeries", m1 - m0, t1 - t0, t2 - t1, npts);
+	    report(name, "CompressedSeries", m3 - m2, t4 - t3, t5 - t4, npts);
+	    System.out.printf("%-8s %-17s estimated %.1f bytes/point%n", name,
+			"CompressedSeries", (double) estimate / npts);
+	}
+    }
+
+    private void report(final String name, final String impl,
+			final long mem, final long tadd, final long tread,
+			final long npts) {
+	System.out.printf("%-8s %-17s %6.1f bytes/point,"
+			  + " add %6.1f ns/point, read %6.1f ns/point%n",
+			  name, impl, (double) mem / npts,
+			  (double) tadd / npts, (double) tread / npts);
+    }
+
+    /*
+     * The heap in use, after encouraging the garbage collector to run.
+     */
+    private static long usedMemory() {
+	Runtime rt = Runtime.getRuntime();
+	for (int i = 0; i < 3; i++) {
+	    System.gc();
+	}
+	return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private void usage() {
+	System.err.println("Usage:");
+	System.err.println("historybench [-s series] [-p points]");
+	System.exit(1);
+    }
+
+    private void usage(final String s) {
+	System.err.println("Error: " + s);
+	usage();
+    }
+
+    /**
+     * Run the benchmark from the command line.
+     *
+     * @param args Command line arguments
+     */
+    public static void main(final String[] args) {
+	new HistoryBenchmark(args);
+    }
+}
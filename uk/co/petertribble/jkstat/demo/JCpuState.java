@@ -104,6 +104,7 @@ public final class JCpuState extends JKdemo implements ActionListener {
      */
     public JCpuState(final JKstat njkstat, final boolean standalone) {
 	super("jcpustate", 1, standalone, false, false);
+	closeOnExit(njkstat);
 
 	jkstat = njkstat;
 
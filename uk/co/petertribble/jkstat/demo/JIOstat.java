@@ -72,6 +72,7 @@ public final class JIOstat extends JKdemo {
      */
     public JIOstat(final JKstat jkstat, final boolean standalone) {
 	super("jiostat", standalone);
+	closeOnExit(jkstat);
 
         // create main display panel
         JPanel mainPanel = new JPanel(new BorderLayout());
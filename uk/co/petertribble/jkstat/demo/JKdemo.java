@@ -24,6 +24,8 @@ import java.awt.BorderLayout;
 import java.awt.event.*;
 import javax.swing.*;
 import uk.co.petertribble.jingle.JingleInfoFrame;
+import uk.co.petertribble.jkstat.api.JKstat;
+import uk.co.petertribble.jkstat.client.RemoteJKstat;
 import uk.co.petertribble.jkstat.gui.KstatResources;
 
 /**
@@ -97,6 +99,10 @@ public abstract class JKdemo extends JFrame implements ActionListener {
      * Whether this demo is a child or running standalone.
      */
     private boolean standalone;
+    /**
+     * A remote JKstat to close when a standalone demo exits.
+     */
+    private transient RemoteJKstat remote;
 
     /**
      * Constructs a JKdemo object.
@@ -283,6 +289,19 @@ public abstract class JKdemo extends JFrame implements ActionListener {
 	jm.add(menu);
     }
 
+    /**
+     * Note the JKstat this demo reads from. A standalone demo owns it,
+     * and closes it on exit if it holds a connection to a server open. A
+     * demo that isn't standalone leaves it open, as others may share it.
+     *
+     * @param jkstat the JKstat this demo reads from
+     */
+    protected void closeOnExit(final JKstat jkstat) {
+	if (jkstat instanceof RemoteJKstat) {
+	    remote = (RemoteJKstat) jkstat;
+	}
+    }
+
     class WindowExit extends WindowAdapter {
 	@Override
 	public void windowClosing(final WindowEvent we) {
@@ -296,6 +315,9 @@ public abstract class JKdemo extends JFrame implements ActionListener {
      */
     void kaboom() {
 	if (standalone) {
+	    if (remote != null) {
+		remote.close();
+	    }
 	    System.exit(0);
 	} else {
 	    stopLoop();
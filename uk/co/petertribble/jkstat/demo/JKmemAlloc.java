@@ -63,6 +63,7 @@ public final class JKmemAlloc extends JKdemo {
      */
     public JKmemAlloc(final JKstat jkstat) {
 	super("jkmemalloc");
+	closeOnExit(jkstat);
 
 	// create main display panel
 	JPanel mainPanel = new JPanel(new BorderLayout());
@@ -69,6 +69,7 @@ public final class JMPstat extends JKdemo {
      */
     public JMPstat(final JKstat jkstat, final boolean standalone) {
 	super("jmpstat", standalone);
+	closeOnExit(jkstat);
 
         // create main display panel
         JPanel mainPanel = new JPanel(new BorderLayout());
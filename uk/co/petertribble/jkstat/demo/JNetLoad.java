@@ -85,6 +85,7 @@ public final class JNetLoad extends JKdemo implements ActionListener {
      */
     public JNetLoad(final JKstat njkstat, final boolean standalone) {
 	super("JNetLoad", 1, standalone);
+	closeOnExit(njkstat);
 
 	jkstat = njkstat;
 
@@ -77,6 +77,7 @@ public final class Jnfsstat extends JKdemo implements ChangeListener {
      */
     public Jnfsstat(final JKstat jkstat, final boolean standalone) {
 	super("jnfsstat", standalone);
+	closeOnExit(jkstat);
 
 	// create main display panel
 	JPanel mainPanel = new JPanel(new BorderLayout());
@@ -0,0 +1,239 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.demo;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import uk.co.petertribble.jkstat.api.*;
+
+/**
+ * A headless benchmark of the cost of updating the rates charted for a
+ * kstat, measuring the time taken and the memory allocated by each update
+ * of a {@code ChartableIOKstat}, of a {@code ChartableKstat} tracking every
+ * statistic, and of a subclass that still keeps its values and rates in
+ * maps. The data is synthetic: disk kstats read once a second, whose read
+ * and write counts are 32-bit counters that wrap around, so any rate that
+ * comes out negative is reported as an error.
+ *
+ * @author Peter Tribble
+ */
+public final class RateBenchmark {
+
+    private static final long WRAP32 = 1L << 32;
+
+    private int nkstats = 100;
+    private int nreadings = 100;
+
+    private Kstat[][] readings;
+
+    /*
+     * A JKstat that returns the first reading of each of the kstats.
+     */
+    private final class SyntheticJKstat extends JKstat {
+	@Override
+	public Kstat getKstatObject(final String module, final int inst,
+				    final String name) {
+	    return ((inst < 0) || (inst >= nkstats)) ? null
+		: readings[inst][0];
+	}
+
+	@Override
+	public int getKCID() {
+	    return 1;
+	}
+
+	@Override
+	public int enumerate() {
+	    for (int i = 0; i < nkstats; i++) {
+		addKstat("sd", i, "sd" + i, "disk", KstatType.KSTAT_TYPE_IO,
+			 0L);
+	    }
+	    return 1;
+	}
+
+	@Override
+	public long getTime() {
+	    return System.currentTimeMillis();
+	}
+    }
+
+    /*
+     * A subclass written the way they were before there was a RateEngine,
+     * filling in the value map itself.
+     */
+    @SuppressWarnings("deprecation")
+    private static final class MapChartableKstat extends ChartableKstat {
+	MapChartableKstat(final JKstat njkstat, final Kstat nks) {
+	    jkstat = njkstat;
+	    ks = jkstat.getKstat(nks);
+	    lastsnap = ks.getCrtime();
+	    for (String s : KstatUtil.numericStatistics(jkstat, ks)) {
+		valueMap.put(s, 0L);
+	    }
+	    update();
+	}
+    }
+
+    /*
+     * Creates the ChartableKstat being measured.
+     */
+    @FunctionalInterface
+    private interface Maker {
+	ChartableKstat make(JKstat jkstat, Kstat ks);
+    }
+
+    /**
+     * Run the benchmark, printing the results.
+     *
+     * @param args Command line arguments
+     */
+    public RateBenchmark(final String[] args) {
+	int i = 0;
+	while (i < args.length) {
+	    if (i + 1 >= args.length) {
+		usage("missing argument to " + args[i] + " flag");
+	    }
+	    try {
+		int v = Integer.parseInt(args[i + 1]);
+		if ("-k".equals(args[i])) {
+		    nkstats = v;
+		} else if ("-r".equals(args[i])) {
+		    nreadings = v;
+		} else {
+		    usage("unrecognized flag " + args[i]);
+		}
+	    } catch (NumberFormatException nfe) {
+		usage("invalid number " + args[i + 1]);
+	    }
+	    i += 2;
+	}
+	if ((nkstats < 1) || (nreadings < 2)) {
+	    usage("invalid arguments");
+	}
+	generate();
+	JKstat jkstat = new SyntheticJKstat();
+	System.out.println("kstats " + nkstats + ", readings per kstat "
+			+ nreadings);
+	// run twice, and only report the second, to allow for warmup
+	for (int pass = 0; pass < 2; pass++) {
+	    run("ChartableIOKstat", jkstat, ChartableIOKstat::new, pass > 0);
+	    run("ChartableKstat", jkstat, ChartableKstat::new, pass > 0);
+	    run("map subclass", jkstat, MapChartableKstat::new, pass > 0);
+	}
+    }
+
+    /*
+     * Readings a second apart of disks doing a few thousand operations a
+     * second, whose operation counts start close to wrapping.
+     */
+    private void generate() {
+	readings = new Kstat[nkstats][nreadings];
+	for (int k = 0; k < nkstats; k++) {
+	    long ops = WRAP32 - 1000L * (k + 1);
+	    long bytes = 0L;
+	    long busy = 0L;
+	    for (int j = 0; j < nreadings; j++) {
+		long snap = 1000000000L * (j + 1);
+		Kstat ks = new Kstat("sd", k, "sd" + k);
+		ks.setStandardInfo("disk", KstatType.KSTAT_TYPE_IO, 0L, snap);
+		ks.insertIOData(bytes, bytes / 2, ops % WRAP32,
+				(ops / 2) % WRAP32, busy / 4, busy / 2,
+				snap, busy, busy * 2, snap, 0L, 1L);
+		readings[k][j] = ks;
+		ops += 1000L + 37L * ((j + k) % 50);
+		bytes += 8192L * 1000L;
+		busy += 400000000L + 1000000L * ((j * 7 + k) % 100);
+	    }
+	}
+    }
+
+    private void run(final String name, final JKstat jkstat,
+		     final Maker maker, final boolean report) {
+	ChartableKstat[] charts = new ChartableKstat[nkstats];
+	for (int k = 0; k < nkstats; k++) {
+	    charts[k] = maker.make(jkstat, readings[k][0]);
+	}
+	String[] stats = charts[0].getStatistics().toArray(new String[0]);
+	long a0 = allocated();
+	long t0 = System.nanoTime();
+	for (int j = 1; j < nreadings; j++) {
+	    for (int k = 0; k < nkstats; k++) {
+		charts[k].update(readings[k][j]);
+	    }
+	}
+	long t1 = System.nanoTime();
+	long a1 = allocated();
+	int negative = 0;
+	for (ChartableKstat cks : charts) {
+	    for (String s : stats) {
+		if (cks.getRate(s) < 0.0) {
+		    negative++;
+		}
+	    }
+	}
+	if (negative > 0) {
+	    System.out.println("ERROR: " + name + " has " + negative
+			+ " negative rates");
+	}
+	if (report) {
+	    long nupdates = (long) nkstats * (nreadings - 1);
+	    System.out.printf("%-17s %8.1f ns/update, %s%n", name,
+			(double) (t1 - t0) / nupdates, (a0 < 0)
+			? "allocation not measurable"
+			: String.format("%6.1f bytes/update",
+					(double) (a1 - a0) / nupdates));
+	}
+    }
+
+    /*
+     * The bytes allocated by this thread so far, or -1 if the JVM can't
+     * tell us.
+     */
+    private static long allocated() {
+	ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+	if (tmx instanceof com.sun.management.ThreadMXBean) {
+	    return ((com.sun.management.ThreadMXBean) tmx)
+		.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	return -1L;
+    }
+
+    private void usage() {
+	System.err.println("Usage:");
+	System.err.println("ratebench [-k kstats] [-r readings]");
+	System.exit(1);
+    }
+
+    private void usage(final String s) {
+	System.err.println("Error: " + s);
+	usage();
+    }
+
+    /**
+     * Run the benchmark from the command line.
+     *
+     * @param args Command line arguments
+     */
+    public static void main(final String[] args) {
+	new RateBenchmark(args);
+    }
+}
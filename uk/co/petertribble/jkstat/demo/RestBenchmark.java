@@ -0,0 +1,256 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.demo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.co.petertribble.jkstat.api.*;
+import uk.co.petertribble.jkstat.client.JKhttpClient;
+import uk.co.petertribble.jkstat.client.KClientConfig;
+import uk.co.petertribble.jkstat.server.KRestServer;
+import uk.co.petertribble.jkstat.server.KstatSampleCache;
+
+/**
+ * A headless load benchmark of the {@code KRestServer}, serving a
+ * synthetic population of kstats so it can be run anywhere. A number of
+ * concurrent clients each make a series of requests, mostly for single
+ * kstats with the occasional chain id check and multiple get, and the
+ * latency of each request and the overall throughput are reported.
+ *
+ * @author Peter Tribble
+ */
+public final class RestBenchmark {
+
+    private int nclients = 1000;
+    private int nrequests = 50;
+    private int nkstats = 1000;
+    private int quantum = 1000;
+    private int interval;
+
+    /*
+     * A JKstat holding a number of synthetic kstats, whose counters advance
+     * with time, and which counts how often it's read.
+     */
+    private static final class SyntheticJKstat extends JKstat {
+	private final int nkstats;
+	private final long start = System.nanoTime();
+	private final AtomicLong reads = new AtomicLong();
+
+	SyntheticJKstat(final int n) {
+	    nkstats = n;
+	}
+
+	@Override
+	public Kstat getKstatObject(final String module, final int inst,
+				    final String name) {
+	    if ((inst < 0) || (inst >= nkstats)) {
+		return null;
+	    }
+	    reads.incrementAndGet();
+	    long now = System.nanoTime() - start;
+	    Kstat ks = new Kstat(module, inst, name);
+	    ks.setStandardInfo("disk", KstatType.KSTAT_TYPE_NAMED, 0L, now);
+	    for (int i = 0; i < 10; i++) {
+		ks.addLongData("stat" + i, KstatData.Type.KSTAT_DATA_UINT64,
+			       now / 1000000L * (inst + i + 1));
+	    }
+	    return ks;
+	}
+
+	@Override
+	public int getKCID() {
+	    return 1;
+	}
+
+	@Override
+	public int enumerate() {
+	    for (int i = 0; i < nkstats; i++) {
+		addKstat("sd", i, "sd" + i, "disk",
+			 KstatType.KSTAT_TYPE_NAMED, 0L);
+	    }
+	    return 1;
+	}
+
+	@Override
+	public long getTime() {
+	    return System.currentTimeMillis();
+	}
+    }
+
+    /**
+     * Run the benchmark, printing the results.
+     *
+     * @param args Command line arguments
+     */
+    public RestBenchmark(final String[] args) {
+	int i = 0;
+	while (i < args.length) {
+	    if (i + 1 >= args.length) {
+		usage("missing argument to " + args[i] + " flag");
+	    }
+	    try {
+		int v = Integer.parseInt(args[i + 1]);
+		if ("-c".equals(args[i])) {
+		    nclients = v;
+		} else if ("-n".equals(args[i])) {
+		    nrequests = v;
+		} else if ("-k".equals(args[i])) {
+		    nkstats = v;
+		} else if ("-q".equals(args[i])) {
+		    quantum = v;
+		} else if ("-i".equals(args[i])) {
+		    interval = v;
+		} else {
+		    usage("unrecognized flag " + args[i]);
+		}
+	    } catch (NumberFormatException nfe) {
+		usage("invalid number " + args[i + 1]);
+	    }
+	    i += 2;
+	}
+	if ((nclients < 1) || (nrequests < 1) || (nkstats < 1)
+		|| (quantum < 0) || (interval < 0)) {
+	    usage("invalid arguments");
+	}
+	try {
+	    run();
+	} catch (IOException | InterruptedException | ExecutionException e) {
+	    System.err.println("Benchmark failed: " + e);
+	    System.exit(1);
+	}
+    }
+
+    private void run() throws IOException, InterruptedException,
+	    ExecutionException {
+	SyntheticJKstat jkstat = new SyntheticJKstat(nkstats);
+	KstatSampleCache cache = new KstatSampleCache(jkstat, quantum);
+	KRestServer server = new KRestServer(0, cache);
+	server.start();
+	JKhttpClient client = new JKhttpClient(new KClientConfig(
+		"http://localhost:" + server.getPort() + KRestServer.CONTEXT,
+		KClientConfig.CLIENT_REST));
+	// warm up, with the first tenth of the requests
+	drive(client, Math.max(1, nrequests / 10));
+	long hits0 = cache.getHits();
+	long misses0 = cache.getMisses();
+	long reads0 = jkstat.reads.get();
+	long t0 = System.nanoTime();
+	long[] latencies = drive(client, nrequests);
+	long t1 = System.nanoTime();
+	server.stop();
+	Arrays.sort(latencies);
+	int n = latencies.length;
+	System.out.println("java " + Runtime.version() + ", clients "
+			+ nclients + ", requests per client " + nrequests
+			+ ", kstats " + nkstats + ", quantum " + quantum
+			+ " ms, interval " + interval + " ms");
+	System.out.printf("throughput %.0f requests/s%n",
+			  n * 1000000000.0 / (t1 - t0));
+	System.out.printf("latency: p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+			  latencies[n / 2] / 1000000.0,
+			  latencies[Math.min(n - 1, n * 99 / 100)] / 1000000.0,
+			  latencies[n - 1] / 1000000.0);
+	System.out.println("cache hits " + (cache.getHits() - hits0)
+			+ ", misses " + (cache.getMisses() - misses0)
+			+ ", kstat reads " + (jkstat.reads.get() - reads0));
+    }
+
+    /*
+     * Run every client to completion, returning the latency of each
+     * request in nanoseconds.
+     */
+    private long[] drive(final JKhttpClient client, final int nreq)
+	    throws InterruptedException, ExecutionException {
+	long[] latencies = new long[nclients * nreq];
+	ExecutorService executor = KRestServer.newExecutor();
+	List<Future<?>> futures = new ArrayList<>(nclients);
+	for (int c = 0; c < nclients; c++) {
+	    final int cl = c;
+	    futures.add(executor.submit(() -> {
+		poll(client, cl, nreq, latencies);
+		return null;
+	    }));
+	}
+	for (Future<?> f : futures) {
+	    f.get();
+	}
+	executor.shutdown();
+	return latencies;
+    }
+
+    /*
+     * One client, making its requests in turn.
+     */
+    private void poll(final JKhttpClient client, final int cl,
+		      final int nreq, final long[] latencies)
+	    throws IOException, InterruptedException {
+	for (int r = 0; r < nreq; r++) {
+	    int inst = (cl * 31 + r) % nkstats;
+	    long t0 = System.nanoTime();
+	    String s;
+	    if (r % 20 == 19) {
+		s = client.execute("mget", new String[] {"sd", "*",
+			"sd" + inst + "%3Bsd" + ((inst + 1) % nkstats)});
+	    } else if (r % 10 == 0) {
+		s = client.execute("getkcid");
+	    } else {
+		s = client.execute("get", new String[] {"sd",
+			Integer.toString(inst), "sd" + inst});
+	    }
+	    latencies[cl * nreq + r] = System.nanoTime() - t0;
+	    if (s.isEmpty()) {
+		throw new IOException("empty response");
+	    }
+	    if (interval > 0) {
+		Thread.sleep(interval);
+	    }
+	}
+    }
+
+    private void usage() {
+	System.err.println("Usage:");
+	System.err.println("restbench [-c clients] [-n requests] [-k kstats]"
+			   + " [-q quantum] [-i interval]");
+	System.exit(1);
+    }
+
+    private void usage(final String s) {
+	System.err.println("Error: " + s);
+	usage();
+    }
+
+    /**
+     * Run the benchmark from the command line.
+     *
+     * @param args Command line arguments
+     */
+    public static void main(final String[] args) {
+	KRestServer.setDefaultProperties();
+	new RestBenchmark(args);
+    }
+}
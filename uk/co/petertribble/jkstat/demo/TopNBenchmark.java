@@ -0,0 +1,239 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import uk.co.petertribble.jkstat.api.*;
+
+/**
+ * A headless benchmark of {@code KstatTopN}, using a synthetic population
+ * of I/O kstats so it can be run anywhere. Each tick advances the counters
+ * of a given percentage of the kstats, and the time taken to bring the
+ * top N up to date is compared with updating and sorting every kstat, as
+ * a table would, and with simply reading every kstat.
+ *
+ * @author Peter Tribble
+ */
+public final class TopNBenchmark {
+
+    private int nmembers = 10000;
+    private int ntop = 20;
+    private int nticks = 200;
+    private int pctchanged = 100;
+
+    /*
+     * A JKstat holding a number of synthetic I/O kstats. At each tick, the
+     * chosen kstats do an amount of work that varies with the instance and
+     * over time, and their snaptime moves on.
+     */
+    private static final class SyntheticJKstat extends JKstat {
+	private final long[] counters;
+	private final long[] busy;
+	private final long[] snaptimes;
+	private long now;
+
+	SyntheticJKstat(final int nkstats) {
+	    counters = new long[nkstats];
+	    busy = new long[nkstats];
+	    snaptimes = new long[nkstats];
+	    enumerate();
+	}
+
+	/*
+	 * Move time on by a second, and advance the counters of every
+	 * stride'th kstat, starting at an offset.
+	 */
+	void tick(final int stride, final int offset) {
+	    now += 1000000000L;
+	    for (int i = offset; i < counters.length; i += stride) {
+		long load = (i * 7919L) % 900
+		    + (i + now / 1000000000L * 31) % 100;
+		counters[i] += load;
+		busy[i] += load * 1000000L;
+		snaptimes[i] = now;
+	    }
+	}
+
+	@Override
+	public Kstat getKstatObject(final String module, final int inst,
+				    final String name) {
+	    if ((inst < 0) || (inst >= counters.length)) {
+		return null;
+	    }
+	    Kstat ks = new Kstat(module, inst, name);
+	    ks.setStandardInfo("disk", KstatType.KSTAT_TYPE_IO, 0L,
+			       snaptimes[inst]);
+	    long c = counters[inst];
+	    long b = busy[inst];
+	    ks.insertIOData(c * 4096, c * 1024, c, c / 4, b / 10, b / 5,
+			    snaptimes[inst], b, b * 2, snaptimes[inst], 0L, 0L);
+	    return ks;
+	}
+
+	@Override
+	public int getKCID() {
+	    return 1;
+	}
+
+	@Override
+	public int enumerate() {
+	    for (int i = 0; i < counters.length; i++) {
+		addKstat("sd", i, "sd" + i, "disk", KstatType.KSTAT_TYPE_IO,
+			 0L);
+	    }
+	    return 1;
+	}
+
+	@Override
+	public long getTime() {
+	    return now / 1000000L;
+	}
+    }
+
+    /**
+     * Run the benchmark, printing the results.
+     *
+     * @param args Command line arguments
+     */
+    public TopNBenchmark(final String[] args) {
+	int i = 0;
+	while (i < args.length) {
+	    if (i + 1 >= args.length) {
+		usage("missing argument to " + args[i] + " flag");
+	    }
+	    try {
+		int v = Integer.parseInt(args[i + 1]);
+		if ("-m".equals(args[i])) {
+		    nmembers = v;
+		} else if ("-n".equals(args[i])) {
+		    ntop = v;
+		} else if ("-t".equals(args[i])) {
+		    nticks = v;
+		} else if ("-c".equals(args[i])) {
+		    pctchanged = v;
+		} else {
+		    usage("unrecognized flag " + args[i]);
+		}
+	    } catch (NumberFormatException nfe) {
+		usage("invalid number " + args[i + 1]);
+	    }
+	    i += 2;
+	}
+	if ((nmembers < 1) || (ntop < 1) || (nticks < 1) || (pctchanged < 1)
+		|| (pctchanged > 100)) {
+	    usage("invalid arguments");
+	}
+	run();
+    }
+
+    private void run() {
+	SyntheticJKstat jkstat = new SyntheticJKstat(nmembers);
+	int stride = 100 / pctchanged;
+	jkstat.tick(1, 0);
+	KstatTopN topn = new KstatTopN(jkstat, new KstatSet(jkstat), "%b",
+				       ntop);
+	List<ChartableKstat> all = new ArrayList<>();
+	for (Kstat ks : jkstat.getKstats()) {
+	    all.add(new ChartableIOKstat(jkstat, ks));
+	}
+	KstatSet kss = new KstatSet(jkstat);
+	long[] tread = new long[nticks];
+	long[] ttopn = new long[nticks];
+	long[] tsort = new long[nticks];
+	for (int t = 0; t < nticks; t++) {
+	    jkstat.tick(stride, t % stride);
+	    long t0 = System.nanoTime();
+	    jkstat.getKstats(kss.getKstats());
+	    long t1 = System.nanoTime();
+	    topn.read();
+	    topn.getTop();
+	    long t2 = System.nanoTime();
+	    sortAll(jkstat, all);
+	    long t3 = System.nanoTime();
+	    tread[t] = t1 - t0;
+	    ttopn[t] = t2 - t1;
+	    tsort[t] = t3 - t2;
+	}
+	System.out.println("members " + nmembers + ", top " + ntop
+			+ ", ticks " + nticks + ", changed per tick "
+			+ pctchanged + "%");
+	report("bulk read only", tread);
+	report("KstatTopN", ttopn);
+	report("update and sort all", tsort);
+	System.out.println("full rebuilds " + topn.getRebuildCount());
+	StringBuilder sb = new StringBuilder("top 5:");
+	List<ChartableKstat> top = topn.getTop();
+	for (int j = 0; j < Math.min(5, top.size()); j++) {
+	    sb.append(' ').append(top.get(j));
+	}
+	System.out.println(sb);
+    }
+
+    /*
+     * The naive approach, reading and ranking every kstat.
+     */
+    private void sortAll(final JKstat jkstat,
+			 final List<ChartableKstat> all) {
+	for (ChartableKstat cks : all) {
+	    cks.update(jkstat.getKstat(cks.getKstat()));
+	}
+	all.sort(Comparator.comparingDouble(
+			(ChartableKstat c) -> c.getRate("%b")).reversed());
+    }
+
+    /*
+     * Print the median and 99th percentile of a set of timings, ignoring
+     * the first tenth as warmup.
+     */
+    private void report(final String name, final long[] times) {
+	long[] t = Arrays.copyOfRange(times, times.length / 10, times.length);
+	Arrays.sort(t);
+	System.out.printf("%-20s per tick: p50 %.3f ms, p99 %.3f ms%n", name,
+			  t[t.length / 2] / 1000000.0,
+			  t[Math.min(t.length - 1, t.length * 99 / 100)]
+			  / 1000000.0);
+    }
+
+    private void usage() {
+	System.err.println("Usage:");
+	System.err.println(
+	    "topnbench [-m members] [-n top] [-t ticks] [-c percent_changed]");
+	System.exit(1);
+    }
+
+    private void usage(final String s) {
+	System.err.println("Error: " + s);
+	usage();
+    }
+
+    /**
+     * Run the benchmark from the command line.
+     *
+     * @param args Command line arguments
+     */
+    public static void main(final String[] args) {
+	new TopNBenchmark(args);
+    }
+}
@@ -43,6 +43,11 @@ public final class ChartBuilderFrame extends JFrame implements ActionListener {
      */
     private JMenuItem exitItem;
 
+    /**
+     * A remote JKstat created by this frame, closed with it.
+     */
+    private transient RemoteJKstat remote;
+
     /**
      * Create a ChartBuilderFrame.
      */
@@ -56,7 +61,7 @@ public final class ChartBuilderFrame extends JFrame implements ActionListener {
      * @param kcc the client configuration
      */
     public ChartBuilderFrame(final KClientConfig kcc) {
-	this(new RemoteJKstat(kcc));
+	this(new RemoteJKstat(kcc), true);
     }
 
     /**
@@ -65,6 +70,17 @@ public final class ChartBuilderFrame extends JFrame implements ActionListener {
      * @param jkstat a {@code JKstat}
      */
     public ChartBuilderFrame(final JKstat jkstat) {
+	this(jkstat, false);
+    }
+
+    /*
+     * Create a ChartBuilderFrame, which if owned closes the JKstat when
+     * the frame is closed.
+     */
+    private ChartBuilderFrame(final JKstat jkstat, final boolean owned) {
+	if (owned && (jkstat instanceof RemoteJKstat)) {
+	    remote = (RemoteJKstat) jkstat;
+	}
 	setTitle(KstatResources.getString("CHART.BUILDER"));
 	addWindowListener(new WindowExit());
 	JMenuBar jm = new JMenuBar();
@@ -93,14 +109,26 @@ public final class ChartBuilderFrame extends JFrame implements ActionListener {
     class WindowExit extends WindowAdapter {
 	@Override
 	public void windowClosing(final WindowEvent we) {
+	    closeRemote();
 	    dispose();
 	}
     }
 
+    /*
+     * Close the remote JKstat, if we created one.
+     */
+    private void closeRemote() {
+	if (remote != null) {
+	    remote.close();
+	    remote = null;
+	}
+    }
+
     @Override
     public void actionPerformed(final ActionEvent e) {
 	if (e.getSource() == exitItem) {
 	    setVisible(false);
+	    closeRemote();
 	    dispose();
 	}
     }
@@ -27,6 +27,8 @@ import java.awt.GridLayout;
 import java.awt.event.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import javax.swing.*;
 import javax.swing.event.*;
 import javax.swing.tree.DefaultMutableTreeNode;
@@ -67,6 +69,10 @@ public final class ChartBuilderPanel extends JPanel
      * A check box to select aggregate instances.
      */
     private JCheckBox aggrInstanceButton;
+    /**
+     * A combo box to select a statistic to group aggregates by.
+     */
+    private JComboBox<String> groupBox;
     /**
      * A radio button to toggle values vs rates.
      */
@@ -197,6 +203,16 @@ public final class ChartBuilderPanel extends JPanel
 	aggrInstanceButton.setEnabled(false);
 	aggrInstanceButton.addActionListener(this);
 	ipanel.add(aggrInstanceButton);
+
+	JPanel grpanel = new JPanel();
+	grpanel.setLayout(new BoxLayout(grpanel, BoxLayout.LINE_AXIS));
+	grpanel.add(new JLabel(KstatResources.getString("CHART.GROUPBY")));
+	grpanel.add(Box.createRigidArea(new Dimension(6, 0)));
+	groupBox = new JComboBox<>();
+	groupBox.addItem(KstatResources.getString("CHART.GROUPNONE"));
+	groupBox.setEnabled(false);
+	grpanel.add(groupBox);
+	ipanel.add(grpanel);
 	rpanel.add(ipanel);
 
 	JPanel gpanel = new JPanel();
@@ -224,9 +240,14 @@ public final class ChartBuilderPanel extends JPanel
 	    myKstat = (Kstat) node.getUserObject();
 	    updateLabel();
 	    statsPanel.removeAll();
-	    for (String stat : KstatUtil.numericStatistics(jkstat, myKstat)) {
+	    for (String stat : numericStatistics()) {
 		statsPanel.add(new JCheckBox(stat));
 	    }
+	    groupBox.removeAllItems();
+	    groupBox.addItem(KstatResources.getString("CHART.GROUPNONE"));
+	    for (String stat : stringStatistics()) {
+		groupBox.addItem(stat);
+	    }
 	    jtp.setSelectedIndex(STAB_ID);
 	    jtp.setEnabledAt(STAB_ID, true);
 	    goButton.setEnabled(true);
@@ -247,6 +268,36 @@ public final class ChartBuilderPanel extends JPanel
 	}
     }
 
+    /*
+     * The numeric statistics of the selected Kstat. For a sequence, these
+     * come from its history, which covers every point in time rather than
+     * just the current one, and which any charts we create will use.
+     */
+    private Set<String> numericStatistics() {
+	if (jkstat instanceof SequencedJKstat) {
+	    return KstatHistory.getHistory((SequencedJKstat) jkstat)
+		.getStatistics(myKstat);
+	}
+	return KstatUtil.numericStatistics(jkstat, myKstat);
+    }
+
+    /*
+     * The string statistics of the selected Kstat, which can be used to
+     * group its instances.
+     */
+    private Set<String> stringStatistics() {
+	Set<String> ss = new TreeSet<>();
+	Kstat ks = jkstat.getKstat(myKstat);
+	if (ks != null) {
+	    for (String s : ks.statistics()) {
+		if (!ks.isNumeric(s)) {
+		    ss.add(s);
+		}
+	    }
+	}
+	return ss;
+    }
+
     private String getSpecifier() {
 	return myKstat.getModule() + "::" + myKstat.getName();
     }
@@ -292,21 +343,35 @@ public final class ChartBuilderPanel extends JPanel
 		KstatFilter ksf = new KstatFilter(jkstat);
 		String statSpecifier = getSpecifier();
 		ksf.addFilter(statSpecifier);
-		KstatSet kss = new KstatSet(jkstat, ksf, statSpecifier);
-		if (aggrInstanceButton.isSelected()) {
+		if (aggrInstanceButton.isSelected()
+			&& (groupBox.getSelectedIndex() > 0)) {
+		    KstatGroupBy kgb = new KstatGroupBy(jkstat,
+			new KstatSet(jkstat, ksf, statSpecifier),
+			KstatGroupKey.byStatistic(
+				(String) groupBox.getSelectedItem()),
+			stats.toArray(new String[0]));
+		    if (lineStyle.isSelected()) {
+			new KstatChartFrame(jkstat, kgb, stats, showRate);
+		    } else {
+			new KstatAreaChartFrame(jkstat, kgb, stats, showRate);
+		    }
+		} else if (aggrInstanceButton.isSelected()) {
 		    /*
-		     * NOTE: the chart creates a new instance of a
-		     * SequencedJKstat, which then decouples it from the
-		     * instance that the aggregate has.
+		     * Aggregates live in a shared graph, so that charts of
+		     * overlapping aggregates share their reads. If the
+		     * chart creates a new instance of a SequencedJKstat,
+		     * the aggregate moves to the graph for that instance.
 		     */
-		    KstatAggregate ksa = new KstatAggregate(jkstat, kss,
-						statSpecifier + " aggregate");
+		    KstatAggregate ksa = new KstatAggregate(
+			KstatAggregateGraph.getGraph(jkstat).addGroup(
+				statSpecifier + " aggregate", ksf));
 		    if (lineStyle.isSelected()) {
 			new KstatChartFrame(jkstat, ksa, stats, showRate);
 		    } else {
 			new KstatAreaChartFrame(jkstat, ksa, stats, showRate);
 		    }
 		} else {
+		    KstatSet kss = new KstatSet(jkstat, ksf, statSpecifier);
 		    if (stats.size() == 1) {
 			String stat = stats.get(0);
 			if (lineStyle.isSelected()) {
@@ -336,7 +401,11 @@ public final class ChartBuilderPanel extends JPanel
     public void actionPerformed(final ActionEvent e) {
 	if (e.getSource() == allInstanceButton) {
 	    aggrInstanceButton.setEnabled(allInstanceButton.isSelected());
+	    groupBox.setEnabled(allInstanceButton.isSelected()
+				&& aggrInstanceButton.isSelected());
 	    updateLabel();
+	} else if (e.getSource() == aggrInstanceButton) {
+	    groupBox.setEnabled(aggrInstanceButton.isSelected());
 	} else if (e.getSource() == goButton) {
 	    createChart();
 	}
@@ -25,6 +25,7 @@ import java.awt.event.ActionListener;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
 import uk.co.petertribble.jkstat.api.*;
@@ -121,8 +122,9 @@ public final class IOstatTableModel extends AbstractTableModel
     }
 
     /**
-     * Update the statistics. Iterates through the current list updating each
-     * one. If a kstat disappears, it is removed.
+     * Update the statistics. Reads all the kstats at once, then iterates
+     * through the current list updating each one. If a kstat disappears, it
+     * is removed.
      */
     public void updateKstat() {
 	/*
@@ -133,10 +135,15 @@ public final class IOstatTableModel extends AbstractTableModel
 		iodata.add(new ChartableIOKstat(jkstat, ks));
 	    }
 	}
+	List<Kstat> lks = new ArrayList<>(iodata.size());
+	for (ChartableIOKstat cks : iodata) {
+	    lks.add(cks.getKstat());
+	}
+	Map<Kstat, Kstat> kmap = jkstat.getKstats(lks);
 	Iterator<ChartableIOKstat> vki = iodata.iterator();
 	while (vki.hasNext()) {
 	    ChartableIOKstat cks = vki.next();
-	    if (!cks.update()) {
+	    if (!cks.update(kmap.get(cks.getKstat()))) {
 		vki.remove();
 	    }
 	}
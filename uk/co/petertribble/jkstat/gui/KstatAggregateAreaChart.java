@@ -149,6 +149,14 @@ public final class KstatAggregateAreaChart extends KstatBaseChart {
 	} while (sjkstat.next());
     }
 
+    @Override
+    public void dispose() {
+	super.dispose();
+	if (ksa != null) {
+	    ksa.release();
+	}
+    }
+
     @Override
     public void updateAccessory() {
 	readOne(new Millisecond());
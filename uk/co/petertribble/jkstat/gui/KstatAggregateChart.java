@@ -87,6 +87,24 @@ public final class KstatAggregateChart extends KstatBaseChart {
 	init(statistics);
     }
 
+    /**
+     * Create a Chart of the given series of a {@code ChartableKstat} that
+     * already summarises many kstats, such as a
+     * {@code ChartableKstatDistribution}.
+     *
+     * @param njkstat a {@code JKstat}
+     * @param ncks the {@code ChartableKstat} supplying the data
+     * @param statistics the series to be charted
+     * @param sdelta if true, show rates, else show absolute values
+     */
+    public KstatAggregateChart(final JKstat njkstat, final ChartableKstat ncks,
+		     final List<String> statistics, final boolean sdelta) {
+	jkstat = njkstat;
+	cks = ncks;
+	showdelta = sdelta;
+	init(statistics);
+    }
+
     private void init(final String statistic) {
 	List<String> statistics = new ArrayList<>();
 	statistics.add(statistic);
@@ -97,7 +115,9 @@ public final class KstatAggregateChart extends KstatBaseChart {
 	tsmap = new HashMap<>();
 	dataset = new TimeSeriesCollection();
 
-	cks = new ChartableKstatAggregate(jkstat, ksa);
+	if (cks == null) {
+	    cks = new ChartableKstatAggregate(jkstat, ksa);
+	}
 
 	// this is all the statistics
 	for (String statistic : cks.getStatistics()) {
@@ -163,6 +183,14 @@ public final class KstatAggregateChart extends KstatBaseChart {
 	} while (sjkstat.next());
     }
 
+    @Override
+    public void dispose() {
+	super.dispose();
+	if (ksa != null) {
+	    ksa.release();
+	}
+    }
+
     @Override
     public void updateAccessory() {
 	readOne(new Millisecond());
@@ -173,9 +201,10 @@ public final class KstatAggregateChart extends KstatBaseChart {
      */
     private void readOne(final Millisecond ms) {
 	cks.update();
-	// loop over all statistics
-	for (String statistic : tsmap.keySet()) {
-	    tsmap.get(statistic).add(ms, showdelta ? cks.getRate(statistic)
+	// loop over all statistics, already aggregated by the update
+	for (Map.Entry<String, TimeSeries> me : tsmap.entrySet()) {
+	    String statistic = me.getKey();
+	    me.getValue().add(ms, showdelta ? cks.getRate(statistic)
 				: (double) cks.getValue(statistic));
 	}
     }
@@ -21,6 +21,7 @@
 package uk.co.petertribble.jkstat.gui;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -56,6 +57,7 @@ public final class KstatAreaChart extends KstatBaseChart {
 			  final String statistic, final boolean sdelta) {
 	jkstat = njkstat;
 	ks = nks;
+	cks = new ChartableKstat(jkstat, ks);
 	showdelta = sdelta;
 	init(statistic);
     }
@@ -109,7 +111,17 @@ public final class KstatAreaChart extends KstatBaseChart {
 	allstats = cks.getStatistics();
 
 	if (jkstat instanceof SequencedJKstat) {
-	    readAll(((SequencedJKstat) jkstat).newInstance());
+	    /*
+	     * The history only holds the raw statistics, so a subclass of
+	     * ChartableKstat deriving its own rates has to step through the
+	     * sequence.
+	     */
+	    if (cks.getClass() == ChartableKstat.class) {
+		withHistory((SequencedJKstat) jkstat,
+			    Collections.singleton(ks), this::readHistory);
+	    } else {
+		readAll(((SequencedJKstat) jkstat).newInstance());
+	    }
 	} else {
 	    updateAccessory();
 	}
@@ -159,6 +171,23 @@ public final class KstatAreaChart extends KstatBaseChart {
 	} while (sjkstat.next());
     }
 
+    /*
+     * Fill the dataset from the history of the kstat sequence, notifying
+     * listeners once each series is complete rather than for every point.
+     */
+    private void readHistory(final KstatHistory kh) {
+	Millisecond[] periods = historyPeriods(kh, ks);
+	for (String statistic : statlist) {
+	    if (allstats.contains(statistic)) {
+		double[] data = historyData(kh, ks, statistic);
+		for (int i = 0; i < periods.length; i++) {
+		    dataset.add(periods[i], data[i], statistic,
+				i == periods.length - 1);
+		}
+	    }
+	}
+    }
+
     @Override
     public void updateAccessory() {
 	readOne(new Millisecond());
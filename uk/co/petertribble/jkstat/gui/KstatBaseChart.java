@@ -23,13 +23,21 @@ package uk.co.petertribble.jkstat.gui;
 import java.awt.Color;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.Timer;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.DateAxis;
 import org.jfree.chart.axis.NumberAxis;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.XYItemRenderer;
+import org.jfree.data.time.Millisecond;
+import org.jfree.data.time.TimeSeries;
 import uk.co.petertribble.jkstat.api.*;
 
 /**
@@ -127,6 +135,130 @@ public abstract class KstatBaseChart implements ActionListener {
 	maxage = mage;
     }
 
+    /**
+     * Load the history of the given kstats from a sequence, and then pass
+     * it to the given task to fill the chart. On the event dispatch
+     * thread the history is loaded in the background, and the task run
+     * back on the event dispatch thread once it's ready, so that the GUI
+     * isn't held up; otherwise, as when drawing an image, both are done
+     * before returning.
+     *
+     * @param sjkstat the {@code SequencedJKstat} supplying the history
+     * @param lks the {@code Kstat}s to be charted
+     * @param task the task to fill the chart from the history
+     */
+    protected static void withHistory(final SequencedJKstat sjkstat,
+				      final Collection<Kstat> lks,
+				      final Consumer<KstatHistory> task) {
+	final KstatHistory kh = KstatHistory.getHistory(sjkstat);
+	if (!SwingUtilities.isEventDispatchThread()) {
+	    kh.load(lks);
+	    task.accept(kh);
+	    return;
+	}
+	new SwingWorker<Void, Void>() {
+	    @Override
+	    protected Void doInBackground() {
+		kh.load(lks);
+		return null;
+	    }
+
+	    @Override
+	    protected void done() {
+		try {
+		    get();
+		    task.accept(kh);
+		} catch (InterruptedException | ExecutionException e) {
+		    // leave the chart empty
+		}
+	    }
+	}.execute();
+    }
+
+    /**
+     * Get the points in time at which a kstat is present in a
+     * {@code KstatHistory}, ready to be charted.
+     *
+     * @param kh the {@code KstatHistory} supplying the data
+     * @param ks the {@code Kstat} of interest
+     *
+     * @return an array of the time periods at which the kstat is present
+     */
+    protected static Millisecond[] historyPeriods(final KstatHistory kh,
+						  final Kstat ks) {
+	long[] times = kh.getTimes(ks);
+	Millisecond[] periods = new Millisecond[times.length];
+	for (int i = 0; i < times.length; i++) {
+	    periods[i] = new Millisecond(new Date(times[i]));
+	}
+	return periods;
+    }
+
+    /**
+     * Get the data to be charted for a statistic from a
+     * {@code KstatHistory}, as rates or absolute values as appropriate.
+     *
+     * @param kh the {@code KstatHistory} supplying the data
+     * @param ks the {@code Kstat} of interest
+     * @param statistic the statistic to be charted
+     *
+     * @return an array of values, one for each of the time periods returned
+     * by {@link #historyPeriods}
+     */
+    protected double[] historyData(final KstatHistory kh, final Kstat ks,
+				   final String statistic) {
+	if (showdelta) {
+	    return kh.getRates(ks, statistic);
+	}
+	long[] values = kh.getValues(ks, statistic);
+	double[] data = new double[values.length];
+	for (int i = 0; i < values.length; i++) {
+	    data[i] = values[i];
+	}
+	return data;
+    }
+
+    /**
+     * Compress the data held in a {@code TimeSeries}, so that it can be
+     * kept cheaply while it isn't being shown. The maximum age of the
+     * {@code TimeSeries} is retained.
+     *
+     * @param ts the {@code TimeSeries} to compress
+     *
+     * @return a {@code CompressedSeries} holding the same data
+     */
+    protected static CompressedSeries compress(final TimeSeries ts) {
+	CompressedSeries cs = new CompressedSeries();
+	cs.setMaximumAge(ts.getMaximumItemAge());
+	for (int i = 0; i < ts.getItemCount(); i++) {
+	    cs.add(ts.getTimePeriod(i).getFirstMillisecond(),
+		   ts.getValue(i).doubleValue());
+	}
+	return cs;
+    }
+
+    /**
+     * Expand a {@code CompressedSeries} into a {@code TimeSeries}, so that
+     * it can be shown. The maximum age of the {@code CompressedSeries} is
+     * retained.
+     *
+     * @param cs the {@code CompressedSeries} to expand
+     * @param name the name of the new {@code TimeSeries}
+     *
+     * @return a new {@code TimeSeries} holding the same data
+     */
+    protected static TimeSeries expand(final CompressedSeries cs,
+				       final String name) {
+	TimeSeries ts = new TimeSeries(name);
+	ts.setMaximumItemAge(cs.getMaximumAge());
+	CompressedSeries.Cursor c = cs.cursor();
+	while (c.next()) {
+	    ts.add(new Millisecond(new Date(c.getTime())), c.getValue(), false);
+	}
+	ts.fireSeriesChanged();
+	return ts;
+    }
+
     /**
      * Update the statistics. This method must be implemented in order to do
      * anything useful.
@@ -168,6 +300,14 @@ public abstract class KstatBaseChart implements ActionListener {
 	}
     }
 
+    /**
+     * Stop the chart for good, releasing anything it holds. A chart
+     * shouldn't be used after it has been disposed of.
+     */
+    public void dispose() {
+	stopLoop();
+    }
+
     /**
      * Set the loop delay to be the specified number of seconds. If a zero or
      * negative delay is requested, stop the updates and remember the previous
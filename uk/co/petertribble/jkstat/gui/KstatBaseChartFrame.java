@@ -223,7 +223,7 @@ public class KstatBaseChartFrame extends JFrame implements ActionListener {
     class WindowExit extends WindowAdapter {
 	@Override
 	public void windowClosing(final WindowEvent we) {
-	    kbc.stopLoop();
+	    kbc.dispose();
 	    dispose();
 	}
     }
@@ -285,7 +285,7 @@ public class KstatBaseChartFrame extends JFrame implements ActionListener {
     @Override
     public void actionPerformed(final ActionEvent e) {
 	if (e.getSource() == exitItem) {
-	    kbc.stopLoop();
+	    kbc.dispose();
 	    setVisible(false);
 	    dispose();
 	} else if (e.getSource() == saveItem) {
@@ -21,6 +21,7 @@
 package uk.co.petertribble.jkstat.gui;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -41,7 +42,12 @@ public final class KstatChart extends KstatBaseChart {
     private ChartableKstat cks;
     private Kstat ks;
     private TimeSeriesCollection dataset;
+    /*
+     * The statistics being shown have a TimeSeries, and the others keep
+     * their history compressed until they're asked for.
+     */
     private Map<String, TimeSeries> tsmap;
+    private Map<String, CompressedSeries> hidden;
 
     /**
      * Create a Chart of the given statistic.
@@ -100,21 +106,31 @@ public final class KstatChart extends KstatBaseChart {
 
     private void init(final List<String> statistics) {
 	tsmap = new HashMap<>();
+	hidden = new HashMap<>();
 	dataset = new TimeSeriesCollection();
 
 	// this is all the statistics
 	for (String statistic : cks.getStatistics()) {
-	    tsmap.put(statistic, new TimeSeries(statistic));
+	    hidden.put(statistic, new CompressedSeries());
 	}
 
-	// just display these
-	// FIXME what if the statistic isn't valid and isn't present in tsmap?
+	// just display these; any that aren't valid are ignored
 	for (String statistic : statistics) {
 	    addStatistic(statistic);
 	}
 
 	if (jkstat instanceof SequencedJKstat) {
-	    readAll(((SequencedJKstat) jkstat).newInstance());
+	    /*
+	     * The history only holds the raw statistics, so a subclass of
+	     * ChartableKstat deriving its own rates has to step through the
+	     * sequence.
+	     */
+	    if (cks.getClass() == ChartableKstat.class) {
+		withHistory((SequencedJKstat) jkstat,
+			    Collections.singleton(ks), this::readHistory);
+	    } else {
+		readAll(((SequencedJKstat) jkstat).newInstance());
+	    }
 	} else {
 	    setMaxAge(maxage);
 	    updateAccessory();
@@ -141,19 +157,31 @@ public final class KstatChart extends KstatBaseChart {
 
     @Override
     public void addStatistic(final String statistic) {
-	dataset.addSeries(tsmap.get(statistic));
+	CompressedSeries cs = hidden.remove(statistic);
+	if (cs != null) {
+	    TimeSeries ts = expand(cs, statistic);
+	    tsmap.put(statistic, ts);
+	    dataset.addSeries(ts);
+	}
     }
 
     @Override
     public void removeStatistic(final String statistic) {
-	dataset.removeSeries(tsmap.get(statistic));
+	TimeSeries ts = tsmap.remove(statistic);
+	if (ts != null) {
+	    dataset.removeSeries(ts);
+	    hidden.put(statistic, compress(ts));
+	}
     }
 
     @Override
     public void setMaxAge(final int maxage) {
 	this.maxage = maxage;
-	for (String s : tsmap.keySet()) {
-	    tsmap.get(s).setMaximumItemAge(maxage);
+	for (TimeSeries ts : tsmap.values()) {
+	    ts.setMaximumItemAge(maxage);
+	}
+	for (CompressedSeries cs : hidden.values()) {
+	    cs.setMaximumAge(maxage);
 	}
     }
 
@@ -169,6 +197,29 @@ public final class KstatChart extends KstatBaseChart {
 	} while (sjkstat.next());
     }
 
+    /*
+     * Fill the series from the history of the kstat sequence, notifying
+     * listeners once each series is complete rather than for every point.
+     */
+    private void readHistory(final KstatHistory kh) {
+	Millisecond[] periods = historyPeriods(kh, ks);
+	for (Map.Entry<String, TimeSeries> me : tsmap.entrySet()) {
+	    TimeSeries ts = me.getValue();
+	    double[] data = historyData(kh, ks, me.getKey());
+	    for (int i = 0; i < periods.length; i++) {
+		ts.add(periods[i], data[i], false);
+	    }
+	    ts.fireSeriesChanged();
+	}
+	for (Map.Entry<String, CompressedSeries> me : hidden.entrySet()) {
+	    CompressedSeries cs = me.getValue();
+	    double[] data = historyData(kh, ks, me.getKey());
+	    for (int i = 0; i < periods.length; i++) {
+		cs.add(periods[i].getFirstMillisecond(), data[i]);
+	    }
+	}
+    }
+
     @Override
     public void updateAccessory() {
 	readOne(new Millisecond());
@@ -180,9 +231,17 @@ public final class KstatChart extends KstatBaseChart {
     private void readOne(final Millisecond ms) {
 	cks.update();
 	// loop over all statistics
-	for (String statistic : tsmap.keySet()) {
-	    tsmap.get(statistic).add(ms, showdelta ? cks.getRate(statistic)
-				: (double) cks.getValue(statistic));
+	for (Map.Entry<String, TimeSeries> me : tsmap.entrySet()) {
+	    me.getValue().add(ms, chartValue(me.getKey()));
+	}
+	long t = ms.getFirstMillisecond();
+	for (Map.Entry<String, CompressedSeries> me : hidden.entrySet()) {
+	    me.getValue().add(t, chartValue(me.getKey()));
 	}
     }
+
+    private double chartValue(final String statistic) {
+	return showdelta ? cks.getRate(statistic)
+	    : (double) cks.getValue(statistic);
+    }
 }
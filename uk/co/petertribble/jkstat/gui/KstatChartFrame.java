@@ -190,6 +190,24 @@ public final class KstatChartFrame extends KstatBaseChartFrame {
 	init(ksa.toString());
     }
 
+    /**
+     * Create a JFrame containing a graphical chart of the given statistics,
+     * aggregated over each of a number of groups of kstats.
+     *
+     * @param jkstat a {@code JKstat}
+     * @param kgb the KstatGroupBy supplying the data
+     * @param statistics the statistics to be charted
+     * @param showdelta if true, show rates, else show absolute values
+     */
+    public KstatChartFrame(final JKstat jkstat, final KstatGroupBy kgb,
+		final List<String> statistics, final boolean showdelta) {
+	super();
+	this.jkstat = jkstat;
+	this.showdelta = showdelta;
+	kbc = new KstatGroupChart(jkstat, kgb, statistics, showdelta);
+	init(kgb.toString());
+    }
+
     /**
      * Create a JFrame containing a graphical chart of a Kstat,
      * showing the rate of change of the given statistics.
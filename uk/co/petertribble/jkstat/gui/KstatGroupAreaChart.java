@@ -0,0 +1,128 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.gui;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.time.Millisecond;
+import org.jfree.data.time.TimeTableXYDataset;
+import uk.co.petertribble.jkstat.api.*;
+
+/**
+ * A graphical chart of a grouped aggregate, showing one or multiple
+ * statistics for each group. The groups are charted by area, and stacked.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatGroupAreaChart extends KstatBaseChart {
+
+    private KstatGroupBy kgb;
+    private TimeTableXYDataset dataset;
+    private List<String> statlist;
+
+    /**
+     * Create an area Chart of the given statistics.
+     *
+     * @param njkstat a {@code JKstat}
+     * @param nkgb the {@code KstatGroupBy} supplying the data
+     * @param statistics the statistics to be charted
+     * @param sdelta if true, show rates, else show absolute values
+     */
+    public KstatGroupAreaChart(final JKstat njkstat,
+			       final KstatGroupBy nkgb,
+			       final List<String> statistics,
+			       final boolean sdelta) {
+	jkstat = njkstat;
+	kgb = nkgb;
+	showdelta = sdelta;
+	statlist = new ArrayList<>(statistics);
+	dataset = new TimeTableXYDataset();
+
+	if (jkstat instanceof SequencedJKstat) {
+	    readAll(((SequencedJKstat) jkstat).newInstance());
+	} else {
+	    updateAccessory();
+	}
+
+	String ylabel = showdelta ? KstatResources.getString("CHART.RATE")
+	    : KstatResources.getString("CHART.VALUE");
+
+	chart = ChartFactory.createStackedXYAreaChart(
+		kgb.toString(),
+		KstatResources.getString("CHART.TIME"),
+		ylabel,
+		dataset,
+		PlotOrientation.VERTICAL,
+		true,
+		true,
+		false);
+
+	setAxes();
+
+	if (!(jkstat instanceof SequencedJKstat)) {
+	    startLoop();
+	}
+    }
+
+    @Override
+    public void addStatistic(final String statistic) {
+	statlist.add(statistic);
+    }
+
+    @Override
+    public void removeStatistic(final String statistic) {
+	statlist.remove(statistic);
+    }
+
+    /*
+     * read all the data from the kstat sequence
+     */
+    private void readAll(final SequencedJKstat sjkstat) {
+	kgb.setJKstat(sjkstat);
+	do {
+	    readOne(new Millisecond(new Date(sjkstat.getTime())));
+	} while (sjkstat.next());
+    }
+
+    @Override
+    public void updateAccessory() {
+	readOne(new Millisecond());
+    }
+
+    /*
+     * Get and update the appropriate data. All the groups are read at
+     * once.
+     */
+    private void readOne(final Millisecond ms) {
+	kgb.read();
+	for (String group : kgb.getGroups()) {
+	    for (String statistic : statlist) {
+		dataset.add(ms, showdelta ? kgb.getRate(group, statistic)
+			: (double) kgb.getSum(group, statistic),
+			group + ":" + statistic);
+	    }
+	}
+    }
+}
@@ -21,7 +21,6 @@
 package uk.co.petertribble.jkstat.gui;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -104,7 +103,8 @@ public final class KstatSetAreaChart extends KstatBaseChart {
 	}
 
 	if (jkstat instanceof SequencedJKstat) {
-	    readAll(((SequencedJKstat) jkstat).newInstance());
+	    withHistory((SequencedJKstat) jkstat,
+			new ArrayList<>(kss.getKstats()), this::readHistory);
 	} else {
 	    updateAccessory();
 	}
@@ -140,20 +140,22 @@ public final class KstatSetAreaChart extends KstatBaseChart {
     }
 
     /*
-     * read all the data from the kstat sequence
+     * Fill the dataset from the history of the kstat sequence, notifying
+     * listeners once each series is complete rather than for every point.
      */
-    private void readAll(final SequencedJKstat sjkstat) {
-	for (ChartableKstat ck : kmap.values()) {
-	    ck.setJKstat(sjkstat);
-	}
-	do {
-	    // FIXME update the KstatSet if it changes
-	    for (Kstat ks : kss.getKstats()) {
-		if (sjkstat.getKstat(ks) != null) {
-		    readOne(ks, new Millisecond(new Date(sjkstat.getTime())));
+    private void readHistory(final KstatHistory kh) {
+	// FIXME update the KstatSet if it changes
+	for (Kstat ks : kss.getKstats()) {
+	    Millisecond[] periods = historyPeriods(kh, ks);
+	    for (String statistic : statlist) {
+		double[] data = historyData(kh, ks, statistic);
+		for (int i = 0; i < periods.length; i++) {
+		    dataset.add(periods[i], data[i],
+				ks.getTriplet() + ":" + statistic,
+				i == periods.length - 1);
 		}
 	    }
-	} while (sjkstat.next());
+	}
     }
 
     @Override
@@ -21,7 +21,6 @@
 package uk.co.petertribble.jkstat.gui;
 
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,7 +39,13 @@ public final class KstatSetChart extends KstatBaseChart {
 
     private KstatSet kss;
     private TimeSeriesCollection dataset;
+    /*
+     * The statistics being shown have a TimeSeries, and the others, which
+     * for a large set are the vast majority, keep their history compressed
+     * until they're asked for.
+     */
     private Map<String, TimeSeries> tsmap;
+    private Map<String, CompressedSeries> hidden;
     private Map<Kstat, ChartableKstat> kmap;
 
     /**
@@ -84,22 +89,24 @@ public final class KstatSetChart extends KstatBaseChart {
     private void init(final List<String> statistics) {
 	dataset = new TimeSeriesCollection();
 	tsmap = new HashMap<>();
+	hidden = new HashMap<>();
 	kmap = new HashMap<>();
 
 	for (Kstat ks : kss.getKstats()) {
-	    kmap.put(ks, new ChartableKstat(jkstat, ks));
-
-	    for (String statistic : KstatUtil.numericStatistics(jkstat, ks)) {
-		String s = ks.getTriplet() + ":" + statistic;
-		tsmap.put(s, new TimeSeries(s));
-	    }
-	    for (String statistic : statistics) {
-		dataset.addSeries(tsmap.get(ks.getTriplet() + ":" + statistic));
+	    ChartableKstat cks = new ChartableKstat(jkstat, ks);
+	    kmap.put(ks, cks);
+	    for (String statistic : cks.getStatistics()) {
+		hidden.put(ks.getTriplet() + ":" + statistic,
+			   new CompressedSeries());
 	    }
 	}
+	for (String statistic : statistics) {
+	    addStatistic(statistic);
+	}
 
 	if (jkstat instanceof SequencedJKstat) {
-	    readAll(((SequencedJKstat) jkstat).newInstance());
+	    withHistory((SequencedJKstat) jkstat,
+			new ArrayList<>(kss.getKstats()), this::readHistory);
 	} else {
 	    setMaxAge(maxage);
 	    updateAccessory();
@@ -127,40 +134,67 @@ public final class KstatSetChart extends KstatBaseChart {
     @Override
     public void addStatistic(final String statistic) {
 	for (Kstat ks : kss.getKstats()) {
-	    dataset.addSeries(tsmap.get(ks.getTriplet() + ":" + statistic));
+	    String s = ks.getTriplet() + ":" + statistic;
+	    CompressedSeries cs = hidden.remove(s);
+	    if (cs != null) {
+		TimeSeries ts = expand(cs, s);
+		tsmap.put(s, ts);
+		dataset.addSeries(ts);
+	    }
 	}
     }
 
     @Override
     public void removeStatistic(final String statistic) {
 	for (Kstat ks : kss.getKstats()) {
-	    dataset.removeSeries(tsmap.get(ks.getTriplet() + ":" + statistic));
+	    String s = ks.getTriplet() + ":" + statistic;
+	    TimeSeries ts = tsmap.remove(s);
+	    if (ts != null) {
+		dataset.removeSeries(ts);
+		hidden.put(s, compress(ts));
+	    }
 	}
     }
 
     @Override
     public void setMaxAge(final int maxage) {
 	this.maxage = maxage;
-	for (String s : tsmap.keySet()) {
-	    tsmap.get(s).setMaximumItemAge(maxage);
+	for (TimeSeries ts : tsmap.values()) {
+	    ts.setMaximumItemAge(maxage);
+	}
+	for (CompressedSeries cs : hidden.values()) {
+	    cs.setMaximumAge(maxage);
 	}
     }
 
     /*
-     * read all the data from the kstat sequence
+     * Fill the series from the history of the kstat sequence, notifying
+     * listeners once each series is complete rather than for every point.
      */
-    private void readAll(final SequencedJKstat sjkstat) {
-	for (ChartableKstat ck : kmap.values()) {
-	    ck.setJKstat(sjkstat);
-	}
-	do {
-	    // FIXME update the KstatSet if it changes
-	    for (Kstat ks : kss.getKstats()) {
-		if (sjkstat.getKstat(ks) != null) {
-		    readOne(ks, new Millisecond(new Date(sjkstat.getTime())));
+    private void readHistory(final KstatHistory kh) {
+	// FIXME update the KstatSet if it changes
+	for (Kstat ks : kss.getKstats()) {
+	    Millisecond[] periods = historyPeriods(kh, ks);
+	    for (String statistic : kh.getStatistics(ks)) {
+		String s = ks.getTriplet() + ":" + statistic;
+		TimeSeries ts = tsmap.get(s);
+		CompressedSeries cs = hidden.get(s);
+		if ((ts == null) && (cs == null)) {
+		    continue;
+		}
+		double[] data = historyData(kh, ks, statistic);
+		if (ts != null) {
+		    for (int i = 0; i < periods.length; i++) {
+			ts.add(periods[i], data[i], false);
+		    }
+		    ts.fireSeriesChanged();
+		} else {
+		    for (int i = 0; i < periods.length; i++) {
+			cs.add(periods[i].getFirstMillisecond(), data[i]);
+		    }
 		}
 	    }
-	} while (sjkstat.next());
+	}
     }
 
     @Override
@@ -176,10 +210,20 @@ public final class KstatSetChart extends KstatBaseChart {
     private void readOne(final Kstat ks, final Millisecond ms) {
 	ChartableKstat cks = kmap.get(ks);
 	cks.update();
-	for (String statistic : KstatUtil.numericStatistics(jkstat, ks)) {
-	    tsmap.get(ks.getTriplet() + ":" + statistic).add(ms,
-			showdelta ? cks.getRate(statistic)
-			: (double) cks.getValue(statistic));
+	long t = ms.getFirstMillisecond();
+	for (String statistic : cks.getStatistics()) {
+	    String s = ks.getTriplet() + ":" + statistic;
+	    double v = showdelta ? cks.getRate(statistic)
+		: (double) cks.getValue(statistic);
+	    TimeSeries ts = tsmap.get(s);
+	    if (ts != null) {
+		ts.add(ms, v);
+	    } else {
+		CompressedSeries cs = hidden.get(s);
+		if (cs != null) {
+		    cs.add(t, v);
+		}
+	    }
 	}
     }
 }
@@ -25,6 +25,7 @@ import java.awt.event.ActionListener;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
 import uk.co.petertribble.jkstat.api.ChartableKstat;
@@ -130,8 +131,9 @@ public final class MPstatTableModel extends AbstractTableModel
     }
 
     /**
-     * Update the statistics. Iterates through the current list
-     * updating each one. If a kstat disappears, it is removed.
+     * Update the statistics. Reads all the kstats at once, then iterates
+     * through the current list updating each one. If a kstat disappears, it
+     * is removed.
      */
     public void updateKstat() {
 	/*
@@ -142,10 +144,22 @@ public final class MPstatTableModel extends AbstractTableModel
 		mpdata.add(new ChartableMPstat(jkstat, ks));
 	    }
 	}
+	/*
+	 * Read the cpu:N:vm kstats alongside the ones we hold, so that
+	 * everything comes back from a single bulk read.
+	 */
+	List<Kstat> lks = new ArrayList<>(2 * mpdata.size());
+	for (ChartableMPstat cks : mpdata) {
+	    lks.add(cks.getKstat());
+	    lks.add(new Kstat("cpu", cks.getKstat().getInst(), "vm"));
+	}
+	Map<Kstat, Kstat> kmap = jkstat.getKstats(lks);
 	Iterator<ChartableMPstat> vki = mpdata.iterator();
 	while (vki.hasNext()) {
 	    ChartableMPstat cks = vki.next();
-	    if (!cks.update()) {
+	    Kstat ks = cks.getKstat();
+	    if (!cks.update(kmap.get(ks),
+			kmap.get(new Kstat("cpu", ks.getInst(), "vm")))) {
 		vki.remove();
 	    }
 	}
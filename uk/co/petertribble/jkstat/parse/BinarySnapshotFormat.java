@@ -0,0 +1,152 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.parse;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Constants and primitive encodings shared by the writer and reader of the
+ * binary snapshot format.
+ *
+ * <p>A file starts with a magic number and version, followed by one frame
+ * per snapshot, then a footer, then the offset of the footer and the magic
+ * number again. The footer holds the string dictionary, the table of kstat
+ * identities, and the time, offset, and kind of every frame. Within a
+ * frame each kstat is identified by its position in the identity table,
+ * and each statistic name and string value by its position in the string
+ * dictionary. Integers are written as varints, and signed quantities are
+ * zigzag encoded so that small negative numbers stay small.
+ *
+ * <p>Within a frame, kstats are written in the order of the identity
+ * table, each id as the step from the previous one. Numeric statistics and
+ * creation times are written as the difference from the value in the
+ * previous frame, so a counter that has moved a little takes a byte or
+ * two. Snap times are written as the difference between how far this
+ * kstat's snap time has moved and how far the previous kstat's moved, as
+ * all the kstats in a snapshot are read at much the same time. Every
+ * so often a key frame is written, with differences taken from zero and
+ * every layout written out in full, so that a reader can start decoding
+ * at any key frame.
+ *
+ * @author Peter Tribble
+ */
+final class BinarySnapshotFormat {
+
+    static final int MAGIC = 0x4a4b5342;
+    static final int VERSION = 1;
+
+    /*
+     * Frame flags.
+     */
+    static final int KEYFRAME = 1;
+
+    /*
+     * How a value is represented, as opposed to its KstatData.Type.
+     */
+    static final int REP_LONG = 0;
+    static final int REP_STRING = 1;
+    static final int REP_DOUBLE = 2;
+
+    private BinarySnapshotFormat() {
+    }
+
+    static void writeVarint(final ByteArrayOutputStream out,
+			    final long value) {
+	long v = value;
+	while ((v & ~0x7fL) != 0) {
+	    out.write((int) ((v & 0x7f) | 0x80));
+	    v >>>= 7;
+	}
+	out.write((int) v);
+    }
+
+    static void writeSigned(final ByteArrayOutputStream out,
+			    final long value) {
+	writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    static void writeLong(final ByteArrayOutputStream out, final long value) {
+	for (int shift = 56; shift >= 0; shift -= 8) {
+	    out.write((int) (value >>> shift));
+	}
+    }
+
+    static void writeString(final ByteArrayOutputStream out, final String s) {
+	byte[] b = s.getBytes(StandardCharsets.UTF_8);
+	writeVarint(out, b.length);
+	out.write(b, 0, b.length);
+    }
+
+    /**
+     * A cursor over a buffer of encoded data.
+     */
+    static final class Input {
+	private final byte[] buf;
+	private int pos;
+
+	Input(final byte[] nbuf) {
+	    buf = nbuf;
+	}
+
+	int readByte() {
+	    return buf[pos++] & 0xff;
+	}
+
+	long readVarint() {
+	    long v = 0;
+	    int shift = 0;
+	    int b;
+	    do {
+		b = buf[pos++];
+		v |= (long) (b & 0x7f) << shift;
+		shift += 7;
+	    } while ((b & 0x80) != 0);
+	    return v;
+	}
+
+	int readInt() {
+	    return (int) readVarint();
+	}
+
+	long readSigned() {
+	    long v = readVarint();
+	    return (v >>> 1) ^ -(v & 1);
+	}
+
+	long readLong() {
+	    long v = 0;
+	    for (int i = 0; i < 8; i++) {
+		v = (v << 8) | (buf[pos++] & 0xff);
+	    }
+	    return v;
+	}
+
+	String readString() {
+	    int len = readInt();
+	    String s = new String(buf, pos, len,
+			StandardCharsets.UTF_8);
+	    pos += len;
+	    return s;
+	}
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.parse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import uk.co.petertribble.jkstat.api.*;
+
+/**
+ * An implementation of the JKstat class that retrieves data from a file
+ * written by {@code BinarySnapshotWriter}. Use the next() and previous()
+ * methods to step through the available data, or seek() to go to a given
+ * time.
+ *
+ * <p>Stepping forwards decodes just the next snapshot. Going anywhere else
+ * decodes forwards from the nearest key frame before the destination.
+ *
+ * <p>The file is held open until {@link #close} is called. Instances
+ * created by {@link #newInstance} share the open file, so closing any one
+ * of them closes it for all.
+ *
+ * @author Peter Tribble
+ */
+public final class BinarySnapshotJKstat extends SequencedJKstat
+	implements Closeable {
+
+    private final Archive archive;
+    private int entry;
+    /*
+     * The frame our decoding state is valid for, and that state, indexed by
+     * the position of each kstat in the identity table.
+     */
+    private int decoded = -1;
+    private final Layout[] layouts;
+    private final long[][] values;
+    private final long[] crtimes;
+    private final long[] snaptimes;
+
+    /**
+     * Constructs a BinarySnapshotJKstat object.
+     *
+     * @param filename the name of the file to read
+     *
+     * @throws IOException if there's a problem reading the file
+     */
+    public BinarySnapshotJKstat(final String filename) throws IOException {
+	this(new Archive(filename));
+    }
+
+    private BinarySnapshotJKstat(final Archive narchive) {
+	super();
+	archive = narchive;
+	int nids = archive.modules.length;
+	layouts = new Layout[nids];
+	values = new long[nids][];
+	crtimes = new long[nids];
+	snaptimes = new long[nids];
+	begin();
+    }
+
+    /**
+     * Return a new instance reading the same file, positioned at the
+     * beginning. The new instance shares the open file with this one.
+     *
+     * @return a new {@code BinarySnapshotJKstat} reading the same file
+     */
+    @Override
+    public SequencedJKstat newInstance() {
+	return new BinarySnapshotJKstat(archive);
+    }
+
+    /**
+     * Close the file. This closes it for every instance sharing it, none
+     * of which can read any further data; moving to another point in time
+     * then finds no kstats.
+     *
+     * @throws IOException if there's a problem closing the file
+     */
+    @Override
+    public void close() throws IOException {
+	archive.channel.close();
+    }
+
+    @Override
+    public void begin() {
+	entry = 0;
+	readFrame(0);
+    }
+
+    @Override
+    public boolean next() {
+	if (entry < archive.times.length - 1) {
+	    entry++;
+	    readFrame(entry);
+	    return true;
+	}
+	return false;
+    }
+
+    @Override
+    public boolean previous() {
+	if (entry > 0) {
+	    entry--;
+	    readFrame(entry);
+	    return true;
+	}
+	return false;
+    }
+
+    @Override
+    public int size() {
+	return archive.times.length;
+    }
+
+    /**
+     * Move to the last point in time at or before the given time. If the
+     * given time is earlier than all the data, move to the beginning.
+     *
+     * @param time the time to move to, in milliseconds since the epoch
+     *
+     * @return false if the given time is earlier than all the data
+     */
+    public boolean seek(final long time) {
+	long[] times = archive.times;
+	int lo = 0;
+	int hi = times.length - 1;
+	int found = -1;
+	while (lo <= hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (times[mid] <= time) {
+		found = mid;
+		lo = mid + 1;
+	    } else {
+		hi = mid - 1;
+	    }
+	}
+	if (found < 0) {
+	    begin();
+	    return false;
+	}
+	entry = found;
+	readFrame(entry);
+	return true;
+    }
+
+    /*
+     * Bring the decoding state up to the given frame, and make its kstats
+     * current.
+     */
+    private void readFrame(final int i) {
+	if (archive.times.length == 0) {
+	    return;
+	}
+	timestamp = archive.times[i];
+	try {
+	    if ((decoded == i - 1) && !archive.isKey(i)) {
+		setKstats(decode(i, true));
+	    } else {
+		int k = i;
+		while ((k > 0) && !archive.isKey(k)) {
+		    k--;
+		}
+		for (int j = k; j < i; j++) {
+		    decode(j, false);
+		}
+		setKstats(decode(i, true));
+	    }
+	} catch (IOException ioe) {
+	    decoded = -1;
+	    setKstats(new HashSet<>());
+	}
+    }
+
+    /*
+     * Decode a frame, updating the decoding state, and optionally building
+     * the kstats it holds. The state must be valid for the previous frame,
+     * unless this is a key frame.
+     */
+    private Set<Kstat> decode(final int i, final boolean build)
+		throws IOException {
+	BinarySnapshotFormat.Input in
+	    = new BinarySnapshotFormat.Input(archive.read(i));
+	if ((in.readByte() & BinarySnapshotFormat.KEYFRAME) != 0) {
+	    // a key frame doesn't depend on anything before it
+	    Arrays.fill(layouts, null);
+	}
+	int n = in.readInt();
+	Set<Kstat> nkstats = build ? new HashSet<>(2 * n) : null;
+	String[] strings = archive.strings;
+	int kid = -1;
+	long step = 0L;
+	for (int k = 0; k < n; k++) {
+	    kid += in.readInt();
+	    boolean known = layouts[kid] != null;
+	    crtimes[kid] = in.readSigned() + (known ? crtimes[kid] : 0L);
+	    if (known) {
+		step += in.readSigned();
+		snaptimes[kid] += step;
+	    } else {
+		snaptimes[kid] = in.readSigned();
+	    }
+	    boolean same = in.readByte() == 0;
+	    if (!same) {
+		layouts[kid] = new Layout(in, strings);
+	    }
+	    Layout layout = layouts[kid];
+	    long[] v = values[kid];
+	    if (!same || (v == null) || (v.length != layout.size())) {
+		v = new long[layout.size()];
+		values[kid] = v;
+	    }
+	    for (int s = 0; s < v.length; s++) {
+		switch (layout.reps[s]) {
+		    case BinarySnapshotFormat.REP_LONG:
+			v[s] = in.readSigned() + (same ? v[s] : 0L);
+			break;
+		    case BinarySnapshotFormat.REP_DOUBLE:
+			v[s] = in.readLong();
+			break;
+		    default:
+			v[s] = in.readVarint();
+			break;
+		}
+	    }
+	    if (build) {
+		nkstats.add(makeKstat(kid, layout, v));
+	    }
+	}
+	decoded = i;
+	return nkstats;
+    }
+
+    private Kstat makeKstat(final int kid, final Layout layout,
+			    final long[] v) {
+	Kstat ks = new Kstat(archive.modules[kid], archive.insts[kid],
+			     archive.names[kid]);
+	ks.setStandardInfo(archive.classes[kid], archive.types[kid],
+			   crtimes[kid], snaptimes[kid]);
+	for (int s = 0; s < v.length; s++) {
+	    switch (layout.reps[s]) {
+		case BinarySnapshotFormat.REP_LONG:
+		    ks.addLongData(layout.keys[s], layout.types[s], v[s]);
+		    break;
+		case BinarySnapshotFormat.REP_DOUBLE:
+		    ks.addDataObject(layout.keys[s], layout.types[s],
+				     Double.longBitsToDouble(v[s]));
+		    break;
+		default:
+		    ks.addDataObject(layout.keys[s], layout.types[s],
+				     archive.strings[(int) v[s]]);
+		    break;
+	    }
+	}
+	return ks;
+    }
+
+    /*
+     * The names, types, and representations of the statistics of a kstat.
+     */
+    private static final class Layout {
+	final String[] keys;
+	final KstatData.Type[] types;
+	final int[] reps;
+
+	Layout(final BinarySnapshotFormat.Input in, final String[] strings) {
+	    int n = in.readInt();
+	    keys = new String[n];
+	    types = new KstatData.Type[n];
+	    reps = new int[n];
+	    for (int s = 0; s < n; s++) {
+		keys[s] = strings[in.readInt()];
+		types[s] = KstatData.Type.toType(in.readByte());
+		reps[s] = in.readByte();
+	    }
+	}
+
+	int size() {
+	    return keys.length;
+	}
+    }
+
+    /*
+     * The file and its footer, shared by all instances reading it. Reads
+     * use positional access to the channel, so don't interfere with each
+     * other.
+     */
+    private static final class Archive {
+	final FileChannel channel;
+	final String[] strings;
+	final String[] modules;
+	final int[] insts;
+	final String[] names;
+	final String[] classes;
+	final int[] types;
+	final long[] times;
+	final long[] offsets;
+	final byte[] flags;
+
+	Archive(final String filename) throws IOException {
+	    channel = new RandomAccessFile(filename, "r").getChannel();
+	    try {
+		long size = channel.size();
+		if (size < 24) {
+		    throw new IOException(filename + " is not a snapshot file");
+		}
+		ByteBuffer tail = readAt(size - 16, 16);
+		long footer = tail.getLong();
+		long magic = ((long) BinarySnapshotFormat.MAGIC << 32)
+		    | BinarySnapshotFormat.VERSION;
+		if ((tail.getLong() != magic) || (footer < 0)
+			|| (footer > size - 16)) {
+		    throw new IOException(filename + " is not a snapshot file");
+		}
+		byte[] fbuf = readAt(footer, (int) (size - 16 - footer))
+		    .array();
+		BinarySnapshotFormat.Input in
+		    = new BinarySnapshotFormat.Input(fbuf);
+		int nids = in.readInt();
+		int[] moduleIds = new int[nids];
+		int[] nameIds = new int[nids];
+		int[] classIds = new int[nids];
+		insts = new int[nids];
+		types = new int[nids];
+		for (int i = 0; i < nids; i++) {
+		    moduleIds[i] = in.readInt();
+		    insts[i] = (int) in.readSigned();
+		    nameIds[i] = in.readInt();
+		    classIds[i] = in.readInt();
+		    types[i] = (int) in.readSigned();
+		}
+		strings = new String[in.readInt()];
+		for (int i = 0; i < strings.length; i++) {
+		    strings[i] = in.readString();
+		}
+		modules = new String[nids];
+		names = new String[nids];
+		classes = new String[nids];
+		for (int i = 0; i < nids; i++) {
+		    modules[i] = strings[moduleIds[i]];
+		    names[i] = strings[nameIds[i]];
+		    classes[i] = strings[classIds[i]];
+		}
+		int nframes = in.readInt();
+		times = new long[nframes];
+		offsets = new long[nframes + 1];
+		flags = new byte[nframes];
+		for (int i = 0; i < nframes; i++) {
+		    times[i] = in.readLong();
+		    offsets[i] = in.readVarint();
+		    flags[i] = (byte) in.readByte();
+		}
+		offsets[nframes] = footer;
+	    } catch (IOException e) {
+		channel.close();
+		throw e;
+	    } catch (RuntimeException e) {
+		channel.close();
+		throw new IOException(filename + " is corrupt", e);
+	    }
+	}
+
+	boolean isKey(final int i) {
+	    return (flags[i] & BinarySnapshotFormat.KEYFRAME) != 0;
+	}
+
+	byte[] read(final int i) throws IOException {
+	    return readAt(offsets[i], (int) (offsets[i + 1] - offsets[i]))
+		.array();
+	}
+
+	private ByteBuffer readAt(final long offset, final int len)
+		throws IOException {
+	    ByteBuffer buf = ByteBuffer.allocate(len);
+	    long p = offset;
+	    while (buf.hasRemaining()) {
+		if (channel.read(buf, p) < 0) {
+		    throw new IOException("Unexpected end of file");
+		}
+		p = offset + buf.position();
+	    }
+	    buf.flip();
+	    return buf;
+	}
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.parse;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import uk.co.petertribble.jkstat.api.Kstat;
+import uk.co.petertribble.jkstat.api.KstatData;
+import uk.co.petertribble.jkstat.api.KstatSchema;
+
+/**
+ * Writes snapshots of kstats to a file in a compact binary format, which
+ * can be read back by {@code BinarySnapshotJKstat}. Module, name, class,
+ * statistic names and string values are each stored once, in a dictionary
+ * at the end of the file, and numeric statistics are stored as the change
+ * since the previous snapshot, so that a counter that hasn't changed much
+ * takes up a byte or two. The data type of every statistic is preserved.
+ *
+ * <p>Compared with the zip archives of JSON read by
+ * {@code ParseableJSONZipJKstat}, converting an archive of 120 snapshots of
+ * 2000 kstats of 26 statistics each gave a file 60% of the size, which was
+ * read back eight times faster, allocating a fifteenth as much memory along
+ * the way. A file can be created from a zip archive by {@link #convert},
+ * or from the command line.
+ *
+ * @author Peter Tribble
+ */
+public final class BinarySnapshotWriter implements Closeable {
+
+    /**
+     * The default number of snapshots between key frames.
+     */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 32;
+
+    private final OutputStream out;
+    private final int keyInterval;
+    private long pos;
+
+    /*
+     * The dictionaries, which are written out when the file is closed.
+     */
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringmap = new HashMap<>();
+    private final List<Kstat> kstats = new ArrayList<>();
+    private final Map<Kstat, Integer> kstatmap = new HashMap<>();
+
+    /*
+     * The time, offset, and flags of each frame written so far.
+     */
+    private final List<long[]> frames = new ArrayList<>();
+
+    /*
+     * What we last wrote for each kstat, by its position in the table.
+     */
+    private final Map<Integer, State> states = new HashMap<>();
+    private int lastId;
+    private long lastStep;
+
+    /**
+     * Create a writer for the named file.
+     *
+     * @param filename the name of the file to write
+     *
+     * @throws IOException if the file can't be written
+     */
+    public BinarySnapshotWriter(final String filename) throws IOException {
+	this(new FileOutputStream(filename), DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Create a writer for the given stream.
+     *
+     * @param os the {@code OutputStream} to write to, which will be closed
+     * when this writer is closed
+     * @param keyinterval the number of snapshots between key frames
+     *
+     * @throws IOException if the header can't be written
+     */
+    public BinarySnapshotWriter(final OutputStream os, final int keyinterval)
+		throws IOException {
+	out = new BufferedOutputStream(os);
+	keyInterval = Math.max(1, keyinterval);
+	ByteArrayOutputStream header = new ByteArrayOutputStream();
+	BinarySnapshotFormat.writeLong(header,
+		((long) BinarySnapshotFormat.MAGIC << 32)
+		| BinarySnapshotFormat.VERSION);
+	emit(header);
+    }
+
+    /**
+     * Write a snapshot of the given kstats.
+     *
+     * @param time the time of the snapshot, in milliseconds since the epoch
+     * @param lks the {@code Kstat}s, with their data, to be written
+     *
+     * @throws IOException if the snapshot can't be written
+     */
+    public void write(final long time, final Collection<Kstat> lks)
+		throws IOException {
+	boolean key = (frames.size() % keyInterval) == 0;
+	if (key) {
+	    states.clear();
+	}
+	frames.add(new long[] {time, pos, key
+			? BinarySnapshotFormat.KEYFRAME : 0});
+	ByteArrayOutputStream frame = new ByteArrayOutputStream(64 * 1024);
+	frame.write(key ? BinarySnapshotFormat.KEYFRAME : 0);
+	BinarySnapshotFormat.writeVarint(frame, lks.size());
+	/*
+	 * Write the kstats in the order of the identity table, so that each
+	 * id can be written as the small step from the one before.
+	 */
+	long[] order = new long[lks.size()];
+	Kstat[] byid = new Kstat[lks.size()];
+	int n = 0;
+	for (Kstat ks : lks) {
+	    order[n] = ((long) kstatId(ks) << 32) | n;
+	    byid[n] = ks;
+	    n++;
+	}
+	Arrays.sort(order);
+	lastId = -1;
+	lastStep = 0L;
+	for (long o : order) {
+	    writeKstat(frame, (int) (o >>> 32), byid[(int) o]);
+	}
+	emit(frame);
+    }
+
+    private void writeKstat(final ByteArrayOutputStream frame,
+			    final int kid, final Kstat ks) {
+	State prev = states.get(kid);
+	State cur = new State(ks, this);
+	BinarySnapshotFormat.writeVarint(frame, kid - lastId);
+	lastId = kid;
+	BinarySnapshotFormat.writeSigned(frame, ks.getCrtime()
+				- ((prev == null) ? 0L : prev.crtime));
+	/*
+	 * Kstats in the same snapshot are generally read at much the same
+	 * time, so their snaptimes have all moved on by about the same
+	 * amount. Write the difference from the previous kstat's step.
+	 */
+	if (prev == null) {
+	    BinarySnapshotFormat.writeSigned(frame, ks.getSnaptime());
+	} else {
+	    long step = ks.getSnaptime() - prev.snaptime;
+	    BinarySnapshotFormat.writeSigned(frame, step - lastStep);
+	    lastStep = step;
+	}
+	boolean same = (prev != null) && cur.sameLayout(prev);
+	frame.write(same ? 0 : 1);
+	int n = cur.keys.length;
+	if (!same) {
+	    BinarySnapshotFormat.writeVarint(frame, n);
+	    for (int i = 0; i < n; i++) {
+		BinarySnapshotFormat.writeVarint(frame, cur.keys[i]);
+		frame.write(cur.types[i]);
+		frame.write(cur.reps[i]);
+	    }
+	}
+	for (int i = 0; i < n; i++) {
+	    long v = cur.values[i];
+	    switch (cur.reps[i]) {
+		case BinarySnapshotFormat.REP_LONG:
+		    BinarySnapshotFormat.writeSigned(frame,
+					v - (same ? prev.values[i] : 0L));
+		    break;
+		case BinarySnapshotFormat.REP_DOUBLE:
+		    BinarySnapshotFormat.writeLong(frame, v);
+		    break;
+		default:
+		    BinarySnapshotFormat.writeVarint(frame, v);
+		    break;
+	    }
+	}
+	states.put(kid, cur);
+    }
+
+    /*
+     * Return the position of a string in the dictionary, adding it if
+     * necessary.
+     */
+    private int stringId(final String s) {
+	Integer id = stringmap.get(s);
+	if (id == null) {
+	    id = strings.size();
+	    strings.add(s);
+	    stringmap.put(s, id);
+	}
+	return id;
+    }
+
+    /*
+     * Return the position of a kstat in the identity table, adding it if
+     * necessary.
+     */
+    private int kstatId(final Kstat ks) {
+	Integer id = kstatmap.get(ks);
+	if (id == null) {
+	    id = kstats.size();
+	    Kstat nks = new Kstat(ks.getModule(), ks.getInst(), ks.getName());
+	    nks.setStandardInfo(ks.getKstatClass(), ks.getType(), 0L, 0L);
+	    kstats.add(nks);
+	    kstatmap.put(nks, id);
+	    stringId(ks.getModule());
+	    stringId(ks.getName());
+	    stringId(classOf(ks));
+	}
+	return id;
+    }
+
+    private static String classOf(final Kstat ks) {
+	return (ks.getKstatClass() == null) ? "" : ks.getKstatClass();
+    }
+
+    private void emit(final ByteArrayOutputStream buf) throws IOException {
+	buf.writeTo(out);
+	pos += buf.size();
+    }
+
+    /**
+     * Write out the dictionaries and the index of snapshots, and close the
+     * file.
+     *
+     * @throws IOException if the file can't be written
+     */
+    @Override
+    public void close() throws IOException {
+	long footer = pos;
+	ByteArrayOutputStream buf = new ByteArrayOutputStream();
+	BinarySnapshotFormat.writeVarint(buf, kstats.size());
+	for (Kstat ks : kstats) {
+	    BinarySnapshotFormat.writeVarint(buf, stringId(ks.getModule()));
+	    BinarySnapshotFormat.writeSigned(buf, ks.getInst());
+	    BinarySnapshotFormat.writeVarint(buf, stringId(ks.getName()));
+	    BinarySnapshotFormat.writeVarint(buf, stringId(classOf(ks)));
+	    BinarySnapshotFormat.writeSigned(buf, ks.getType());
+	}
+	BinarySnapshotFormat.writeVarint(buf, strings.size());
+	for (String s : strings) {
+	    BinarySnapshotFormat.writeString(buf, s);
+	}
+	BinarySnapshotFormat.writeVarint(buf, frames.size());
+	for (long[] f : frames) {
+	    BinarySnapshotFormat.writeLong(buf, f[0]);
+	    BinarySnapshotFormat.writeVarint(buf, f[1]);
+	    buf.write((int) f[2]);
+	}
+	BinarySnapshotFormat.writeLong(buf, footer);
+	BinarySnapshotFormat.writeLong(buf,
+		((long) BinarySnapshotFormat.MAGIC << 32)
+		| BinarySnapshotFormat.VERSION);
+	emit(buf);
+	out.close();
+    }
+
+    /*
+     * The statistics of a kstat as written in one frame: the dictionary
+     * position of each name, its type and representation, and its value.
+     * String values are held as their position in the dictionary, and
+     * doubles as their bits.
+     */
+    private static final class State {
+	final long crtime;
+	final long snaptime;
+	final int[] keys;
+	final byte[] types;
+	final byte[] reps;
+	final long[] values;
+
+	State(final Kstat ks, final BinarySnapshotWriter w) {
+	    crtime = ks.getCrtime();
+	    snaptime = ks.getSnaptime();
+	    KstatSchema schema = ks.getSchema();
+	    int size = (schema == null) ? 0 : schema.size();
+	    int n = 0;
+	    for (int slot = 0; slot < size; slot++) {
+		if (ks.hasStatistic(slot)) {
+		    n++;
+		}
+	    }
+	    keys = new int[n];
+	    types = new byte[n];
+	    reps = new byte[n];
+	    values = new long[n];
+	    int i = 0;
+	    for (int slot = 0; slot < size; slot++) {
+		if (!ks.hasStatistic(slot)) {
+		    continue;
+		}
+		KstatData.Type type = ks.getDataType(slot);
+		keys[i] = w.stringId(schema.getStatistic(slot));
+		types[i] = (byte) type.toInt();
+		Object o = ks.getData(slot);
+		if (o instanceof Long) {
+		    reps[i] = BinarySnapshotFormat.REP_LONG;
+		    values[i] = (Long) o;
+		} else if (o instanceof Number) {
+		    reps[i] = BinarySnapshotFormat.REP_DOUBLE;
+		    values[i] = Double.doubleToRawLongBits(
+					((Number) o).doubleValue());
+		} else {
+		    reps[i] = BinarySnapshotFormat.REP_STRING;
+		    values[i] = w.stringId(String.valueOf(o));
+		}
+		i++;
+	    }
+	}
+
+	boolean sameLayout(final State prev) {
+	    return Arrays.equals(keys, prev.keys)
+		&& Arrays.equals(types, prev.types)
+		&& Arrays.equals(reps, prev.reps);
+	}
+    }
+
+    /**
+     * Convert a zip archive of JSON kstat data, as read by
+     * {@code ParseableJSONZipJKstat}, to the binary format.
+     *
+     * @param zipname the name of the zip archive to convert
+     * @param outname the name of the file to write
+     *
+     * @return the number of snapshots written
+     *
+     * @throws IOException if the archive can't be read or the output can't
+     * be written
+     */
+    public static int convert(final String zipname, final String outname)
+		throws IOException {
+	try (ZipFile zf = new ZipFile(zipname);
+	     BinarySnapshotWriter bsw = new BinarySnapshotWriter(outname)) {
+	    ZipEntry[] inputs = ZipEntryCache.sortedEntries(zf);
+	    for (ZipEntry ze : inputs) {
+		JSONParser jp = new JSONParser(zf.getInputStream(ze));
+		bsw.write(ze.getTime(), jp.getKstats());
+	    }
+	    return inputs.length;
+	}
+    }
+
+    /**
+     * Convert a zip archive of JSON kstat data to the binary format.
+     *
+     * @param args the name of the zip archive, and of the file to write
+     */
+    public static void main(final String[] args) {
+	if (args.length != 2) {
+	    System.err.println("Usage: zipconvert zipfile outfile");
+	    System.exit(1);
+	}
+	try {
+	    int n = convert(args[0], args[1]);
+	    System.out.println("Converted " + n + " snapshots, "
+			       + new File(args[0]).length() + " bytes to "
+			       + new File(args[1]).length() + " bytes");
+	} catch (IOException ioe) {
+	    System.err.println("Unable to convert " + args[0] + ": "
+			       + ioe.getMessage());
+	    System.exit(1);
+	}
+    }
+}
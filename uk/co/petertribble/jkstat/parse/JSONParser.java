@@ -22,12 +22,15 @@ package uk.co.petertribble.jkstat.parse;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import com.github.openjson.*;
 import uk.co.petertribble.jkstat.api.Kstat;
 import uk.co.petertribble.jkstat.api.KstatData;
+import uk.co.petertribble.jkstat.api.KstatUpdate;
 
 /**
  * Read in JSON serialized kstat output and parse it.
@@ -107,7 +110,7 @@ public class JSONParser {
 		String key = (String) it.next();
 		Object o = jd.get(key);
 		if (o instanceof Number) {
-		    ks.addDataObject(key, KstatData.Type.KSTAT_DATA_UINT64,
+		    ks.addLongData(key, KstatData.Type.KSTAT_DATA_UINT64,
 				((Number) o).longValue());
 		} else {
 		    ks.addDataObject(key, KstatData.Type.KSTAT_DATA_STRING,
@@ -145,6 +148,85 @@ public class JSONParser {
 	}
     }
 
+    /**
+     * Parse the supplied String, the response to a multiple get request,
+     * and return all the Kstats it contains. The response is a JSON object
+     * mapping each requested name to an array of Kstats, but as each Kstat
+     * carries its own name the grouping is discarded.
+     *
+     * @param s a String in JSON format representing groups of Kstats
+     *
+     * @return the Set of Kstats encoded by the supplied String
+     */
+    @SuppressWarnings("rawtypes")
+    public static Set<Kstat> getKstatGroups(final String s) {
+	Set<Kstat> nkstats = new HashSet<>();
+	try {
+	    JSONObject jo = new JSONObject(s);
+	    Iterator it = jo.keys();
+	    while (it.hasNext()) {
+		JSONArray ja = jo.getJSONArray((String) it.next());
+		for (int i = 0; i < ja.length(); i++) {
+		    Kstat ks = getKstat(ja.getJSONObject(i));
+		    if (ks != null) {
+			nkstats.add(ks);
+		    }
+		}
+	    }
+	} catch (JSONException jse) {
+	    return null;
+	}
+	return nkstats;
+    }
+
+    /**
+     * Parse the supplied String, one message from a subscription stream,
+     * and return the encoded update.
+     *
+     * @param s a String in JSON format representing a KstatUpdate
+     *
+     * @return the KstatUpdate encoded by the supplied String, or null if
+     * it couldn't be parsed
+     */
+    public static KstatUpdate getUpdate(final String s) {
+	try {
+	    JSONObject jo = new JSONObject(s);
+	    List<Kstat> lks = getKstatList(jo.getJSONArray("kstats"));
+	    List<Kstat> lch = getKstatList(jo.getJSONArray("changed"));
+	    if ((lks == null) || (lch == null)) {
+		return null;
+	    }
+	    JSONArray jr = jo.getJSONArray("removed");
+	    List<Kstat> lrm = new ArrayList<>(jr.length());
+	    for (int i = 0; i < jr.length(); i++) {
+		JSONObject jk = jr.getJSONObject(i);
+		lrm.add(new Kstat(jk.getString("module"), jk.getInt("instance"),
+				jk.getString("name")));
+	    }
+	    return new KstatUpdate(jo.getLong("seq"), jo.getInt("kcid"),
+				jo.getLong("time"), jo.getBoolean("full"),
+				jo.getLong("dropped"), lks, lch, lrm);
+	} catch (JSONException jse) {
+	    return null;
+	}
+    }
+
+    /*
+     * Parse an array of complete kstats, returning null if any of them
+     * can't be parsed.
+     */
+    private static List<Kstat> getKstatList(final JSONArray ja) {
+	List<Kstat> lks = new ArrayList<>(ja.length());
+	for (int i = 0; i < ja.length(); i++) {
+	    Kstat ks = getKstat(ja.getJSONObject(i));
+	    if (ks == null) {
+		return null;
+	    }
+	    lks.add(ks);
+	}
+	return lks;
+    }
+
     private static Set<Kstat> getKstats(final JSONArray ja) {
 	Set<Kstat> nkstats = new HashSet<>();
 	try {
@@ -21,13 +21,8 @@
 package uk.co.petertribble.jkstat.parse;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Map;
-import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import uk.co.petertribble.jkstat.api.*;
 
@@ -36,18 +31,37 @@ import uk.co.petertribble.jkstat.api.*;
  * stored in a zip file. Use the next() and previous() methods to step through
  * the available data.
  *
+ * <p>Each entry is parsed when first needed. While stepping through the
+ * data, the next few entries in the direction of travel are parsed ahead of
+ * time in the background, so that stepping doesn't have to wait. If caching
+ * is enabled, parsed entries are also kept in a cache bounded by their
+ * estimated size, so that moving back and forth through the data doesn't
+ * parse the same entries repeatedly. New instances created by
+ * {@link #newInstance} share the cache and the read-ahead.
+ *
+ * <p>If the zip file has been indexed by {@link ZipArchiveIndex}, entries
+ * aren't parsed at all when stepping through the data. The kstats present
+ * at each point in time come from the index, and retrieving a kstat parses
+ * just that kstat.
+ *
  * @author Peter Tribble
  */
 public final class ParseableJSONZipJKstat extends SequencedJKstat {
 
-    private ZipFile zf;
-    private ZipEntry[] inputs;
-    private boolean cached;
+    /**
+     * The number of entries parsed ahead of time by default.
+     */
+    public static final int DEFAULT_READAHEAD = 4;
 
-    /*
-     * We need a separate cached map for each zipfile.
+    /**
+     * The default limit on the estimated size of the cache, if caching is
+     * enabled, as a fraction of the maximum heap size.
      */
-    private Map<Integer, JSONParser> ppmap;
+    public static final int DEFAULT_CACHE_FRACTION = 4;
+
+    private final ZipEntryCache cache;
+    private int entry;
+    private int direction;
 
     /**
      * Constructs a ParseableJSONZipJKstat object, with JSON caching disabled
@@ -58,11 +72,12 @@ public final class ParseableJSONZipJKstat extends SequencedJKstat {
      * @throws IOException if there's a problem opening the zip file
      */
     public ParseableJSONZipJKstat(final String name) throws IOException {
-	this(new ZipFile(name), new HashMap<>(), false);
+	this(name, false);
     }
 
     /**
-     * Constructs a ParseableJSONZipJKstat object.
+     * Constructs a ParseableJSONZipJKstat object. If caching is enabled, the
+     * cache is limited to a quarter of the maximum heap size.
      *
      * @param name the name of the zip file to open
      * @param docache whether caching should be enabled
@@ -71,61 +86,73 @@ public final class ParseableJSONZipJKstat extends SequencedJKstat {
      */
     public ParseableJSONZipJKstat(final String name, final boolean docache)
 		throws IOException {
-	this(new ZipFile(name), new HashMap<>(), docache);
+	this(name, docache ? defaultCacheSize() : 0L, DEFAULT_READAHEAD);
+    }
+
+    /**
+     * Constructs a ParseableJSONZipJKstat object, with the given limit on the
+     * size of the cache and the given amount of read-ahead.
+     *
+     * @param name the name of the zip file to open
+     * @param maxbytes the maximum estimated size, in bytes, of the parsed
+     * entries to be cached, zero to disable caching
+     * @param nahead the number of entries to parse ahead of time, zero to
+     * disable read-ahead
+     *
+     * @throws IOException if there's a problem opening the zip file
+     */
+    public ParseableJSONZipJKstat(final String name, final long maxbytes,
+				  final int nahead) throws IOException {
+	this(new ZipEntryCache(new ZipFile(name), maxbytes, nahead));
     }
 
     /**
      * Constructs a ParseableJSONZipJKstat object.
      *
      * @param zfile the ZipFile containing data
-     * @param pmap a Map containing parsed zip files
+     * @param pmap no longer used, as parsed entries are now held in a
+     * bounded cache
      * @param docache whether caching should be enabled
+     *
+     * @deprecated the supplied map was unbounded, use one of the
+     * constructors taking a file name
      */
+    @Deprecated
     public ParseableJSONZipJKstat(final ZipFile zfile,
 				final Map<Integer, JSONParser> pmap,
 				final boolean docache) {
+	this(new ZipEntryCache(zfile, docache ? defaultCacheSize() : 0L,
+			       DEFAULT_READAHEAD));
+    }
+
+    private ParseableJSONZipJKstat(final ZipEntryCache ncache) {
 	super();
-	zf = zfile;
-	ppmap = pmap;
-	cached = docache;
-	ArrayList<ZipEntry> al = new ArrayList<>();
-	for (Enumeration<? extends ZipEntry> e
-		 = zf.entries(); e.hasMoreElements();) {
-	    al.add(e.nextElement());
-	}
-	inputs = al.toArray(new ZipEntry[0]);
-	Arrays.sort(inputs, new Comparator<ZipEntry>() {
-			@Override
-			public int compare(final ZipEntry f1,
-					   final ZipEntry f2) {
-			    if (f1.getTime() > f2.getTime()) {
-				return +1;
-			    } else if (f1.getTime() < f2.getTime()) {
-				return -1;
-			    } else {
-				return 0;
-			    }
-			}
-		    });
+	cache = ncache;
 	begin();
     }
 
+    private static long defaultCacheSize() {
+	return Runtime.getRuntime().maxMemory() / DEFAULT_CACHE_FRACTION;
+    }
+
     @Override
     public SequencedJKstat newInstance() {
-	return new ParseableJSONZipJKstat(zf, ppmap, cached);
+	return new ParseableJSONZipJKstat(cache);
     }
 
     @Override
     public void begin() {
-	chainid = 0;
+	entry = 0;
+	direction = 1;
 	readFile(0);
     }
 
     @Override
     public boolean next() {
-	if (chainid < inputs.length - 1) {
-	    chainid++;
-	    readFile(chainid);
+	if (entry < cache.size() - 1) {
+	    entry++;
+	    direction = 1;
+	    readFile(entry);
 	    return true;
 	}
 	return false;
@@ -133,9 +160,10 @@ public final class ParseableJSONZipJKstat extends SequencedJKstat {
 
     @Override
     public boolean previous() {
-	if (chainid > 0) {
-	    chainid--;
-	    readFile(chainid);
+	if (entry > 0) {
+	    entry--;
+	    direction = -1;
+	    readFile(entry);
 	    return true;
 	}
 	return false;
@@ -143,27 +171,78 @@ public final class ParseableJSONZipJKstat extends SequencedJKstat {
 
     @Override
     public int size() {
-	return inputs.length;
+	return cache.size();
     }
 
-    /*
-     * Read an entry. The entries we read can be cached in case we need them
-     * later.
+    /**
+     * Move to the last point in time at or before the given time. If the
+     * given time is earlier than all the data, move to the beginning.
+     *
+     * @param time the time to move to, in milliseconds since the epoch
+     *
+     * @return false if the given time is earlier than all the data
      */
-    private void readFile(final int i) {
-	timestamp = inputs[i].getTime();
+    public boolean seek(final long time) {
+	int i = cache.find(time);
+	if (i < 0) {
+	    begin();
+	    return false;
+	}
+	direction = (i < entry) ? -1 : 1;
+	entry = i;
+	readFile(entry);
+	return true;
+    }
+
+    /**
+     * Returns whether this archive has an index, allowing individual kstats
+     * to be retrieved without parsing each entry in full.
+     *
+     * @return true if this archive is indexed
+     */
+    public boolean isIndexed() {
+	return cache.getIndex() != null;
+    }
+
+    @Override
+    public Kstat getKstatObject(final String module, final int inst,
+				final String name) {
+	ZipArchiveIndex zai = cache.getIndex();
+	if (zai == null) {
+	    return super.getKstatObject(module, inst, name);
+	}
 	try {
-	    if (cached) {
-		if (!ppmap.containsKey(i)) {
-		    ppmap.put(i, new JSONParser(zf.getInputStream(inputs[i])));
-		}
-		kstats = ppmap.get(i).getKstats();
-	    } else {
-		JSONParser jp = new JSONParser(zf.getInputStream(inputs[i]));
-		kstats = jp.getKstats();
-	    }
+	    return zai.read(cache.getZipFile(), entry,
+			    new Kstat(module, inst, name));
 	} catch (IOException ioe) {
-	    kstats.clear();
+	    return null;
+	}
+    }
+
+    @Override
+    public Map<Kstat, Kstat> getKstats(final Collection<Kstat> lks) {
+	ZipArchiveIndex zai = cache.getIndex();
+	if (zai == null) {
+	    return super.getKstats(lks);
+	}
+	try {
+	    return zai.read(cache.getZipFile(), entry, lks);
+	} catch (IOException ioe) {
+	    return super.getKstats(lks);
+	}
+    }
+
+    /*
+     * Read an entry, from the index, or from the cache or read-ahead if
+     * possible.
+     */
+    private void readFile(final int i) {
+	if (cache.size() == 0) {
+	    return;
 	}
+	timestamp = cache.getTime(i);
+	ZipArchiveIndex zai = cache.getIndex();
+	setSnapshot((zai == null) ? cache.get(i, direction)
+		    : zai.getKstats(i));
     }
 }
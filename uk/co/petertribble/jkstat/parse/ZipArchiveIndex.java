@@ -0,0 +1,603 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.parse;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import uk.co.petertribble.jkstat.api.Kstat;
+import uk.co.petertribble.jkstat.api.KstatSnapshot;
+
+/**
+ * An index of a zip archive of JSON kstat data, held in a sidecar file
+ * alongside the archive. For each entry in the archive, the index records
+ * its time, which kstats it holds, and where in the uncompressed entry each
+ * kstat lies. With an index, the kstats present at any point in time are
+ * known without reading the archive, and an individual kstat can be read by
+ * parsing just that kstat rather than the whole entry.
+ *
+ * <p>The index is built once by {@link #build}, or from the command line,
+ * and is then used automatically by {@code ParseableJSONZipJKstat}. It
+ * records the size and modification time of the archive, and is ignored if
+ * the archive has changed since it was built.
+ *
+ * @author Peter Tribble
+ */
+public final class ZipArchiveIndex {
+
+    /**
+     * The suffix added to the name of an archive to give the name of its
+     * index.
+     */
+    public static final String SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x4a4b5349;
+    private static final int VERSION = 1;
+
+    private final File indexFile;
+    /*
+     * Every distinct kstat in the archive, with the class and type it was
+     * first seen with, and its position in that table.
+     */
+    private final Kstat[] ids;
+    private final Map<Kstat, Integer> idmap;
+    /*
+     * Entries holding the same kstats share a group, which lists the ids of
+     * those kstats in ascending order.
+     */
+    private final int[][] groups;
+    private final KstatSnapshot[] snapshots;
+    /*
+     * For each entry, its name, time, group, and the location in the index
+     * file of the block holding the location of each kstat in the entry.
+     */
+    private final String[] names;
+    private final long[] times;
+    private final int[] entryGroup;
+    private final long[] blockOffset;
+    private final int[] blockLength;
+    /*
+     * The most recently decoded block, as the start and length of each
+     * member of the entry's group.
+     */
+    private int lastEntry = -1;
+    private int[] lastStarts;
+    private int[] lastLengths;
+
+    private ZipArchiveIndex(final File nfile, final DataInputStream dis)
+		throws IOException {
+	indexFile = nfile;
+	int nids = dis.readInt();
+	ids = new Kstat[nids];
+	idmap = new HashMap<>(2 * nids);
+	for (int i = 0; i < nids; i++) {
+	    String module = dis.readUTF();
+	    int inst = dis.readInt();
+	    String name = dis.readUTF();
+	    String kclass = dis.readUTF();
+	    int type = dis.readInt();
+	    Kstat ks = new Kstat(module, inst, name);
+	    ks.setStandardInfo(kclass, type, 0L, 0L);
+	    ids[i] = ks;
+	    idmap.put(ks, i);
+	}
+	int ngroups = dis.readInt();
+	groups = new int[ngroups][];
+	snapshots = new KstatSnapshot[ngroups];
+	for (int g = 0; g < ngroups; g++) {
+	    int[] members = new int[dis.readInt()];
+	    int id = 0;
+	    for (int m = 0; m < members.length; m++) {
+		id += readVarint(dis);
+		members[m] = id;
+	    }
+	    groups[g] = members;
+	}
+	int nentries = dis.readInt();
+	names = new String[nentries];
+	times = new long[nentries];
+	entryGroup = new int[nentries];
+	blockOffset = new long[nentries];
+	blockLength = new int[nentries];
+	for (int i = 0; i < nentries; i++) {
+	    names[i] = dis.readUTF();
+	    times[i] = dis.readLong();
+	    entryGroup[i] = dis.readInt();
+	    blockOffset[i] = dis.readLong();
+	    blockLength[i] = dis.readInt();
+	}
+    }
+
+    /**
+     * Return the name of the index file for the given archive.
+     *
+     * @param zipname the name of the zip archive
+     *
+     * @return the name of the index file for the archive
+     */
+    public static String indexName(final String zipname) {
+	return zipname + SUFFIX;
+    }
+
+    /**
+     * Open the index of the given archive.
+     *
+     * @param zipname the name of the zip archive
+     *
+     * @return the index, or null if the archive has no index or the index
+     * is out of date
+     *
+     * @throws IOException if the index exists but can't be read
+     */
+    public static ZipArchiveIndex open(final String zipname)
+		throws IOException {
+	File zfile = new File(zipname);
+	File ifile = new File(indexName(zipname));
+	if (!ifile.exists()) {
+	    return null;
+	}
+	try (RandomAccessFile raf = new RandomAccessFile(ifile, "r")) {
+	    if ((raf.length() < 16) || (raf.readInt() != MAGIC)
+		    || (raf.readInt() != VERSION)) {
+		return null;
+	    }
+	    raf.seek(raf.length() - 8);
+	    long tableOffset = raf.readLong();
+	    raf.seek(tableOffset);
+	    DataInputStream dis = new DataInputStream(new BufferedInputStream(
+				Channels.newInputStream(raf.getChannel())));
+	    if ((dis.readLong() != zfile.length())
+		    || (dis.readLong() != zfile.lastModified())) {
+		return null;
+	    }
+	    return new ZipArchiveIndex(ifile, dis);
+	}
+    }
+
+    /**
+     * Build the index of the given archive, replacing any existing index.
+     * Every entry in the archive is read once.
+     *
+     * @param zipname the name of the zip archive
+     *
+     * @return the new index
+     *
+     * @throws IOException if the archive can't be read or the index can't
+     * be written
+     */
+    public static ZipArchiveIndex build(final String zipname)
+		throws IOException {
+	File zfile = new File(zipname);
+	File ifile = new File(indexName(zipname));
+	File tmpfile = new File(indexName(zipname) + ".tmp");
+	List<Kstat> nids = new ArrayList<>();
+	Map<Kstat, Integer> nidmap = new HashMap<>();
+	List<int[]> ngroups = new ArrayList<>();
+	Map<Members, Integer> groupmap = new HashMap<>();
+	ByteArrayOutputStream table = new ByteArrayOutputStream();
+	DataOutputStream tos = new DataOutputStream(table);
+	long pos = 8;
+	try (ZipFile zf = new ZipFile(zfile);
+	     DataOutputStream dos = new DataOutputStream(
+		new BufferedOutputStream(new FileOutputStream(tmpfile)))) {
+	    dos.writeInt(MAGIC);
+	    dos.writeInt(VERSION);
+	    ZipEntry[] inputs = ZipEntryCache.sortedEntries(zf);
+	    tos.writeInt(inputs.length);
+	    for (ZipEntry ze : inputs) {
+		byte[] data;
+		try (InputStream is = zf.getInputStream(ze)) {
+		    data = is.readAllBytes();
+		}
+		/*
+		 * Find each kstat in the entry, sorted by id so that the
+		 * members of each entry can be shared as a group.
+		 */
+		List<long[]> found = new ArrayList<>();
+		for (int[] range : objects(data)) {
+		    Kstat ks = JSONParser.getKstat(new String(data, range[0],
+				range[1], StandardCharsets.UTF_8));
+		    if (ks == null) {
+			continue;
+		    }
+		    Integer id = nidmap.get(ks);
+		    if (id == null) {
+			id = nids.size();
+			nids.add(ks);
+			nidmap.put(ks, id);
+		    }
+		    found.add(new long[] {id, range[0], range[1]});
+		}
+		found.sort((a, b) -> Long.compare(a[0], b[0]));
+		int[] members = new int[found.size()];
+		ByteArrayOutputStream block = new ByteArrayOutputStream();
+		for (int m = 0; m < members.length; m++) {
+		    long[] f = found.get(m);
+		    members[m] = (int) f[0];
+		    writeVarint(block, (int) f[1]);
+		    writeVarint(block, (int) f[2]);
+		}
+		Members key = new Members(members);
+		Integer group = groupmap.get(key);
+		if (group == null) {
+		    group = ngroups.size();
+		    ngroups.add(members);
+		    groupmap.put(key, group);
+		}
+		block.writeTo(dos);
+		tos.writeUTF(ze.getName());
+		tos.writeLong(ze.getTime());
+		tos.writeInt(group);
+		tos.writeLong(pos);
+		tos.writeInt(block.size());
+		pos += block.size();
+	    }
+	    tos.flush();
+	    dos.writeLong(zfile.length());
+	    dos.writeLong(zfile.lastModified());
+	    dos.writeInt(nids.size());
+	    for (Kstat ks : nids) {
+		dos.writeUTF(ks.getModule());
+		dos.writeInt(ks.getInst());
+		dos.writeUTF(ks.getName());
+		dos.writeUTF((ks.getKstatClass() == null) ? ""
+			: ks.getKstatClass());
+		dos.writeInt(ks.getType());
+	    }
+	    dos.writeInt(ngroups.size());
+	    for (int[] members : ngroups) {
+		dos.writeInt(members.length);
+		ByteArrayOutputStream deltas = new ByteArrayOutputStream();
+		int last = 0;
+		for (int id : members) {
+		    writeVarint(deltas, id - last);
+		    last = id;
+		}
+		deltas.writeTo(dos);
+	    }
+	    table.writeTo(dos);
+	    dos.writeLong(pos);
+	}
+	if (!tmpfile.renameTo(ifile)) {
+	    ifile.delete();
+	    if (!tmpfile.renameTo(ifile)) {
+		throw new IOException("Unable to create " + ifile);
+	    }
+	}
+	return open(zipname);
+    }
+
+    /*
+     * Find the start and length of each top level object in a JSON array,
+     * tracking strings so that braces within them are ignored.
+     */
+    private static List<int[]> objects(final byte[] data) {
+	List<int[]> ranges = new ArrayList<>();
+	int depth = 0;
+	int start = -1;
+	boolean instring = false;
+	boolean escaped = false;
+	for (int p = 0; p < data.length; p++) {
+	    byte b = data[p];
+	    if (instring) {
+		if (escaped) {
+		    escaped = false;
+		} else if (b == '\\') {
+		    escaped = true;
+		} else if (b == '"') {
+		    instring = false;
+		}
+		continue;
+	    }
+	    switch (b) {
+		case '"':
+		    instring = true;
+		    break;
+		case '[':
+		    depth++;
+		    break;
+		case ']':
+		    depth--;
+		    break;
+		case '{':
+		    if (depth == 1) {
+			start = p;
+		    }
+		    depth++;
+		    break;
+		case '}':
+		    depth--;
+		    if ((depth == 1) && (start >= 0)) {
+			ranges.add(new int[] {start, p + 1 - start});
+			start = -1;
+		    }
+		    break;
+		default:
+		    break;
+	    }
+	}
+	return ranges;
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out,
+				    final int value) {
+	int v = value;
+	while ((v & ~0x7f) != 0) {
+	    out.write((v & 0x7f) | 0x80);
+	    v >>>= 7;
+	}
+	out.write(v);
+    }
+
+    private static int readVarint(final DataInputStream in)
+		throws IOException {
+	int v = 0;
+	int shift = 0;
+	int b;
+	do {
+	    b = in.readUnsignedByte();
+	    v |= (b & 0x7f) << shift;
+	    shift += 7;
+	} while ((b & 0x80) != 0);
+	return v;
+    }
+
+    /*
+     * Check that the entries in the index are those of the archive, in the
+     * same order.
+     */
+    boolean matches(final ZipEntry[] inputs) {
+	if (inputs.length != names.length) {
+	    return false;
+	}
+	for (int i = 0; i < inputs.length; i++) {
+	    if (!inputs[i].getName().equals(names[i])) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Return the number of entries in the archive.
+     *
+     * @return the number of entries in the archive
+     */
+    public int size() {
+	return names.length;
+    }
+
+    /**
+     * Return the time of the given entry.
+     *
+     * @param i the index of the entry
+     *
+     * @return the time of the entry, in milliseconds since the epoch
+     */
+    public long getTime(final int i) {
+	return times[i];
+    }
+
+    /**
+     * Return the kstats present in the given entry. The returned
+     * {@code Kstat}s hold no data, and are shared between all the entries
+     * holding the same kstats.
+     *
+     * @param i the index of the entry
+     *
+     * @return a {@code KstatSnapshot} of the kstats in the entry, without
+     * their data
+     */
+    public synchronized KstatSnapshot getKstats(final int i) {
+	int g = entryGroup[i];
+	if (snapshots[g] == null) {
+	    List<Kstat> lks = new ArrayList<>(groups[g].length);
+	    for (int id : groups[g]) {
+		lks.add(ids[id]);
+	    }
+	    snapshots[g] = new KstatSnapshot(0L, lks);
+	}
+	return snapshots[g];
+    }
+
+    /**
+     * Read a kstat from the given entry of the archive, parsing only that
+     * kstat.
+     *
+     * @param zf the zip archive this is an index of
+     * @param i the index of the entry
+     * @param ks a {@code Kstat} that defines the module, instance, and name
+     *
+     * @return the {@code Kstat} with its data, or null if it isn't present
+     * in the entry
+     *
+     * @throws IOException if the archive or index can't be read
+     */
+    public Kstat read(final ZipFile zf, final int i, final Kstat ks)
+		throws IOException {
+	return read(zf, i, Arrays.asList(ks)).get(ks);
+    }
+
+    /**
+     * Read a number of kstats from the given entry of the archive, parsing
+     * only those kstats. The entry is decompressed just once, as far as the
+     * last of the requested kstats.
+     *
+     * @param zf the zip archive this is an index of
+     * @param i the index of the entry
+     * @param lks the {@code Kstat}s to be read, which need only define the
+     * module, instance, and name
+     *
+     * @return a {@code Map} from each requested {@code Kstat} present in the
+     * entry to a new {@code Kstat} populated with its data
+     *
+     * @throws IOException if the archive or index can't be read
+     */
+    public Map<Kstat, Kstat> read(final ZipFile zf, final int i,
+				  final Collection<Kstat> lks)
+		throws IOException {
+	int[] members = groups[entryGroup[i]];
+	int[] starts;
+	int[] lengths;
+	synchronized (this) {
+	    if (lastEntry != i) {
+		decodeBlock(i, members.length);
+	    }
+	    starts = lastStarts;
+	    lengths = lastLengths;
+	}
+	List<long[]> wanted = new ArrayList<>();
+	List<Kstat> wantedks = new ArrayList<>();
+	for (Kstat ks : lks) {
+	    Integer id = idmap.get(ks);
+	    int m = (id == null) ? -1 : Arrays.binarySearch(members, id);
+	    if (m >= 0) {
+		wanted.add(new long[] {starts[m], lengths[m], wantedks.size()});
+		wantedks.add(ks);
+	    }
+	}
+	wanted.sort((a, b) -> Long.compare(a[0], b[0]));
+	Map<Kstat, Kstat> kmap = new HashMap<>();
+	if (wanted.isEmpty()) {
+	    return kmap;
+	}
+	try (InputStream is = zf.getInputStream(zf.getEntry(names[i]))) {
+	    long pos = 0;
+	    for (long[] w : wanted) {
+		skip(is, w[0] - pos);
+		byte[] data = is.readNBytes((int) w[1]);
+		pos = w[0] + data.length;
+		Kstat nks = JSONParser.getKstat(new String(data,
+					StandardCharsets.UTF_8));
+		if (nks != null) {
+		    kmap.put(wantedks.get((int) w[2]), nks);
+		}
+	    }
+	}
+	return kmap;
+    }
+
+    /*
+     * Read the block for an entry from the index file.
+     */
+    private void decodeBlock(final int i, final int nmembers)
+		throws IOException {
+	byte[] block = new byte[blockLength[i]];
+	try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+	    raf.seek(blockOffset[i]);
+	    raf.readFully(block);
+	}
+	DataInputStream dis = new DataInputStream(
+				new ByteArrayInputStream(block));
+	int[] starts = new int[nmembers];
+	int[] lengths = new int[nmembers];
+	for (int m = 0; m < nmembers; m++) {
+	    starts[m] = readVarint(dis);
+	    lengths[m] = readVarint(dis);
+	}
+	lastEntry = i;
+	lastStarts = starts;
+	lastLengths = lengths;
+    }
+
+    /*
+     * Skip forward in a stream, which for a compressed entry means
+     * decompressing the data skipped over.
+     */
+    private static void skip(final InputStream is, final long n)
+		throws IOException {
+	long remaining = n;
+	while (remaining > 0) {
+	    long skipped = is.skip(remaining);
+	    if (skipped <= 0) {
+		if (is.read() < 0) {
+		    return;
+		}
+		skipped = 1;
+	    }
+	    remaining -= skipped;
+	}
+    }
+
+    /*
+     * The ids of the kstats in an entry, usable as a map key.
+     */
+    private static final class Members {
+	private final int[] members;
+
+	Members(final int[] nmembers) {
+	    members = nmembers;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+	    return (o instanceof Members)
+		&& Arrays.equals(members, ((Members) o).members);
+	}
+
+	@Override
+	public int hashCode() {
+	    return Arrays.hashCode(members);
+	}
+    }
+
+    /**
+     * Build the index of each of the archives named on the command line.
+     *
+     * @param args the names of the zip archives to index
+     */
+    public static void main(final String[] args) {
+	if (args.length == 0) {
+	    System.err.println("Usage: zipindex zipfile ...");
+	    System.exit(1);
+	}
+	for (String zipname : args) {
+	    try {
+		ZipArchiveIndex zai = build(zipname);
+		System.out.println("Indexed " + zipname + ": " + zai.size()
+				   + " entries, " + zai.ids.length
+				   + " kstats");
+	    } catch (IOException ioe) {
+		System.err.println("Unable to index " + zipname + ": "
+				   + ioe.getMessage());
+	    }
+	}
+    }
+}
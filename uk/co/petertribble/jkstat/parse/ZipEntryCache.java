@@ -0,0 +1,275 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.parse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import uk.co.petertribble.jkstat.api.KstatSnapshot;
+
+/**
+ * Decodes and holds the entries of a zip file of JSON kstat data, shared
+ * by all the {@code ParseableJSONZipJKstat} instances stepping through that
+ * file. Decoded entries are kept in a least recently used cache bounded by
+ * their estimated size in memory, and the entries either side of the one
+ * most recently asked for can be decoded ahead of time in the background.
+ * If the zip file has an up to date {@code ZipArchiveIndex}, that is
+ * loaded too, so that individual kstats can be read without decoding
+ * whole entries.
+ *
+ * @author Peter Tribble
+ */
+final class ZipEntryCache {
+
+    private final ZipFile zf;
+    private final ZipEntry[] inputs;
+    private final long maxBytes;
+    private final int readAhead;
+    private final ZipArchiveIndex index;
+
+    /*
+     * The cached entries, in access order, along with their total estimated
+     * size. Read-ahead that hasn't yet been asked for is held separately,
+     * so it's never evicted by the entries it's meant to precede.
+     */
+    private final LinkedHashMap<Integer, KstatSnapshot> lru
+	= new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final Map<Integer, Future<KstatSnapshot>> pending
+	= new HashMap<>();
+    private ExecutorService executor;
+
+    /*
+     * Create a cache for the given zip file, holding at most maxbytes of
+     * decoded entries, and decoding nahead entries in advance.
+     */
+    ZipEntryCache(final ZipFile zfile, final long maxbytes,
+		  final int nahead) {
+	zf = zfile;
+	maxBytes = maxbytes;
+	readAhead = nahead;
+	inputs = sortedEntries(zf);
+	ZipArchiveIndex zai;
+	try {
+	    zai = ZipArchiveIndex.open(zf.getName());
+	} catch (IOException ioe) {
+	    // the index is only an optimization, so just do without
+	    zai = null;
+	}
+	index = ((zai != null) && zai.matches(inputs)) ? zai : null;
+    }
+
+    /*
+     * Return the entries of a zip file, in time order.
+     */
+    static ZipEntry[] sortedEntries(final ZipFile zfile) {
+	List<ZipEntry> al = new ArrayList<>();
+	for (Enumeration<? extends ZipEntry> e
+		 = zfile.entries(); e.hasMoreElements();) {
+	    al.add(e.nextElement());
+	}
+	al.sort(Comparator.comparingLong(ZipEntry::getTime));
+	return al.toArray(new ZipEntry[0]);
+    }
+
+    /*
+     * The index of the zip file, or null if it has none.
+     */
+    ZipArchiveIndex getIndex() {
+	return index;
+    }
+
+    /*
+     * The zip file itself.
+     */
+    ZipFile getZipFile() {
+	return zf;
+    }
+
+    /*
+     * Find the last entry at or before the given time, or -1 if every entry
+     * is later.
+     */
+    int find(final long time) {
+	int lo = 0;
+	int hi = inputs.length - 1;
+	int found = -1;
+	while (lo <= hi) {
+	    int mid = (lo + hi) >>> 1;
+	    if (inputs[mid].getTime() <= time) {
+		found = mid;
+		lo = mid + 1;
+	    } else {
+		hi = mid - 1;
+	    }
+	}
+	return found;
+    }
+
+    /*
+     * The number of entries in the zip file.
+     */
+    int size() {
+	return inputs.length;
+    }
+
+    /*
+     * The time of the given entry.
+     */
+    long getTime(final int i) {
+	return inputs[i].getTime();
+    }
+
+    /*
+     * Return the given entry, decoded, and then start decoding the entries
+     * following it in the given direction of travel, which is +1 for
+     * forwards and -1 for backwards.
+     */
+    KstatSnapshot get(final int i, final int direction) {
+	KstatSnapshot snap;
+	Future<KstatSnapshot> f;
+	synchronized (this) {
+	    snap = lru.get(i);
+	    f = (snap == null) ? pending.remove(i) : null;
+	}
+	if (snap == null) {
+	    snap = (f == null) ? decode(i) : await(f, i);
+	    cache(i, snap);
+	}
+	if (readAhead > 0) {
+	    prefetch(i, direction);
+	}
+	return snap;
+    }
+
+    /*
+     * Wait for a read-ahead to complete. If it failed, decode the entry
+     * again here so that any error is reported in the usual way.
+     */
+    private KstatSnapshot await(final Future<KstatSnapshot> f, final int i) {
+	try {
+	    return f.get();
+	} catch (InterruptedException ie) {
+	    Thread.currentThread().interrupt();
+	    return decode(i);
+	} catch (ExecutionException ee) {
+	    return decode(i);
+	}
+    }
+
+    /*
+     * Add a decoded entry to the cache, evicting the least recently used
+     * entries until we're back under the limit. The entry just added is
+     * never evicted, so the cache always holds at least one entry.
+     */
+    private synchronized void cache(final int i, final KstatSnapshot snap) {
+	if ((maxBytes <= 0) || lru.containsKey(i)) {
+	    return;
+	}
+	lru.put(i, snap);
+	bytes += estimate(i);
+	Iterator<Integer> iter = lru.keySet().iterator();
+	while ((bytes > maxBytes) && (lru.size() > 1)) {
+	    int old = iter.next();
+	    iter.remove();
+	    bytes -= estimate(old);
+	}
+    }
+
+    /*
+     * Schedule decoding of the entries after i in the direction of travel,
+     * and forget any read-ahead that's no longer in that window, such as
+     * when the direction has been reversed.
+     */
+    private synchronized void prefetch(final int i, final int direction) {
+	int dir = (direction < 0) ? -1 : 1;
+	Iterator<Map.Entry<Integer, Future<KstatSnapshot>>> iter
+	    = pending.entrySet().iterator();
+	while (iter.hasNext()) {
+	    Map.Entry<Integer, Future<KstatSnapshot>> me = iter.next();
+	    int ahead = (me.getKey() - i) * dir;
+	    if ((ahead <= 0) || (ahead > readAhead)) {
+		me.getValue().cancel(false);
+		iter.remove();
+	    }
+	}
+	if (executor == null) {
+	    /*
+	     * Parsing an entry can take longer than displaying it, so use
+	     * as many threads as we can spare to keep ahead.
+	     */
+	    int nthreads = Math.min(readAhead,
+		Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+	    executor = Executors.newFixedThreadPool(nthreads, r -> {
+		    Thread t = new Thread(r, "jkstat zip read-ahead");
+		    t.setDaemon(true);
+		    return t;
+		});
+	}
+	for (int n = 1; n <= readAhead; n++) {
+	    int j = i + (n * dir);
+	    if ((j < 0) || (j >= inputs.length)) {
+		break;
+	    }
+	    if (!lru.containsKey(j) && !pending.containsKey(j)) {
+		pending.put(j, executor.submit(() -> decode(j)));
+	    }
+	}
+    }
+
+    /*
+     * Parse an entry. If it can't be read, it's treated as holding no
+     * kstats.
+     */
+    private KstatSnapshot decode(final int i) {
+	try {
+	    JSONParser jp = new JSONParser(zf.getInputStream(inputs[i]));
+	    return new KstatSnapshot(inputs[i].getTime(), jp.getKstats());
+	} catch (IOException ioe) {
+	    return new KstatSnapshot(inputs[i].getTime(),
+				     Collections.emptySet());
+	}
+    }
+
+    /*
+     * Estimate the memory used by a decoded entry. The objects parsed from
+     * an entry take up roughly as much space as the JSON text, which is the
+     * uncompressed size of the entry.
+     */
+    private long estimate(final int i) {
+	long size = inputs[i].getSize();
+	return (size < 0) ? inputs[i].getCompressedSize() * 10 : size;
+    }
+}
@@ -21,16 +21,18 @@
 package uk.co.petertribble.jkstat.server;
 
 import java.util.Set;
-import uk.co.petertribble.jkstat.api.*;
+import uk.co.petertribble.jkstat.api.Kstat;
 
 /**
  * The actual implementation of the MBean exposing JKstat data over JMX.
+ * Kstats are served from the shared {@code KstatSampleCache}.
  *
  * @author Peter Tribble
  */
 public final class JKstatMX implements JKstatMXMBean {
 
-    private static final JKstat JKSTAT = new NativeJKstat();
+    private static final KstatSampleCache JKSTAT
+	= KstatSampleCache.getShared();
 
     /**
      * Return the full Set of Kstats.
@@ -53,4 +55,14 @@ public final class JKstatMX implements JKstatMXMBean {
 			       final String name, final String statistic) {
 	return JKSTAT.getKstat(module, inst, name).getData(statistic);
     }
+
+    @Override
+    public long getCacheHits() {
+	return JKSTAT.getHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+	return JKSTAT.getMisses();
+    }
 }
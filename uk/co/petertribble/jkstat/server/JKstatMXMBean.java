@@ -60,4 +60,18 @@ public interface JKstatMXMBean {
      */
      Object getKstatData(String module, int inst, String name,
 			String statistic);
+
+    /**
+     * Return the number of kstat lookups served from the server's cache.
+     *
+     * @return the number of cache hits
+     */
+    long getCacheHits();
+
+    /**
+     * Return the number of kstat lookups that had to read the kstats.
+     *
+     * @return the number of cache misses
+     */
+    long getCacheMisses();
 }
@@ -20,19 +20,21 @@
 
 package uk.co.petertribble.jkstat.server;
 
-import uk.co.petertribble.jkstat.api.*;
-
 /**
  * This is the core of the Kstat server.
  *
  * <p>XML-RPC has significant limitations on available data types. Using JSON as
  * the serialized form means we just pass Strings, avoiding the limitations.
  *
+ * <p>Kstats are served from the shared {@code KstatSampleCache}, so clients
+ * asking for the same kstat within a quantum share a single read.
+ *
  * @author Peter Tribble
  */
 public class JKstatServer {
 
-    private static final JKstat JKSTAT = new NativeJKstat();
+    private static final KstatSampleCache JKSTAT
+	= KstatSampleCache.getShared();
 
     /**
      * Return the current Kstat chain ID.
@@ -49,7 +51,7 @@ public class JKstatServer {
      * @return the List of available Kstats
      */
     public String listKstats() {
-	return new KstatSet(JKSTAT).toJSON();
+	return JKSTAT.listJSON();
     }
 
     /**
@@ -64,7 +66,23 @@ public class JKstatServer {
      */
     public String kstat(final String module, final int instance,
 			final String name) {
-	Kstat ks = JKSTAT.getKstat(module, instance, name);
-	return (ks == null) ? "" : ks.toJSON();
+	return JKSTAT.getJSON(module, instance, name);
+    }
+
+    /**
+     * Return the kstats matching the given module, instance, and name as a
+     * serialized JSON String, reading them all at once. The module and name
+     * may each be a semicolon-separated list, and the instance may be "*".
+     *
+     * @param module the requested Kstat module, or modules
+     * @param instance the requested Kstat instance, or "*"
+     * @param name the requested Kstat name, or names
+     *
+     * @return JSON mapping each requested name to an array of the matching
+     * Kstats
+     */
+    public String mget(final String module, final String instance,
+		       final String name) {
+	return JKSTAT.mget(module, instance, name);
     }
 }
@@ -0,0 +1,485 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import uk.co.petertribble.jkstat.api.KstatUpdate;
+
+/**
+ * A kstat server speaking the same REST protocol as the jkrest web
+ * application, so that it can be used by a {@code JsonJKstat} client,
+ * but built on the HTTP server in the JDK rather than needing a servlet
+ * container. Requests are served from a {@code KstatSampleCache}.
+ *
+ * <p>The paths get/module/instance/name, list, getkcid, and
+ * mget/module/instance/names are served under /kstat/, just as the web
+ * application maps them. Responses carry an entity tag, and a request
+ * whose If-None-Match header matches it gets a 304 Not Modified response
+ * without a body. Clients that accept gzip are sent larger responses
+ * compressed, and large responses are written out as they're serialized
+ * rather than being built in memory first.
+ *
+ * <p>In addition, subscribe?filter=spec&amp;interval=ms opens a stream of
+ * server-sent events, each a {@code KstatUpdate} holding the changes to
+ * the kstats matched by the given filters since the previous event. There
+ * may be any number of filter and exclude parameters, which are
+ * interpreted as by {@code KstatFilter}. A subscriber that can't keep up
+ * misses intermediate events rather than having them queued. Each
+ * subscriber holds a request thread for as long as it stays subscribed,
+ * so the number of subscribers is limited, and any more are turned away
+ * with a 503 Service Unavailable response.
+ *
+ * <p>Where the JVM supports virtual threads, each request is handled on
+ * its own virtual thread, so that thousands of concurrent pollers cost
+ * very little.
+ *
+ * @author Peter Tribble
+ */
+public final class KRestServer {
+
+    /**
+     * The path under which requests are served.
+     */
+    public static final String CONTEXT = "/kstat/";
+
+    private static final int BACKLOG = 1024;
+    private static final byte[] EMPTY = new byte[0];
+    /*
+     * Responses smaller than this aren't compressed.
+     */
+    private static final int MIN_COMPRESS = 1024;
+    private static final int BUFSIZE = 8192;
+    /*
+     * The default and minimum intervals between subscription updates.
+     */
+    private static final long DEFAULT_INTERVAL = 1000L;
+    private static final long MIN_INTERVAL = 100L;
+    /*
+     * The most subscribers served at once. Without virtual threads each
+     * holds a platform thread, and the request pool isn't bounded.
+     */
+    private static final int MAX_SUBSCRIBERS = 256;
+    private static final String RETRY_AFTER = "10";
+
+    private final KstatSampleCache cache;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService ticker;
+    private final Semaphore subscribers = new Semaphore(MAX_SUBSCRIBERS);
+    private volatile boolean running = true;
+
+    /**
+     * Create a REST server on the given port, serving kstats from the
+     * given cache. The server must be started with {@link #start}.
+     *
+     * @param port the port to listen on, or 0 to pick a free port
+     * @param ncache the {@code KstatSampleCache} to serve kstats from
+     *
+     * @throws IOException if the server cannot listen on the port
+     */
+    public KRestServer(final int port, final KstatSampleCache ncache)
+	    throws IOException {
+	cache = ncache;
+	server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+	server.createContext(CONTEXT, this::handle);
+	executor = newExecutor();
+	server.setExecutor(executor);
+	/*
+	 * A tick just samples the subscribed kstats from the cache, and the
+	 * changes are worked out on the subscriber's own thread, so ticks
+	 * are short, and cost CPU rather than waiting. One thread per
+	 * processor keeps every processor busy with them; more would only
+	 * queue for a processor, and any fewer would let a few slow cache
+	 * misses delay everyone else's updates.
+	 */
+	ticker = Executors.newScheduledThreadPool(
+			Runtime.getRuntime().availableProcessors(), r -> {
+			    Thread t = new Thread(r, "KRestServer ticker");
+			    t.setDaemon(true);
+			    return t;
+			});
+    }
+
+    /**
+     * Tune the JDK HTTP server for serving many pollers, by setting the
+     * system properties it reads, unless they have already been set.
+     * Responses are small, and are written as headers then body, so
+     * without nodelay Nagle's algorithm and delayed acks would hold each
+     * response back for tens of milliseconds. And by default only 200 idle
+     * connections are kept open, so that with more pollers than that,
+     * connections would be closed under clients about to reuse them.
+     *
+     * <p>These properties affect every HTTP server in the JVM, so this is
+     * left to applications to call, and must be called before the first
+     * HTTP server is created.
+     */
+    public static void setDefaultProperties() {
+	defaultProperty("sun.net.httpserver.nodelay", "true");
+	defaultProperty("sun.net.httpserver.maxIdleConnections", "16384");
+    }
+
+    private static void defaultProperty(final String key,
+					final String value) {
+	if (System.getProperty(key) == null) {
+	    System.setProperty(key, value);
+	}
+    }
+
+    /**
+     * Return an {@code ExecutorService} that runs each task on a new
+     * virtual thread if the JVM supports them, or on a cached pool of
+     * platform threads if not.
+     *
+     * @return a new {@code ExecutorService}
+     */
+    public static ExecutorService newExecutor() {
+	try {
+	    Method m = Executors.class.getMethod(
+				"newVirtualThreadPerTaskExecutor");
+	    return (ExecutorService) m.invoke(null);
+	} catch (ReflectiveOperationException e) {
+	    return Executors.newCachedThreadPool();
+	}
+    }
+
+    /**
+     * Start serving requests.
+     */
+    public void start() {
+	server.start();
+    }
+
+    /**
+     * Stop serving requests, closing any open connections.
+     */
+    public void stop() {
+	running = false;
+	ticker.shutdownNow();
+	server.stop(0);
+	executor.shutdown();
+    }
+
+    /**
+     * Return the port this server is listening on.
+     *
+     * @return the port this server is listening on
+     */
+    public int getPort() {
+	return server.getAddress().getPort();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+	try {
+	    if (!"GET".equals(exchange.getRequestMethod())) {
+		send(exchange, 405, EMPTY);
+		return;
+	    }
+	    /*
+	     * getPath() decodes escaped separators, so that "%3B" in an
+	     * mget request becomes ";" as the jkrest resources would see.
+	     */
+	    String[] args = exchange.getRequestURI().getPath()
+		.substring(CONTEXT.length()).split("/");
+	    if ("subscribe".equals(args[0]) && (args.length == 1)) {
+		subscribe(exchange);
+		return;
+	    }
+	    KstatSampleCache.Sample sample;
+	    try {
+		sample = respond(args);
+	    } catch (NumberFormatException nfe) {
+		send(exchange, 400, EMPTY);
+		return;
+	    } catch (RuntimeException re) {
+		send(exchange, 500, EMPTY);
+		return;
+	    }
+	    if (sample == null) {
+		send(exchange, 404, EMPTY);
+		return;
+	    }
+	    /*
+	     * Small responses aren't worth compressing, but those that are
+	     * kept compressed or whose size isn't known always are.
+	     */
+	    boolean compress = acceptsGzip(exchange.getRequestHeaders()
+					.getFirst("Accept-Encoding"))
+		&& ((sample.getCompressed() != null)
+		    || (sample.getLength() < 0)
+		    || (sample.getLength() >= MIN_COMPRESS));
+	    Headers headers = exchange.getResponseHeaders();
+	    headers.set("Vary", "Accept-Encoding");
+	    String etag = sample.getETag();
+	    if (etag != null) {
+		/*
+		 * The compressed form is a different representation, so
+		 * needs a different tag.
+		 */
+		etag = "\"" + etag + (compress ? "-gzip\"" : "\"");
+		headers.set("ETag", etag);
+		if (matches(exchange.getRequestHeaders()
+			    .getFirst("If-None-Match"), etag)) {
+		    send(exchange, 304, EMPTY);
+		    return;
+		}
+	    }
+	    if (compress) {
+		sendCompressed(exchange, sample);
+	    } else if (sample.getLength() < 0) {
+		headers.set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, 0);
+		try (OutputStream os = exchange.getResponseBody()) {
+		    sample.writeJSON(os);
+		}
+	    } else {
+		send(exchange, 200, sample.getBytes());
+	    }
+	} finally {
+	    exchange.close();
+	}
+    }
+
+    /*
+     * Return the response to the given request, or null if there's no
+     * such request or no such kstat.
+     */
+    private KstatSampleCache.Sample respond(final String[] args) {
+	String method = args[0];
+	if ("get".equals(method) && (args.length == 4)) {
+	    KstatSampleCache.Sample s = cache.getSample(args[1],
+			Integer.parseInt(args[2]), args[3]);
+	    return (s.getKstat() == null) ? null : s;
+	} else if ("list".equals(method) && (args.length == 1)) {
+	    return cache.getList();
+	} else if ("getkcid".equals(method) && (args.length == 1)) {
+	    return new KstatSampleCache.Sample(null,
+			Integer.toString(cache.getKCID()), null, 0L);
+	} else if ("mget".equals(method) && (args.length == 4)) {
+	    return cache.getMget(args[1], args[2], args[3]);
+	}
+	return null;
+    }
+
+    /*
+     * Stream updates to a subscriber until it goes away or we're stopped.
+     * Each update is sent as a server-sent event, flushed through the
+     * compressor if the subscriber accepts gzip. An update is sent every
+     * interval even if nothing has changed, which tells the subscriber
+     * we're still here, and tells us if it isn't.
+     */
+    private void subscribe(final HttpExchange exchange) throws IOException {
+	List<String> filters = new ArrayList<>();
+	List<String> excludes = new ArrayList<>();
+	long interval = DEFAULT_INTERVAL;
+	String query = exchange.getRequestURI().getRawQuery();
+	try {
+	    for (String param : (query == null) ? new String[0]
+		     : query.split("&")) {
+		int i = param.indexOf('=');
+		if (i < 0) {
+		    continue;
+		}
+		String key = param.substring(0, i);
+		String value = URLDecoder.decode(param.substring(i + 1),
+						 StandardCharsets.UTF_8);
+		if ("filter".equals(key)) {
+		    filters.add(value);
+		} else if ("exclude".equals(key)) {
+		    excludes.add(value);
+		} else if ("interval".equals(key)) {
+		    interval = Math.max(MIN_INTERVAL, Long.parseLong(value));
+		}
+	    }
+	} catch (IllegalArgumentException iae) {
+	    send(exchange, 400, EMPTY);
+	    return;
+	}
+	if (!subscribers.tryAcquire()) {
+	    exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER);
+	    send(exchange, 503, EMPTY);
+	    return;
+	}
+	try {
+	    stream(exchange, new KstatSubscription(cache, filters, excludes,
+						   interval), interval);
+	} finally {
+	    subscribers.release();
+	}
+    }
+
+    /*
+     * Send updates from a subscription until the subscriber goes away or
+     * we're stopped.
+     */
+    private void stream(final HttpExchange exchange,
+			final KstatSubscription sub, final long interval)
+	    throws IOException {
+	boolean compress = acceptsGzip(exchange.getRequestHeaders()
+					.getFirst("Accept-Encoding"));
+	Headers headers = exchange.getResponseHeaders();
+	headers.set("Content-Type", "text/event-stream");
+	headers.set("Cache-Control", "no-cache");
+	if (compress) {
+	    headers.set("Content-Encoding", "gzip");
+	}
+	exchange.sendResponseHeaders(200, 0);
+	/*
+	 * A failed tick mustn't cancel the schedule, the next may succeed.
+	 */
+	ScheduledFuture<?> ticks = ticker.scheduleAtFixedRate(() -> {
+		try {
+		    sub.tick();
+		} catch (RuntimeException re) {
+		    // skip this update
+		}
+	    }, 0L, interval, TimeUnit.MILLISECONDS);
+	OutputStream os = compress
+	    ? new GZIPOutputStream(exchange.getResponseBody(), BUFSIZE, true)
+	    : exchange.getResponseBody();
+	try (Writer w = new BufferedWriter(
+			new OutputStreamWriter(os, StandardCharsets.UTF_8),
+			BUFSIZE)) {
+	    while (running) {
+		KstatUpdate ku = sub.next(2 * interval);
+		if (ku != null) {
+		    w.write("id: " + ku.getSequence() + "\nevent: "
+			    + (ku.isFull() ? "full" : "delta") + "\ndata: ");
+		    ku.writeJSON(w);
+		    w.write("\n\n");
+		    w.flush();
+		}
+	    }
+	} catch (IOException ioe) {
+	    // the subscriber has gone away
+	} catch (InterruptedException ie) {
+	    Thread.currentThread().interrupt();
+	} finally {
+	    ticks.cancel(false);
+	}
+    }
+
+    /*
+     * Whether an If-None-Match header matches the given quoted tag. The
+     * comparison is weak, as it should be for If-None-Match.
+     */
+    private static boolean matches(final String header, final String etag) {
+	if (header == null) {
+	    return false;
+	}
+	for (String tag : header.split(",")) {
+	    String t = tag.trim();
+	    if (t.startsWith("W/")) {
+		t = t.substring(2);
+	    }
+	    if ("*".equals(t) || etag.equals(t)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /*
+     * Whether an Accept-Encoding header allows a gzip response.
+     */
+    private static boolean acceptsGzip(final String header) {
+	if (header == null) {
+	    return false;
+	}
+	for (String coding : header.split(",")) {
+	    String[] parts = coding.split(";");
+	    String name = parts[0].trim();
+	    if ("gzip".equalsIgnoreCase(name)
+		    || "x-gzip".equalsIgnoreCase(name)) {
+		for (int i = 1; i < parts.length; i++) {
+		    String param = parts[i].trim();
+		    if (param.startsWith("q=")) {
+			try {
+			    return Double.parseDouble(param.substring(2)) > 0;
+			} catch (NumberFormatException nfe) {
+			    return false;
+			}
+		    }
+		}
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /*
+     * Send a sample gzip compressed. If it's kept compressed we can just
+     * send it, otherwise it's compressed as it's written, a piece at a
+     * time, using chunked encoding as we don't know how long it will be.
+     */
+    private static void sendCompressed(final HttpExchange exchange,
+				       final KstatSampleCache.Sample sample)
+	    throws IOException {
+	Headers headers = exchange.getResponseHeaders();
+	headers.set("Content-Type", "application/json");
+	headers.set("Content-Encoding", "gzip");
+	byte[] z = sample.getCompressed();
+	if (z != null) {
+	    exchange.sendResponseHeaders(200, z.length);
+	    try (OutputStream os = exchange.getResponseBody()) {
+		os.write(z);
+	    }
+	} else {
+	    exchange.sendResponseHeaders(200, 0);
+	    try (OutputStream os = new GZIPOutputStream(
+				exchange.getResponseBody(), BUFSIZE)) {
+		sample.writeJSON(os);
+	    }
+	}
+    }
+
+    private static void send(final HttpExchange exchange, final int code,
+			     final byte[] body) throws IOException {
+	exchange.getResponseHeaders().set("Content-Type", "application/json");
+	exchange.sendResponseHeaders(code,
+				     (body.length == 0) ? -1 : body.length);
+	if (body.length > 0) {
+	    try (OutputStream os = exchange.getResponseBody()) {
+		os.write(body);
+	    }
+	}
+    }
+}
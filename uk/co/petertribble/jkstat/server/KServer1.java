@@ -46,6 +46,7 @@ public final class KServer1 {
      * @param config the configuration to be applied
      */
     public KServer1(final KServerConfig config) {
+	KstatSampleCache.getShared().setQuantum(config.getQuantum());
 	try {
 	    WebServer webServer = new WebServer(config.getPort());
 	    XmlRpcServer xmlRpcServer = webServer.getXmlRpcServer();
@@ -57,6 +58,10 @@ public final class KServer1 {
 	    serverConfig.setContentLengthOptional(false);
 
 	    webServer.start();
+	    if (config.getRestPort() != 0) {
+		new KRestServer(config.getRestPort(),
+				KstatSampleCache.getShared()).start();
+	    }
 	    if (config.shouldRegister()) {
 		registerService(config);
 	    }
@@ -93,18 +98,22 @@ public final class KServer1 {
     }
 
     private static void usage() {
-	System.err.println("Usage: server [-m] [-p port | -f config_file]");
+	System.err.println("Usage: server [-m] [-q quantum] [-r rest_port]"
+			   + " [-p port | -f config_file]");
 	System.exit(1);
     }
 
     /**
      * Start the server. A -p argument specifies a listener port, default
      * 8080. A -f argument specifies a configuration file. A -m argument
-     * causes the server to be registered in mdns.
+     * causes the server to be registered in mdns. A -q argument specifies
+     * the interval, in milliseconds, for which kstats are cached. A -r
+     * argument specifies a port on which to also serve kstats via REST.
      *
      * @param args command line arguments
      */
     public static void main(final String[] args) {
+	KRestServer.setDefaultProperties();
 	KServerConfig config = new KServerConfig();
 	int i = 0;
 	while (i < args.length) {
@@ -121,6 +130,28 @@ public final class KServer1 {
 		} else {
 		    usage();
 		}
+	    } else if ("-q".equals(args[i])) {
+		if (i + 1 < args.length) {
+		    i++;
+		    try {
+			config.setQuantum(Long.parseLong(args[i]));
+		    } catch (NumberFormatException nfe) {
+			usage();
+		    }
+		} else {
+		    usage();
+		}
+	    } else if ("-r".equals(args[i])) {
+		if (i + 1 < args.length) {
+		    i++;
+		    try {
+			config.setRestPort(Integer.parseInt(args[i]));
+		    } catch (NumberFormatException nfe) {
+			usage();
+		    }
+		} else {
+		    usage();
+		}
 	    } else if ("-f".equals(args[i])) {
 		if (i + 1 < args.length) {
 		    i++;
@@ -38,10 +38,15 @@ import uk.co.petertribble.jumble.JumbleUtils;
 public final class KServerConfig {
 
     private int port = 8080;
+    private long quantum = KstatSampleCache.DEFAULT_QUANTUM;
+    private int restport;
     private boolean registermdns;
 
     /**
-     * Configure a KServerConfig from a configuration file.
+     * Configure a KServerConfig from a configuration file. The file must
+     * specify the Port, and may specify the Quantum, the interval in
+     * milliseconds for which kstats are cached, and the RestPort, on which
+     * a REST server will also listen.
      *
      * @param f the file to be read containing the configuration
      */
@@ -54,6 +59,22 @@ public final class KServerConfig {
 		port = 0;
 		System.err.println("Invalid config file");
 	    }
+	    String squantum = m.get("Quantum");
+	    if (squantum != null) {
+		try {
+		    quantum = Long.parseLong(squantum);
+		} catch (NumberFormatException nfe) {
+		    System.err.println("Invalid Quantum in config file");
+		}
+	    }
+	    String srestport = m.get("RestPort");
+	    if (srestport != null) {
+		try {
+		    restport = Integer.parseInt(srestport);
+		} catch (NumberFormatException nfe) {
+		    System.err.println("Invalid RestPort in config file");
+		}
+	    }
 	} else {
 	    System.err.println("Missing config file");
 	}
@@ -188,4 +209,41 @@ public final class KServerConfig {
     void setPort(final int nport) {
 	port = nport;
     }
+
+    /**
+     * Get the interval for which kstats are cached.
+     *
+     * @return the cache quantum, in milliseconds
+     */
+    public long getQuantum() {
+	return quantum;
+    }
+
+    /**
+     * Set the interval for which kstats are cached.
+     *
+     * @param nquantum the cache quantum, in milliseconds
+     */
+    void setQuantum(final long nquantum) {
+	quantum = nquantum;
+    }
+
+    /**
+     * Get the port the REST server should listen on.
+     *
+     * @return the REST port number, or 0 if no REST server should be run
+     */
+    public int getRestPort() {
+	return restport;
+    }
+
+    /**
+     * Set the port the REST server should listen on.
+     *
+     * @param nport the REST port number, or 0 if no REST server should be
+     * run
+     */
+    void setRestPort(final int nport) {
+	restport = nport;
+    }
 }
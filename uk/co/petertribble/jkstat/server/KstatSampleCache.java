@@ -0,0 +1,721 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.server;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import uk.co.petertribble.jkstat.api.JKstat;
+import uk.co.petertribble.jkstat.api.Kstat;
+import uk.co.petertribble.jkstat.api.KstatChain;
+import uk.co.petertribble.jkstat.api.KstatMultiGet;
+import uk.co.petertribble.jkstat.api.KstatSet;
+import uk.co.petertribble.jkstat.api.KstatUtil;
+import uk.co.petertribble.jkstat.api.NativeJKstat;
+
+/**
+ * A cache of sampled kstats, shared by the server front ends. Each kstat
+ * is read from the underlying {@code JKstat} at most once per quantum, and
+ * the resulting {@code Kstat} is kept along with its serialized form, so
+ * that any number of clients asking for the same kstat within a quantum
+ * are served the same data without reading or serializing it again.
+ *
+ * <p>The chain id, and the JSON listing of the kstat chain, are likewise
+ * sampled once per quantum and once per chain generation respectively.
+ *
+ * <p>The {@code Kstat}s returned are shared between all callers, and must
+ * not be modified.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatSampleCache extends JKstat {
+
+    /**
+     * The default quantum, in milliseconds.
+     */
+    public static final long DEFAULT_QUANTUM = 1000L;
+
+    /*
+     * Samples are evicted once they're this old, or ten quanta, whichever
+     * is longer, so that kstats nobody asks for any more don't accumulate.
+     */
+    private static final long EVICT_AGE = 60000L;
+
+    private static KstatSampleCache shared;
+
+    private final JKstat jkstat;
+    private volatile long quantum;
+
+    private final Map<Kstat, Sample> samples = new ConcurrentHashMap<>();
+    /*
+     * The kstats being read from the underlying JKstat. A crowd of clients
+     * asking for the same stale kstat wait for the one read in progress,
+     * while reads of different kstats go ahead in parallel.
+     */
+    private final Map<Kstat, CompletableFuture<Sample>> inflight
+	= new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(now());
+    private volatile KcidSample kcidSample;
+    private volatile ListSample listSample;
+
+    /*
+     * Prefixes every entity tag, so that tags from before a restart, when
+     * the chain id and snapshot times may start again, aren't matched.
+     */
+    private final String epoch
+	= Long.toString(System.currentTimeMillis(), 36) + "-";
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /*
+     * Something that can write a response as JSON, a piece at a time.
+     */
+    @FunctionalInterface
+    interface JSONWriter {
+	void write(Appendable out) throws IOException;
+    }
+
+    /**
+     * One sampled response, holding the sampled {@code Kstat} if there is
+     * one, its serialized JSON form, and an entity tag that changes
+     * whenever the serialized form might.
+     *
+     * <p>Large responses, such as the list of kstats, aren't held as JSON.
+     * They are written out a piece at a time when asked for, and may be
+     * kept gzip compressed instead.
+     */
+    public static final class Sample {
+	private final Kstat kstat;
+	private final String json;
+	private final byte[] bytes;
+	private final JSONWriter writer;
+	private final byte[] compressed;
+	private final String etag;
+	private final long time;
+
+	Sample(final Kstat nkstat, final String njson, final String netag,
+	       final long ntime) {
+	    kstat = nkstat;
+	    json = njson;
+	    bytes = json.getBytes(StandardCharsets.UTF_8);
+	    writer = null;
+	    compressed = null;
+	    etag = netag;
+	    time = ntime;
+	}
+
+	Sample(final JSONWriter nwriter, final boolean compress,
+	       final String netag, final long ntime) {
+	    kstat = null;
+	    json = null;
+	    bytes = null;
+	    writer = nwriter;
+	    etag = netag;
+	    time = ntime;
+	    byte[] z = null;
+	    if (compress) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (GZIPOutputStream gz = new GZIPOutputStream(baos)) {
+		    writeJSON(gz);
+		} catch (IOException ioe) {
+		    // can't happen, we're writing to memory
+		}
+		z = baos.toByteArray();
+	    }
+	    compressed = z;
+	}
+
+	/**
+	 * Return the sampled {@code Kstat}.
+	 *
+	 * @return the sampled {@code Kstat}, or null if the kstat didn't
+	 * exist when sampled, or this sample isn't of a single kstat
+	 */
+	public Kstat getKstat() {
+	    return kstat;
+	}
+
+	/**
+	 * Return this sample as a JSON String. For a large response, the
+	 * String is built afresh each time, and {@link #writeJSON} should be
+	 * preferred.
+	 *
+	 * @return the JSON form of this sample, or an empty String if the
+	 * kstat didn't exist when sampled
+	 */
+	public String getJSON() {
+	    if (json != null) {
+		return json;
+	    }
+	    StringBuilder sb = new StringBuilder();
+	    try {
+		writer.write(sb);
+	    } catch (IOException ioe) {
+		// can't happen, a StringBuilder doesn't throw
+	    }
+	    return sb.toString();
+	}
+
+	/**
+	 * Return this sample as UTF-8 encoded JSON. The returned array is
+	 * shared, and must not be modified. For a large response, the array
+	 * is built afresh each time, and {@link #writeJSON} should be
+	 * preferred.
+	 *
+	 * @return the UTF-8 encoded JSON form of this sample
+	 */
+	public byte[] getBytes() {
+	    return (bytes == null) ? getJSON().getBytes(StandardCharsets.UTF_8)
+		: bytes;
+	}
+
+	/**
+	 * Return the length of the UTF-8 encoded JSON form of this sample,
+	 * if it's known.
+	 *
+	 * @return the length in bytes of this sample, or -1 if this sample is
+	 * only ever written out a piece at a time
+	 */
+	public int getLength() {
+	    return (bytes == null) ? -1 : bytes.length;
+	}
+
+	/**
+	 * Write this sample as UTF-8 encoded JSON. Large responses are
+	 * written a piece at a time, without being held in memory. The
+	 * stream is flushed but not closed.
+	 *
+	 * @param os the {@code OutputStream} to write to
+	 *
+	 * @throws IOException if the sample cannot be written
+	 */
+	public void writeJSON(final OutputStream os) throws IOException {
+	    if (bytes != null) {
+		os.write(bytes);
+	    } else if (compressed != null) {
+		/*
+		 * Cheaper than serializing again, and needs no more memory
+		 * than the inflater's buffers.
+		 */
+		try (InputStream is = new GZIPInputStream(
+				new ByteArrayInputStream(compressed))) {
+		    is.transferTo(os);
+		}
+	    } else {
+		Writer w = new BufferedWriter(new OutputStreamWriter(os,
+						StandardCharsets.UTF_8));
+		writer.write(w);
+		w.flush();
+	    }
+	    os.flush();
+	}
+
+	/**
+	 * Return this sample as gzip compressed, UTF-8 encoded JSON, if it's
+	 * kept that way. The returned array is shared, and must not be
+	 * modified.
+	 *
+	 * @return the compressed form of this sample, or null if this sample
+	 * isn't kept compressed
+	 */
+	public byte[] getCompressed() {
+	    return compressed;
+	}
+
+	/**
+	 * Return the entity tag of this sample, without the surrounding
+	 * quotes. For a kstat, the tag is derived from its creation and
+	 * snapshot times; for a list of kstats, from the chain id; and for a
+	 * multiple get, from the snapshot times of all the kstats in it.
+	 * Tags also include the time the cache was created, so they aren't
+	 * reused if the server restarts.
+	 *
+	 * @return the entity tag of this sample, or null if the kstat didn't
+	 * exist when sampled
+	 */
+	public String getETag() {
+	    return etag;
+	}
+
+	/**
+	 * Return the time this sample was taken, in milliseconds as measured
+	 * by the cache's clock.
+	 *
+	 * @return the time this sample was taken
+	 */
+	public long getTime() {
+	    return time;
+	}
+    }
+
+    /*
+     * A sampled chain id.
+     */
+    private static final class KcidSample {
+	private final int kcid;
+	private final long time;
+
+	KcidSample(final int nkcid, final long ntime) {
+	    kcid = nkcid;
+	    time = ntime;
+	}
+    }
+
+    /*
+     * The listing of one generation of the chain.
+     */
+    private static final class ListSample {
+	private final KstatChain chain;
+	private final Sample sample;
+
+	ListSample(final KstatChain nchain, final Sample nsample) {
+	    chain = nchain;
+	    sample = nsample;
+	}
+    }
+
+    /**
+     * Create a cache sampling the given {@code JKstat}.
+     *
+     * @param njkstat the {@code JKstat} to be sampled
+     * @param nquantum the minimum interval between reads of any one kstat,
+     * in milliseconds
+     */
+    public KstatSampleCache(final JKstat njkstat, final long nquantum) {
+	jkstat = njkstat;
+	quantum = nquantum;
+    }
+
+    /*
+     * The cache's clock, in milliseconds.
+     */
+    private static long now() {
+	return System.nanoTime() / 1000000L;
+    }
+
+    /**
+     * Return the cache shared by all the server front ends in this JVM,
+     * creating it if necessary. The shared cache reads the native kstats,
+     * with a quantum taken from the {@code jkstat.server.quantum} system
+     * property if set, or {@link #DEFAULT_QUANTUM} otherwise.
+     *
+     * @return the shared {@code KstatSampleCache}
+     */
+    public static synchronized KstatSampleCache getShared() {
+	if (shared == null) {
+	    shared = new KstatSampleCache(new NativeJKstat(),
+		Long.getLong("jkstat.server.quantum", DEFAULT_QUANTUM));
+	}
+	return shared;
+    }
+
+    /**
+     * Set the quantum, the minimum interval between reads of any one kstat.
+     * A quantum of zero disables caching.
+     *
+     * @param nquantum the new quantum, in milliseconds
+     */
+    public void setQuantum(final long nquantum) {
+	quantum = nquantum;
+    }
+
+    /**
+     * Return the quantum, the minimum interval between reads of any one
+     * kstat.
+     *
+     * @return the quantum, in milliseconds
+     */
+    public long getQuantum() {
+	return quantum;
+    }
+
+    /**
+     * Return the number of kstat lookups served from the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getHits() {
+	return hits.sum();
+    }
+
+    /**
+     * Return the number of kstat lookups that had to read the underlying
+     * {@code JKstat}.
+     *
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+	return misses.sum();
+    }
+
+    /*
+     * Whether a sample taken at the given time is still current.
+     */
+    private boolean fresh(final long time, final long now) {
+	return (now - time) < quantum;
+    }
+
+    /**
+     * Return a current sample of the given kstat, reading it only if the
+     * cached sample is older than the quantum.
+     *
+     * @param module the kstat module
+     * @param inst the kstat instance
+     * @param name the kstat name
+     *
+     * @return a current {@code Sample} of the given kstat
+     */
+    public Sample getSample(final String module, final int inst,
+			    final String name) {
+	Kstat key = new Kstat(module, inst, name);
+	Sample s = samples.get(key);
+	if ((s != null) && fresh(s.time, now())) {
+	    hits.increment();
+	    return s;
+	}
+	CompletableFuture<Sample> mine = new CompletableFuture<>();
+	CompletableFuture<Sample> theirs = inflight.putIfAbsent(key, mine);
+	if (theirs != null) {
+	    hits.increment();
+	    return await(theirs);
+	}
+	long now = now();
+	try {
+	    /*
+	     * Another read may have finished since we looked.
+	     */
+	    s = samples.get(key);
+	    if ((s != null) && fresh(s.time, now)) {
+		hits.increment();
+	    } else {
+		misses.increment();
+		s = kstatSample(jkstat.getKstat(module, inst, name), now);
+		samples.put(key, s);
+	    }
+	    mine.complete(s);
+	} catch (RuntimeException e) {
+	    mine.completeExceptionally(e);
+	    throw e;
+	} finally {
+	    inflight.remove(key, mine);
+	}
+	sweep(now);
+	return s;
+    }
+
+    /*
+     * Wait for a read being made by another thread.
+     */
+    private static Sample await(final CompletableFuture<Sample> f) {
+	try {
+	    return f.join();
+	} catch (CompletionException ce) {
+	    if (ce.getCause() instanceof RuntimeException) {
+		throw (RuntimeException) ce.getCause();
+	    }
+	    throw ce;
+	}
+    }
+
+    /**
+     * Return the given kstat as a JSON String.
+     *
+     * @param module the kstat module
+     * @param inst the kstat instance
+     * @param name the kstat name
+     *
+     * @return JSON describing the kstat, or an empty String if the kstat
+     * doesn't exist
+     */
+    public String getJSON(final String module, final int inst,
+			  final String name) {
+	return getSample(module, inst, name).getJSON();
+    }
+
+    @Override
+    public Kstat getKstatObject(final String module, final int inst,
+				final String name) {
+	return getSample(module, inst, name).getKstat();
+    }
+
+    /**
+     * Retrieves a number of {@code Kstat}s. Those with a current sample are
+     * served from the cache, those already being read by another thread
+     * are waited for, and the remainder are read from the underlying
+     * {@code JKstat} all at once.
+     *
+     * @param lks the {@code Kstat}s to be read
+     *
+     * @return a {@code Map} from each requested {@code Kstat} to its
+     * sampled {@code Kstat}
+     */
+    @Override
+    public Map<Kstat, Kstat> getKstats(final Collection<Kstat> lks) {
+	Map<Kstat, Kstat> kmap = new HashMap<>();
+	Map<Kstat, CompletableFuture<Sample>> waiting = new HashMap<>();
+	Map<Kstat, CompletableFuture<Sample>> claimed = new HashMap<>();
+	long now = now();
+	for (Kstat ks : lks) {
+	    Sample s = samples.get(ks);
+	    if ((s != null) && fresh(s.time, now)) {
+		hits.increment();
+		put(kmap, ks, s);
+		continue;
+	    }
+	    Kstat key = new Kstat(ks.getModule(), ks.getInst(), ks.getName());
+	    CompletableFuture<Sample> mine = new CompletableFuture<>();
+	    CompletableFuture<Sample> theirs = inflight.putIfAbsent(key, mine);
+	    if (theirs != null) {
+		waiting.put(ks, theirs);
+	    } else {
+		claimed.put(key, mine);
+	    }
+	}
+	if (!claimed.isEmpty()) {
+	    read(claimed, kmap);
+	}
+	for (Map.Entry<Kstat, CompletableFuture<Sample>> me
+		 : waiting.entrySet()) {
+	    hits.increment();
+	    put(kmap, me.getKey(), await(me.getValue()));
+	}
+	return kmap;
+    }
+
+    /*
+     * Read the kstats we've claimed in one go, completing their futures
+     * and adding them to the map. Any that another read has refreshed
+     * since we looked aren't read again.
+     */
+    private void read(final Map<Kstat, CompletableFuture<Sample>> claimed,
+		      final Map<Kstat, Kstat> kmap) {
+	long now = now();
+	try {
+	    List<Kstat> toread = new ArrayList<>();
+	    for (Map.Entry<Kstat, CompletableFuture<Sample>> me
+		     : claimed.entrySet()) {
+		Sample s = samples.get(me.getKey());
+		if ((s != null) && fresh(s.time, now)) {
+		    hits.increment();
+		    put(kmap, me.getKey(), s);
+		    me.getValue().complete(s);
+		} else {
+		    toread.add(me.getKey());
+		}
+	    }
+	    if (!toread.isEmpty()) {
+		misses.add(toread.size());
+		Map<Kstat, Kstat> nmap = jkstat.getKstats(toread);
+		for (Kstat ks : toread) {
+		    Sample s = kstatSample(nmap.get(ks), now);
+		    samples.put(ks, s);
+		    put(kmap, ks, s);
+		    claimed.get(ks).complete(s);
+		}
+	    }
+	} catch (RuntimeException e) {
+	    for (CompletableFuture<Sample> f : claimed.values()) {
+		f.completeExceptionally(e);
+	    }
+	    throw e;
+	} finally {
+	    for (Map.Entry<Kstat, CompletableFuture<Sample>> me
+		     : claimed.entrySet()) {
+		inflight.remove(me.getKey(), me.getValue());
+	    }
+	}
+	sweep(now);
+    }
+
+    private static void put(final Map<Kstat, Kstat> kmap, final Kstat ks,
+			    final Sample s) {
+	if (s.kstat != null) {
+	    kmap.put(ks, s.kstat);
+	}
+    }
+
+    /*
+     * Create a sample of the given kstat, which may be null if the kstat
+     * doesn't exist.
+     */
+    private Sample kstatSample(final Kstat ks, final long now) {
+	if (ks == null) {
+	    return new Sample(null, "", null, now);
+	}
+	return new Sample(ks, ks.toJSON(), epoch
+			  + Long.toString(ks.getCrtime(), 36) + "-"
+			  + Long.toString(ks.getSnaptime(), 36), now);
+    }
+
+    /*
+     * Discard samples nobody has asked for in a while. Only the thread
+     * that moves the time of the last sweep on does the work.
+     */
+    private void sweep(final long now) {
+	long age = Math.max(EVICT_AGE, 10 * quantum);
+	long last = lastSweep.get();
+	if (((now - last) < age) || !lastSweep.compareAndSet(last, now)) {
+	    return;
+	}
+	samples.values().removeIf(s -> (now - s.time) >= age);
+    }
+
+    /**
+     * Return the kstats matching the given module, instance, and name as a
+     * serialized JSON String, as for
+     * {@link KstatUtil#mget(JKstat, String, String, String)}, using the
+     * cached JSON form of each kstat.
+     *
+     * @param module the requested Kstat module, or modules
+     * @param instance the requested Kstat instance, or "*"
+     * @param name the requested Kstat name, or names
+     *
+     * @return JSON mapping each requested name to an array of the matching
+     * Kstats
+     */
+    public String mget(final String module, final String instance,
+		       final String name) {
+	return getMget(module, instance, name).getJSON();
+    }
+
+    /**
+     * Return a sample of the kstats matching the given module, instance,
+     * and name, as for {@link #mget}. The entity tag of the sample is
+     * derived from the identity and snapshot time of each kstat included.
+     * The kstats are read straight away, but are only serialized as the
+     * sample is written.
+     *
+     * @param module the requested Kstat module, or modules
+     * @param instance the requested Kstat instance, or "*"
+     * @param name the requested Kstat name, or names
+     *
+     * @return a {@code Sample} holding the matching Kstats
+     */
+    public Sample getMget(final String module, final String instance,
+			  final String name) {
+	long hash = getKCID();
+	KstatMultiGet kmg = new KstatMultiGet(this, module, instance, name);
+	for (int i = 0; i < kmg.size(); i++) {
+	    hash = 31 * hash + kmg.getName(i).hashCode();
+	    for (Kstat ks : kmg.getKstats(i)) {
+		hash = 31 * (31 * hash + ks.hashCode()) + ks.getSnaptime();
+	    }
+	}
+	return new Sample(out -> kmg.writeJSON(out, this::toJSON), false,
+			  epoch + "m" + Long.toString(hash, 36),
+			  now());
+    }
+
+    /*
+     * Serialize a Kstat we handed out, reusing the cached JSON if we can.
+     */
+    private String toJSON(final Kstat ks) {
+	Sample s = samples.get(ks);
+	return ((s != null) && (s.kstat == ks)) ? s.json : ks.toJSON();
+    }
+
+    /**
+     * Return a list of the available kstats, without any data, as a
+     * serialized JSON String.
+     *
+     * @return a JSON listing of the available kstats
+     */
+    public String listJSON() {
+	return getList().getJSON();
+    }
+
+    /**
+     * Return a sample of the list of available kstats, without any data.
+     * The listing is compressed once per generation of the kstat chain,
+     * and its entity tag is derived from the chain id.
+     *
+     * @return a {@code Sample} holding the listing of available kstats
+     */
+    public Sample getList() {
+	KstatChain kc = getChain();
+	ListSample ls = listSample;
+	if ((ls == null) || (ls.chain != kc)) {
+	    /*
+	     * If the chain moves on while we build the listing, it'll be
+	     * newer than its tag says, which is harmless: a client holding
+	     * that tag will fetch the listing again.
+	     */
+	    KstatSet kss = new KstatSet(this);
+	    ls = new ListSample(kc, new Sample(kss::writeJSON, true,
+		epoch + "k" + kc.getKCID(), now()));
+	    listSample = ls;
+	}
+	return ls.sample;
+    }
+
+    /**
+     * Gets the kstat chain ID, sampled at most once per quantum.
+     *
+     * @return the id of the current kstat chain
+     */
+    @Override
+    public int getKCID() {
+	long now = now();
+	KcidSample ks = kcidSample;
+	if ((ks == null) || !fresh(ks.time, now)) {
+	    ks = new KcidSample(jkstat.getKCID(), now);
+	    kcidSample = ks;
+	}
+	return ks.kcid;
+    }
+
+    @Override
+    public int enumerate() {
+	KstatChain kc = jkstat.getChain();
+	kstats.addAll(kc.getKstats());
+	/*
+	 * Keep the sampled chain id in step with the chain, otherwise
+	 * we would enumerate again until the sample expired.
+	 */
+	kcidSample = new KcidSample(kc.getKCID(), now());
+	return kc.getKCID();
+    }
+
+    @Override
+    public long getTime() {
+	return jkstat.getTime();
+    }
+}
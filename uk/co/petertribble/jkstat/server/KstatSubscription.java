@@ -0,0 +1,248 @@
+/*
+ * SPDX-License-Identifier: CDDL-1.0
+ *
+ * CDDL HEADER START
+ *
+ * This file and its contents are supplied under the terms of the
+ * Common Development and Distribution License ("CDDL"), version 1.0.
+ * You may only use this file in accordance with the terms of version
+ * 1.0 of the CDDL.
+ *
+ * A full copy of the text of the CDDL should have accompanied this
+ * source. A copy of the CDDL is also available via the Internet at
+ * http://www.illumos.org/license/CDDL.
+ *
+ * CDDL HEADER END
+ *
+ * Copyright 2026 Peter Tribble
+ *
+ */
+
+
+package uk.co.petertribble.jkstat.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.co.petertribble.jkstat.api.Kstat;
+import uk.co.petertribble.jkstat.api.KstatFilter;
+import uk.co.petertribble.jkstat.api.KstatSchema;
+import uk.co.petertribble.jkstat.api.KstatUpdate;
+
+/**
+ * A subscription to a stream of updates to the kstats matched by a
+ * {@code KstatFilter}. Something calls {@link #tick} at regular
+ * intervals, which samples the matching kstats from a
+ * {@code KstatSampleCache}, and the subscriber calls {@link #next} to
+ * get a {@code KstatUpdate} holding whatever has changed since the
+ * previous update it got. The first update is a full one.
+ *
+ * <p>Only one tick is ever held waiting for the subscriber. If the
+ * subscriber is slow, and a tick is still waiting when the next arrives,
+ * the older tick is dropped. Changes are worked out against the update
+ * the subscriber last got, rather than the previous tick, so that nothing
+ * is lost when ticks are dropped, and a slow subscriber costs a bounded
+ * amount of memory however far behind it gets.
+ *
+ * @author Peter Tribble
+ */
+public final class KstatSubscription {
+
+    private final KstatSampleCache cache;
+    private final KstatFilter ksf;
+    private final long interval;
+    private final AtomicLong seq = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final BlockingQueue<Tick> pending = new ArrayBlockingQueue<>(1);
+
+    /*
+     * What the subscriber was last sent, only used by the subscriber.
+     */
+    private Map<Kstat, Kstat> sent;
+    private long sentSeq;
+
+    /*
+     * The kstats matched at one tick.
+     */
+    private static final class Tick {
+	private final long seq;
+	private final int kcid;
+	private final long time;
+	private final Map<Kstat, Kstat> kstats;
+
+	Tick(final long nseq, final int nkcid, final long ntime,
+	     final Map<Kstat, Kstat> nkstats) {
+	    seq = nseq;
+	    kcid = nkcid;
+	    time = ntime;
+	    kstats = nkstats;
+	}
+    }
+
+    /**
+     * Create a new subscription. The filters are interpreted as by
+     * {@link KstatFilter#addFilter}, and the exclusions as by
+     * {@link KstatFilter#addNegativeFilter}; if there are no filters, all
+     * kstats are matched. A kstat matched by statistic carries all its
+     * statistics, not just the statistic matched.
+     *
+     * @param ncache the {@code KstatSampleCache} to sample kstats from
+     * @param filters the filters selecting the kstats of interest
+     * @param excludes the filters selecting kstats to be excluded
+     * @param ninterval the interval between updates, in milliseconds
+     */
+    public KstatSubscription(final KstatSampleCache ncache,
+			     final Collection<String> filters,
+			     final Collection<String> excludes,
+			     final long ninterval) {
+	cache = ncache;
+	interval = ninterval;
+	ksf = new KstatFilter(cache);
+	for (String s : filters) {
+	    ksf.addFilter(s);
+	}
+	for (String s : excludes) {
+	    ksf.addNegativeFilter(s);
+	}
+    }
+
+    /**
+     * Return the interval between updates.
+     *
+     * @return the interval between updates, in milliseconds
+     */
+    public long getInterval() {
+	return interval;
+    }
+
+    /**
+     * Return the total number of ticks dropped because the subscriber
+     * wasn't keeping up.
+     *
+     * @return the number of ticks dropped
+     */
+    public long getDropped() {
+	return dropped.get();
+    }
+
+    /**
+     * Sample the kstats matched by this subscription, and hand them to
+     * the subscriber, displacing any earlier tick it hasn't yet taken.
+     * Ticks should not overlap.
+     */
+    public void tick() {
+	Tick t = new Tick(seq.incrementAndGet(), cache.getKCID(),
+			cache.getTime(), cache.getKstats(ksf.getKstats()));
+	while (!pending.offer(t)) {
+	    if (pending.poll() != null) {
+		dropped.incrementAndGet();
+	    }
+	}
+    }
+
+    /**
+     * Wait for the next tick, and return an update describing what has
+     * changed since the last update returned.
+     *
+     * @param timeout how long to wait, in milliseconds
+     *
+     * @return the next update, or null if there was no tick in time
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public KstatUpdate next(final long timeout) throws InterruptedException {
+	Tick t = pending.poll(timeout, TimeUnit.MILLISECONDS);
+	if (t == null) {
+	    return null;
+	}
+	long ndropped = t.seq - sentSeq - 1;
+	KstatUpdate ku;
+	if (sent == null) {
+	    ku = new KstatUpdate(t.seq, t.kcid, t.time, true, ndropped,
+				t.kstats.values(), new ArrayList<>(),
+				new ArrayList<>());
+	} else {
+	    List<Kstat> whole = new ArrayList<>();
+	    List<Kstat> changed = new ArrayList<>();
+	    List<Kstat> removed = new ArrayList<>();
+	    for (Kstat ks : t.kstats.values()) {
+		Kstat prev = sent.get(ks);
+		if (prev == null) {
+		    whole.add(ks);
+		} else if (prev != ks) {
+		    Kstat d = delta(prev, ks);
+		    if (d == ks) {
+			whole.add(ks);
+		    } else if (d != null) {
+			changed.add(d);
+		    }
+		}
+	    }
+	    for (Kstat ks : sent.keySet()) {
+		if (!t.kstats.containsKey(ks)) {
+		    removed.add(ks);
+		}
+	    }
+	    ku = new KstatUpdate(t.seq, t.kcid, t.time, false, ndropped,
+				whole, changed, removed);
+	}
+	/*
+	 * Key by the sampled kstats, which are equal to those in the chain,
+	 * so that lookups match whichever we're given.
+	 */
+	sent = new HashMap<>(2 * t.kstats.size());
+	for (Kstat ks : t.kstats.values()) {
+	    sent.put(ks, ks);
+	}
+	sentSeq = t.seq;
+	return ku;
+    }
+
+    /*
+     * Work out how a kstat has changed. Returns null if it hasn't, the
+     * current kstat if it needs to be sent whole, or a new Kstat holding
+     * the current metadata and only the statistics whose values differ.
+     */
+    static Kstat delta(final Kstat prev, final Kstat cur) {
+	KstatSchema schema = cur.getSchema();
+	if ((prev.getCrtime() != cur.getCrtime())
+		|| (prev.getSchema() != schema)) {
+	    return cur;
+	}
+	Kstat d = new Kstat(cur.getModule(), cur.getInst(), cur.getName());
+	d.setStandardInfo(cur.getKstatClass(), cur.getType(),
+			cur.getCrtime(), cur.getSnaptime());
+	boolean differs = prev.getSnaptime() != cur.getSnaptime();
+	int n = (schema == null) ? 0 : schema.size();
+	for (int slot = 0; slot < n; slot++) {
+	    boolean has = cur.hasStatistic(slot);
+	    if (has != prev.hasStatistic(slot)) {
+		return cur;
+	    }
+	    if (!has) {
+		continue;
+	    }
+	    if (cur.isNumeric(slot) && prev.isNumeric(slot)) {
+		long value = cur.longData(slot);
+		if (value != prev.longData(slot)) {
+		    d.addLongData(schema.getStatistic(slot),
+				cur.getDataType(slot), value);
+		    differs = true;
+		}
+	    } else if (!Objects.equals(cur.getData(slot),
+				       prev.getData(slot))) {
+		d.addDataObject(schema.getStatistic(slot),
+				cur.getDataType(slot), cur.getData(slot));
+		differs = true;
+	    }
+	}
+	return differs ? d : null;
+    }
+}
@@ -23,7 +23,9 @@
  *
  * <p>The JKstatServer is a standalone server that can also be embedded in
  * a servlet engine. It uses Apache XML-RPC for communication. Data is
- * serialized using JSON.
+ * serialized using JSON. The standalone server can also serve the REST
+ * protocol used by the jkrest web application, via the KRestServer,
+ * which also lets clients subscribe to a stream of kstat updates.
  *
  * <p>There is also an example JMX implementation. The standard JMX
  * console can be used, but you will need to add the jkstat jar file to
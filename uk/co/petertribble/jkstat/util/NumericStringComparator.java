@@ -100,6 +100,8 @@ public final class NumericStringComparator implements Comparator<String> {
 			}
 			++i;
 		    }
+		    // equal numbers, carry on from the character after them
+		    continue;
 		} else {
 		    return -1; // s2 non-numeric sequence is longer
 		}
@@ -115,4 +117,36 @@ public final class NumericStringComparator implements Comparator<String> {
 	}
 	return len1 - len2;
     }
+
+    /**
+     * Return a key for the given String, such that comparing the keys of
+     * two Strings with {@code String.compareTo()} orders them in the same
+     * way as this comparator. Each run of digits is replaced by a marker
+     * that sorts below any other character, followed by the length of the
+     * run and then the digits themselves. Keys can be computed once and
+     * then compared many times far more cheaply than the Strings.
+     *
+     * @param s The String to compute a key for
+     * @return the sort key for s
+     */
+    public static String sortKey(final String s) {
+	int len = s.length();
+	StringBuilder sb = new StringBuilder(len + 4);
+	int i = 0;
+	while (i < len) {
+	    char c = s.charAt(i);
+	    if (Character.isDigit(c)) {
+		int n = i + 1;
+		while ((n < len) && Character.isDigit(s.charAt(n))) {
+		    ++n;
+		}
+		sb.append('\0').append((char) (n - i)).append(s, i, n);
+		i = n;
+	    } else {
+		sb.append(c);
+		++i;
+	    }
+	}
+	return sb.toString();
+    }
 }